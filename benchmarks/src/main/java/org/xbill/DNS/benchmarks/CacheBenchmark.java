@@ -0,0 +1,62 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS.benchmarks;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.xbill.DNS.*;
+
+/**
+ * Measures looking up the names of the query corpus in a cache filled
+ * with the responses to them; about a tenth of the lookups are negative.
+ * Run with -t to measure several threads sharing the cache.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+private static final int HOSTS = 10000;
+private static final int QUERIES = 4096;
+
+@Param({"false", "true"})
+public boolean concurrent;
+
+private Cache cache;
+private Name [] names;
+private int [] types;
+
+@State(Scope.Thread)
+public static class Cursor {
+	int next;
+}
+
+@Setup
+public void
+setup() throws Exception {
+	Zone zone = Fixtures.zone(HOSTS, false);
+	Message [] queries = Fixtures.queries(HOSTS, QUERIES);
+	cache = new Cache(DClass.IN, concurrent);
+	names = new Name[queries.length];
+	types = new int[queries.length];
+	for (int i = 0; i < queries.length; i++) {
+		/* Parse the responses, as a resolver would. */
+		Message response = Fixtures.respond(zone, queries[i]);
+		cache.addMessage(new Message(response.toWire()));
+		names[i] = queries[i].getQuestion().getName();
+		types[i] = queries[i].getQuestion().getType();
+	}
+}
+
+@Benchmark
+public SetResponse
+lookupRecords(Cursor cursor) {
+	int i = cursor.next;
+	cursor.next = (i + 1 == names.length) ? 0 : i + 1;
+	return cache.lookupRecords(names[i], types[i], Credibility.NORMAL);
+}
+
+}
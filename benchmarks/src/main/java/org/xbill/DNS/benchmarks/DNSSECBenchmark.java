@@ -0,0 +1,77 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.xbill.DNS.*;
+
+/**
+ * Measures verifying the signatures of a signed zone, and computing the
+ * data that is signed.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DNSSECBenchmark {
+
+private static final int HOSTS = 1000;
+
+private RRset [] rrsets;
+private RRSIGRecord [] sigs;
+private DNSKEYRecord [] keys;
+private int next;
+
+@Setup
+public void
+setup() throws Exception {
+	Fixtures.SignedZone signed = Fixtures.signedZone(HOSTS);
+	List rrsetList = new ArrayList();
+	List sigList = new ArrayList();
+	List keyList = new ArrayList();
+	Iterator it = signed.zone.AXFR();
+	while (it.hasNext()) {
+		RRset rrset = (RRset) it.next();
+		Iterator sit = rrset.sigs();
+		while (sit.hasNext()) {
+			RRSIGRecord sig = (RRSIGRecord) sit.next();
+			rrsetList.add(rrset);
+			sigList.add(sig);
+			if (sig.getFootprint() == signed.ksk.getFootprint())
+				keyList.add(signed.ksk);
+			else
+				keyList.add(signed.zsk);
+		}
+	}
+	rrsets = (RRset []) rrsetList.toArray(new RRset[rrsetList.size()]);
+	sigs = (RRSIGRecord []) sigList.toArray(new RRSIGRecord[sigList.size()]);
+	keys = (DNSKEYRecord []) keyList.toArray(new DNSKEYRecord[keyList.size()]);
+}
+
+private int
+next() {
+	if (++next == rrsets.length)
+		next = 0;
+	return next;
+}
+
+@Benchmark
+public int
+verify() throws DNSSEC.DNSSECException {
+	int i = next();
+	DNSSEC.verify(rrsets[i], sigs[i], keys[i]);
+	return i;
+}
+
+@Benchmark
+public byte []
+digestRRset() {
+	int i = next();
+	return DNSSEC.digestRRset(sigs[i], rrsets[i]);
+}
+
+}
@@ -0,0 +1,221 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS.benchmarks;
+
+import java.io.*;
+import java.security.*;
+import java.security.spec.*;
+import java.util.*;
+import org.xbill.DNS.*;
+
+/**
+ * The data used by the benchmarks: a zone in master file format, the same
+ * zone signed with ECDSA keys, and a corpus of queries for names in the
+ * zone (and some that are not), with the responses a server would give.
+ * Everything is generated from a fixed seed, so every run and every
+ * commit measures the same data.
+ */
+
+public final class Fixtures {
+
+public static final Name ORIGIN = Name.fromConstantString("example.com.");
+
+private static final long SEED = 20261015L;
+
+private
+Fixtures() {
+}
+
+/**
+ * Returns a zone of about 3 records per host in master file format.
+ * Hosts are spread over 16 departments; some have AAAA, TXT or CNAME
+ * records, and every 50th host is a delegation with glue.
+ */
+public static String
+zoneText(int hosts) {
+	StringBuffer sb = new StringBuffer();
+	sb.append("$ORIGIN example.com.\n$TTL 3600\n");
+	sb.append("@ SOA ns1 hostmaster 2026101501 3600 600 86400 300\n");
+	sb.append("@ NS ns1\n@ NS ns2\n@ MX 10 mail\n");
+	sb.append("ns1 A 10.0.0.1\nns2 A 10.0.0.2\nmail A 10.0.0.3\n");
+	for (int i = 0; i < hosts; i++) {
+		String host = "host" + i + ".dept" + (i % 16);
+		String addr = (i >> 16) + "." + ((i >> 8) & 0xFF) + "." +
+			      (i & 0xFF);
+		if (i % 50 == 49) {
+			sb.append("sub" + i + " NS ns.sub" + i + "\n");
+			sb.append("ns.sub" + i + " A 10." + addr + "\n");
+			continue;
+		}
+		sb.append(host + " A 10." + addr + "\n");
+		if (i % 4 == 0)
+			sb.append(host + " AAAA 2001:db8::" +
+				  Integer.toHexString(i >> 16) + ":" +
+				  Integer.toHexString(i & 0xFFFF) + "\n");
+		if (i % 8 == 0)
+			sb.append(host + " TXT \"v=spf1 ip4:10." + addr +
+				  " -all\"\n");
+		if (i % 10 == 0)
+			sb.append("alias" + i + " CNAME " + host + "\n");
+	}
+	return sb.toString();
+}
+
+/** Returns the names of the hosts in the zone, in a random order. */
+public static Name []
+hostNames(int hosts) throws TextParseException {
+	Name [] names = new Name[hosts];
+	for (int i = 0; i < hosts; i++)
+		names[i] = Name.fromString("host" + i + ".dept" + (i % 16),
+					   ORIGIN);
+	Collections.shuffle(Arrays.asList(names), new Random(SEED));
+	return names;
+}
+
+/** Parses master file text into records. */
+public static Record []
+parse(String text) throws IOException {
+	Master master = new Master(new ByteArrayInputStream(
+					text.getBytes("ISO-8859-1")), ORIGIN);
+	List records = new ArrayList();
+	Record r;
+	while ((r = master.nextRecord()) != null)
+		records.add(r);
+	return (Record []) records.toArray(new Record[records.size()]);
+}
+
+/** Returns the zone with the given number of hosts. */
+public static Zone
+zone(int hosts, boolean compact) throws IOException {
+	return new Zone(ORIGIN, parse(zoneText(hosts)), compact);
+}
+
+/** A zone signed with a KSK and a ZSK, and the keys. */
+public static class SignedZone {
+	public final Zone zone;
+	public final DNSKEYRecord ksk;
+	public final DNSKEYRecord zsk;
+
+	SignedZone(Zone zone, DNSKEYRecord ksk, DNSKEYRecord zsk) {
+		this.zone = zone;
+		this.ksk = ksk;
+		this.zsk = zsk;
+	}
+}
+
+private static DNSKEYRecord
+key(int flags, KeyPair pair) throws DNSSEC.DNSSECException {
+	return new DNSKEYRecord(ORIGIN, DClass.IN, 3600, flags,
+				DNSKEYRecord.Protocol.DNSSEC,
+				DNSSEC.Algorithm.ECDSAP256SHA256,
+				pair.getPublic());
+}
+
+/** Returns the zone with the given number of hosts, signed with NSEC. */
+public static SignedZone
+signedZone(int hosts) throws Exception {
+	KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+	generator.initialize(new ECGenParameterSpec("secp256r1"),
+			     new SecureRandom());
+	KeyPair kskPair = generator.generateKeyPair();
+	KeyPair zskPair = generator.generateKeyPair();
+	DNSKEYRecord ksk = key(DNSKEYRecord.Flags.ZONE_KEY |
+			       DNSKEYRecord.Flags.SEP_KEY, kskPair);
+	DNSKEYRecord zsk = key(DNSKEYRecord.Flags.ZONE_KEY, zskPair);
+
+	Zone zone = zone(hosts, false);
+	zone.addRecord(ksk);
+	zone.addRecord(zsk);
+	ZoneSigner signer = new ZoneSigner(new DNSKEYRecord [] {ksk, zsk},
+					   new PrivateKey [] {
+						kskPair.getPrivate(),
+						zskPair.getPrivate()},
+					   null);
+	signer.setNSEC(true);
+	signer.sign(zone);
+	return new SignedZone(zone, ksk, zsk);
+}
+
+/**
+ * Returns queries for names in a zone of the given number of hosts: A
+ * and AAAA queries for hosts, CNAMEs, names below delegations and
+ * nonexistent names.
+ */
+public static Message []
+queries(int hosts, int count) throws IOException {
+	Random random = new Random(SEED);
+	Message [] queries = new Message[count];
+	for (int i = 0; i < count; i++) {
+		int host = random.nextInt(hosts);
+		int kind = random.nextInt(20);
+		String name;
+		int type = Type.A;
+		if (kind < 2) {
+			name = "nonexistent" + host;
+		} else if (kind < 3) {
+			name = "alias" + (host - host % 10);
+		} else if (kind < 4) {
+			name = "www.sub" + (host - host % 50 + 49);
+		} else {
+			if (host % 50 == 49)
+				host--;
+			name = "host" + host + ".dept" + (host % 16);
+			if (kind < 6)
+				type = Type.AAAA;
+		}
+		Name qname = Name.fromString(name, ORIGIN);
+		Message query = Message.newQuery(Record.newRecord(qname, type,
+								  DClass.IN));
+		query.getHeader().setID(random.nextInt(0x10000));
+		queries[i] = query;
+	}
+	return queries;
+}
+
+private static void
+addRRsets(Message response, RRset [] rrsets, int section) {
+	for (int i = 0; i < rrsets.length; i++) {
+		Iterator it = rrsets[i].rrs();
+		while (it.hasNext())
+			response.addRecord((Record) it.next(), section);
+	}
+}
+
+/** Answers a query from a zone, as an authoritative server would. */
+public static Message
+respond(Zone zone, Message query) {
+	Record question = query.getQuestion();
+	Message response = new Message(query.getHeader().getID());
+	response.getHeader().setFlag(Flags.QR);
+	response.addRecord(question, Section.QUESTION);
+	SetResponse sr = zone.findRecords(question.getName(),
+					  question.getType());
+	if (sr.isSuccessful()) {
+		response.getHeader().setFlag(Flags.AA);
+		addRRsets(response, sr.answers(), Section.ANSWER);
+		addRRsets(response, new RRset [] {zone.getNS()},
+			  Section.AUTHORITY);
+	} else if (sr.isCNAME()) {
+		response.getHeader().setFlag(Flags.AA);
+		response.addRecord(sr.getCNAME(), Section.ANSWER);
+	} else if (sr.isDelegation()) {
+		addRRsets(response, new RRset [] {sr.getNS()},
+			  Section.AUTHORITY);
+	} else {
+		response.getHeader().setFlag(Flags.AA);
+		if (sr.isNXDOMAIN())
+			response.getHeader().setRcode(Rcode.NXDOMAIN);
+		response.addRecord(zone.getSOA(), Section.AUTHORITY);
+	}
+	return response;
+}
+
+/** Renders messages to wire format. */
+public static byte [][]
+toWire(Message [] messages) {
+	byte [][] wire = new byte[messages.length][];
+	for (int i = 0; i < messages.length; i++)
+		wire[i] = messages[i].toWire(Message.MAXLENGTH);
+	return wire;
+}
+
+}
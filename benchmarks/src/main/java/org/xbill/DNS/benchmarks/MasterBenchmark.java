@@ -0,0 +1,67 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS.benchmarks;
+
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.xbill.DNS.*;
+
+/**
+ * Measures parsing the benchmark zone from master file format, with Master
+ * and with ParallelMaster, and loading it from a snapshot instead.  Files
+ * smaller than about a megabyte are parsed as one chunk by ParallelMaster,
+ * so only the larger zone is split.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MasterBenchmark {
+
+@Param({"10000", "100000"})
+public int hosts;
+
+private byte [] text;
+private ByteBuffer snapshot;
+
+@Setup
+public void
+setup() throws Exception {
+	text = Fixtures.zoneText(hosts).getBytes("ISO-8859-1");
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	Fixtures.zone(hosts, true).writeSnapshot(out);
+	snapshot = ByteBuffer.allocateDirect(out.size());
+	snapshot.put(out.toByteArray());
+	snapshot.flip();
+}
+
+@Benchmark
+public int
+nextRecord() throws IOException {
+	Master master = new Master(new ByteArrayInputStream(text),
+				   Fixtures.ORIGIN);
+	int count = 0;
+	while (master.nextRecord() != null)
+		count++;
+	return count;
+}
+
+@Benchmark
+public int
+parallel() throws IOException {
+	ParallelMaster master = new ParallelMaster(ByteBuffer.wrap(text),
+						   Fixtures.ORIGIN, -1, null);
+	return master.records().size();
+}
+
+@Benchmark
+public Zone
+snapshot() throws IOException {
+	return new Zone(snapshot.duplicate());
+}
+
+}
@@ -0,0 +1,113 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.xbill.DNS.*;
+
+/**
+ * Measures parsing and rendering the responses of the query corpus, and
+ * rendering a zone transfer message of about 400 records.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+
+private static final int HOSTS = 10000;
+private static final int QUERIES = 4096;
+
+private Message [] responses;
+private byte [][] wire;
+private byte [][] queryWire;
+private Message axfr;
+private DNSOutput out;
+private MessageScanner scanner;
+private MessageScanner.Visitor visitor;
+private int records;
+private int next;
+
+@Setup
+public void
+setup() throws Exception {
+	Zone zone = Fixtures.zone(HOSTS, false);
+	Message [] queries = Fixtures.queries(HOSTS, QUERIES);
+	responses = new Message[queries.length];
+	for (int i = 0; i < queries.length; i++)
+		responses[i] = Fixtures.respond(zone, queries[i]);
+	wire = Fixtures.toWire(responses);
+	queryWire = Fixtures.toWire(queries);
+
+	axfr = new Message();
+	axfr.getHeader().setFlag(Flags.QR);
+	Iterator it = zone.AXFR();
+	while (it.hasNext() && axfr.getHeader().getCount(Section.ANSWER) < 400) {
+		Iterator rit = ((RRset) it.next()).rrs(false);
+		while (rit.hasNext())
+			axfr.addRecord((Record) rit.next(), Section.ANSWER);
+	}
+
+	out = new DNSOutput();
+	scanner = new MessageScanner();
+	visitor = new MessageScanner.Visitor() {
+		public boolean header(MessageScanner s) {
+			return true;
+		}
+
+		public boolean record(MessageScanner s) {
+			records += s.getType();
+			return true;
+		}
+	};
+}
+
+private int
+next() {
+	if (++next == wire.length)
+		next = 0;
+	return next;
+}
+
+@Benchmark
+public Message
+parseResponse() throws Exception {
+	return new Message(wire[next()]);
+}
+
+@Benchmark
+public Record
+parseQueryLazy() throws Exception {
+	return new Message(queryWire[next()], true).getQuestion();
+}
+
+@Benchmark
+public int
+scanResponse() throws Exception {
+	scanner.scan(wire[next()], visitor);
+	return records;
+}
+
+@Benchmark
+public byte []
+renderResponse() {
+	return responses[next()].toWire(512);
+}
+
+@Benchmark
+public int
+renderResponseReused() {
+	return responses[next()].toWire(out, 512);
+}
+
+@Benchmark
+public byte []
+renderAXFR() {
+	return axfr.toWire(Message.MAXLENGTH);
+}
+
+}
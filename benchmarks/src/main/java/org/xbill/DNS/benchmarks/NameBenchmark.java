@@ -0,0 +1,88 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.xbill.DNS.*;
+
+/**
+ * Measures comparing, hashing, sorting and parsing names, using the names
+ * of the hosts in the benchmark zone.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameBenchmark {
+
+@Param({"10000", "1000000"})
+public int hosts;
+
+private Name [] names;
+private Name [] copies;
+private String [] strings;
+private byte [][] wire;
+private int next;
+
+@Setup
+public void
+setup() throws Exception {
+	names = Fixtures.hostNames(hosts);
+	copies = new Name[names.length];
+	strings = new String[names.length];
+	wire = new byte[names.length][];
+	for (int i = 0; i < names.length; i++) {
+		strings[i] = names[i].toString();
+		copies[i] = Name.fromString(strings[i].toUpperCase());
+		wire[i] = names[i].toWire();
+	}
+}
+
+private int
+next() {
+	if (++next == names.length)
+		next = 0;
+	return next;
+}
+
+@Benchmark
+public int
+compareTo() {
+	int i = next();
+	return names[i].compareTo(names[(i + 1) % names.length]);
+}
+
+@Benchmark
+public boolean
+equals() {
+	int i = next();
+	return names[i].equals(copies[i]);
+}
+
+@Benchmark
+public int
+hashCodeNew() throws Exception {
+	return new Name(wire[next()]).hashCode();
+}
+
+@Benchmark
+public Name
+fromString() throws Exception {
+	return Name.fromString(strings[next()]);
+}
+
+@Benchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public Name []
+sort() {
+	Name [] sorted = (Name []) names.clone();
+	Arrays.sort(sorted);
+	return sorted;
+}
+
+}
@@ -0,0 +1,59 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS.benchmarks;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.xbill.DNS.*;
+
+/**
+ * Measures looking up the names of the query corpus in a zone, stored
+ * normally and compactly.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZoneBenchmark {
+
+private static final int QUERIES = 4096;
+
+@Param({"10000", "100000"})
+public int hosts;
+
+@Param({"false", "true"})
+public boolean compact;
+
+private Zone zone;
+private Name [] names;
+private int [] types;
+
+@State(Scope.Thread)
+public static class Cursor {
+	int next;
+}
+
+@Setup
+public void
+setup() throws Exception {
+	zone = Fixtures.zone(hosts, compact);
+	Message [] queries = Fixtures.queries(hosts, QUERIES);
+	names = new Name[queries.length];
+	types = new int[queries.length];
+	for (int i = 0; i < queries.length; i++) {
+		names[i] = queries[i].getQuestion().getName();
+		types[i] = queries[i].getQuestion().getType();
+	}
+}
+
+@Benchmark
+public SetResponse
+findRecords(Cursor cursor) {
+	int i = cursor.next;
+	cursor.next = (i + 1 == names.length) ? 0 : i + 1;
+	return zone.findRecords(names[i], types[i]);
+}
+
+}
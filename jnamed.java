@@ -2,25 +2,204 @@
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.xbill.DNS.*;
 
 /** @author Brian Wellington &lt;bwelling@xbill.org&gt; */
 
-public class jnamed {
+public class jnamed implements RequestHandler {
 
 static final int FLAG_DNSSECOK = 1;
 static final int FLAG_SIGONLY = 2;
 
+static final int MAX_ANSWERS = 10000;
+
+static final long DEFAULT_JOURNAL_SIZE = 10 * 1024 * 1024;
+
 Map caches;
 Map znames;
 Map TSIGs;
+NioServer server;
+
+/*
+ * Whether to leave out the NS records and additional data that are not
+ * needed to answer a query, which keeps responses small.
+ */
+boolean minimalResponses;
+
+/*
+ * The directory holding snapshots of the primary zones, which are loaded
+ * instead of the master files when they are newer, or null.
+ */
+File snapshotDirectory;
+
+/*
+ * The directory holding the journals of changes to the zones, from which
+ * IXFR requests are answered, or null.
+ */
+File journalDirectory;
+
+/*
+ * The maximum size of each journal, beyond which its oldest changes are
+ * removed.
+ */
+long journalSize = DEFAULT_JOURNAL_SIZE;
+
+/* The journal of each zone that has one. */
+Map journals = new HashMap();
+
+/* Refreshes the secondary zones from their primaries, or null. */
+ScheduledExecutorService refresher;
+
+/*
+ * Rendered responses to recent queries.  A response is reused for queries
+ * with the same name, type, class, DO bit, EDNS version (or lack of EDNS)
+ * and maximum length, until the zone it came from changes serial or the
+ * cached data it came from expires.
+ */
+Map answers = new ConcurrentHashMap();
+
+/*
+ * The input each thread parses requests from.  The server reuses its
+ * request buffers, so resetting the input to the next request usually
+ * allocates nothing.
+ */
+ThreadLocal inputs = new ThreadLocal();
+
+static class AnswerKey {
+	Name name;
+	int type;
+	int dclass;
+	int flags;
+	/* The EDNS version of the query, or -1 if it has no OPT record. */
+	int edns;
+	int maxLength;
+
+	AnswerKey(Name name, int type, int dclass, int flags, int edns,
+		  int maxLength)
+	{
+		this.name = name;
+		this.type = type;
+		this.dclass = dclass;
+		this.flags = flags;
+		this.edns = edns;
+		this.maxLength = maxLength;
+	}
+
+	public boolean
+	equals(Object o) {
+		if (!(o instanceof AnswerKey))
+			return false;
+		AnswerKey key = (AnswerKey) o;
+		return (type == key.type && dclass == key.dclass &&
+			flags == key.flags && edns == key.edns &&
+			maxLength == key.maxLength && name.equals(key.name));
+	}
+
+	public int
+	hashCode() {
+		return name.hashCode() + 31 * (type + 31 * (dclass + 31 *
+				(flags + 31 * (edns + 31 * maxLength))));
+	}
+}
+
+static class Answer {
+	byte [] wire;
+	Zone zone;
+	long serial;
+	long expire;
+}
 
 private static String
 addrport(InetAddress addr, int port) {
 	return addr.getHostAddress() + "#" + port;
 }
 
+/*
+ * Returns the length of the question name in a query, if it is stored
+ * uncompressed at the start of the question section, or -1.
+ */
+private static int
+questionNameLength(byte [] in, int length) {
+	int pos = Header.LENGTH;
+	while (pos < length) {
+		int len = in[pos] & 0xFF;
+		if (len == 0)
+			return pos + 1 - Header.LENGTH;
+		if (len > 63)
+			return -1;
+		pos += len + 1;
+	}
+	return -1;
+}
+
+/*
+ * Returns a copy of a cached response with the query's ID, RD flag and
+ * question name (whose case may differ), or null.
+ */
+byte []
+cachedReply(AnswerKey key, byte [] in, int nameLength) {
+	Answer answer = (Answer) answers.get(key);
+	if (answer == null)
+		return null;
+	if (answer.zone != null) {
+		if (findBestZone(key.name) != answer.zone ||
+		    answer.zone.getSOA().getSerial() != answer.serial)
+		{
+			answers.remove(key);
+			return null;
+		}
+	} else if (System.currentTimeMillis() / 1000 >= answer.expire) {
+		answers.remove(key);
+		return null;
+	}
+	byte [] reply = (byte []) answer.wire.clone();
+	reply[0] = in[0];
+	reply[1] = in[1];
+	reply[2] = (byte) ((reply[2] & ~0x01) | (in[2] & 0x01));
+	System.arraycopy(in, Header.LENGTH, reply, Header.LENGTH, nameLength);
+	return reply;
+}
+
+/*
+ * Saves a response for reuse.  Responses from the cache are only saved
+ * if they contain a successful answer, and are kept until the answer
+ * expires.
+ */
+void
+cacheReply(AnswerKey key, byte [] reply) {
+	Answer answer = new Answer();
+	answer.wire = reply;
+	answer.zone = findBestZone(key.name);
+	if (answer.zone != null)
+		answer.serial = answer.zone.getSOA().getSerial();
+	else {
+		Cache cache = getCache(key.dclass);
+		SetResponse sr = cache.lookupRecords(key.name, key.type,
+						     Credibility.NORMAL);
+		if (!sr.isSuccessful())
+			return;
+		RRset [] rrsets = sr.answers();
+		answer.expire = Long.MAX_VALUE;
+		for (int i = 0; i < rrsets.length; i++) {
+			long expire = Cache.getExpiration(rrsets[i]);
+			if (expire < 0)
+				return;
+			answer.expire = Math.min(answer.expire, expire);
+		}
+	}
+	if (answers.size() >= MAX_ANSWERS) {
+		Iterator it = answers.keySet().iterator();
+		for (int i = 0; i < MAX_ANSWERS / 10 && it.hasNext(); i++) {
+			it.next();
+			it.remove();
+		}
+	}
+	answers.put(key, answer);
+}
+
 public
 jnamed(String conffile) throws IOException, ZoneTransferException {
 	FileInputStream fs;
@@ -42,6 +221,7 @@ jnamed(String conffile) throws IOException, ZoneTransferException {
 		caches = new HashMap();
 		znames = new HashMap();
 		TSIGs = new HashMap();
+		server = new NioServer(this);
 
 		String line = null;
 		while ((line = br.readLine()) != null) {
@@ -75,6 +255,14 @@ jnamed(String conffile) throws IOException, ZoneTransferException {
 			} else if (keyword.equals("address")) {
 				String addr = st.nextToken();
 				addresses.add(Address.getByAddress(addr));
+			} else if (keyword.equals("snapshots")) {
+				snapshotDirectory = new File(st.nextToken());
+			} else if (keyword.equals("journals")) {
+				journalDirectory = new File(st.nextToken());
+			} else if (keyword.equals("journal-size")) {
+				journalSize = Long.parseLong(st.nextToken());
+			} else if (keyword.equals("minimal-responses")) {
+				minimalResponses = st.nextToken().equals("yes");
 			} else {
 				System.out.println("unknown keyword: " +
 						   keyword);
@@ -112,8 +300,102 @@ addPrimaryZone(String zname, String zonefile) throws IOException {
 	Name origin = null;
 	if (zname != null)
 		origin = Name.fromString(zname, Name.root);
-	Zone newzone = new Zone(origin, zonefile);
+	Zone newzone = null;
+	Zone oldzone = null;
+	File snapshot = null;
+	if (snapshotDirectory != null && origin != null) {
+		snapshot = new File(snapshotDirectory, origin + "snapshot");
+		if (snapshot.lastModified() > new File(zonefile).lastModified())
+			newzone = loadSnapshot(snapshot);
+		else if (journalDirectory != null && snapshot.exists())
+			oldzone = loadSnapshot(snapshot);
+	}
+	if (newzone == null) {
+		newzone = new Zone(origin, zonefile, false, null);
+		if (snapshot != null)
+			writeSnapshot(newzone, snapshot);
+	}
 	znames.put(newzone.getOrigin(), newzone);
+
+	/*
+	 * The snapshot of the previous version of the zone, if there is one,
+	 * is compared with the new version to add to the journal.
+	 */
+	ZoneJournal journal = openJournal(newzone.getOrigin());
+	if (journal != null && oldzone != null &&
+	    Serial.compare(newzone.getSOA().getSerial(),
+			   oldzone.getSOA().getSerial()) > 0)
+	{
+		try {
+			journal.append(newzone.differences(oldzone));
+		}
+		catch (IOException e) {
+			System.out.println(origin + ": journal: " +
+					   e.getMessage());
+		}
+	}
+}
+
+/* Opens the journal of a zone, or returns null if it has none. */
+ZoneJournal
+openJournal(Name origin) {
+	if (journalDirectory == null)
+		return null;
+	File file = new File(journalDirectory, origin + "jnl");
+	try {
+		ZoneJournal journal = new ZoneJournal(file);
+		journal.setMaxSize(journalSize);
+		journals.put(origin, journal);
+		return journal;
+	}
+	catch (IOException e) {
+		System.out.println(file + ": " + e.getMessage());
+		return null;
+	}
+}
+
+/* Loads a zone from a snapshot, or returns null if it cannot be read. */
+Zone
+loadSnapshot(File file) {
+	try {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new Zone(channel.map(FileChannel.MapMode.READ_ONLY,
+						    0, channel.size()));
+		}
+		finally {
+			raf.close();
+		}
+	}
+	catch (IOException e) {
+		System.out.println(file + ": " + e.getMessage());
+		return null;
+	}
+}
+
+/*
+ * Writes a snapshot of a zone.  It is written to a temporary file first,
+ * so that a snapshot being loaded is never incomplete.
+ */
+void
+writeSnapshot(Zone zone, File file) {
+	File tmp = new File(file.getPath() + ".tmp");
+	try {
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			zone.writeSnapshot(out);
+		}
+		finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file))
+			throw new IOException("cannot rename " + tmp);
+	}
+	catch (IOException e) {
+		System.out.println(file + ": " + e.getMessage());
+		tmp.delete();
+	}
 }
 
 public void
@@ -123,6 +405,40 @@ throws IOException, ZoneTransferException
 	Name zname = Name.fromString(zone, Name.root);
 	Zone newzone = new Zone(zname, DClass.IN, remote);
 	znames.put(zname, newzone);
+	scheduleRefresh(newzone, new InetSocketAddress(remote, 53),
+			openJournal(zname), newzone.getSOA().getRefresh());
+}
+
+/*
+ * Schedules a refresh of a secondary zone, which applies the changes since
+ * its serial and adds them to its journal.  It is refreshed again after
+ * the SOA refresh interval, or after the retry interval if the refresh
+ * failed.
+ */
+void
+scheduleRefresh(final Zone zone, final SocketAddress primary,
+		final ZoneJournal journal, long delay)
+{
+	if (refresher == null)
+		refresher = Executors.newSingleThreadScheduledExecutor();
+	refresher.schedule(new Runnable() {
+		public void run() {
+			long next;
+			try {
+				if (zone.refresh(primary, null, journal))
+					System.out.println("jnamed: " +
+							   zone.getOrigin() +
+							   " updated to serial " +
+							   zone.getSOA().getSerial());
+				next = zone.getSOA().getRefresh();
+			}
+			catch (Exception e) {
+				System.out.println(zone.getOrigin() + ": " + e);
+				next = zone.getSOA().getRetry();
+			}
+			scheduleRefresh(zone, primary, journal, next);
+		}
+	}, Math.max(delay, 1), TimeUnit.SECONDS);
 }
 
 public void
@@ -247,7 +563,8 @@ addAdditional2(Message response, int section, int flags) {
 
 private final void
 addAdditional(Message response, int flags) {
-	addAdditional2(response, Section.ANSWER, flags);
+	if (!minimalResponses)
+		addAdditional2(response, Section.ANSWER, flags);
 	addAdditional2(response, Section.AUTHORITY, flags);
 }
 
@@ -331,60 +648,83 @@ addAnswer(Message response, Name name, int type, int dclass,
 			addRRset(name, response, rrsets[i],
 				 Section.ANSWER, flags);
 		if (zone != null) {
-			addNS(response, zone, flags);
+			if (!minimalResponses)
+				addNS(response, zone, flags);
 			if (iterations == 0)
 				response.getHeader().setFlag(Flags.AA);
 		}
-		else
+		else if (!minimalResponses)
 			addCacheNS(response, getCache(dclass), name);
 	}
 	return rcode;
 }
 
+/*
+ * Finds the deltas that bring a client up to date for an IXFR, or returns
+ * null if the journal does not have them, in which case the whole zone is
+ * sent instead.
+ */
+List
+ixfrDeltas(Zone zone, SOARecord soa, Message query) {
+	Record [] auth = query.getSectionArray(Section.AUTHORITY);
+	if (auth.length == 0 || !(auth[0] instanceof SOARecord))
+		return null;
+	long serial = ((SOARecord) auth[0]).getSerial();
+	if (Serial.compare(serial, soa.getSerial()) >= 0)
+		return Collections.EMPTY_LIST;
+	ZoneJournal journal = (ZoneJournal) journals.get(zone.getOrigin());
+	if (journal == null)
+		return null;
+	try {
+		return journal.getDeltas(serial, soa.getSerial());
+	}
+	catch (IOException e) {
+		System.out.println(zone.getOrigin() + ": journal: " +
+				   e.getMessage());
+		return null;
+	}
+}
+
+/*
+ * Sends a zone transfer, which is written directly to the connection.  An
+ * IXFR is answered from the zone's journal if possible.
+ */
 byte []
-doAXFR(Name name, Message query, TSIG tsig, TSIGRecord qtsig, Socket s) {
+doXFR(Name name, Message query, TSIG tsig, Socket s) {
 	Zone zone = (Zone) znames.get(name);
-	boolean first = true;
 	if (zone == null)
 		return errorMessage(query, Rcode.REFUSED);
-	Iterator it = zone.AXFR();
-	try {
-		DataOutputStream dataOut;
-		dataOut = new DataOutputStream(s.getOutputStream());
-		int id = query.getHeader().getID();
-		while (it.hasNext()) {
-			RRset rrset = (RRset) it.next();
-			Message response = new Message(id);
-			Header header = response.getHeader();
-			header.setFlag(Flags.QR);
-			header.setFlag(Flags.AA);
-			addRRset(rrset.getName(), response, rrset,
-				 Section.ANSWER, FLAG_DNSSECOK);
-			if (tsig != null) {
-				tsig.applyStream(response, qtsig, first);
-				qtsig = response.getTSIG();
-			}
-			first = false;
-			byte [] out = response.toWire();
-			dataOut.writeShort(out.length);
-			dataOut.write(out);
-		}
-	}
-	catch (IOException ex) {
-		System.out.println("AXFR failed");
-	}
 	try {
-		s.close();
+		WritableByteChannel channel = s.getChannel();
+		if (channel == null)
+			channel = Channels.newChannel(s.getOutputStream());
+		ZoneTransferOut xfrout = new ZoneTransferOut(query, tsig,
+							     channel);
+		List deltas = null;
+		SOARecord soa = zone.getSOA();
+		if (query.getQuestion().getType() == Type.IXFR)
+			deltas = ixfrDeltas(zone, soa, query);
+		if (deltas != null)
+			xfrout.sendIXFR(soa, deltas);
+		else
+			xfrout.sendAXFR(zone);
 	}
 	catch (IOException ex) {
+		System.out.println(name + ": transfer failed: " +
+				   ex.getMessage());
+		try {
+			s.close();
+		}
+		catch (IOException e) {
+		}
 	}
 	return null;
 }
 
 /*
  * Note: a null return value means that the caller doesn't need to do
- * anything.  Currently this only happens if this is an AXFR request over
- * TCP.
+ * anything.  Currently this only happens if this is an AXFR or IXFR request
+ * over TCP.
  */
 byte []
 generateReply(Message query, byte [] in, int length, Socket s)
@@ -428,6 +768,21 @@ throws IOException
 	if (queryOPT != null && (queryOPT.getFlags() & ExtendedFlags.DO) != 0)
 		flags = FLAG_DNSSECOK;
 
+	AnswerKey key = null;
+	int nameLength = questionNameLength(in, length);
+	int qtype = queryRecord.getType();
+	if (tsig == null && nameLength > 0 &&
+	    qtype != Type.AXFR && qtype != Type.IXFR)
+	{
+		int edns = (queryOPT != null) ? queryOPT.getVersion() : -1;
+		key = new AnswerKey(queryRecord.getName(), qtype,
+				    queryRecord.getDClass(), flags, edns,
+				    maxLength);
+		byte [] reply = cachedReply(key, in, nameLength);
+		if (reply != null)
+			return reply;
+	}
+
 	Message response = new Message(query.getHeader().getID());
 	response.getHeader().setFlag(Flags.QR);
 	if (query.getHeader().getFlag(Flags.RD))
@@ -437,8 +792,8 @@ throws IOException
 	Name name = queryRecord.getName();
 	int type = queryRecord.getType();
 	int dclass = queryRecord.getDClass();
-	if (type == Type.AXFR && s != null)
-		return doAXFR(name, query, tsig, queryTSIG, s);
+	if ((type == Type.AXFR || type == Type.IXFR) && s != null)
+		return doXFR(name, query, tsig, s);
 	if (!Type.isRR(type) && type != Type.ANY)
 		return errorMessage(query, Rcode.NOTIMP);
 
@@ -456,7 +811,10 @@ throws IOException
 	}
 
 	response.setTSIG(tsig, Rcode.NOERROR, queryTSIG);
-	return response.toWire(maxLength);
+	byte [] reply = response.toWire(maxLength);
+	if (key != null)
+		cacheReply(key, reply);
+	return reply;
 }
 
 byte []
@@ -489,130 +847,35 @@ errorMessage(Message query, int rcode) {
 				 query.getQuestion());
 }
 
-public void
-TCPclient(Socket s) {
-	try {
-		int inLength;
-		DataInputStream dataIn;
-		DataOutputStream dataOut;
-		byte [] in;
-
-		InputStream is = s.getInputStream();
-		dataIn = new DataInputStream(is);
-		inLength = dataIn.readUnsignedShort();
-		in = new byte[inLength];
-		dataIn.readFully(in);
-
-		Message query;
-		byte [] response = null;
-		try {
-			query = new Message(in);
-			response = generateReply(query, in, in.length, s);
-			if (response == null)
-				return;
-		}
-		catch (IOException e) {
-			response = formerrMessage(in);
-		}
-		dataOut = new DataOutputStream(s.getOutputStream());
-		dataOut.writeShort(response.length);
-		dataOut.write(response);
-	}
-	catch (IOException e) {
-		System.out.println("TCPclient(" +
-				   addrport(s.getLocalAddress(),
-					    s.getLocalPort()) +
-				   "): " + e);
-	}
-	finally {
-		try {
-			s.close();
-		}
-		catch (IOException e) {}
-	}
-}
-
-public void
-serveTCP(InetAddress addr, int port) {
+public byte []
+handleRequest(byte [] in, int length, Socket s) {
 	try {
-		ServerSocket sock = new ServerSocket(port, 128, addr);
-		while (true) {
-			final Socket s = sock.accept();
-			Thread t;
-			t = new Thread(new Runnable() {
-					public void run() {TCPclient(s);}});
-			t.start();
+		DNSInput input = (DNSInput) inputs.get();
+		if (input == null) {
+			input = new DNSInput(in);
+			inputs.set(input);
 		}
+		input.reset(in, 0, length);
+		Message query = new Message(input, true);
+		return generateReply(query, in, length, s);
 	}
 	catch (IOException e) {
-		System.out.println("serveTCP(" + addrport(addr, port) + "): " +
-				   e);
+		return formerrMessage(in);
 	}
-}
-
-public void
-serveUDP(InetAddress addr, int port) {
-	try {
-		DatagramSocket sock = new DatagramSocket(port, addr);
-		final short udpLength = 512;
-		byte [] in = new byte[udpLength];
-		DatagramPacket indp = new DatagramPacket(in, in.length);
-		DatagramPacket outdp = null;
-		while (true) {
-			indp.setLength(in.length);
-			try {
-				sock.receive(indp);
-			}
-			catch (InterruptedIOException e) {
-				continue;
-			}
-			Message query;
-			byte [] response = null;
-			try {
-				query = new Message(in);
-				response = generateReply(query, in,
-							 indp.getLength(),
-							 null);
-				if (response == null)
-					continue;
-			}
-			catch (IOException e) {
-				response = formerrMessage(in);
-			}
-			if (outdp == null)
-				outdp = new DatagramPacket(response,
-							   response.length,
-							   indp.getAddress(),
-							   indp.getPort());
-			else {
-				outdp.setData(response);
-				outdp.setLength(response.length);
-				outdp.setAddress(indp.getAddress());
-				outdp.setPort(indp.getPort());
-			}
-			sock.send(outdp);
-		}
-	}
-	catch (IOException e) {
-		System.out.println("serveUDP(" + addrport(addr, port) + "): " +
-				   e);
+	catch (IllegalArgumentException e) {
+		/* A section of the lazily parsed query could not be decoded. */
+		return formerrMessage(in);
 	}
 }
 
 public void
-addTCP(final InetAddress addr, final int port) {
-	Thread t;
-	t = new Thread(new Runnable() {
-			public void run() {serveTCP(addr, port);}});
-	t.start();
+addTCP(InetAddress addr, int port) throws IOException {
+	server.addTCP(addr, port);
 }
 
 public void
-addUDP(final InetAddress addr, final int port) {
-	Thread t;
-	t = new Thread(new Runnable() {
-			public void run() {serveUDP(addr, port);}});
-	t.start();
+addUDP(InetAddress addr, int port) throws IOException {
+	server.addUDP(addr, port);
 }
 
 public static void main(String [] args) {
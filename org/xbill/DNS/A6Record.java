@@ -56,7 +56,7 @@ rrFromWire(DNSInput in) throws IOException {
 		suffix = InetAddress.getByAddress(bytes);
 	}
 	if (prefixBits > 0)
-		prefix = new Name(in);
+		prefix = Name.fromWire(in);
 }
 
 void
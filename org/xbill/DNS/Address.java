@@ -22,17 +22,22 @@ Address() {}
 
 private static byte []
 parseV4(String s) {
+	return parseV4(s.toCharArray(), 0, s.length());
+}
+
+/* Parses an IPv4 address from text held in a character array. */
+static byte []
+parseV4(char [] s, int start, int length) {
 	int numDigits;
 	int currentOctet;
 	byte [] values = new byte[4];
 	int currentValue;
-	int length = s.length();
 
 	currentOctet = 0;
 	currentValue = 0;
 	numDigits = 0;
-	for (int i = 0; i < length; i++) {
-		char c = s.charAt(i);
+	for (int i = start; i < start + length; i++) {
+		char c = s[i];
 		if (c >= '0' && c <= '9') {
 			/* Can't have more than 3 digits per octet. */
 			if (numDigits == 3)
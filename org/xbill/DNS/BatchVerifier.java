@@ -0,0 +1,234 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Verifies the DNSSEC signatures of many RRsets in parallel.  The RRsets
+ * of a message or zone are split into batches which are verified on an
+ * Executor; each RRset is checked against every candidate key that
+ * matches one of its RRSIGs.
+ * <p>
+ * A BatchVerifier may be used by several threads at once.
+ * @see DNSSEC#verify(RRset, RRSIGRecord, DNSKEYRecord, Date)
+ */
+
+public class BatchVerifier {
+
+/** The outcome of verifying one RRset. */
+public static class Result {
+	private RRset rrset;
+	private RRSIGRecord rrsig;
+	private DNSKEYRecord key;
+	private DNSSEC.DNSSECException exception;
+
+	private
+	Result(RRset rrset) {
+		this.rrset = rrset;
+	}
+
+	/** Returns the RRset that was verified. */
+	public RRset
+	getRRset() {
+		return rrset;
+	}
+
+	/** Returns true if the RRset has at least one RRSIG. */
+	public boolean
+	isSigned() {
+		return rrset.sigs().hasNext();
+	}
+
+	/** Returns true if one of the RRset's signatures verified. */
+	public boolean
+	isVerified() {
+		return (rrsig != null);
+	}
+
+	/**
+	 * Returns the RRSIG that verified the RRset, or null if none did.
+	 */
+	public RRSIGRecord
+	getRRSIG() {
+		return rrsig;
+	}
+
+	/**
+	 * Returns the key that verified the RRset, or null if none did.
+	 */
+	public DNSKEYRecord
+	getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the reason why the last signature that was tried failed to
+	 * verify, or null if the RRset was verified or no signature was
+	 * tried.
+	 */
+	public DNSSEC.DNSSECException
+	getException() {
+		return exception;
+	}
+
+	public String
+	toString() {
+		StringBuffer sb = new StringBuffer();
+		sb.append(rrset.getName());
+		sb.append(" ");
+		sb.append(Type.string(rrset.getType()));
+		sb.append(": ");
+		if (rrsig != null)
+			sb.append("verified by key " + rrsig.getFootprint());
+		else if (exception != null)
+			sb.append(exception.getMessage());
+		else
+			sb.append("no usable signature");
+		return sb.toString();
+	}
+}
+
+private static final int BATCH_SIZE = 16;
+
+private Map keys;
+private Executor executor;
+private Date date;
+
+/**
+ * Creates a new BatchVerifier.
+ * @param keys The candidate keys.
+ * @param executor The Executor that verifies the signatures, such as a
+ * ThreadPoolExecutor or a ForkJoinPool.  If null, a shared pool with one
+ * thread per processor is used.
+ */
+public
+BatchVerifier(DNSKEYRecord [] keys, Executor executor) {
+	this.keys = new HashMap();
+	for (int i = 0; i < keys.length; i++) {
+		Integer footprint = new Integer(keys[i].getFootprint());
+		List list = (List) this.keys.get(footprint);
+		if (list == null) {
+			list = new ArrayList(1);
+			this.keys.put(footprint, list);
+		}
+		list.add(keys[i]);
+	}
+	if (executor == null)
+		executor = ParallelLoop.getDefaultExecutor();
+	this.executor = executor;
+}
+
+/**
+ * Creates a new BatchVerifier which uses the shared pool.
+ * @param keys The candidate keys.
+ */
+public
+BatchVerifier(DNSKEYRecord [] keys) {
+	this(keys, null);
+}
+
+/**
+ * Sets the date against which signatures are verified.  By default, the
+ * current date at the time verification starts is used.
+ */
+public void
+setDate(Date date) {
+	this.date = date;
+}
+
+/**
+ * Verifies every RRset in the answer, authority and additional sections
+ * of a message.
+ * @return A list of Results, in the order the RRsets appear in the
+ * message.
+ * @throws InterruptedException The thread was interrupted while waiting
+ * for the results.
+ */
+public List
+verify(Message message) throws InterruptedException {
+	List rrsets = new ArrayList();
+	for (int i = Section.ANSWER; i <= Section.ADDITIONAL; i++) {
+		RRset [] sets = message.getSectionRRsets(i);
+		for (int j = 0; j < sets.length; j++) {
+			int type = sets[j].getType();
+			if (type == Type.OPT || type == Type.TSIG)
+				continue;
+			rrsets.add(sets[j]);
+		}
+	}
+	return verify(rrsets);
+}
+
+/**
+ * Verifies every RRset in a zone.
+ * @return A list of Results, in the order returned by
+ * {@link Zone#iterator}.
+ * @throws InterruptedException The thread was interrupted while waiting
+ * for the results.
+ */
+public List
+verify(Zone zone) throws InterruptedException {
+	List rrsets = new ArrayList();
+	Iterator it = zone.iterator();
+	while (it.hasNext())
+		rrsets.add(it.next());
+	return verify(rrsets);
+}
+
+/**
+ * Verifies a list of RRsets.
+ * @return A list of Results, in the same order as the RRsets.
+ * @throws InterruptedException The thread was interrupted while waiting
+ * for the results.
+ */
+public List
+verify(List rrsets) throws InterruptedException {
+	final Result [] results = new Result[rrsets.size()];
+	for (int i = 0; i < results.length; i++)
+		results[i] = new Result((RRset) rrsets.get(i));
+	final Date when = (date != null) ? date : new Date();
+
+	new ParallelLoop() {
+		void run(int i) {
+			verifyOne(results[i], when);
+		}
+	}.execute(executor, results.length, BATCH_SIZE);
+	return Arrays.asList(results);
+}
+
+private void
+verifyOne(Result result, Date when) {
+	Iterator it = result.rrset.sigs();
+	while (it.hasNext()) {
+		Record r = (Record) it.next();
+		if (!(r instanceof RRSIGRecord))
+			continue;
+		RRSIGRecord rrsig = (RRSIGRecord) r;
+		List candidates = (List) keys.get(new Integer(rrsig.getFootprint()));
+		if (candidates == null)
+			continue;
+		for (int i = 0; i < candidates.size(); i++) {
+			DNSKEYRecord key = (DNSKEYRecord) candidates.get(i);
+			if (key.getAlgorithm() != rrsig.getAlgorithm() ||
+			    !key.getName().equals(rrsig.getSigner()))
+				continue;
+			try {
+				DNSSEC.verify(result.rrset, rrsig, key, when);
+				result.rrsig = rrsig;
+				result.key = key;
+				result.exception = null;
+				return;
+			}
+			catch (DNSSEC.DNSSECException e) {
+				result.exception = e;
+			}
+			catch (RuntimeException e) {
+				result.exception =
+					new DNSSEC.DNSSECException(e.toString());
+			}
+		}
+	}
+}
+
+}
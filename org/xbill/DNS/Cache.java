@@ -4,6 +4,7 @@ package org.xbill.DNS;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A cache of DNS records.  The cache obeys TTLs, so items are purged after
@@ -11,6 +12,10 @@ import java.util.*;
  * avoid repeated failed DNS queries.  The credibility of each RRset is
  * maintained, so that more credible records replace less credible records,
  * and lookups can specify the minimum credibility of data they are requesting.
+ * <p>
+ * A Cache created in concurrent mode does not serialize lookups on a single
+ * lock; readers never block, writers only contend when updating the same
+ * name, and the maximum number of entries is enforced approximately.
  * @see RRset
  * @see Credibility
  *
@@ -153,7 +158,188 @@ private static class CacheMap extends LinkedHashMap {
 	}
 }
 
+/*
+ * The backing store of a concurrent Cache.  Each name maps to a Node holding
+ * an immutable array of Elements.  Writers replace the Node while holding a
+ * lock chosen by the hash of the name, so lookups never block.  The size
+ * limit is enforced with the CLOCK (second chance) approximation of LRU.
+ */
+private static class ConcurrentCacheMap {
+	private static final int STRIPES = 64;
+
+	private static class Node {
+		final Element [] elements;
+		/*
+		 * Not volatile; a lost update only changes which entry is
+		 * evicted, and avoids a store on every lookup of a hot name.
+		 */
+		boolean referenced;
+
+		Node(Element [] elements) {
+			this.elements = elements;
+			this.referenced = true;
+		}
+	}
+
+	private ConcurrentHashMap map;
+	private Object [] locks;
+	private volatile int maxsize;
+	private Iterator hand;
+
+	ConcurrentCacheMap(int maxsize) {
+		this.map = new ConcurrentHashMap();
+		this.locks = new Object[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			locks[i] = new Object();
+		this.maxsize = maxsize;
+	}
+
+	int
+	getMaxSize() {
+		return maxsize;
+	}
+
+	void
+	setMaxSize(int maxsize) {
+		this.maxsize = maxsize;
+	}
+
+	Object
+	lockFor(Name name) {
+		return locks[name.hashCode() & (STRIPES - 1)];
+	}
+
+	Element []
+	get(Name name) {
+		Node node = (Node) map.get(name);
+		if (node == null)
+			return null;
+		if (!node.referenced)
+			node.referenced = true;
+		return node.elements;
+	}
+
+	void
+	put(Name name, Element element) {
+		boolean added;
+		synchronized (lockFor(name)) {
+			Node node = (Node) map.get(name);
+			Element [] elements;
+			if (node == null)
+				elements = new Element[] {element};
+			else {
+				Element [] old = node.elements;
+				int type = element.getType();
+				int i;
+				for (i = 0; i < old.length; i++)
+					if (old[i].getType() == type)
+						break;
+				if (i < old.length) {
+					elements = (Element []) old.clone();
+					elements[i] = element;
+				} else {
+					elements = new Element[old.length + 1];
+					System.arraycopy(old, 0, elements, 0,
+							 old.length);
+					elements[old.length] = element;
+				}
+			}
+			map.put(name, new Node(elements));
+			added = (node == null);
+		}
+		if (added && maxsize >= 0 && map.size() > maxsize)
+			evictOne();
+	}
+
+	/*
+	 * Removes the element of the given type, if it is the given element
+	 * (or any element, if that is null).  This keeps a reader that saw an
+	 * expired element from removing a newer one stored since.
+	 */
+	void
+	remove(Name name, int type, Element element) {
+		synchronized (lockFor(name)) {
+			Node node = (Node) map.get(name);
+			if (node == null)
+				return;
+			Element [] old = node.elements;
+			int i;
+			for (i = 0; i < old.length; i++)
+				if (old[i].getType() == type)
+					break;
+			if (i == old.length)
+				return;
+			if (element != null && old[i] != element)
+				return;
+			if (old.length == 1) {
+				map.remove(name);
+				return;
+			}
+			Element [] elements = new Element[old.length - 1];
+			System.arraycopy(old, 0, elements, 0, i);
+			System.arraycopy(old, i + 1, elements, i,
+					 old.length - i - 1);
+			Node replacement = new Node(elements);
+			replacement.referenced = node.referenced;
+			map.put(name, replacement);
+		}
+	}
+
+	void
+	remove(Name name) {
+		synchronized (lockFor(name)) {
+			map.remove(name);
+		}
+	}
+
+	void
+	clear() {
+		map.clear();
+	}
+
+	int
+	size() {
+		return map.size();
+	}
+
+	Iterator
+	values() {
+		final Iterator it = map.values().iterator();
+		return new Iterator() {
+			public boolean hasNext() { return it.hasNext(); }
+			public Object next() { return ((Node) it.next()).elements; }
+			public void remove() { it.remove(); }
+		};
+	}
+
+	/*
+	 * Advances the clock hand until it finds an entry that has not been
+	 * referenced since the hand last passed it, and removes that entry.
+	 * Entries that were referenced are given a second chance.
+	 */
+	private synchronized void
+	evictOne() {
+		int limit = 2 * map.size() + 1;
+		for (int i = 0; i < limit; i++) {
+			if (hand == null || !hand.hasNext()) {
+				hand = map.entrySet().iterator();
+				if (!hand.hasNext())
+					return;
+			}
+			Map.Entry entry = (Map.Entry) hand.next();
+			Node node = (Node) entry.getValue();
+			if (node.referenced) {
+				node.referenced = false;
+				continue;
+			}
+			if (map.remove(entry.getKey(), node))
+				return;
+		}
+	}
+}
+
 private CacheMap data;
+private ConcurrentCacheMap cdata;
 private int maxncache = -1;
 private int maxcache = -1;
 private int dclass;
@@ -172,6 +358,23 @@ Cache(int dclass) {
 	data = new CacheMap(defaultMaxEntries);
 }
 
+/**
+ * Creates an empty Cache
+ *
+ * @param dclass The DNS class of this cache
+ * @param concurrent If true, lookups do not take a lock on the Cache, and
+ * the maximum number of entries is only approximately maintained.
+ * @see DClass
+ */
+public
+Cache(int dclass, boolean concurrent) {
+	this.dclass = dclass;
+	if (concurrent)
+		cdata = new ConcurrentCacheMap(defaultMaxEntries);
+	else
+		data = new CacheMap(defaultMaxEntries);
+}
+
 /**
  * Creates an empty Cache for class IN.
  * @see DClass
@@ -193,19 +396,50 @@ Cache(String file) throws IOException {
 		addRecord(record, Credibility.HINT, m);
 }
 
-private synchronized Object
-exactName(Name name) {
+/*
+ * Returns the elements stored for a name: an Element or a List of Elements
+ * if the Cache is not concurrent, or an array of Elements if it is.  The
+ * caller must hold the lock on the Cache if it is not concurrent.
+ */
+private Object
+getTypes(Name name) {
+	if (cdata != null)
+		return cdata.get(name);
 	return data.get(name);
 }
 
-private synchronized void
+private Object
+lockFor(Name name) {
+	if (cdata != null)
+		return cdata.lockFor(name);
+	return this;
+}
+
+private Object
+exactName(Name name) {
+	if (cdata != null)
+		return cdata.get(name);
+	synchronized (this) {
+		return data.get(name);
+	}
+}
+
+private void
 removeName(Name name) {
-	data.remove(name);
+	if (cdata != null) {
+		cdata.remove(name);
+		return;
+	}
+	synchronized (this) {
+		data.remove(name);
+	}
 }
 
-private synchronized Element []
+private static Element []
 allElements(Object types) {
-	if (types instanceof List) {
+	if (types instanceof Element []) {
+		return (Element []) types;
+	} else if (types instanceof List) {
 		List typelist = (List) types;
 		int size = typelist.size();
 		return (Element []) typelist.toArray(new Element[size]);
@@ -215,13 +449,21 @@ allElements(Object types) {
 	}
 }
 
-private synchronized Element
+private Element
 oneElement(Name name, Object types, int type, int minCred) {
 	Element found = null;
 
 	if (type == Type.ANY)
 		throw new IllegalArgumentException("oneElement(ANY)");
-	if (types instanceof List) {
+	if (types instanceof Element []) {
+		Element [] elements = (Element []) types;
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i].getType() == type) {
+				found = elements[i];
+				break;
+			}
+		}
+	} else if (types instanceof List) {
 		List list = (List) types;
 		for (int i = 0; i < list.size(); i++) {
 			Element set = (Element) list.get(i);
@@ -238,7 +480,7 @@ oneElement(Name name, Object types, int type, int minCred) {
 	if (found == null)
 		return null;
 	if (found.expired()) {
-		removeElement(name, type);
+		removeElement(name, found);
 		return null;
 	}
 	if (found.compareCredibility(minCred) < 0)
@@ -246,16 +488,20 @@ oneElement(Name name, Object types, int type, int minCred) {
 	return found;
 }
 
-private synchronized Element
+private Element
 findElement(Name name, int type, int minCred) {
-	Object types = exactName(name);
+	Object types = getTypes(name);
 	if (types == null)
 		return null;
 	return oneElement(name, types, type, minCred);
 }
 
-private synchronized void
+private void
 addElement(Name name, Element element) {
+	if (cdata != null) {
+		cdata.put(name, element);
+		return;
+	}
 	Object types = data.get(name);
 	if (types == null) {
 		data.put(name, element);
@@ -285,35 +531,65 @@ addElement(Name name, Element element) {
 	}
 }
 
-private synchronized void
+private void
 removeElement(Name name, int type) {
-	Object types = data.get(name);
-	if (types == null) {
+	removeElement(name, type, null);
+}
+
+/*
+ * Removes an element that was found, if it has not been replaced since it
+ * was found.
+ */
+private void
+removeElement(Name name, Element element) {
+	removeElement(name, element.getType(), element);
+}
+
+private void
+removeElement(Name name, int type, Element element) {
+	if (cdata != null) {
+		cdata.remove(name, type, element);
 		return;
 	}
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			Element elt = (Element) list.get(i);
-			if (elt.getType() == type) {
-				list.remove(i);
-				if (list.size() == 0)
-					data.remove(name);
-				return;
+	synchronized (this) {
+		Object types = data.get(name);
+		if (types == null) {
+			return;
+		}
+		if (types instanceof List) {
+			List list = (List) types;
+			for (int i = 0; i < list.size(); i++) {
+				Element elt = (Element) list.get(i);
+				if (elt.getType() == type) {
+					if (element != null && elt != element)
+						return;
+					list.remove(i);
+					if (list.size() == 0)
+						data.remove(name);
+					return;
+				}
 			}
+		} else {
+			Element elt = (Element) types;
+			if (elt.getType() != type)
+				return;
+			if (element != null && elt != element)
+				return;
+			data.remove(name);
 		}
-	} else {
-		Element elt = (Element) types;
-		if (elt.getType() != type)
-			return;
-		data.remove(name);
 	}
 }
 
 /** Empties the Cache. */
-public synchronized void
+public void
 clearCache() {
-	data.clear();
+	if (cdata != null) {
+		cdata.clear();
+		return;
+	}
+	synchronized (this) {
+		data.clear();
+	}
 }
 
 /**
@@ -323,20 +599,22 @@ clearCache() {
  * @param o The source of the record (this could be a Message, for example)
  * @see Record
  */
-public synchronized void
+public void
 addRecord(Record r, int cred, Object o) {
 	Name name = r.getName();
 	int type = r.getRRsetType();
 	if (!Type.isRR(type))
 		return;
-	Element element = findElement(name, type, cred);
-	if (element == null) {
-		CacheRRset crrset = new CacheRRset(r, cred, maxcache);
-		addRRset(crrset, cred);
-	} else if (element.compareCredibility(cred) == 0) {
-		if (element instanceof CacheRRset) {
-			CacheRRset crrset = (CacheRRset) element;
-			crrset.addRR(r);
+	synchronized (lockFor(name)) {
+		Element element = findElement(name, type, cred);
+		if (element == null) {
+			CacheRRset crrset = new CacheRRset(r, cred, maxcache);
+			addRRset(crrset, cred);
+		} else if (element.compareCredibility(cred) == 0) {
+			if (element instanceof CacheRRset) {
+				CacheRRset crrset = (CacheRRset) element;
+				crrset.addRR(r);
+			}
 		}
 	}
 }
@@ -347,25 +625,30 @@ addRecord(Record r, int cred, Object o) {
  * @param cred The credibility of these records
  * @see RRset
  */
-public synchronized void
+public void
 addRRset(RRset rrset, int cred) {
 	long ttl = rrset.getTTL();
 	Name name = rrset.getName();
 	int type = rrset.getType();
-	Element element = findElement(name, type, 0);
-	if (ttl == 0) {
-		if (element != null && element.compareCredibility(cred) <= 0)
-			removeElement(name, type);
-	} else {
-		if (element != null && element.compareCredibility(cred) <= 0)
-			element = null;
-		if (element == null) {
-			CacheRRset crrset;
-			if (rrset instanceof CacheRRset)
-				crrset = (CacheRRset) rrset;
-			else
-				crrset = new CacheRRset(rrset, cred, maxcache);
-			addElement(name, crrset);
+	synchronized (lockFor(name)) {
+		Element element = findElement(name, type, 0);
+		if (ttl == 0) {
+			if (element != null &&
+			    element.compareCredibility(cred) <= 0)
+				removeElement(name, element);
+		} else {
+			if (element != null &&
+			    element.compareCredibility(cred) <= 0)
+				element = null;
+			if (element == null) {
+				CacheRRset crrset;
+				if (rrset instanceof CacheRRset)
+					crrset = (CacheRRset) rrset;
+				else
+					crrset = new CacheRRset(rrset, cred,
+								maxcache);
+				addElement(name, crrset);
+			}
 		}
 	}
 }
@@ -378,30 +661,43 @@ addRRset(RRset rrset, int cred) {
  * The negative cache ttl is derived from the SOA.
  * @param cred The credibility of the negative entry
  */
-public synchronized void
+public void
 addNegative(Name name, int type, SOARecord soa, int cred) {
 	long ttl = 0;
 	if (soa != null)
 		ttl = soa.getTTL();
-	Element element = findElement(name, type, 0);
-	if (ttl == 0) {
-		if (element != null && element.compareCredibility(cred) <= 0)
-			removeElement(name, type);
-	} else {
-		if (element != null && element.compareCredibility(cred) <= 0)
-			element = null;
-		if (element == null)
-			addElement(name, new NegativeElement(name, type,
-							     soa, cred,
-							     maxncache));
+	synchronized (lockFor(name)) {
+		Element element = findElement(name, type, 0);
+		if (ttl == 0) {
+			if (element != null &&
+			    element.compareCredibility(cred) <= 0)
+				removeElement(name, element);
+		} else {
+			if (element != null &&
+			    element.compareCredibility(cred) <= 0)
+				element = null;
+			if (element == null)
+				addElement(name, new NegativeElement(name, type,
+								     soa, cred,
+								     maxncache));
+		}
 	}
 }
 
 /**
  * Finds all matching sets or something that causes the lookup to stop.
  */
-protected synchronized SetResponse
+protected SetResponse
 lookup(Name name, int type, int minCred) {
+	if (cdata != null)
+		return doLookup(name, type, minCred);
+	synchronized (this) {
+		return doLookup(name, type, minCred);
+	}
+}
+
+private SetResponse
+doLookup(Name name, int type, int minCred) {
 	int labels;
 	int tlabels;
 	Element element;
@@ -422,7 +718,7 @@ lookup(Name name, int type, int minCred) {
 		else
 			tname = new Name(name, labels - tlabels);
 
-		types = data.get(tname);
+		types = getTypes(tname);
 		if (types == null)
 			continue;
 
@@ -438,7 +734,7 @@ lookup(Name name, int type, int minCred) {
 			for (int i = 0; i < elements.length; i++) {
 				element = elements[i];
 				if (element.expired()) {
-					removeElement(tname, element.getType());
+					removeElement(tname, element);
 					continue;
 				}
 				if (!(element instanceof CacheRRset))
@@ -548,6 +844,19 @@ findAnyRecords(Name name, int type) {
 	return findRecords(name, type, Credibility.GLUE);
 }
 
+/**
+ * Returns the time at which an RRset returned by a Cache lookup expires.
+ * @param rrset An RRset returned by a Cache.
+ * @return The expiration time, in seconds since the epoch, or -1 if the
+ * RRset was not returned by a Cache.
+ */
+public static long
+getExpiration(RRset rrset) {
+	if (rrset instanceof CacheRRset)
+		return ((CacheRRset) rrset).expire;
+	return -1;
+}
+
 private final int
 getCred(int section, boolean isAuth) {
 	if (section == Section.ANSWER) {
@@ -786,6 +1095,8 @@ getMaxCache() {
  */
 public int
 getSize() {
+	if (cdata != null)
+		return cdata.size();
 	return data.size();
 }
 
@@ -796,6 +1107,8 @@ getSize() {
  */
 public int
 getMaxEntries() {
+	if (cdata != null)
+		return cdata.getMaxSize();
 	return data.getMaxSize();
 }
 
@@ -813,7 +1126,10 @@ getMaxEntries() {
  */
 public void
 setMaxEntries(int entries) {
-	data.setMaxSize(entries);
+	if (cdata != null)
+		cdata.setMaxSize(entries);
+	else
+		data.setMaxSize(entries);
 }
 
 /**
@@ -830,17 +1146,25 @@ getDClass() {
 public String
 toString() {
 	StringBuffer sb = new StringBuffer();
+	if (cdata != null) {
+		appendElements(sb, cdata.values());
+		return sb.toString();
+	}
 	synchronized (this) {
-		Iterator it = data.values().iterator();
-		while (it.hasNext()) {
-			Element [] elements = allElements(it.next());
-			for (int i = 0; i < elements.length; i++) {
-				sb.append(elements[i]);
-				sb.append("\n");
-			}
-		}
+		appendElements(sb, data.values().iterator());
 	}
 	return sb.toString();
 }
 
+private static void
+appendElements(StringBuffer sb, Iterator it) {
+	while (it.hasNext()) {
+		Element [] elements = allElements(it.next());
+		for (int i = 0; i < elements.length; i++) {
+			sb.append(elements[i]);
+			sb.append("\n");
+		}
+	}
+}
+
 }
@@ -0,0 +1,625 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * The storage of a compact Zone: a map from names to zone nodes which
+ * keeps its contents packed into a few arrays instead of Name, Record and
+ * RRset objects.
+ * <p>
+ * The names are stored in canonical order.  Each name is stored as the
+ * labels that it does not share with its closest ancestor in the zone
+ * (or the origin) and the index of that ancestor, so common suffixes are
+ * stored once.  The records of each name are stored in uncompressed wire
+ * format.  Names are found through an open-addressed hash index.  Nodes
+ * are materialized when they are looked up.
+ * <p>
+ * Changes are kept in a ZoneTree, and merged into new packed arrays once
+ * there are more than a fraction of the number of packed names.  The
+ * arrays themselves are never modified, so versions of a zone share them.
+ * <p>
+ * The arrays can be written to a zone snapshot and read back.  The records
+ * are then left in the snapshot's buffer, which is normally mapped from
+ * the file, so only the names and the index are copied into memory.
+ */
+
+final class CompactZoneMap implements NodeMap, Serializable {
+
+private static final long serialVersionUID = 3577633926547014373L;
+
+private static final int MIN_CHANGES = 1024;
+private static final int MAX_LABELS = 128;
+
+/* The value in changes marking a removed name. */
+private static final Boolean REMOVED = Boolean.FALSE;
+
+private Name origin;
+private int originLabels;
+
+/* The packed names and records. */
+private int count;
+private int [] parents;
+private int [] segments;
+private byte [] names;
+private int [] hashes;
+private int [] table;
+private int [] dataOffsets;
+private transient ByteBuffer data;
+
+/* Changes since the arrays were built. */
+private ZoneTree changes;
+
+private class BaseEntry implements Map.Entry {
+	private Name name;
+	private int node;
+
+	BaseEntry(Name name, int node) {
+		this.name = name;
+		this.node = node;
+	}
+
+	public Object
+	getKey() {
+		return name;
+	}
+
+	public Object
+	getValue() {
+		return nodeOf(name, node);
+	}
+
+	public Object
+	setValue(Object value) {
+		throw new UnsupportedOperationException();
+	}
+}
+
+/*
+ * Iterates over the packed names and the changes together, in canonical
+ * order.
+ */
+private class MergeIterator implements Iterator {
+	private int base;
+	private Name baseName;
+	private Iterator changed;
+	private Map.Entry change;
+	private Map.Entry next;
+
+	MergeIterator() {
+		changed = changes.iterator();
+		advance();
+	}
+
+	private void
+	advance() {
+		next = null;
+		while (next == null) {
+			if (baseName == null && base < count)
+				baseName = nameOf(base);
+			if (change == null && changed.hasNext())
+				change = (Map.Entry) changed.next();
+			if (baseName == null && change == null)
+				return;
+			int cmp;
+			if (baseName == null)
+				cmp = 1;
+			else if (change == null)
+				cmp = -1;
+			else
+				cmp = baseName.compareTo(change.getKey());
+			if (cmp < 0) {
+				next = new BaseEntry(baseName, base);
+			} else {
+				if (!isRemoved(change.getValue()))
+					next = change;
+				change = null;
+			}
+			if (cmp <= 0) {
+				base++;
+				baseName = null;
+			}
+		}
+	}
+
+	public boolean
+	hasNext() {
+		return (next != null);
+	}
+
+	public Object
+	next() {
+		if (next == null)
+			throw new NoSuchElementException();
+		Object entry = next;
+		advance();
+		return entry;
+	}
+
+	public void
+	remove() {
+		throw new UnsupportedOperationException();
+	}
+}
+
+CompactZoneMap(Name origin) {
+	this.origin = origin;
+	this.originLabels = origin.labels();
+	this.changes = ZoneTree.EMPTY;
+	this.parents = new int[0];
+	this.segments = new int[0];
+	this.names = new byte[0];
+	this.hashes = new int[0];
+	this.table = new int[1];
+	this.dataOffsets = new int[1];
+	this.data = ByteBuffer.wrap(new byte[0]);
+}
+
+private
+CompactZoneMap(CompactZoneMap base, ZoneTree changes) {
+	this.origin = base.origin;
+	this.originLabels = base.originLabels;
+	this.count = base.count;
+	this.parents = base.parents;
+	this.segments = base.segments;
+	this.names = base.names;
+	this.hashes = base.hashes;
+	this.table = base.table;
+	this.dataOffsets = base.dataOffsets;
+	this.data = base.data;
+	this.changes = changes;
+}
+
+private static boolean
+isRemoved(Object value) {
+	return (value instanceof Boolean);
+}
+
+private static int
+slot(int hash, int mask) {
+	return (hash ^ (hash >>> 16)) & mask;
+}
+
+/* Does the packed name at node equal name? */
+private boolean
+matches(Name name, int node) {
+	int depth = name.labels() - originLabels;
+	int n = 0;
+	for (int i = node; i >= 0; i = parents[i]) {
+		int pos = segments[i];
+		int labels = names[pos++];
+		for (int j = 0; j < labels; j++) {
+			if (n >= depth || !name.labelEquals(n, names, pos))
+				return false;
+			n++;
+			pos += names[pos] + 1;
+		}
+	}
+	return (n == depth);
+}
+
+private int
+find(Name name) {
+	if (count == 0 || !name.subdomain(origin))
+		return -1;
+	int hash = name.hashCode();
+	int mask = table.length - 1;
+	for (int i = slot(hash, mask); ; i = (i + 1) & mask) {
+		int node = table[i] - 1;
+		if (node < 0)
+			return -1;
+		if (hashes[node] == hash && matches(name, node))
+			return node;
+	}
+}
+
+private Name
+nameOf(int node) {
+	DNSOutput out = new DNSOutput();
+	for (int i = node; i >= 0; i = parents[i]) {
+		int start = segments[i];
+		int pos = start + 1;
+		for (int j = 0; j < names[start]; j++)
+			pos += names[pos] + 1;
+		out.writeByteArray(names, start + 1, pos - start - 1);
+	}
+	origin.toWire(out, null);
+	try {
+		return new Name(new DNSInput(out.toByteArray()));
+	}
+	catch (WireParseException e) {
+		throw new IllegalStateException("corrupt zone data");
+	}
+}
+
+private Object
+nodeOf(Name name, int node) {
+	DNSInput in = new DNSInput(data.duplicate());
+	in.jump(dataOffsets[node]);
+	try {
+		int nsets = in.readU16();
+		if (nsets == 1)
+			return readRRset(name, in);
+		RRset [] sets = new RRset[nsets];
+		for (int i = 0; i < nsets; i++)
+			sets[i] = readRRset(name, in);
+		return sets;
+	}
+	catch (IOException e) {
+		throw new IllegalStateException("corrupt zone data");
+	}
+}
+
+private static RRset
+readRRset(Name name, DNSInput in) throws IOException {
+	RRset rrset = new RRset();
+	int n = in.readU16();
+	for (int i = 0; i < n; i++) {
+		int type = in.readU16();
+		int dclass = in.readU16();
+		long ttl = in.readU32();
+		int length = in.readU16();
+		rrset.addRR(Record.fromRdata(name, type, dclass, ttl, length,
+					     in));
+	}
+	return rrset;
+}
+
+private static void
+writeRRset(DNSOutput out, RRset rrset) {
+	List records = new ArrayList();
+	Iterator it = rrset.rrs(false);
+	while (it.hasNext())
+		records.add(it.next());
+	it = rrset.sigs();
+	while (it.hasNext())
+		records.add(it.next());
+	out.writeU16(records.size());
+	for (int i = 0; i < records.size(); i++) {
+		Record r = (Record) records.get(i);
+		out.writeU16(r.getType());
+		out.writeU16(r.getDClass());
+		out.writeU32(r.getTTL());
+		int lengthPosition = out.current();
+		out.writeU16(0);
+		r.rrToWire(out, null, false);
+		int length = out.current() - lengthPosition - 2;
+		out.writeU16At(length, lengthPosition);
+	}
+}
+
+/* The owner name of a node, which keeps the case of the original records. */
+private static Name
+ownerOf(Object node) {
+	if (node instanceof RRset [])
+		node = ((RRset []) node)[0];
+	return ((RRset) node).getName();
+}
+
+private static void
+writeNode(DNSOutput out, Object node) {
+	if (node instanceof RRset []) {
+		RRset [] sets = (RRset []) node;
+		out.writeU16(sets.length);
+		for (int i = 0; i < sets.length; i++)
+			writeRRset(out, sets[i]);
+	} else {
+		out.writeU16(1);
+		writeRRset(out, (RRset) node);
+	}
+}
+
+/**
+ * Returns a map with the changes merged into new packed arrays.
+ */
+CompactZoneMap
+compact() {
+	if (changes.size() == 0)
+		return this;
+	int size = count + changes.size();
+	int [] newParents = new int[size];
+	int [] newSegments = new int[size];
+	int [] newHashes = new int[size];
+	int [] newOffsets = new int[size + 1];
+	DNSOutput newNames = new DNSOutput();
+	DNSOutput newData = new DNSOutput();
+
+	/* The ancestors of the current name, for suffix sharing. */
+	Name [] stackNames = new Name[MAX_LABELS];
+	int [] stackNodes = new int[MAX_LABELS];
+	int depth = 0;
+
+	int n = 0;
+	Iterator it = new MergeIterator();
+	while (it.hasNext()) {
+		Map.Entry entry = (Map.Entry) it.next();
+		Name name = (Name) entry.getKey();
+		if (!(entry instanceof BaseEntry))
+			name = ownerOf(entry.getValue());
+		while (depth > 0 && !name.subdomain(stackNames[depth - 1]))
+			depth--;
+		int parentLabels = originLabels;
+		newParents[n] = -1;
+		if (depth > 0) {
+			parentLabels = stackNames[depth - 1].labels();
+			newParents[n] = stackNodes[depth - 1];
+		}
+		int labels = name.labels() - parentLabels;
+		newSegments[n] = newNames.current();
+		newNames.writeU8(labels);
+		for (int j = 0; j < labels; j++)
+			newNames.writeByteArray(name.getLabel(j));
+		newHashes[n] = name.hashCode();
+
+		newOffsets[n] = newData.current();
+		if (entry instanceof BaseEntry) {
+			int node = ((BaseEntry) entry).node;
+			int start = dataOffsets[node];
+			copyData(newData, start,
+				 dataOffsets[node + 1] - start);
+		} else
+			writeNode(newData, entry.getValue());
+
+		stackNames[depth] = name;
+		stackNodes[depth] = n;
+		depth++;
+		n++;
+	}
+	newOffsets[n] = newData.current();
+
+	int tableSize = 1;
+	while (tableSize < 2 * n)
+		tableSize <<= 1;
+	int [] newTable = new int[tableSize];
+	for (int i = 0; i < n; i++) {
+		int j = slot(newHashes[i], tableSize - 1);
+		while (newTable[j] != 0)
+			j = (j + 1) & (tableSize - 1);
+		newTable[j] = i + 1;
+	}
+
+	CompactZoneMap map = new CompactZoneMap(origin);
+	map.parents = trim(newParents, n);
+	map.segments = trim(newSegments, n);
+	map.hashes = trim(newHashes, n);
+	map.dataOffsets = trim(newOffsets, n + 1);
+	map.names = newNames.toByteArray();
+	map.data = ByteBuffer.wrap(newData.toByteArray());
+	map.table = newTable;
+	map.count = n;
+	return map;
+}
+
+private void
+copyData(DNSOutput out, int start, int length) {
+	if (data.hasArray()) {
+		out.writeByteArray(data.array(), data.arrayOffset() + start,
+				   length);
+		return;
+	}
+	byte [] b = new byte[length];
+	ByteBuffer d = data.duplicate();
+	d.position(start);
+	d.get(b);
+	out.writeByteArray(b);
+}
+
+private static int []
+trim(int [] array, int length) {
+	if (array.length == length)
+		return array;
+	int [] trimmed = new int[length];
+	System.arraycopy(array, 0, trimmed, 0, length);
+	return trimmed;
+}
+
+/**
+ * Returns a compact copy of another map.
+ */
+static CompactZoneMap
+copyOf(Name origin, NodeMap data) {
+	NodeMap changes = ZoneTree.EMPTY;
+	Iterator it = data.iterator();
+	while (it.hasNext()) {
+		Map.Entry entry = (Map.Entry) it.next();
+		changes = changes.put((Name) entry.getKey(), entry.getValue());
+	}
+	CompactZoneMap empty = new CompactZoneMap(origin);
+	return new CompactZoneMap(empty, (ZoneTree) changes).compact();
+}
+
+private static void
+writeInts(DataOutputStream out, int [] array) throws IOException {
+	for (int i = 0; i < array.length; i++)
+		out.writeInt(array[i]);
+}
+
+/**
+ * Writes the packed arrays, which must include all changes, in the format
+ * read by {@link #read}: the number of names, the sizes of the hash table,
+ * the names and the data, and then the arrays, the integers first.  The
+ * hashes are values of Name.hashCode(), so the snapshot version must
+ * change if that does.
+ */
+void
+write(DataOutputStream out) throws IOException {
+	if (changes.size() != 0)
+		throw new IllegalStateException("map is not compacted");
+	out.writeInt(count);
+	out.writeInt(table.length);
+	out.writeInt(names.length);
+	out.writeInt(data.capacity());
+	writeInts(out, parents);
+	writeInts(out, segments);
+	writeInts(out, hashes);
+	writeInts(out, table);
+	writeInts(out, dataOffsets);
+	out.write(names);
+	ByteBuffer d = data.duplicate();
+	d.clear();
+	byte [] b = new byte[Math.min(d.remaining(), 65536)];
+	while (d.hasRemaining()) {
+		int n = Math.min(d.remaining(), b.length);
+		d.get(b, 0, n);
+		out.write(b, 0, n);
+	}
+}
+
+private static int []
+readInts(ByteBuffer in, int length) {
+	int [] array = new int[length];
+	in.asIntBuffer().get(array);
+	in.position(in.position() + length * 4);
+	return array;
+}
+
+private static void
+check(boolean valid) throws IOException {
+	if (!valid)
+		throw new IOException("corrupt zone snapshot");
+}
+
+/**
+ * Reads packed arrays written by {@link #write}, from the current position
+ * of a buffer, and checks that they are consistent.  The data is left in
+ * the buffer.
+ * @throws IOException The arrays are corrupt.
+ */
+static CompactZoneMap
+read(Name origin, ByteBuffer in) throws IOException {
+	CompactZoneMap map = new CompactZoneMap(origin);
+	int count = in.getInt();
+	int tableSize = in.getInt();
+	int namesLength = in.getInt();
+	int dataLength = in.getInt();
+	check(count >= 0 && namesLength >= 0 && dataLength >= 0);
+	check(tableSize > count && (tableSize & (tableSize - 1)) == 0);
+	check(count * 16L + 4 + tableSize * 4L + namesLength + dataLength <=
+	      in.remaining());
+
+	int [] parents = readInts(in, count);
+	int [] segments = readInts(in, count);
+	int [] hashes = readInts(in, count);
+	int [] table = readInts(in, tableSize);
+	int [] dataOffsets = readInts(in, count + 1);
+	byte [] names = new byte[namesLength];
+	in.get(names);
+	ByteBuffer data = in.duplicate();
+	data.limit(data.position() + dataLength);
+	data = data.slice();
+	in.position(in.position() + dataLength);
+
+	for (int i = 0; i < count; i++) {
+		check(parents[i] >= -1 && parents[i] < i);
+		check(dataOffsets[i] >= 0 && dataOffsets[i] < dataOffsets[i + 1]);
+		int pos = segments[i];
+		check(pos >= 0 && pos < namesLength);
+		int labels = names[pos++];
+		check(labels >= 0);
+		for (int j = 0; j < labels; j++) {
+			check(pos < namesLength);
+			int length = names[pos];
+			check(length > 0 && length <= 63 &&
+			      pos + length < namesLength);
+			pos += length + 1;
+		}
+	}
+	check(dataOffsets[0] == 0 && dataOffsets[count] == dataLength);
+
+	/*
+	 * Each node must be in the table once, where a lookup of its hash
+	 * reaches it, and the rest of the table must be empty, so that every
+	 * lookup ends.
+	 */
+	boolean [] seen = new boolean[count];
+	int mask = tableSize - 1;
+	int empty = 0;
+	for (int i = 0; i < tableSize; i++) {
+		check(table[i] >= 0 && table[i] <= count);
+		int node = table[i] - 1;
+		if (node < 0) {
+			empty++;
+			continue;
+		}
+		check(!seen[node]);
+		seen[node] = true;
+		for (int j = slot(hashes[node], mask); j != i; j = (j + 1) & mask)
+			check(table[j] != 0);
+	}
+	check(empty == tableSize - count);
+
+	map.count = count;
+	map.parents = parents;
+	map.segments = segments;
+	map.hashes = hashes;
+	map.table = table;
+	map.dataOffsets = dataOffsets;
+	map.names = names;
+	map.data = data;
+	return map;
+}
+
+private void
+writeObject(ObjectOutputStream out) throws IOException {
+	out.defaultWriteObject();
+	byte [] b = new byte[data.capacity()];
+	ByteBuffer d = data.duplicate();
+	d.clear();
+	d.get(b);
+	out.writeObject(b);
+}
+
+private void
+readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+	in.defaultReadObject();
+	data = ByteBuffer.wrap((byte []) in.readObject());
+}
+
+private CompactZoneMap
+withChanges(ZoneTree changes) {
+	CompactZoneMap map = new CompactZoneMap(this, changes);
+	if (changes.size() > Math.max(MIN_CHANGES, count / 4))
+		return map.compact();
+	return map;
+}
+
+public Object
+get(Name name) {
+	Object value = changes.get(name);
+	if (value != null)
+		return isRemoved(value) ? null : value;
+	int node = find(name);
+	if (node < 0)
+		return null;
+	return nodeOf(nameOf(node), node);
+}
+
+/**
+ * @throws IllegalArgumentException The name is not in the zone.
+ */
+public NodeMap
+put(Name name, Object node) {
+	if (!name.subdomain(origin))
+		throw new IllegalArgumentException(name + " is not in zone " +
+						   origin);
+	return withChanges((ZoneTree) changes.put(name, node));
+}
+
+public NodeMap
+remove(Name name) {
+	if (find(name) >= 0)
+		return withChanges((ZoneTree) changes.put(name, REMOVED));
+	ZoneTree newChanges = (ZoneTree) changes.remove(name);
+	if (newChanges == changes)
+		return this;
+	return new CompactZoneMap(this, newChanges);
+}
+
+public Iterator
+iterator() {
+	return new MergeIterator();
+}
+
+}
@@ -3,7 +3,12 @@
 package org.xbill.DNS;
 
 /**
- * DNS Name Compression object.
+ * DNS Name Compression object.  This is an open-addressed table mapping
+ * the hash of every name suffix written to a message to its position.
+ * Names written by {@link Name#toWire(DNSOutput, Compression)} are
+ * matched against the bytes already in the output, so no per-name
+ * objects are allocated.  A Compression object may be reused for another
+ * message after calling {@link #reset}.
  * @see Message
  * @see Name
  *
@@ -12,15 +17,44 @@ package org.xbill.DNS;
 
 public class Compression {
 
-private static class Entry {
-	Name name;
-	int pos;
-	Entry next;
-}
-
-private static final int TABLE_SIZE = 17;
+private static final int INITIAL_SIZE = 64;
+private static final int INITIAL_LABELS = 16;
 private static final int MAX_POINTER = 0x3FFF;
-private Entry [] table;
+private static final int MAX_LABELS = 128;
+
+/*
+ * A slot is in use if its generation matches the current generation;
+ * this makes reset() constant time.
+ */
+private int [] generations;
+private int [] hashes;
+private int [] positions;
+private Name [] names;
+private int generation;
+private int count;
+private boolean hasNames;
+
+/*
+ * The number of names written by writeName, which lets a caller tell
+ * whether anything it rendered went through this object.
+ */
+int written;
+
+/* The output most recently written to by writeName. */
+private DNSOutput output;
+
+/* Scratch space for writeName. */
+private int [] labelOffsets;
+private int [] suffixHashes;
+
+/*
+ * The positions of recently written Name objects, indexed by their cached
+ * hash codes, so that writing the same Name again needs no hashing.
+ */
+private static final int RECENT_SIZE = 16;
+private Name [] recentNames;
+private int [] recentPositions;
+
 private boolean verbose = Options.check("verbosecompression");
 
 /**
@@ -28,7 +62,299 @@ private boolean verbose = Options.check("verbosecompression");
  */
 public
 Compression() {
-	table = new Entry[TABLE_SIZE];
+	allocate(INITIAL_SIZE);
+	generation = 1;
+	labelOffsets = new int[INITIAL_LABELS];
+	suffixHashes = new int[INITIAL_LABELS];
+	recentNames = new Name[RECENT_SIZE];
+	recentPositions = new int[RECENT_SIZE];
+}
+
+private void
+allocate(int size) {
+	generations = new int[size];
+	hashes = new int[size];
+	positions = new int[size];
+	names = new Name[size];
+}
+
+/**
+ * Removes all entries, so that this object can be used to compress
+ * another message.
+ */
+public void
+reset() {
+	generation++;
+	if (generation == 0) {
+		for (int i = 0; i < generations.length; i++)
+			generations[i] = 0;
+		generation = 1;
+	}
+	if (hasNames) {
+		for (int i = 0; i < names.length; i++)
+			names[i] = null;
+		hasNames = false;
+	}
+	for (int i = 0; i < RECENT_SIZE; i++)
+		recentNames[i] = null;
+	count = 0;
+	output = null;
+}
+
+private static final byte [] lowercase = new byte[256];
+
+static {
+	for (int i = 0; i < lowercase.length; i++) {
+		if (i < 'A' || i > 'Z')
+			lowercase[i] = (byte)i;
+		else
+			lowercase[i] = (byte)(i - 'A' + 'a');
+	}
+}
+
+private static int
+lower(int b) {
+	return lowercase[b];
+}
+
+private static int
+slot(int hash, int mask) {
+	hash ^= (hash >>> 16);
+	hash *= 0x85EBCA6B;
+	hash ^= (hash >>> 13);
+	return hash & mask;
+}
+
+/*
+ * Computes the hash of the wire format name in b starting at each label,
+ * storing the label offsets and the hashes of the corresponding suffixes
+ * in the scratch arrays.
+ * Returns the number of labels, including the root label.
+ */
+private int
+hashSuffixes(byte [] b, int start) {
+	int labels = 0;
+	int pos = start;
+	while (true) {
+		if (labels == labelOffsets.length) {
+			if (labels > MAX_LABELS)
+				throw new IllegalArgumentException("too many " +
+								   "labels");
+			int [] newOffsets = new int[labels * 2];
+			System.arraycopy(labelOffsets, 0, newOffsets, 0, labels);
+			labelOffsets = newOffsets;
+			suffixHashes = new int[labels * 2];
+		}
+		labelOffsets[labels++] = pos;
+		int len = b[pos];
+		if (len == 0)
+			break;
+		pos += len + 1;
+	}
+	int hash = 0;
+	suffixHashes[labels - 1] = hash;
+	for (int i = labels - 2; i >= 0; i--) {
+		int off = labelOffsets[i];
+		int len = b[off];
+		hash = 31 * hash + len;
+		for (int j = 1; j <= len; j++)
+			hash = 31 * hash + lower(b[off + j] & 0xFF);
+		suffixHashes[i] = hash;
+	}
+	return labels;
+}
+
+/*
+ * Compares the uncompressed name in b at off with the name in the output
+ * at pos, which may contain compression pointers.  A pointer past the end
+ * of the output can only refer to a Name added with add().
+ */
+private boolean
+matches(byte [] b, int off, byte [] out, int pos, int end) {
+	int hops = 0;
+	while (true) {
+		if (pos >= end) {
+			Name name = findAdded(pos);
+			return (name != null && matches(b, off, name));
+		}
+		int len = out[pos] & 0xFF;
+		if ((len & 0xC0) == 0xC0) {
+			if (pos + 1 >= end || ++hops > MAX_LABELS)
+				return false;
+			pos = ((len & ~0xC0) << 8) + (out[pos + 1] & 0xFF);
+			continue;
+		}
+		if (len != b[off] || pos + len >= end)
+			return false;
+		if (len == 0)
+			return true;
+		for (int j = 1; j <= len; j++) {
+			byte x = b[off + j];
+			byte y = out[pos + j];
+			if (x != y && lower(x & 0xFF) != lower(y & 0xFF))
+				return false;
+		}
+		off += len + 1;
+		pos += len + 1;
+	}
+}
+
+/* Compares the uncompressed name in b at off with a Name. */
+private static boolean
+matches(byte [] b, int off, Name name) {
+	int labels = name.labels();
+	for (int i = 0; i < labels; i++) {
+		byte [] label = name.getLabel(i);
+		int len = label[0];
+		if (len != b[off])
+			return false;
+		for (int j = 1; j <= len; j++)
+			if (lower(b[off + j] & 0xFF) != lower(label[j] & 0xFF))
+				return false;
+		off += len + 1;
+	}
+	return true;
+}
+
+private Name
+findAdded(int pos) {
+	if (!hasNames)
+		return null;
+	for (int i = 0; i < names.length; i++)
+		if (generations[i] == generation && names[i] != null &&
+		    positions[i] == pos)
+			return names[i];
+	return null;
+}
+
+private int
+find(int hash, byte [] b, int off) {
+	int mask = generations.length - 1;
+	for (int i = slot(hash, mask); ; i = (i + 1) & mask) {
+		if (generations[i] != generation)
+			return -1;
+		if (hashes[i] != hash)
+			continue;
+		if (names[i] != null) {
+			if (matches(b, off, names[i]))
+				return positions[i];
+		} else if (output != null) {
+			if (matches(b, off, output.array(), positions[i],
+				    output.current()))
+				return positions[i];
+		}
+	}
+}
+
+private void
+insert(int hash, int pos, Name name) {
+	if ((count + 1) * 2 > generations.length)
+		grow();
+	int mask = generations.length - 1;
+	int i = slot(hash, mask);
+	while (generations[i] == generation)
+		i = (i + 1) & mask;
+	generations[i] = generation;
+	hashes[i] = hash;
+	positions[i] = pos;
+	names[i] = name;
+	count++;
+}
+
+private void
+grow() {
+	int [] oldGenerations = generations;
+	int [] oldHashes = hashes;
+	int [] oldPositions = positions;
+	Name [] oldNames = names;
+	allocate(oldGenerations.length * 2);
+	int oldGeneration = generation;
+	generation = 1;
+	count = 0;
+	for (int i = 0; i < oldGenerations.length; i++)
+		if (oldGenerations[i] == oldGeneration)
+			insert(oldHashes[i], oldPositions[i], oldNames[i]);
+}
+
+/**
+ * Writes an absolute name in wire format to the output, compressing it
+ * against the names previously written, and adding its suffixes to the
+ * table.
+ * @param name The name being written.
+ * @param b The wire format of the name.
+ * @param start The offset of the name's first label in b.
+ */
+void
+writeName(DNSOutput out, Name name, byte [] b, int start) {
+	written++;
+	int r = name.hashCode() & (RECENT_SIZE - 1);
+	if (recentNames[r] == name && output == out) {
+		out.writeU16(recentPositions[r] | 0xC000);
+		return;
+	}
+	output = out;
+	int labels = hashSuffixes(b, start);
+	int namePos = -1;
+	boolean compressed = false;
+	for (int i = 0; i < labels - 1; i++) {
+		int off = labelOffsets[i];
+		int pos = find(suffixHashes[i], b, off);
+		if (verbose)
+			System.err.println("Looking for suffix " + i +
+					   ", found " + pos);
+		if (pos >= 0) {
+			out.writeU16(pos | 0xC000);
+			if (i == 0)
+				namePos = pos;
+			compressed = true;
+			break;
+		}
+		int current = out.current();
+		if (current <= MAX_POINTER) {
+			insert(suffixHashes[i], current, null);
+			if (verbose)
+				System.err.println("Adding suffix " + i +
+						   " at " + current);
+			if (i == 0)
+				namePos = current;
+		}
+		out.writeByteArray(b, off, b[off] + 1);
+	}
+	if (!compressed)
+		out.writeU8(0);
+	if (namePos >= 0) {
+		recentNames[r] = name;
+		recentPositions[r] = namePos;
+	}
+}
+
+/*
+ * Forgets the names written at or after a position, when the output is
+ * moved back to it to discard what was written there.  Entries in the
+ * table are checked against the output before they are used, but the
+ * recently written names are not.
+ */
+void
+discard(int pos) {
+	for (int i = 0; i < RECENT_SIZE; i++)
+		if (recentNames[i] != null && recentPositions[i] >= pos)
+			recentNames[i] = null;
+}
+
+private int
+hash(Name name) {
+	int labels = name.labels();
+	int hash = 0;
+	for (int i = labels - 1; i >= 0; i--) {
+		byte [] label = name.getLabel(i);
+		int len = label[0];
+		if (len == 0)
+			continue;
+		hash = 31 * hash + len;
+		for (int j = 1; j <= len; j++)
+			hash = 31 * hash + lower(label[j] & 0xFF);
+	}
+	return hash;
 }
 
 /**
@@ -40,12 +366,10 @@ public void
 add(int pos, Name name) {
 	if (pos > MAX_POINTER)
 		return;
-	int row = (name.hashCode() & 0x7FFFFFFF) % TABLE_SIZE;
-	Entry entry = new Entry();
-	entry.name = name;
-	entry.pos = pos;
-	entry.next = table[row];
-	table[row] = entry;
+	if (get(name) >= 0)
+		return;
+	insert(hash(name), pos, name);
+	hasNames = true;
 	if (verbose)
 		System.err.println("Adding " + name + " at " + pos);
 }
@@ -58,11 +382,14 @@ add(int pos, Name name) {
  */
 public int
 get(Name name) {
-	int row = (name.hashCode() & 0x7FFFFFFF) % TABLE_SIZE;
 	int pos = -1;
-	for (Entry entry = table[row]; entry != null; entry = entry.next) {
-		if (entry.name.equals(name))
-			pos = entry.pos;
+	if (name.isAbsolute())
+		pos = find(hash(name), name.toWire(), 0);
+	else {
+		for (int i = 0; i < names.length; i++)
+			if (generations[i] == generation &&
+			    name.equals(names[i]))
+				pos = positions[i];
 	}
 	if (verbose)
 		System.err.println("Looking for " + name + ", found " + pos);
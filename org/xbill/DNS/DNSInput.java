@@ -13,9 +13,13 @@ import java.nio.ByteBuffer;
 public class DNSInput {
 
 private ByteBuffer byteBuffer;
+private int end;
 private int saved_pos;
 private int saved_end;
 
+/* The names parsed so far, if they are being shared. */
+Decompression decompression;
+
 /**
  * Creates a new DNSInput
  * @param input The byte array to read from
@@ -23,6 +27,7 @@ private int saved_end;
 public
 DNSInput(byte [] input) {
 	byteBuffer = ByteBuffer.wrap(input);
+	end = input.length;
 	saved_pos = -1;
 	saved_end = -1;
 }
@@ -34,6 +39,62 @@ DNSInput(byte [] input) {
 public
 DNSInput(ByteBuffer byteBuffer) {
 	this.byteBuffer = byteBuffer;
+	end = byteBuffer.capacity();
+	saved_pos = -1;
+	saved_end = -1;
+}
+
+/**
+ * Makes the input read from another byte array, from the start, as if it
+ * had just been created.  Reading a new message into the same array and
+ * resetting the input to it allocates nothing, so an input can be reused
+ * for every message a thread receives.  A Message parsed lazily from the
+ * input must not be used after the input is reset.
+ * @param input The byte array to read from
+ */
+public void
+reset(byte [] input) {
+	reset(input, 0, input.length);
+}
+
+/**
+ * Makes the input read from part of a byte array, as if it had just been
+ * created from a copy of that part.  Only the given bytes are read, so a
+ * message received into a larger buffer can be parsed without the bytes
+ * after it.  Resetting the input to the start of the array it already
+ * reads from allocates nothing.  A Message parsed lazily from the input
+ * must not be used after the input is reset.
+ * @param input The byte array to read from
+ * @param offset The position of the first byte to read
+ * @param length The number of bytes to read
+ */
+public void
+reset(byte [] input, int offset, int length) {
+	if (offset < 0 || length < 0 || offset + length > input.length)
+		throw new IllegalArgumentException("invalid region");
+	if (offset != 0)
+		byteBuffer = ByteBuffer.wrap(input, offset, length).slice();
+	else if (byteBuffer.hasArray() && byteBuffer.array() == input &&
+		 byteBuffer.arrayOffset() == 0)
+		byteBuffer.clear();
+	else
+		byteBuffer = ByteBuffer.wrap(input);
+	byteBuffer.limit(length);
+	end = length;
+	saved_pos = -1;
+	saved_end = -1;
+}
+
+/**
+ * Makes the input read from a {@link ByteBuffer}, as if it had just been
+ * created.  A Message parsed lazily from the input must not be used after
+ * the input is reset.
+ * @param byteBuffer The ByteBuffer
+ */
+public void
+reset(ByteBuffer byteBuffer) {
+	this.byteBuffer = byteBuffer;
+	end = byteBuffer.capacity();
 	saved_pos = -1;
 	saved_end = -1;
 }
@@ -70,7 +131,7 @@ require(int n) throws WireParseException{
  */
 public void
 setActive(int len) {
-	if (len > byteBuffer.capacity() - byteBuffer.position()) {
+	if (len > end - byteBuffer.position()) {
 		throw new IllegalArgumentException("cannot set active " +
 						   "region past end of input");
 	}
@@ -83,7 +144,7 @@ setActive(int len) {
  */
 public void
 clearActive() {
-	byteBuffer.limit(byteBuffer.capacity());
+	byteBuffer.limit(end);
 }
 
 /**
@@ -102,7 +163,7 @@ saveActive() {
  */
 public void
 restoreActive(int pos) {
-	if (pos > byteBuffer.capacity()) {
+	if (pos > end) {
 		throw new IllegalArgumentException("cannot set active " +
 						   "region past end of input");
 	}
@@ -117,12 +178,12 @@ restoreActive(int pos) {
  */
 public void
 jump(int index) {
-	if (index >= byteBuffer.capacity()) {
+	if (index >= end) {
 		throw new IllegalArgumentException("cannot jump past " +
 						   "end of input");
 	}
 	byteBuffer.position(index);
-	byteBuffer.limit(byteBuffer.capacity());
+	byteBuffer.limit(end);
 }
 
 /**
@@ -150,6 +211,32 @@ restore() {
 	saved_end = -1;
 }
 
+/*
+ * Moves back to a position which has already been read, keeping the
+ * active region.
+ */
+void
+seek(int index) {
+	byteBuffer.position(index);
+}
+
+/*
+ * Makes another input read from the rest of the active region of this one,
+ * so that its positions, and so compression pointers, count from the
+ * current position of this input.
+ */
+void
+slice(DNSInput view) {
+	view.reset(byteBuffer.slice());
+}
+
+/* Skips over bytes in the stream. */
+void
+skip(int n) throws WireParseException {
+	require(n);
+	byteBuffer.position(byteBuffer.position() + n);
+}
+
 /**
  * Reads an unsigned 8 bit value from the stream, as an int.
  * @return An unsigned 8 bit value.
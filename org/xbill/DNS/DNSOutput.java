@@ -66,6 +66,16 @@ need(int n) {
 	array = newarray;
 }
 
+/**
+ * Discards the contents of the output stream, so that it can be reused.
+ * The underlying buffer is kept.
+ */
+public void
+reset() {
+	pos = 0;
+	saved_pos = -1;
+}
+
 /**
  * Resets the current position of the output stream to the specified index.
  * @param index The new current position.
@@ -190,6 +200,12 @@ writeCountedString(byte [] s) {
 	writeByteArray(s, 0, s.length);
 }
 
+/* Returns the underlying buffer, for use by Compression. */
+byte []
+array() {
+	return array;
+}
+
 /**
  * Returns a byte array containing the current contents of the stream.
  */
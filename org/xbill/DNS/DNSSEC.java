@@ -8,6 +8,7 @@ import java.security.*;
 import java.security.interfaces.*;
 import java.security.spec.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Constants and methods relating to DNSSEC.
@@ -166,7 +167,7 @@ digestRRset(RRSIGRecord rrsig, RRset rrset) {
 		out.writeByteArray(header.toByteArray());
 		int lengthPosition = out.current();
 		out.writeU16(0);
-		out.writeByteArray(records[i].rdataToWireCanonical());
+		out.writeByteArray(records[i].rdataCanonical());
 		int rrlength = out.current() - lengthPosition - 2;
 		out.save();
 		out.jump(lengthPosition);
@@ -521,9 +522,99 @@ toECDSAPublicKey(KEYBase r, ECKeyInfo keyinfo) throws IOException,
 	return factory.generatePublic(new ECPublicKeySpec(q, keyinfo.spec));
 }
 
+/* The key of an entry in the PublicKey cache. */
+private static class KeyData {
+	private int alg;
+	private byte [] key;
+	private int hashcode;
+
+	KeyData(int alg, byte [] key) {
+		this.alg = alg;
+		this.key = key;
+		this.hashcode = 31 * alg + Arrays.hashCode(key);
+	}
+
+	public int
+	hashCode() {
+		return hashcode;
+	}
+
+	public boolean
+	equals(Object o) {
+		if (!(o instanceof KeyData))
+			return false;
+		KeyData other = (KeyData) o;
+		return (alg == other.alg && Arrays.equals(key, other.key));
+	}
+}
+
+/*
+ * Decoded public keys, so that a key seen in many responses is only
+ * decoded once.  PublicKey objects are immutable, so they can be shared
+ * between threads.
+ */
+private static final Map keyCache = new ConcurrentHashMap();
+private static volatile int keyCacheSize = 1024;
+
+/*
+ * Signature and MessageDigest objects are expensive to look up and are
+ * not thread safe, so each thread keeps its own, indexed by algorithm.
+ */
+private static final ThreadLocal signatures = new ThreadLocal() {
+	protected Object initialValue() {
+		return new HashMap();
+	}
+};
+private static final ThreadLocal digests = new ThreadLocal() {
+	protected Object initialValue() {
+		return new HashMap();
+	}
+};
+
+/**
+ * Sets the maximum number of decoded public keys that are cached by
+ * {@link #verify(RRset, RRSIGRecord, DNSKEYRecord)}.  Setting the size to
+ * 0 disables the cache.  The default is 1024.
+ */
+public static void
+setPublicKeyCacheSize(int size) {
+	if (size < 0)
+		throw new IllegalArgumentException("invalid cache size");
+	keyCacheSize = size;
+	if (size == 0)
+		keyCache.clear();
+	else
+		trimKeyCache();
+}
+
+private static void
+trimKeyCache() {
+	/* Evict arbitrary entries; the set of active keys is usually small. */
+	Iterator it = keyCache.keySet().iterator();
+	while (keyCache.size() > keyCacheSize && it.hasNext()) {
+		it.next();
+		it.remove();
+	}
+}
+
 /** Converts a KEY/DNSKEY record into a PublicKey */
 static PublicKey
 toPublicKey(KEYBase r) throws DNSSECException {
+	if (keyCacheSize == 0 || r.getKey() == null)
+		return decodePublicKey(r);
+	KeyData data = new KeyData(r.getAlgorithm(), r.getKey());
+	PublicKey key = (PublicKey) keyCache.get(data);
+	if (key == null) {
+		key = decodePublicKey(r);
+		keyCache.put(data, key);
+		if (keyCache.size() > keyCacheSize)
+			trimKeyCache();
+	}
+	return key;
+}
+
+private static PublicKey
+decodePublicKey(KEYBase r) throws DNSSECException {
 	int alg = r.getAlgorithm();
 	try {
 		switch (alg) {
@@ -901,6 +992,36 @@ ECDSASignaturetoDNS(byte [] signature, ECKeyInfo keyinfo) throws IOException {
 	return out.toByteArray();
 }
 
+private static Signature
+getSignature(int alg, String provider) throws DNSSECException,
+	GeneralSecurityException
+{
+	String name = algString(alg);
+	String index = (provider == null) ? name : name + "/" + provider;
+	Map map = (Map) signatures.get();
+	Signature s = (Signature) map.get(index);
+	if (s == null) {
+		if (provider != null)
+			s = Signature.getInstance(name, provider);
+		else
+			s = Signature.getInstance(name);
+		map.put(index, s);
+	}
+	return s;
+}
+
+static MessageDigest
+getDigest(String name) throws NoSuchAlgorithmException {
+	Map map = (Map) digests.get();
+	MessageDigest digest = (MessageDigest) map.get(name);
+	if (digest == null) {
+		digest = MessageDigest.getInstance(name);
+		map.put(name, digest);
+	} else
+		digest.reset();
+	return digest;
+}
+
 private static void
 verify(PublicKey key, int alg, byte [] data, byte [] signature)
 throws DNSSECException
@@ -937,7 +1058,7 @@ throws DNSSECException
 	}
 
 	try {
-		Signature s = Signature.getInstance(algString(alg));
+		Signature s = getSignature(alg, null);
 		s.initVerify(key);
 		s.update(data);
 		if (!s.verify(signature))
@@ -1010,11 +1131,7 @@ sign(PrivateKey privkey, PublicKey pubkey, int alg, byte [] data,
 {
 	byte [] signature;
 	try {
-		Signature s;
-		if (provider != null)
-			s = Signature.getInstance(algString(alg), provider);
-		else
-			s = Signature.getInstance(algString(alg));
+		Signature s = getSignature(alg, provider);
 		s.initSign(privkey);
 		s.update(data);
 		signature = s.sign();
@@ -1210,16 +1327,16 @@ generateDSDigest(DNSKEYRecord key, int digestid)
 	try {
 		switch (digestid) {
 		case DSRecord.Digest.SHA1:
-			digest = MessageDigest.getInstance("sha-1");
+			digest = getDigest("sha-1");
 			break;
 		case DSRecord.Digest.SHA256:
-			digest = MessageDigest.getInstance("sha-256");
+			digest = getDigest("sha-256");
 			break;
 		case DSRecord.Digest.GOST3411:
-			digest = MessageDigest.getInstance("GOST3411");
+			digest = getDigest("GOST3411");
 			break;
 		case DSRecord.Digest.SHA384:
-			digest = MessageDigest.getInstance("sha-384");
+			digest = getDigest("sha-384");
 			break;
 		default:
 			throw new IllegalArgumentException(
@@ -1230,7 +1347,7 @@ generateDSDigest(DNSKEYRecord key, int digestid)
 		throw new IllegalStateException("no message digest support");
 	}
 	digest.update(key.getName().toWireCanonical());
-	digest.update(key.rdataToWireCanonical());
+	digest.update(key.rdataCanonical());
 	return digest.digest();
 }
 
@@ -0,0 +1,133 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.util.*;
+
+/**
+ * The names parsed from a message, indexed by the positions of their
+ * labels in it.  A compression pointer to a position in the table is
+ * resolved to the Name already parsed there (or to a suffix of it, which
+ * shares its data) instead of by copying the labels again, so the names
+ * in a message share their common suffixes, and identical names are the
+ * same object.
+ * @see Name#fromWire(DNSInput)
+ */
+
+final class Decompression {
+
+private static final int INITIAL_SIZE = 32;
+private static final int MAX_KEPT = 1024;
+
+/* The positions of labels, +1 so that 0 marks an empty slot. */
+private int [] positions;
+
+/*
+ * The name containing the label at each position, and the index of the
+ * label in it; the suffix starting at the label is only made into a
+ * Name when it is looked up.
+ */
+private Name [] names;
+private int [] labels;
+private int count;
+
+/* A table used to intern the names, if any. */
+private NameTable table;
+
+Decompression(NameTable table) {
+	this.table = table;
+}
+
+/*
+ * Empties the table for the names of another message, keeping its arrays
+ * unless they grew unusually large.
+ */
+void
+reset(NameTable table) {
+	this.table = table;
+	if (positions != null && positions.length > MAX_KEPT) {
+		positions = null;
+		names = null;
+		labels = null;
+	} else if (count > 0) {
+		Arrays.fill(positions, 0);
+		Arrays.fill(names, null);
+	}
+	count = 0;
+}
+
+private static int
+slot(int position, int mask) {
+	return (position * 0x9E3779B1 >>> 16) & mask;
+}
+
+/** Returns the name (or suffix of a name) at a position, or null. */
+Name
+get(int position) {
+	if (positions == null)
+		return null;
+	int mask = positions.length - 1;
+	for (int i = slot(position, mask); ; i = (i + 1) & mask) {
+		if (positions[i] == 0)
+			return null;
+		if (positions[i] == position + 1) {
+			if (labels[i] != 0) {
+				Name suffix = new Name(names[i], labels[i]);
+				suffix.hashCode();
+				names[i] = intern(suffix);
+				labels[i] = 0;
+			}
+			return names[i];
+		}
+	}
+}
+
+/**
+ * Records that the nth label of a name is at a position.  Positions
+ * which cannot be the target of a compression pointer are ignored.
+ */
+void
+add(int position, Name name, int n) {
+	if (position > 0x3FFF)
+		return;
+	if (positions == null || (count + 1) * 2 > positions.length)
+		grow();
+	int mask = positions.length - 1;
+	int i = slot(position, mask);
+	while (positions[i] != 0) {
+		if (positions[i] == position + 1)
+			return;
+		i = (i + 1) & mask;
+	}
+	positions[i] = position + 1;
+	names[i] = name;
+	labels[i] = n;
+	count++;
+}
+
+private void
+grow() {
+	int [] oldPositions = positions;
+	Name [] oldNames = names;
+	int [] oldLabels = labels;
+	int size = (oldPositions == null) ? INITIAL_SIZE
+					  : oldPositions.length * 2;
+	positions = new int[size];
+	names = new Name[size];
+	labels = new int[size];
+	count = 0;
+	if (oldPositions == null)
+		return;
+	for (int i = 0; i < oldPositions.length; i++)
+		if (oldPositions[i] != 0)
+			add(oldPositions[i] - 1, oldNames[i], oldLabels[i]);
+}
+
+/** Returns the interned copy of a new name, if there is a table. */
+Name
+intern(Name name) {
+	if (table == null)
+		return name;
+	return table.intern(name);
+}
+
+}
@@ -85,9 +85,8 @@ private static class Resolution implements ResolverListener {
 			 * First, try sending synchronously.  If this works,
 			 * we're done.  Otherwise, we'll get an exception
 			 * and continue.  It would be easier to call send(0),
-			 * but this avoids a thread creation.  If and when
-			 * SimpleResolver.sendAsync() can be made to not
-			 * create a thread, this could be changed.
+			 * but this avoids a round trip through the shared
+			 * I/O thread used by SimpleResolver.sendAsync().
 			 */
 			sent[0]++;
 			outstanding++;
@@ -111,7 +111,7 @@ rrFromWire(DNSInput in) throws IOException {
 		gateway = InetAddress.getByAddress(in.readByteArray(16));
 		break;
 	case Gateway.Name:
-		gateway = new Name(in);
+		gateway = Name.fromWire(in);
 		break;
 	default:
 		throw new WireParseException("invalid gateway type");
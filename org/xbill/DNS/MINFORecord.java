@@ -46,8 +46,8 @@ MINFORecord(Name name, int dclass, long ttl,
 
 void
 rrFromWire(DNSInput in) throws IOException {
-	responsibleAddress = new Name(in);
-	errorAddress = new Name(in);
+	responsibleAddress = Name.fromWire(in);
+	errorAddress = Name.fromWire(in);
 }
 
 void
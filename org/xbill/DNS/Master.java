@@ -3,6 +3,7 @@
 package org.xbill.DNS;
 
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
 /**
@@ -89,6 +90,38 @@ Master(InputStream in, Name origin, long ttl) {
 	defaultTTL = ttl;
 }
 
+/**
+ * Initializes the master file reader to read from a buffer, such as a
+ * MappedByteBuffer containing a master file.
+ * @param in The buffer containing a master file.
+ * @param origin The initial origin to append to relative names.
+ * @param ttl The initial default TTL.
+ */
+public
+Master(ByteBuffer in, Name origin, long ttl) {
+	if (origin != null && !origin.isAbsolute()) {
+		throw new RelativeNameException(origin);
+	}
+	st = new Tokenizer(in);
+	this.origin = origin;
+	defaultTTL = ttl;
+}
+
+/*
+ * Initializes a reader for part of a master file, which starts at a line
+ * of the file with the given state.  Used by ParallelMaster.
+ */
+Master(ByteBuffer in, File file, int line, Name origin, long ttl,
+       Record last)
+{
+	st = new Tokenizer(in);
+	st.setLocation((file != null) ? file.getName() : null, line);
+	this.file = file;
+	this.origin = origin;
+	defaultTTL = ttl;
+	this.last = last;
+}
+
 /**
  * Initializes the master file reader.
  * @param in The input stream containing a master file.
@@ -137,17 +170,13 @@ parseTTLClassAndType() throws IOException {
 		seen_class = true;
 	}
 
-	currentTTL = -1;
-	try {
-		currentTTL = TTL.parseTTL(s);
+	currentTTL = parseTTL(s);
+	if (currentTTL >= 0)
 		s = st.getString();
-	}
-	catch (NumberFormatException e) {
-		if (defaultTTL >= 0)
-			currentTTL = defaultTTL;
-		else if (last != null)
-			currentTTL = last.getTTL();
-	}
+	else if (defaultTTL >= 0)
+		currentTTL = defaultTTL;
+	else if (last != null)
+		currentTTL = last.getTTL();
 
 	if (!seen_class) {
 		if ((currentDClass = DClass.value(s)) >= 0) {
@@ -171,6 +200,22 @@ parseTTLClassAndType() throws IOException {
 	}
 }
 
+/*
+ * Parses a TTL, or returns -1 if the string is not one.  Most records have
+ * no TTL, so this avoids throwing an exception for the class or type.
+ */
+private static long
+parseTTL(String s) {
+	if (s.length() == 0 || !Character.isDigit(s.charAt(0)))
+		return -1;
+	try {
+		return TTL.parseTTL(s);
+	}
+	catch (NumberFormatException e) {
+		return -1;
+	}
+}
+
 private long
 parseUInt32(String s) {
 	if (!Character.isDigit(s.charAt(0)))
@@ -289,7 +334,7 @@ _nextRecord() throws IOException {
 	while (true) {
 		Name name;
 
-		token = st.get(true, false);
+		token = st.get(true, false, false);
 		if (token.type == Tokenizer.WHITESPACE) {
 			Tokenizer.Token next = st.get();
 			if (next.type == Tokenizer.EOL)
@@ -306,8 +351,8 @@ _nextRecord() throws IOException {
 			continue;
 		else if (token.type == Tokenizer.EOF)
 			return null;
-		else if (((String) token.value).charAt(0) == '$') {
-			s = token.value;
+		else if (st.currentStartsWith('$')) {
+			s = st.currentString();
 
 			if (s.equalsIgnoreCase("$ORIGIN")) {
 				origin = st.getName(Name.root);
@@ -354,8 +399,7 @@ _nextRecord() throws IOException {
 				throw st.exception("Invalid directive: " + s);
 			}
 		} else {
-			s = token.value;
-			name = parseName(s, origin);
+			name = st.currentName(origin);
 			if (last != null && name.equals(last.getName())) {
 				name = last.getName();
 			}
@@ -419,6 +463,24 @@ generators() {
 		return Collections.EMPTY_LIST.iterator();
 }
 
+/* The current origin. */
+Name
+getOrigin() {
+	return origin;
+}
+
+/* The current default TTL, or -1 if there is none. */
+long
+getDefaultTTL() {
+	return defaultTTL;
+}
+
+/* The last record read from the file itself, or null. */
+Record
+getLast() {
+	return last;
+}
+
 protected void
 finalize() {
 	if (st != null)
@@ -33,6 +33,14 @@ int tsigstart;
 int tsigState;
 int sig0start;
 
+/*
+ * If the message was parsed lazily, the input, and the position and
+ * number of the records in each section that have not been decoded.
+ */
+private DNSInput lazyInput;
+private int [] lazyStart;
+private int [] lazyCount;
+
 /* The message was not signed */
 static final int TSIG_UNSIGNED = 0;
 
@@ -54,6 +62,20 @@ static final int TSIG_FAILED = 4;
 private static Record [] emptyRecordArray = new Record[0];
 private static RRset [] emptyRRsetArray = new RRset[0];
 
+/* Buffers for rendering messages, reused by each thread. */
+private static class RenderBuffers {
+	DNSOutput out = new DNSOutput(512);
+	DNSOutput opt = new DNSOutput(64);
+	Compression compression = new Compression();
+}
+
+private static ThreadLocal renderBuffers = new ThreadLocal() {
+	protected Object
+	initialValue() {
+		return new RenderBuffers();
+	}
+};
+
 private
 Message(Header header) {
 	sections = new List[4];
@@ -97,12 +119,50 @@ newUpdate(Name zone) {
 }
 
 Message(DNSInput in) throws IOException {
+	this(in, false);
+}
+
+/**
+ * Creates a new Message from its DNS wire format representation, read
+ * from the current position of an input, optionally parsing it lazily
+ * (see {@link #Message(byte [], boolean)}).  An input which is
+ * {@link DNSInput#reset reset} for each message can be used to parse any
+ * number of messages, reusing its state between them; a lazily parsed
+ * Message must not be used once its input has been reset.
+ * @param in The input containing the DNS Message.
+ * @param lazy Whether to parse the message lazily.
+ */
+public
+Message(DNSInput in, boolean lazy) throws IOException {
+	this(in, lazy, null);
+}
+
+/*
+ * Names in the message are parsed through a Decompression table, so that
+ * they share their suffixes, and are interned in the NameTable if there
+ * is one.
+ */
+private
+Message(DNSInput in, boolean lazy, NameTable names) throws IOException {
 	this(new Header(in));
+	if (in.decompression == null)
+		in.decompression = new Decompression(names);
+	else
+		in.decompression.reset(names);
 	boolean isUpdate = (header.getOpcode() == Opcode.UPDATE);
 	boolean truncated = header.getFlag(Flags.TC);
+	if (lazy) {
+		lazyInput = in;
+		lazyStart = new int[4];
+		lazyCount = new int[4];
+	}
 	try {
 		for (int i = 0; i < 4; i++) {
 			int count = header.getCount(i);
+			if (lazy && i != Section.QUESTION) {
+				skipSection(in, i);
+				continue;
+			}
 			if (count > 0)
 				sections[i] = new ArrayList(count);
 			for (int j = 0; j < count; j++) {
@@ -136,6 +196,101 @@ Message(byte [] b) throws IOException {
 	this(new DNSInput(b));
 }
 
+/**
+ * Creates a new Message from its DNS wire format representation,
+ * optionally parsing it lazily.  When parsing lazily, only the header and
+ * the question are decoded; the records in the other sections are located
+ * but only decoded when a method that needs them, such as
+ * {@link #getSectionArray} or {@link #findRecord}, is first called for
+ * their section.  The array must not be modified while the Message is in
+ * use.
+ * @param b A byte array containing the DNS Message.
+ * @param lazy Whether to parse the message lazily.
+ * @throws IllegalArgumentException (When a section is decoded) The
+ * records in the section could not be parsed.
+ */
+public
+Message(byte [] b, boolean lazy) throws IOException {
+	this(new DNSInput(b), lazy);
+}
+
+/**
+ * Creates a new Message from its DNS wire format representation, interning
+ * the names in it.  Names which are identical to names in other messages
+ * parsed with the same table will be the same objects.
+ * @param b A byte array containing the DNS Message.
+ * @param names The table in which to intern names.
+ */
+public
+Message(byte [] b, NameTable names) throws IOException {
+	this(new DNSInput(b), false, names);
+}
+
+/*
+ * Finds the records of a section without decoding them, noting the
+ * position of a TSIG or SIG(0) record.
+ */
+private void
+skipSection(DNSInput in, int section) throws WireParseException {
+	int count = header.getCount(section);
+	lazyStart[section] = in.current();
+	for (int i = 0; i < count; i++) {
+		int pos = in.current();
+		Name.skip(in);
+		int type = in.readU16();
+		in.skip(6);
+		int length = in.readU16();
+		if (section == Section.ADDITIONAL) {
+			if (type == Type.TSIG)
+				tsigstart = pos;
+			if (type == Type.SIG && length >= 2) {
+				in.save();
+				if (in.readU16() == 0)
+					sig0start = pos;
+				in.restore();
+			}
+		}
+		in.skip(length);
+		lazyCount[section]++;
+	}
+}
+
+/*
+ * Decodes the records of a section.  If they cannot be parsed, the section
+ * is left undecoded, so that every later attempt to use it fails in the
+ * same way, unless the message is truncated, in which case the records
+ * before the error are kept, as they are when parsing eagerly.
+ */
+private void
+decodeSection(int section) {
+	int count = lazyCount[section];
+	boolean isUpdate = (header.getOpcode() == Opcode.UPDATE);
+	List records = new ArrayList(count);
+	lazyInput.jump(lazyStart[section]);
+	try {
+		for (int i = 0; i < count; i++)
+			records.add(Record.fromWire(lazyInput, section,
+						    isUpdate));
+	}
+	catch (IOException e) {
+		if (!header.getFlag(Flags.TC))
+			throw new IllegalArgumentException("error parsing " +
+							   Section.string(section) +
+							   " section: " +
+							   e.getMessage());
+	}
+	sections[section] = records;
+	lazyCount[section] = 0;
+}
+
+/* Returns a section, decoding it first if necessary. */
+private List
+section(int section) {
+	if (lazyCount != null && lazyCount[section] > 0)
+		decodeSection(section);
+	return sections[section];
+}
+
 /**
  * Creates a new Message from its DNS wire format representation
  * @param byteBuffer A ByteBuffer containing the DNS Message.
@@ -170,7 +325,7 @@ getHeader() {
  */
 public void
 addRecord(Record r, int section) {
-	if (sections[section] == null)
+	if (section(section) == null)
 		sections[section] = new LinkedList();
 	header.incCount(section);
 	sections[section].add(r);
@@ -183,7 +338,8 @@ addRecord(Record r, int section) {
  */
 public boolean
 removeRecord(Record r, int section) {
-	if (sections[section] != null && sections[section].remove(r)) {
+	List l = section(section);
+	if (l != null && l.remove(r)) {
 		header.decCount(section);
 		return true;
 	}
@@ -198,6 +354,8 @@ removeRecord(Record r, int section) {
  */
 public void
 removeAllRecords(int section) {
+	if (lazyCount != null)
+		lazyCount[section] = 0;
 	sections[section] = null;
 	header.setCount(section, 0);
 }
@@ -209,7 +367,8 @@ removeAllRecords(int section) {
  */
 public boolean
 findRecord(Record r, int section) {
-	return (sections[section] != null && sections[section].contains(r));
+	List l = section(section);
+	return (l != null && l.contains(r));
 }
 
 /**
@@ -220,7 +379,7 @@ findRecord(Record r, int section) {
 public boolean
 findRecord(Record r) {
 	for (int i = Section.ANSWER; i <= Section.ADDITIONAL; i++)
-		if (sections[i] != null && sections[i].contains(r))
+		if (findRecord(r, i))
 			return true;
 	return false;
 }
@@ -233,10 +392,11 @@ findRecord(Record r) {
  */
 public boolean
 findRRset(Name name, int type, int section) {
-	if (sections[section] == null)
+	List l = section(section);
+	if (l == null)
 		return false;
-	for (int i = 0; i < sections[section].size(); i++) {
-		Record r = (Record) sections[section].get(i);
+	for (int i = 0; i < l.size(); i++) {
+		Record r = (Record) l.get(i);
 		if (r.getType() == type && name.equals(r.getName()))
 			return true;
 	}
@@ -263,7 +423,7 @@ findRRset(Name name, int type) {
  */
 public Record
 getQuestion() {
-	List l = sections[Section.QUESTION];
+	List l = section(Section.QUESTION);
 	if (l == null || l.size() == 0)
 		return null;
 	return (Record) l.get(0);
@@ -280,7 +440,7 @@ getTSIG() {
 	int count = header.getCount(Section.ADDITIONAL);
 	if (count == 0)
 		return null;
-	List l = sections[Section.ADDITIONAL];
+	List l = section(Section.ADDITIONAL);
 	Record rec = (Record) l.get(count - 1);
 	if (rec.type !=  Type.TSIG)
 		return null;
@@ -342,9 +502,9 @@ getRcode() {
  */
 public Record []
 getSectionArray(int section) {
-	if (sections[section] == null)
+	List l = section(section);
+	if (l == null)
 		return emptyRecordArray;
-	List l = sections[section];
 	return (Record []) l.toArray(new Record[l.size()]);
 }
 
@@ -363,7 +523,7 @@ sameSet(Record r1, Record r2) {
  */
 public RRset []
 getSectionRRsets(int section) {
-	if (sections[section] == null)
+	if (section(section) == null)
 		return emptyRRsetArray;
 	List sets = new LinkedList();
 	Record [] recs = getSectionArray(section);
@@ -393,79 +553,146 @@ getSectionRRsets(int section) {
 	return (RRset []) sets.toArray(new RRset[sets.size()]);
 }
 
+private static RenderBuffers
+renderBuffers() {
+	return (RenderBuffers) renderBuffers.get();
+}
+
+private static Compression
+compression() {
+	Compression c = renderBuffers().compression;
+	c.reset();
+	return c;
+}
+
 void
 toWire(DNSOutput out) {
 	header.toWire(out);
-	Compression c = new Compression();
+	Compression c = compression();
 	for (int i = 0; i < 4; i++) {
-		if (sections[i] == null)
+		if (section(i) == null)
 			continue;
-		for (int j = 0; j < sections[i].size(); j++) {
-			Record rec = (Record)sections[i].get(j);
+		Iterator it = section(i).iterator();
+		while (it.hasNext()) {
+			Record rec = (Record) it.next();
 			rec.toWire(out, i, c);
 		}
 	}
 }
 
-/* Returns the number of records not successfully rendered. */
+/* The length of the smallest record: a root owner name and no rdata. */
+private static final int MIN_RECORD_LENGTH = 11;
+
+/*
+ * Renders a section, up to the first RRset that does not fit in maxLength.
+ * In the additional section, an RRset that does not fit is left out and
+ * the ones after it are still tried, so that as much glue as fits is
+ * kept.  An RRset whose minimum length cannot fit is not rendered at all.
+ * Returns the number of records not rendered.
+ */
 private int
 sectionToWire(DNSOutput out, int section, Compression c,
 	      int maxLength)
 {
-	int n = sections[section].size();
-	int pos = out.current();
-	int rendered = 0;
+	List list = section(section);
+	int n = list.size();
 	int count = 0;
-	Record lastrec = null;
+	boolean additional = (section == Section.ADDITIONAL);
 
-	for (int i = 0; i < n; i++) {
-		Record rec = (Record)sections[section].get(i);
-		if (section == Section.ADDITIONAL && rec instanceof OPTRecord) {
+	/* The sections may be linked lists, so don't index into them. */
+	ListIterator it = list.listIterator();
+	while (it.hasNext()) {
+		Record first = (Record) it.next();
+		if (additional && first instanceof OPTRecord) {
 			continue;
 		}
 
-		if (lastrec != null && !sameSet(rec, lastrec)) {
-			pos = out.current();
-			rendered = count;
+		/*
+		 * Find the records in the RRset, and its minimum length.  An
+		 * OPT record among them is rendered separately.
+		 */
+		int steps = 1;
+		int records = 1;
+		int minimum = first.minimumLength(section, c);
+		while (it.hasNext()) {
+			Record rec = (Record) it.next();
+			steps++;
+			if (additional && rec instanceof OPTRecord)
+				continue;
+			if (!sameSet(rec, first)) {
+				it.previous();
+				steps--;
+				break;
+			}
+			minimum += rec.minimumLength(section, c);
+			records++;
+		}
+		for (int i = 0; i < steps; i++)
+			it.previous();
+
+		int pos = out.current();
+		boolean fits = (pos + minimum <= maxLength);
+		for (int i = 0; i < steps; i++) {
+			Record rec = (Record) it.next();
+			if (!fits || (additional && rec instanceof OPTRecord))
+				continue;
+			rec.toWire(out, section, c);
+			if (out.current() > maxLength)
+				fits = false;
 		}
-		lastrec = rec;
-		rec.toWire(out, section, c);
-		if (out.current() > maxLength) {
+		if (!fits) {
 			out.jump(pos);
-			return n - rendered;
+			c.discard(pos);
+			if (!additional || maxLength - pos < MIN_RECORD_LENGTH)
+				break;
+			continue;
 		}
-		count++;
+		count += records;
 	}
 	return n - count;
 }
 
-/* Returns true if the message could be rendered. */
-private boolean
+/**
+ * Renders the Message in wire format into a DNSOutput, discarding its
+ * previous contents.  As with {@link #toWire(int)}, this will generate a
+ * truncated message (with the TC bit) if the message doesn't fit, and will
+ * sign the message with the TSIG key set by a call to setTSIG().  The
+ * DNSOutput can be reset and reused for other messages, so rendering many
+ * messages does not need to allocate new buffers.
+ * @param out The DNSOutput to render the message into.
+ * @param maxLength The maximum length of the message.
+ * @return The length of the message, or -1 if the message could not be
+ * rendered into the specified length.
+ * @see Flags
+ * @see TSIG
+ */
+public int
 toWire(DNSOutput out, int maxLength) {
+	out.reset();
 	if (maxLength < Header.LENGTH)
-		return false;
-
-	Header newheader = null;
+		return -1;
 
 	int tempMaxLength = maxLength;
 	if (tsigkey != null)
 		tempMaxLength -= tsigkey.recordLength();
 
 	OPTRecord opt = getOPT();
-	byte [] optBytes = null;
-        if (opt != null) {
-		optBytes = opt.toWire(Section.ADDITIONAL);
-		tempMaxLength -= optBytes.length;
+	DNSOutput optOut = null;
+	if (opt != null) {
+		optOut = renderBuffers().opt;
+		optOut.reset();
+		opt.toWire(optOut, Section.ADDITIONAL, null);
+		tempMaxLength -= optOut.current();
 	}
 
 	int startpos = out.current();
 	header.toWire(out);
-	Compression c = new Compression();
+	Compression c = compression();
 	int flags = header.getFlagsByte();
 	int additionalCount = 0;
 	for (int i = 0; i < 4; i++) {
 		int skipped;
-		if (sections[i] == null)
+		if (section(i) == null)
 			continue;
 		skipped = sectionToWire(out, i, c, tempMaxLength);
 		if (skipped != 0 && i != Section.ADDITIONAL) {
@@ -480,8 +707,8 @@ toWire(DNSOutput out, int maxLength) {
 			additionalCount = header.getCount(i) - skipped;
 	}
 
-	if (optBytes != null) {
-		out.writeByteArray(optBytes);
+	if (optOut != null) {
+		out.writeByteArray(optOut.array(), 0, optOut.current());
 		additionalCount++;
 	}
 
@@ -499,7 +726,30 @@ toWire(DNSOutput out, int maxLength) {
 		out.writeU16At(additionalCount + 1, startpos + 10);
 	}
 
-	return true;
+	size = out.current();
+	return size;
+}
+
+/**
+ * Renders the Message in wire format into a ByteBuffer, which may be a
+ * direct buffer, at its current position.  This behaves like
+ * {@link #toWire(DNSOutput, int)}, and the message is truncated if it
+ * does not fit in the remaining space of the buffer.  The message is
+ * rendered into a buffer owned by the calling thread, so this does not
+ * allocate memory once the thread has rendered a message of this size.
+ * @param buffer The buffer to render the message into.
+ * @param maxLength The maximum length of the message.
+ * @return The length of the message, or -1 if the message could not be
+ * rendered into the specified length, in which case the buffer is not
+ * changed.
+ */
+public int
+toWire(ByteBuffer buffer, int maxLength) {
+	DNSOutput out = renderBuffers().out;
+	int length = toWire(out, Math.min(maxLength, buffer.remaining()));
+	if (length >= 0)
+		buffer.put(out.array(), 0, length);
+	return length;
 }
 
 /**
@@ -507,7 +757,8 @@ toWire(DNSOutput out, int maxLength) {
  */
 public byte []
 toWire() {
-	DNSOutput out = new DNSOutput();
+	DNSOutput out = renderBuffers().out;
+	out.reset();
 	toWire(out);
 	size = out.current();
 	return out.toByteArray();
@@ -528,7 +779,7 @@ toWire() {
  */
 public byte []
 toWire(int maxLength) {
-	DNSOutput out = new DNSOutput();
+	DNSOutput out = renderBuffers().out;
 	toWire(out, maxLength);
 	size = out.current();
 	return out.toByteArray();
@@ -637,8 +888,8 @@ public Object
 clone() {
 	Message m = new Message();
 	for (int i = 0; i < sections.length; i++) {
-		if (sections[i] != null)
-			m.sections[i] = new LinkedList(sections[i]);
+		if (section(i) != null)
+			m.sections[i] = new LinkedList(section(i));
 	}
 	m.header = (Header) header.clone();
 	m.size = size;
@@ -0,0 +1,270 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.*;
+
+/**
+ * Reads DNS messages in wire format without building Message or Record
+ * objects.  The scanner reports the header of a message, and then each
+ * record in turn, to a {@link Visitor}; while a visitor method runs, the
+ * scanner itself describes the current header or record.  Names are only
+ * decoded when they are asked for, and the same scanner can be used for
+ * any number of messages, so scanning a message allocates nothing.
+ * <p>
+ * A scanner is not thread safe.
+ * @see Message
+ */
+
+public class MessageScanner {
+
+/** Receives the parts of a message from a scanner. */
+public static interface Visitor {
+	/**
+	 * Called once the header of a message has been read.
+	 * @return false to stop scanning the message.
+	 */
+	boolean header(MessageScanner scanner);
+
+	/**
+	 * Called for each record in the message, in order.  Records in the
+	 * question section have no TTL or rdata.
+	 * @return false to stop scanning the message.
+	 */
+	boolean record(MessageScanner scanner) throws WireParseException;
+}
+
+private DNSInput in;
+private DNSInput view;
+
+private int id;
+private int flags;
+private int [] counts = new int[4];
+
+private int section;
+private int nameOffset;
+private int type;
+private int dclass;
+private long ttl;
+private int rdataOffset;
+private int rdataLength;
+private Name name;
+
+/**
+ * Creates a new MessageScanner.
+ */
+public
+MessageScanner() {
+}
+
+/**
+ * Scans a message.
+ * @param b A byte array containing the DNS message.
+ * @param visitor The visitor to which the message is reported.
+ * @throws WireParseException The message is malformed.  A message with the
+ * TC bit set is scanned as far as possible instead.
+ */
+public void
+scan(byte [] b, Visitor visitor) throws WireParseException {
+	scan(new DNSInput(b), visitor);
+}
+
+/**
+ * Scans a message, from the current position of the input to its end.
+ * Offsets, including those in compression pointers, count from the start
+ * of the message rather than of the input, so a message can follow a
+ * length prefix or other data.
+ * @param in The input containing the DNS message.
+ * @param visitor The visitor to which the message is reported.
+ * @throws WireParseException The message is malformed.  A message with the
+ * TC bit set is scanned as far as possible instead.
+ */
+public void
+scan(DNSInput in, Visitor visitor) throws WireParseException {
+	if (in.current() != 0) {
+		if (view == null)
+			view = new DNSInput(new byte[0]);
+		in.slice(view);
+		in = view;
+	}
+	this.in = in;
+	int end = in.current() + in.remaining();
+	id = in.readU16();
+	flags = in.readU16();
+	for (int i = 0; i < counts.length; i++)
+		counts[i] = in.readU16();
+	section = -1;
+	int pos = in.current();
+	if (!visitor.header(this))
+		return;
+	try {
+		for (int i = 0; i < counts.length; i++) {
+			for (int j = 0; j < counts[i]; j++) {
+				if (pos >= end)
+					throw new WireParseException("end of " +
+								     "input");
+				if (in.current() != pos)
+					in.jump(pos);
+				nameOffset = pos;
+				Name.skip(in);
+				section = i;
+				type = in.readU16();
+				dclass = in.readU16();
+				ttl = 0;
+				rdataLength = 0;
+				if (i != Section.QUESTION) {
+					ttl = in.readU32();
+					rdataLength = in.readU16();
+					if (rdataLength > in.remaining())
+						throw new WireParseException(
+							"truncated record");
+				}
+				rdataOffset = in.current();
+				name = null;
+				pos = rdataOffset + rdataLength;
+				if (!visitor.record(this))
+					return;
+			}
+		}
+	}
+	catch (WireParseException e) {
+		if (!getFlag(Flags.TC))
+			throw e;
+	}
+}
+
+/** Returns the message ID. */
+public int
+getID() {
+	return id;
+}
+
+/** Returns the flags, opcode and rcode, as in the second word of the header. */
+public int
+getFlags() {
+	return flags;
+}
+
+/**
+ * Returns whether a flag is set.
+ * @param bit The flag, as a value from {@link Flags}.
+ */
+public boolean
+getFlag(int bit) {
+	return (flags & (1 << (15 - bit))) != 0;
+}
+
+/** Returns the message's opcode. */
+public int
+getOpcode() {
+	return (flags >> 11) & 0xF;
+}
+
+/** Returns the message's rcode (without the extended bits in an OPT record). */
+public int
+getRcode() {
+	return flags & 0xF;
+}
+
+/**
+ * Returns the number of records in a section, according to the header.
+ * @param section The section, as a value from {@link Section}.
+ */
+public int
+getCount(int section) {
+	return counts[section];
+}
+
+/** Returns the section of the current record. */
+public int
+getSection() {
+	return section;
+}
+
+/**
+ * Returns the offset of the current record's owner name in the message.
+ * The name may be, or contain, a compression pointer.
+ */
+public int
+getNameOffset() {
+	return nameOffset;
+}
+
+/** Returns the type of the current record. */
+public int
+getType() {
+	return type;
+}
+
+/** Returns the class of the current record. */
+public int
+getDClass() {
+	return dclass;
+}
+
+/** Returns the TTL of the current record. */
+public long
+getTTL() {
+	return ttl;
+}
+
+/** Returns the offset of the current record's rdata in the message. */
+public int
+getRdataOffset() {
+	return rdataOffset;
+}
+
+/** Returns the length of the current record's rdata. */
+public int
+getRdataLength() {
+	return rdataLength;
+}
+
+/** Returns the owner name of the current record. */
+public Name
+getName() throws WireParseException {
+	if (name == null)
+		name = getName(nameOffset);
+	return name;
+}
+
+/**
+ * Decodes a name anywhere in the message, such as one in the rdata of the
+ * current record.
+ * @param offset The offset of the name in the message.
+ * @throws WireParseException The name is malformed.
+ */
+public Name
+getName(int offset) throws WireParseException {
+	in.jump(offset);
+	return new Name(in);
+}
+
+/** Returns a copy of the rdata of the current record, in wire format. */
+public byte []
+getRdata() throws WireParseException {
+	if (rdataLength == 0)
+		return new byte[0];
+	in.jump(rdataOffset);
+	return in.readByteArray(rdataLength);
+}
+
+/**
+ * Builds the current record.
+ * @throws WireParseException The record is malformed.
+ */
+public Record
+getRecord() throws WireParseException {
+	in.jump(nameOffset);
+	try {
+		return Record.fromWire(in, section,
+				       getOpcode() == Opcode.UPDATE);
+	}
+	catch (WireParseException e) {
+		throw e;
+	}
+	catch (IOException e) {
+		throw new WireParseException(e.getMessage());
+	}
+}
+
+}
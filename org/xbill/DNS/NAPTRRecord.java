@@ -64,7 +64,7 @@ rrFromWire(DNSInput in) throws IOException {
 	flags = in.readCountedString();
 	service = in.readCountedString();
 	regexp = in.readCountedString();
-	replacement = new Name(in);
+	replacement = Name.fromWire(in);
 }
 
 void
@@ -0,0 +1,296 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.xbill.DNS.utils.*;
+
+/**
+ * Computes NSEC3 hashes for one set of NSEC3 parameters (hash algorithm,
+ * iterations and salt).  Hashes are cached, so proving the non-existence
+ * of many names in the same zone hashes each closest encloser only once.
+ * A hasher may be used by several threads at once.
+ * <p>
+ * A hasher can also generate the complete NSEC3 chain of a zone, hashing
+ * the owner names in parallel.
+ * @see NSEC3Record
+ * @see NSEC3PARAMRecord
+ */
+
+public class NSEC3Hasher {
+
+private static final int BATCH_SIZE = 64;
+
+private static final base32 b32 = new base32(base32.Alphabet.BASE32HEX,
+					     false, false);
+
+private int hashAlg;
+private int iterations;
+private byte [] salt;
+private Map cache = new ConcurrentHashMap();
+private volatile int cacheSize = 4096;
+
+/**
+ * Creates a new NSEC3Hasher.
+ * @param hashAlg The hash algorithm.
+ * @param iterations The number of additional hash iterations.
+ * @param salt The salt (may be null).
+ * @throws NoSuchAlgorithmException The hash algorithm is unknown.
+ */
+public
+NSEC3Hasher(int hashAlg, int iterations, byte [] salt)
+throws NoSuchAlgorithmException
+{
+	digestName(hashAlg);
+	this.hashAlg = hashAlg;
+	this.iterations = Record.checkU16("iterations", iterations);
+	if (salt != null && salt.length > 0)
+		this.salt = (byte []) salt.clone();
+}
+
+/**
+ * Creates a new NSEC3Hasher using the parameters of an NSEC3PARAM record.
+ * @throws NoSuchAlgorithmException The hash algorithm is unknown.
+ */
+public
+NSEC3Hasher(NSEC3PARAMRecord param) throws NoSuchAlgorithmException {
+	this(param.getHashAlgorithm(), param.getIterations(), param.getSalt());
+}
+
+private static String
+digestName(int hashAlg) throws NoSuchAlgorithmException {
+	switch (hashAlg) {
+	case NSEC3Record.Digest.SHA1:
+		return "sha-1";
+	default:
+		throw new NoSuchAlgorithmException("Unknown NSEC3 algorithm" +
+						   "identifier: " +
+						   hashAlg);
+	}
+}
+
+/*
+ * Hashes the canonical wire format of a name, reusing the hash buffer for
+ * each iteration.
+ */
+static byte []
+hash(byte [] wire, int hashAlg, int iterations, byte [] salt)
+throws NoSuchAlgorithmException
+{
+	MessageDigest digest = DNSSEC.getDigest(digestName(hashAlg));
+	digest.update(wire);
+	if (salt != null)
+		digest.update(salt);
+	byte [] hash = digest.digest();
+	try {
+		for (int i = 0; i < iterations; i++) {
+			digest.update(hash);
+			if (salt != null)
+				digest.update(salt);
+			digest.digest(hash, 0, hash.length);
+		}
+	}
+	catch (DigestException e) {
+		throw new IllegalStateException(e.toString());
+	}
+	return hash;
+}
+
+/** Returns the hash algorithm. */
+public int
+getHashAlgorithm() {
+	return hashAlg;
+}
+
+/** Returns the number of additional hash iterations. */
+public int
+getIterations() {
+	return iterations;
+}
+
+/** Returns the salt, or null if there is none. */
+public byte []
+getSalt() {
+	return salt;
+}
+
+/**
+ * Sets the maximum number of cached hashes.  Setting the size to 0
+ * disables the cache.  The default is 4096.
+ */
+public void
+setCacheSize(int size) {
+	if (size < 0)
+		throw new IllegalArgumentException("invalid cache size");
+	cacheSize = size;
+	Iterator it = cache.keySet().iterator();
+	while (cache.size() > size && it.hasNext()) {
+		it.next();
+		it.remove();
+	}
+}
+
+/**
+ * Hashes a name.
+ * @return The hash.  The returned array must not be modified.
+ */
+public byte []
+hash(Name name) {
+	byte [] hash = (byte []) cache.get(name);
+	if (hash != null)
+		return hash;
+	try {
+		hash = hash(name.toWireCanonical(), hashAlg, iterations, salt);
+	}
+	catch (NoSuchAlgorithmException e) {
+		/* The algorithm was checked by the constructor. */
+		throw new IllegalStateException(e.toString());
+	}
+	if (cacheSize > 0) {
+		cache.put(name, hash);
+		if (cache.size() > cacheSize)
+			setCacheSize(cacheSize);
+	}
+	return hash;
+}
+
+/**
+ * Returns the owner name of the NSEC3 record for a name: its hash in
+ * base32hex, followed by the zone name.
+ */
+public Name
+hashedName(Name name, Name origin) {
+	String label = b32.toString(hash(name));
+	try {
+		return new Name(label, origin);
+	}
+	catch (TextParseException e) {
+		throw new IllegalStateException(e.toString());
+	}
+}
+
+private static int
+compareHashes(byte [] a, byte [] b) {
+	int n = Math.min(a.length, b.length);
+	for (int i = 0; i < n; i++) {
+		int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+		if (diff != 0)
+			return diff;
+	}
+	return a.length - b.length;
+}
+
+private static boolean
+onlyNSEC3(RRset [] sets) {
+	for (int i = 0; i < sets.length; i++)
+		if (sets[i].getType() != Type.NSEC3)
+			return false;
+	return true;
+}
+
+/**
+ * Generates the NSEC3 chain of a zone, including records for empty
+ * non-terminals.  Names below delegations are omitted, as are the owners
+ * of existing NSEC3 records.
+ * @param zone The zone.
+ * @param flags The NSEC3 flags.  If {@link NSEC3Record.Flags#OPT_OUT} is
+ * set, delegations without DS records are omitted from the chain.
+ * @param ttl The TTL of the NSEC3 records.
+ * @param executor The Executor that computes the hashes.  If null, a
+ * shared pool with one thread per processor is used.
+ * @return A list of NSEC3Records, sorted in hash order.
+ * @throws InterruptedException The thread was interrupted while waiting
+ * for the hashes.
+ */
+public List
+chain(Zone zone, int flags, long ttl, Executor executor)
+	throws InterruptedException
+{
+	Name origin = zone.getOrigin();
+	boolean optOut = (flags & NSEC3Record.Flags.OPT_OUT) != 0;
+
+	/* Collect the names in the chain and the types at each. */
+	Map types = new LinkedHashMap();
+	List nodes = ZoneSigner.authoritativeNodes(zone);
+	for (int i = 0; i < nodes.size(); i++) {
+		RRset [] sets = (RRset []) nodes.get(i);
+		if (onlyNSEC3(sets))
+			continue;
+		Name name = sets[0].getName();
+		boolean delegation = ZoneSigner.isDelegation(name, sets,
+							     origin);
+		Set set = new TreeSet();
+		boolean signed = false;
+		for (int j = 0; j < sets.length; j++) {
+			int type = sets[j].getType();
+			if (type == Type.NSEC3 || type == Type.NSEC)
+				continue;
+			set.add(new Integer(type));
+			if (!delegation || type == Type.DS)
+				signed = true;
+		}
+		if (delegation && optOut && !set.contains(new Integer(Type.DS)))
+			continue;
+		if (signed)
+			set.add(new Integer(Type.RRSIG));
+		types.put(name, set);
+
+		/* Add empty non-terminals. */
+		int labels = name.labels() - origin.labels();
+		for (int j = 1; j < labels; j++) {
+			Name parent = new Name(name, j);
+			if (!types.containsKey(parent))
+				types.put(parent, new TreeSet());
+		}
+	}
+
+	final Name [] names = (Name []) types.keySet().toArray(
+						new Name[types.size()]);
+	final byte [][] hashes = new byte[names.length][];
+	if (executor == null)
+		executor = ParallelLoop.getDefaultExecutor();
+	new ParallelLoop() {
+		void run(int i) {
+			hashes[i] = hash(names[i]);
+		}
+	}.execute(executor, names.length, BATCH_SIZE);
+
+	Integer [] order = new Integer[names.length];
+	for (int i = 0; i < order.length; i++)
+		order[i] = new Integer(i);
+	Arrays.sort(order, new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return compareHashes(hashes[((Integer) o1).intValue()],
+					     hashes[((Integer) o2).intValue()]);
+		}
+	});
+
+	List chain = new ArrayList(order.length);
+	for (int i = 0; i < order.length; i++) {
+		int index = order[i].intValue();
+		byte [] hash = hashes[index];
+		byte [] next = hashes[order[(i + 1) % order.length].intValue()];
+		if (order.length > 1 && compareHashes(hash, next) == 0)
+			throw new IllegalStateException("NSEC3 hash collision: " +
+							names[index]);
+		Set set = (Set) types.get(names[index]);
+		int [] array = new int[set.size()];
+		Iterator it = set.iterator();
+		for (int j = 0; j < array.length; j++)
+			array[j] = ((Integer) it.next()).intValue();
+		Name owner;
+		try {
+			owner = new Name(b32.toString(hash), origin);
+		}
+		catch (TextParseException e) {
+			throw new IllegalStateException(e.toString());
+		}
+		chain.add(new NSEC3Record(owner, zone.getDClass(), ttl,
+					  hashAlg, flags, iterations, salt,
+					  next, array));
+	}
+	return chain;
+}
+
+}
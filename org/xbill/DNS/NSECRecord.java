@@ -47,7 +47,7 @@ NSECRecord(Name name, int dclass, long ttl, Name next, int [] types) {
 
 void
 rrFromWire(DNSInput in) throws IOException {
-	next = new Name(in);
+	next = Name.fromWire(in);
 	types = new TypeBitmap(in);
 }
 
@@ -42,7 +42,7 @@ NXTRecord(Name name, int dclass, long ttl, Name next, BitSet bitmap) {
 
 void
 rrFromWire(DNSInput in) throws IOException {
-	next = new Name(in);
+	next = Name.fromWire(in);
 	bitmap = new BitSet();
 	int bitmapLength = in.remaining();
 	for (int i = 0; i < bitmapLength; i++) {
@@ -4,6 +4,7 @@ package org.xbill.DNS;
 
 import java.io.*;
 import java.text.*;
+import java.util.*;
 
 /**
  * A representation of a domain name.  It may either be absolute (fully
@@ -16,9 +17,9 @@ public class Name implements Comparable, Serializable {
 
 private static final long serialVersionUID = -7257019940971525644L;
 
-private static final int LABEL_NORMAL = 0;
-private static final int LABEL_COMPRESSION = 0xC0;
-private static final int LABEL_MASK = 0xC0;
+static final int LABEL_NORMAL = 0;
+static final int LABEL_COMPRESSION = 0xC0;
+static final int LABEL_MASK = 0xC0;
 
 /* The name data */
 private byte [] name;
@@ -32,6 +33,9 @@ private long offsets;
 /* Precomputed hashcode. */
 private int hashcode;
 
+/* The key used for comparisons, computed when first needed; see key(). */
+private transient volatile byte [] key;
+
 private static final byte [] emptyLabel = new byte[] {(byte)0};
 private static final byte [] wildLabel = new byte[] {(byte)1, (byte)'*'};
 
@@ -53,6 +57,17 @@ private static final int MAXLABELS = 128;
 /** The maximum number of cached offsets */
 private static final int MAXOFFSETS = 7;
 
+/*
+ * Space for building up the labels of a name, per thread; this has room
+ * for a label past the maximum length of a name.
+ */
+private static final ThreadLocal scratch = new ThreadLocal() {
+	protected Object
+	initialValue() {
+		return new byte[MAXNAME + MAXLABEL + 1];
+	}
+};
+
 /* Used for printing non-printable characters */
 private static final DecimalFormat byteFormat = new DecimalFormat();
 
@@ -172,6 +187,11 @@ parseException(String str, String message) {
 	return new TextParseException("'" + str + "': " + message);
 }
 
+private static TextParseException
+parseException(char [] s, int start, int length, String message) {
+	return parseException(new String(s, start, length), message);
+}
+
 private final void
 appendFromString(String fullName, byte [] array, int start, int n)
 throws TextParseException
@@ -215,66 +235,121 @@ Name(String s, Name origin) throws TextParseException {
 		copy(root, this);
 		return;
 	}
+	parse(s.toCharArray(), 0, s.length(), origin);
+}
+
+/*
+ * Parses the text of a name into this empty name.  The labels are built
+ * up in the per-thread scratch buffer, so that the name is allocated once
+ * they are all known.
+ */
+private void
+parse(char [] s, int start, int length, Name origin)
+throws TextParseException
+{
+	byte [] b = (byte []) scratch.get();
+	int count = 0;
+	int labels = 0;
 	int labelstart = -1;
 	int pos = 1;
-	byte [] label = new byte[MAXLABEL + 1];
 	boolean escaped = false;
 	int digits = 0;
 	int intval = 0;
 	boolean absolute = false;
-	for (int i = 0; i < s.length(); i++) {
-		byte b = (byte) s.charAt(i);
+	for (int i = start; i < start + length; i++) {
+		byte c = (byte) s[i];
 		if (escaped) {
-			if (b >= '0' && b <= '9' && digits < 3) {
+			if (c >= '0' && c <= '9' && digits < 3) {
 				digits++;
 				intval *= 10;
-				intval += (b - '0');
+				intval += (c - '0');
 				if (intval > 255)
-					throw parseException(s, "bad escape");
+					throw parseException(s, start, length,
+							     "bad escape");
 				if (digits < 3)
 					continue;
-				b = (byte) intval;
+				c = (byte) intval;
 			}
 			else if (digits > 0 && digits < 3)
-				throw parseException(s, "bad escape");
+				throw parseException(s, start, length,
+						     "bad escape");
 			if (pos > MAXLABEL)
-				throw parseException(s, "label too long");
+				throw parseException(s, start, length,
+						     "label too long");
 			labelstart = pos;
-			label[pos++] = b;
+			b[count + pos++] = c;
 			escaped = false;
-		} else if (b == '\\') {
+		} else if (c == '\\') {
 			escaped = true;
 			digits = 0;
 			intval = 0;
-		} else if (b == '.') {
+		} else if (c == '.') {
 			if (labelstart == -1)
-				throw parseException(s, "invalid empty label");
-			label[0] = (byte)(pos - 1);
-			appendFromString(s, label, 0, 1);
+				throw parseException(s, start, length,
+						     "invalid empty label");
+			if (count + pos > MAXNAME)
+				throw parseException(s, start, length,
+						     "Name too long");
+			b[count] = (byte)(pos - 1);
+			count += pos;
+			labels++;
 			labelstart = -1;
 			pos = 1;
 		} else {
 			if (labelstart == -1)
 				labelstart = i;
 			if (pos > MAXLABEL)
-				throw parseException(s, "label too long");
-			label[pos++] = b;
+				throw parseException(s, start, length,
+						     "label too long");
+			b[count + pos++] = c;
 		}
 	}
 	if (digits > 0 && digits < 3)
-		throw parseException(s, "bad escape");
+		throw parseException(s, start, length, "bad escape");
 	if (escaped)
-		throw parseException(s, "bad escape");
+		throw parseException(s, start, length, "bad escape");
 	if (labelstart == -1) {
-		appendFromString(s, emptyLabel, 0, 1);
 		absolute = true;
-	} else {
-		label[0] = (byte)(pos - 1);
-		appendFromString(s, label, 0, 1);
+		pos = 1;
 	}
-	if (origin != null && !absolute)
-		appendFromString(s, origin.name, origin.offset(0),
-				 origin.getlabels());
+	if (count + pos > MAXNAME)
+		throw parseException(s, start, length, "Name too long");
+	b[count] = (byte)(pos - 1);
+	count += pos;
+	labels++;
+	if (origin != null && !absolute) {
+		int olength = origin.length();
+		if (count + olength > MAXNAME)
+			throw parseException(s, start, length,
+					     "Name too long");
+		System.arraycopy(origin.name, origin.offset(0), b, count,
+				 olength);
+		count += olength;
+		labels += origin.getlabels();
+	}
+	appendSafe(b, 0, labels);
+}
+
+/*
+ * Creates a name from text held in a character array, as
+ * fromString(String, Name) does.
+ */
+static Name
+fromChars(char [] s, int start, int length, Name origin)
+throws TextParseException
+{
+	if (length == 1 && s[start] == '@' && origin != null)
+		return origin;
+	else if (length == 1 && s[start] == '.')
+		return root;
+	else if (length == 0)
+		throw parseException(new String(s, start, length),
+				     "empty name");
+	else if (length == 1 && s[start] == '@')
+		return empty;
+	Name name = new Name();
+	name.parse(s, start, length, origin);
+	return name;
 }
 
 /**
@@ -345,23 +420,24 @@ public
 Name(DNSInput in) throws WireParseException {
 	int len, pos;
 	boolean done = false;
-	byte [] label = new byte[MAXLABEL + 1];
+	byte [] labels = (byte []) scratch.get();
+	int length = 0, count = 0;
 	boolean savedState = false;
 
 	while (!done) {
 		len = in.readU8();
 		switch (len & LABEL_MASK) {
 		case LABEL_NORMAL:
-			if (getlabels() >= MAXLABELS)
+			if (count >= MAXLABELS)
 				throw new WireParseException("too many labels");
-			if (len == 0) {
-				append(emptyLabel, 0, 1);
+			if (length + len + 1 > MAXNAME)
+				throw new NameTooLongException();
+			labels[length++] = (byte)len;
+			in.readByteArray(labels, length, len);
+			length += len;
+			count++;
+			if (len == 0)
 				done = true;
-			} else {
-				label[0] = (byte)len;
-				in.readByteArray(label, 1, len);
-				append(label, 0, 1);
-			}
 			break;
 		case LABEL_COMPRESSION:
 			pos = in.readU8();
@@ -378,8 +454,8 @@ Name(DNSInput in) throws WireParseException {
 			}
 			in.jump(pos);
 			if (Options.check("verbosecompression"))
-				System.err.println("current name '" + this +
-						   "', seeking to " + pos);
+				System.err.println("current name has " + count +
+						   " labels, seeking to " + pos);
 			break;
 		default:
 			throw new WireParseException("bad label type");
@@ -388,6 +464,134 @@ Name(DNSInput in) throws WireParseException {
 	if (savedState) {
 		in.restore();
 	}
+	append(labels, 0, count);
+}
+
+/**
+ * Reads a name in DNS wire format.  If the input has a Decompression
+ * table, compression pointers are resolved to the names in it, and the
+ * new name is added to it.
+ * @throws WireParseException The name is malformed.
+ */
+static Name
+fromWire(DNSInput in) throws WireParseException {
+	Decompression d = in.decompression;
+	if (d == null)
+		return new Name(in);
+
+	/* Find the labels before the pointer, if any. */
+	int start = in.current();
+	int length = 0;
+	int labels = 0;
+	int pointer = -1;
+	boolean done = false;
+	while (!done) {
+		int len = in.readU8();
+		switch (len & LABEL_MASK) {
+		case LABEL_NORMAL:
+			length += len + 1;
+			labels++;
+			if (len == 0)
+				done = true;
+			else
+				in.skip(len);
+			break;
+		case LABEL_COMPRESSION:
+			pointer = in.readU8() + ((len & ~LABEL_MASK) << 8);
+			done = true;
+			break;
+		default:
+			throw new WireParseException("bad label type");
+		}
+	}
+
+	Name name;
+	Name suffix = null;
+	if (pointer >= 0) {
+		if (pointer >= start + length)
+			throw new WireParseException("bad compression");
+		suffix = d.get(pointer);
+	}
+	if (pointer >= 0 && suffix == null) {
+		/* The pointer is to something other than a name. */
+		in.seek(start);
+		name = new Name(in);
+	} else if (length == 0) {
+		return suffix;
+	} else {
+		int slength = 0;
+		int slabels = 0;
+		if (suffix != null) {
+			slength = suffix.length();
+			slabels = suffix.labels();
+		}
+		if (length + slength > MAXNAME)
+			throw new NameTooLongException();
+		if (labels + slabels > MAXLABELS)
+			throw new WireParseException("too many labels");
+		byte [] b = new byte[length + slength];
+		in.seek(start);
+		in.readByteArray(b, 0, length);
+		if (suffix != null) {
+			System.arraycopy(suffix.name, suffix.offset(0), b,
+					 length, slength);
+			in.skip(2);
+		}
+		name = new Name();
+		name.name = b;
+		for (int i = 0, pos = 0; i < labels + slabels; i++) {
+			name.setoffset(i, pos);
+			pos += b[pos] + 1;
+		}
+		name.setlabels(labels + slabels);
+	}
+	name.hashCode();
+	name = d.intern(name);
+	for (int i = 0, pos = start; i < labels; i++) {
+		int len = name.name[name.offset(i)];
+		if (len == 0)
+			break;
+		d.add(pos, name, i);
+		pos += len + 1;
+	}
+	return name;
+}
+
+/* Is this name identical to another, including case? */
+boolean
+identical(Name other) {
+	int labels = labels();
+	if (other.labels() != labels)
+		return false;
+	int off = offset(0);
+	int ooff = other.offset(0);
+	int len = name.length - off;
+	if (other.name.length - ooff != len)
+		return false;
+	for (int i = 0; i < len; i++)
+		if (name[off + i] != other.name[ooff + i])
+			return false;
+	return true;
+}
+
+/* Skips over a name in DNS wire format, without following pointers. */
+static void
+skip(DNSInput in) throws WireParseException {
+	while (true) {
+		int len = in.readU8();
+		switch (len & LABEL_MASK) {
+		case LABEL_NORMAL:
+			if (len == 0)
+				return;
+			in.skip(len);
+			break;
+		case LABEL_COMPRESSION:
+			in.readU8();
+			return;
+		default:
+			throw new WireParseException("bad label type");
+		}
+	}
 }
 
 /**
@@ -685,28 +889,11 @@ toWire(DNSOutput out, Compression c) {
 		throw new IllegalArgumentException("toWire() called on " +
 						   "non-absolute name");
 	
-	int labels = labels();
-	for (int i = 0; i < labels - 1; i++) {
-		Name tname;
-		if (i == 0)
-			tname = this;
-		else
-			tname = new Name(this, i);
-		int pos = -1;
-		if (c != null)
-			pos = c.get(tname);
-		if (pos >= 0) {
-			pos |= (LABEL_MASK << 8);
-			out.writeU16(pos);
-			return;
-		} else {
-			if (c != null)
-				c.add(out.current(), tname);
-			int off = offset(i);
-			out.writeByteArray(name, off, name[off] + 1);
-		}
-	}
-	out.writeU8(0);
+	int off = offset(0);
+	if (c != null)
+		c.writeName(out, this, name, off);
+	else
+		out.writeByteArray(name, off, name.length - off);
 }
 
 /**
@@ -785,6 +972,23 @@ equals(byte [] b, int bpos) {
 	return true;
 }
 
+/*
+ * Compares the nth label of this name with the label at pos in b,
+ * ignoring case.
+ */
+final boolean
+labelEquals(int n, byte [] b, int pos) {
+	int off = offset(n);
+	int len = name[off];
+	if (len != b[pos])
+		return false;
+	for (int j = 1; j <= len; j++)
+		if (lowercase[(name[off + j] & 0xFF)] !=
+		    lowercase[(b[pos + j] & 0xFF)])
+			return false;
+	return true;
+}
+
 /**
  * Are these two Names equivalent?
  */
@@ -803,6 +1007,10 @@ equals(Object arg) {
 		return false;
 	if (d.labels() != labels())
 		return false;
+	byte [] k1 = key;
+	byte [] k2 = d.key;
+	if (k1 != null && k2 != null)
+		return Arrays.equals(k1, k2);
 	return equals(d.name, d.offset(0));
 }
 
@@ -820,6 +1028,47 @@ hashCode() {
 	return hashcode;
 }
 
+/*
+ * Returns the key which orders names canonically: the labels from right
+ * to left, in lowercase, each followed by two 0 bytes, with any 0 byte in
+ * a label written as 0 1.  Comparing the keys of two names as unsigned
+ * bytes gives the same result as comparing the names label by label.
+ */
+private byte []
+key() {
+	byte [] k = key;
+	if (k != null)
+		return k;
+	int labels = labels();
+	int [] starts = new int[labels];
+	int length = 0;
+	for (int i = 0, pos = offset(0); i < labels; i++) {
+		int len = name[pos];
+		starts[i] = pos;
+		length += len + 2;
+		for (int j = 1; j <= len; j++)
+			if (name[pos + j] == 0)
+				length++;
+		pos += len + 1;
+	}
+	k = new byte[length];
+	int n = 0;
+	for (int i = labels - 1; i >= 0; i--) {
+		int pos = starts[i];
+		int len = name[pos++];
+		for (int j = 0; j < len; j++) {
+			byte b = lowercase[name[pos++] & 0xFF];
+			k[n++] = b;
+			if (b == 0)
+				k[n++] = 1;
+		}
+		k[n++] = 0;
+		k[n++] = 0;
+	}
+	key = k;
+	return k;
+}
+
 /**
  * Compares this Name to another Object.
  * @param o The Object to be compared.
@@ -836,25 +1085,15 @@ compareTo(Object o) {
 	if (this == arg)
 		return (0);
 
-	int labels = labels();
-	int alabels = arg.labels();
-	int compares = labels > alabels ? alabels : labels;
-
-	for (int i = 1; i <= compares; i++) {
-		int start = offset(labels - i);
-		int astart = arg.offset(alabels - i);
-		int length = name[start];
-		int alength = arg.name[astart];
-		for (int j = 0; j < length && j < alength; j++) {
-			int n = lowercase[(name[j + start + 1]) & 0xFF] -
-				lowercase[(arg.name[j + astart + 1]) & 0xFF];
-			if (n != 0)
-				return (n);
-		}
-		if (length != alength)
-			return (length - alength);
+	byte [] k1 = key();
+	byte [] k2 = arg.key();
+	int length = k1.length < k2.length ? k1.length : k2.length;
+	for (int i = 0; i < length; i++) {
+		int n = (k1[i] & 0xFF) - (k2[i] & 0xFF);
+		if (n != 0)
+			return (n);
 	}
-	return (labels - alabels);
+	return (k1.length - k2.length);
 }
 
 }
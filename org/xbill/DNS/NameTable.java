@@ -0,0 +1,58 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A table for interning names parsed from messages, so that a name seen
+ * in many messages is represented by one Name object, which saves memory
+ * in caches and makes comparisons with it faster.  Names are only shared
+ * if they are identical, including case.
+ * <p>
+ * The table has a fixed number of slots, each holding the most recent
+ * name which hashed to it, so it never grows and needs no cleaning.  It
+ * may be used by any number of threads.
+ * @see Message#Message(byte [], NameTable)
+ */
+
+public class NameTable {
+
+private final AtomicReferenceArray slots;
+private final int shift;
+
+/**
+ * Creates a new NameTable.
+ * @param size The number of names held, which is rounded up to a power
+ * of 2.
+ */
+public
+NameTable(int size) {
+	int bits = 1;
+	while ((1 << bits) < size)
+		bits++;
+	slots = new AtomicReferenceArray(1 << bits);
+	shift = 32 - bits;
+}
+
+/**
+ * Returns the name in the table identical to a name, or adds the name to
+ * the table and returns it.
+ */
+public Name
+intern(Name name) {
+	int i = (name.hashCode() * 0x9E3779B1) >>> shift;
+	Name old = (Name) slots.get(i);
+	if (old != null && old.identical(name))
+		return old;
+	slots.set(i, name);
+	return name;
+}
+
+/** Removes all names from the table. */
+public void
+clear() {
+	for (int i = 0; i < slots.length(); i++)
+		slots.set(i, null);
+}
+
+}
@@ -0,0 +1,466 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * A shared, selector-driven engine for asynchronous queries.  A single
+ * daemon thread multiplexes every outstanding query, over UDP and TCP,
+ * so the number of threads does not grow with the number of queries in
+ * flight.  Timeouts are driven by a hashed timer wheel.
+ * <p>
+ * Listener callbacks are invoked on the I/O thread, and must not block.
+ *
+ * @see SimpleResolver#sendAsync
+ */
+
+final class NioClient implements Runnable {
+
+/*
+ * One outstanding query.  All fields other than those set at creation
+ * are only touched on the I/O thread.
+ */
+private static class Transaction {
+	Message query;
+	byte [] out;
+	int qid;
+	SocketAddress local;
+	SocketAddress remote;
+	boolean tcp;
+	int udpSize;
+	boolean ignoreTruncation;
+	TSIG tsig;
+	long endTime;
+	Object id;
+	ResolverListener listener;
+
+	SelectionKey key;
+	ByteBuffer [] tcpOut;
+	ByteBuffer tcpLength;
+	ByteBuffer tcpIn;
+	boolean done;
+}
+
+/*
+ * A hashed timer wheel.  Each slot holds the transactions whose deadline
+ * falls into a tick congruent to the slot number; deadlines more than a
+ * full turn away simply stay in their slot until they are reached.
+ */
+private static class TimerWheel {
+	private static final int TICK = 10;
+	private static final int SLOTS = 512;
+
+	private List [] slots;
+	private long current;
+
+	TimerWheel() {
+		slots = new List[SLOTS];
+		for (int i = 0; i < SLOTS; i++)
+			slots[i] = new ArrayList();
+		current = System.currentTimeMillis() / TICK;
+	}
+
+	void
+	schedule(Transaction t) {
+		long tick = t.endTime / TICK;
+		if (tick < current)
+			tick = current;
+		slots[(int)(tick & (SLOTS - 1))].add(t);
+	}
+
+	private void
+	expireSlot(long tick, long now, List expired) {
+		List slot = slots[(int)(tick & (SLOTS - 1))];
+		int j = 0;
+		for (int i = 0; i < slot.size(); i++) {
+			Transaction t = (Transaction) slot.get(i);
+			if (t.done)
+				continue;
+			if (t.endTime <= now)
+				expired.add(t);
+			else
+				slot.set(j++, t);
+		}
+		while (slot.size() > j)
+			slot.remove(slot.size() - 1);
+	}
+
+	/*
+	 * Moves every transaction whose deadline has passed to the expired
+	 * list, and discards completed ones.
+	 */
+	void
+	expire(long now, List expired) {
+		long target = now / TICK;
+		if (target - current >= SLOTS)
+			current = target - SLOTS + 1;
+		while (current < target)
+			expireSlot(current++, now, expired);
+		expireSlot(target, now, expired);
+	}
+
+	/* Returns the number of milliseconds until the next tick. */
+	long
+	untilNextTick(long now) {
+		return TICK - (now % TICK);
+	}
+}
+
+private static NioClient instance;
+
+private Selector selector;
+private List pending;
+private TimerWheel timers;
+private int outstanding;
+private ByteBuffer udpBuffer;
+
+private
+NioClient() throws IOException {
+	selector = Selector.open();
+	pending = new ArrayList();
+	timers = new TimerWheel();
+	udpBuffer = ByteBuffer.allocateDirect(65535);
+}
+
+private static synchronized NioClient
+getInstance() throws IOException {
+	if (instance == null) {
+		instance = new NioClient();
+		Thread thread = new Thread(instance, "dnsjava NIO client");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	return instance;
+}
+
+/**
+ * Queues a query for sending.  The query must already have EDNS and TSIG
+ * applied, and out must contain its wire format.
+ */
+static void
+sendAsync(Message query, byte [] out, SocketAddress local,
+	  SocketAddress remote, boolean tcp, int udpSize,
+	  boolean ignoreTruncation, TSIG tsig, long endTime, Object id,
+	  ResolverListener listener) throws IOException
+{
+	Transaction t = new Transaction();
+	t.query = query;
+	t.out = out;
+	t.qid = query.getHeader().getID();
+	t.local = local;
+	t.remote = remote;
+	t.tcp = tcp || out.length > udpSize;
+	t.udpSize = udpSize;
+	t.ignoreTruncation = ignoreTruncation;
+	t.tsig = tsig;
+	t.endTime = endTime;
+	t.id = id;
+	t.listener = listener;
+
+	NioClient client = getInstance();
+	synchronized (client.pending) {
+		client.pending.add(t);
+	}
+	client.selector.wakeup();
+}
+
+public void
+run() {
+	List expired = new ArrayList();
+	while (true) {
+		try {
+			long timeout = 0;
+			if (outstanding > 0)
+				timeout = timers.untilNextTick(
+						System.currentTimeMillis());
+			selector.select(timeout);
+			processReady();
+			startPending();
+			if (outstanding > 0) {
+				timers.expire(System.currentTimeMillis(),
+					      expired);
+				for (int i = 0; i < expired.size(); i++)
+					fail((Transaction) expired.get(i),
+					     new SocketTimeoutException());
+				expired.clear();
+			}
+		}
+		catch (Throwable e) {
+			if (Options.check("verbose"))
+				e.printStackTrace();
+		}
+	}
+}
+
+private void
+startPending() {
+	Object [] ts;
+	synchronized (pending) {
+		if (pending.isEmpty())
+			return;
+		ts = pending.toArray();
+		pending.clear();
+	}
+	for (int i = 0; i < ts.length; i++) {
+		Transaction t = (Transaction) ts[i];
+		outstanding++;
+		timers.schedule(t);
+		try {
+			if (t.tcp)
+				startTCP(t);
+			else
+				startUDP(t);
+		}
+		catch (IOException e) {
+			fail(t, e);
+		}
+	}
+}
+
+private void
+processReady() {
+	Iterator it = selector.selectedKeys().iterator();
+	while (it.hasNext()) {
+		SelectionKey key = (SelectionKey) it.next();
+		it.remove();
+		Transaction t = (Transaction) key.attachment();
+		if (t.done || !key.isValid())
+			continue;
+		try {
+			if (t.tcp)
+				processTCP(t);
+			else
+				processUDP(t);
+		}
+		catch (IOException e) {
+			fail(t, e);
+		}
+	}
+}
+
+private void
+startUDP(Transaction t) throws IOException {
+	DatagramChannel channel = DatagramChannel.open();
+	channel.configureBlocking(false);
+	t.key = channel.register(selector, 0, t);
+	SocketAddress local = t.local;
+	if (local == null ||
+	    (local instanceof InetSocketAddress &&
+	     ((InetSocketAddress)local).getPort() == 0))
+	{
+		if (UDPClient.bindRandom(channel, (InetSocketAddress) local))
+			local = null;
+	}
+	if (local != null)
+		channel.socket().bind(local);
+
+	/*
+	 * Connecting the channel means the system discards datagrams that
+	 * don't come from the server.
+	 */
+	channel.connect(t.remote);
+	Client.verboseLog("UDP write",
+			  channel.socket().getLocalSocketAddress(),
+			  channel.socket().getRemoteSocketAddress(), t.out);
+	channel.write(ByteBuffer.wrap(t.out));
+	t.key.interestOps(SelectionKey.OP_READ);
+}
+
+private void
+processUDP(Transaction t) throws IOException {
+	DatagramChannel channel = (DatagramChannel) t.key.channel();
+	udpBuffer.clear();
+	udpBuffer.limit(t.udpSize);
+	int len = channel.read(udpBuffer);
+	if (len <= 0)
+		return;
+	byte [] in = new byte[len];
+	udpBuffer.flip();
+	udpBuffer.get(in);
+	Client.verboseLog("UDP read",
+			  channel.socket().getLocalSocketAddress(),
+			  channel.socket().getRemoteSocketAddress(), in);
+
+	Message response = checkResponse(t, in);
+	if (response == null)
+		return;
+	if (!t.ignoreTruncation && response.getHeader().getFlag(Flags.TC)) {
+		close(t);
+		t.tcp = true;
+		startTCP(t);
+		return;
+	}
+	succeed(t, response);
+}
+
+private void
+startTCP(Transaction t) throws IOException {
+	SocketChannel channel = SocketChannel.open();
+	channel.configureBlocking(false);
+	t.key = channel.register(selector, 0, t);
+	if (t.local != null)
+		channel.socket().bind(t.local);
+
+	byte [] length = new byte[2];
+	length[0] = (byte)(t.out.length >>> 8);
+	length[1] = (byte)(t.out.length & 0xFF);
+	t.tcpOut = new ByteBuffer[] {ByteBuffer.wrap(length),
+				     ByteBuffer.wrap(t.out)};
+	t.tcpLength = ByteBuffer.allocate(2);
+	t.tcpIn = null;
+
+	if (channel.connect(t.remote))
+		startTCPWrite(t);
+	else
+		t.key.interestOps(SelectionKey.OP_CONNECT);
+}
+
+private void
+startTCPWrite(Transaction t) {
+	SocketChannel channel = (SocketChannel) t.key.channel();
+	Client.verboseLog("TCP write",
+			  channel.socket().getLocalSocketAddress(),
+			  channel.socket().getRemoteSocketAddress(), t.out);
+	t.key.interestOps(SelectionKey.OP_WRITE);
+}
+
+private void
+processTCP(Transaction t) throws IOException {
+	SocketChannel channel = (SocketChannel) t.key.channel();
+	if (t.key.isConnectable()) {
+		if (channel.finishConnect())
+			startTCPWrite(t);
+		return;
+	}
+	if (t.key.isWritable()) {
+		channel.write(t.tcpOut);
+		if (!t.tcpOut[1].hasRemaining())
+			t.key.interestOps(SelectionKey.OP_READ);
+		return;
+	}
+	if (!t.key.isReadable())
+		return;
+	if (t.tcpIn == null) {
+		if (channel.read(t.tcpLength) < 0)
+			throw new EOFException();
+		if (t.tcpLength.hasRemaining())
+			return;
+		byte [] length = t.tcpLength.array();
+		int len = ((length[0] & 0xFF) << 8) + (length[1] & 0xFF);
+		t.tcpIn = ByteBuffer.allocate(len);
+	}
+	if (channel.read(t.tcpIn) < 0)
+		throw new EOFException();
+	if (t.tcpIn.hasRemaining())
+		return;
+	byte [] in = t.tcpIn.array();
+	Client.verboseLog("TCP read",
+			  channel.socket().getLocalSocketAddress(),
+			  channel.socket().getRemoteSocketAddress(), in);
+	Message response = checkResponse(t, in);
+	if (response == null)
+		throw new WireParseException("invalid response");
+	succeed(t, response);
+}
+
+/*
+ * Returns the parsed response if it matches the query by ID and question,
+ * or null if it should be ignored.  Malformed responses are only errors
+ * over TCP; over UDP, they may be spoofed and we keep waiting.
+ */
+private Message
+checkResponse(Transaction t, byte [] in) throws IOException {
+	if (in.length < Header.LENGTH) {
+		if (t.tcp)
+			throw new WireParseException("invalid DNS header - " +
+						     "too short");
+		return null;
+	}
+	int id = ((in[0] & 0xFF) << 8) + (in[1] & 0xFF);
+	if (id != t.qid) {
+		String error = "invalid message id: expected " + t.qid +
+			       "; got id " + id;
+		if (t.tcp)
+			throw new WireParseException(error);
+		if (Options.check("verbose"))
+			System.err.println(error);
+		return null;
+	}
+	Message response;
+	try {
+		response = SimpleResolver.parseMessage(in);
+	}
+	catch (WireParseException e) {
+		if (t.tcp)
+			throw e;
+		return null;
+	}
+	Record question = t.query.getQuestion();
+	Record rquestion = response.getQuestion();
+	if (question != null && rquestion != null &&
+	    (!question.getName().equals(rquestion.getName()) ||
+	     question.getType() != rquestion.getType() ||
+	     question.getDClass() != rquestion.getDClass()))
+	{
+		String error = "invalid question section in response";
+		if (t.tcp)
+			throw new WireParseException(error);
+		if (Options.check("verbose"))
+			System.err.println(error);
+		return null;
+	}
+	SimpleResolver.verifyTSIG(t.query, response, in, t.tsig);
+	return response;
+}
+
+private void
+close(Transaction t) {
+	if (t.key == null)
+		return;
+	t.key.cancel();
+	try {
+		t.key.channel().close();
+	}
+	catch (IOException e) {
+	}
+	t.key = null;
+}
+
+private void
+finish(Transaction t) {
+	t.done = true;
+	outstanding--;
+	close(t);
+}
+
+private void
+succeed(Transaction t, Message response) {
+	finish(t);
+	try {
+		t.listener.receiveMessage(t.id, response);
+	}
+	catch (RuntimeException e) {
+		if (Options.check("verbose"))
+			e.printStackTrace();
+	}
+}
+
+private void
+fail(Transaction t, Exception e) {
+	if (t.done)
+		return;
+	finish(t);
+	try {
+		t.listener.handleException(t.id, e);
+	}
+	catch (RuntimeException re) {
+		if (Options.check("verbose"))
+			re.printStackTrace();
+	}
+}
+
+}
@@ -0,0 +1,304 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A multi-threaded DNS server core, which receives queries over UDP and
+ * TCP and passes them to a RequestHandler.
+ * <p>
+ * Each UDP listener is served by several threads sharing one
+ * DatagramChannel, each with its own reusable direct buffers, so that
+ * responses are generated in parallel.  TCP connections are served by a
+ * bounded pool of threads; several queries may be pipelined on one
+ * connection, which is closed once it has been idle for too long.  When
+ * all TCP threads are busy and the backlog is full, new connections are
+ * closed immediately rather than queued without bound.
+ * <p>
+ * The tuning parameters must be set before the first listener is added.
+ * @see RequestHandler
+ */
+
+public class NioServer {
+
+private static final int MAX_MESSAGE = 65535;
+
+private RequestHandler handler;
+private int udpThreads;
+private int tcpThreads;
+private int tcpBacklog = 128;
+private int tcpIdleTimeout = 10 * 1000;
+private ThreadPoolExecutor tcpPool;
+private List channels;
+private volatile boolean closed;
+
+/**
+ * Creates a new server which has no listeners.
+ * @param handler The object that generates responses.
+ */
+public
+NioServer(RequestHandler handler) {
+	this.handler = handler;
+	this.udpThreads = Runtime.getRuntime().availableProcessors();
+	this.tcpThreads = 2 * udpThreads;
+	this.channels = new ArrayList();
+}
+
+/**
+ * Sets the number of threads serving each UDP listener.  The default is
+ * the number of available processors.
+ */
+public void
+setUDPThreads(int threads) {
+	if (threads < 1)
+		throw new IllegalArgumentException("invalid thread count");
+	udpThreads = threads;
+}
+
+/**
+ * Sets the number of threads serving TCP connections, shared by all TCP
+ * listeners.  The default is twice the number of available processors.
+ */
+public void
+setTCPThreads(int threads) {
+	if (threads < 1)
+		throw new IllegalArgumentException("invalid thread count");
+	tcpThreads = threads;
+}
+
+/**
+ * Sets the number of accepted TCP connections that may wait for a free
+ * thread.  Connections beyond that are closed.  The default is 128.
+ */
+public void
+setTCPBacklog(int backlog) {
+	if (backlog < 1)
+		throw new IllegalArgumentException("invalid backlog");
+	tcpBacklog = backlog;
+}
+
+/**
+ * Sets how long a TCP connection may be idle before it is closed.
+ * @param secs The timeout in seconds (the default is 10).
+ */
+public void
+setTCPIdleTimeout(int secs) {
+	tcpIdleTimeout = secs * 1000;
+}
+
+private synchronized void
+register(Channel channel) throws IOException {
+	if (closed) {
+		channel.close();
+		throw new IllegalStateException("server is closed");
+	}
+	channels.add(channel);
+}
+
+private void
+startThread(Runnable r, String name) {
+	Thread t = new Thread(r, name);
+	t.start();
+}
+
+private static String
+addrport(InetAddress addr, int port) {
+	return addr.getHostAddress() + "#" + port;
+}
+
+/**
+ * Starts serving UDP queries on the specified address and port.
+ * @throws IOException The socket could not be bound.
+ */
+public void
+addUDP(InetAddress addr, int port) throws IOException {
+	final DatagramChannel channel = DatagramChannel.open();
+	channel.socket().bind(new InetSocketAddress(addr, port));
+	register(channel);
+	String name = "NioServer UDP " + addrport(addr, port);
+	for (int i = 0; i < udpThreads; i++) {
+		startThread(new Runnable() {
+				public void run() {serveUDP(channel);}},
+			    name + " " + i);
+	}
+}
+
+/**
+ * Starts serving TCP connections on the specified address and port.
+ * @throws IOException The socket could not be bound.
+ */
+public void
+addTCP(InetAddress addr, int port) throws IOException {
+	final ServerSocketChannel channel = ServerSocketChannel.open();
+	channel.socket().setReuseAddress(true);
+	channel.socket().bind(new InetSocketAddress(addr, port), 128);
+	register(channel);
+	synchronized (this) {
+		if (tcpPool == null)
+			tcpPool = new ThreadPoolExecutor(tcpThreads, tcpThreads,
+						 60, TimeUnit.SECONDS,
+						 new ArrayBlockingQueue(tcpBacklog));
+	}
+	startThread(new Runnable() {
+			public void run() {serveTCP(channel);}},
+		    "NioServer TCP " + addrport(addr, port));
+}
+
+/**
+ * Stops all listeners.  Connections that are being served are closed
+ * once their current request has been answered.
+ */
+public void
+close() {
+	synchronized (this) {
+		closed = true;
+		if (tcpPool != null)
+			tcpPool.shutdown();
+	}
+	for (int i = 0; i < channels.size(); i++) {
+		try {
+			((Channel) channels.get(i)).close();
+		}
+		catch (IOException e) {
+		}
+	}
+}
+
+private byte []
+handle(byte [] in, int length, Socket s) {
+	try {
+		return handler.handleRequest(in, length, s);
+	}
+	catch (RuntimeException e) {
+		if (Options.check("verbose"))
+			e.printStackTrace();
+		return null;
+	}
+}
+
+private void
+serveUDP(DatagramChannel channel) {
+	ByteBuffer inbuf = ByteBuffer.allocateDirect(MAX_MESSAGE);
+	ByteBuffer outbuf = ByteBuffer.allocateDirect(MAX_MESSAGE);
+	byte [] in = new byte[MAX_MESSAGE];
+	while (true) {
+		SocketAddress client;
+		try {
+			inbuf.clear();
+			client = channel.receive(inbuf);
+		}
+		catch (ClosedChannelException e) {
+			return;
+		}
+		catch (IOException e) {
+			if (Options.check("verbose"))
+				System.err.println("NioServer: " + e);
+			continue;
+		}
+		inbuf.flip();
+		int length = inbuf.remaining();
+		inbuf.get(in, 0, length);
+		byte [] response = handle(in, length, null);
+		if (response == null || response.length > MAX_MESSAGE)
+			continue;
+		outbuf.clear();
+		outbuf.put(response);
+		outbuf.flip();
+		try {
+			channel.send(outbuf, client);
+		}
+		catch (ClosedChannelException e) {
+			return;
+		}
+		catch (IOException e) {
+			if (Options.check("verbose"))
+				System.err.println("NioServer: " + e);
+		}
+	}
+}
+
+private void
+serveTCP(ServerSocketChannel channel) {
+	while (true) {
+		final SocketChannel client;
+		try {
+			client = channel.accept();
+		}
+		catch (ClosedChannelException e) {
+			return;
+		}
+		catch (IOException e) {
+			if (Options.check("verbose"))
+				System.err.println("NioServer: " + e);
+			continue;
+		}
+		try {
+			tcpPool.execute(new Runnable() {
+				public void run() {serveConnection(client);}});
+		}
+		catch (RejectedExecutionException e) {
+			/* Overloaded or closed; shed the connection. */
+			try {
+				client.close();
+			}
+			catch (IOException ioe) {
+			}
+		}
+	}
+}
+
+private void
+serveConnection(SocketChannel channel) {
+	Socket s = channel.socket();
+	try {
+		s.setSoTimeout(tcpIdleTimeout);
+		DataInputStream dataIn;
+		DataOutputStream dataOut;
+		dataIn = new DataInputStream(
+				new BufferedInputStream(s.getInputStream()));
+		dataOut = new DataOutputStream(
+				new BufferedOutputStream(s.getOutputStream()));
+		byte [] in = new byte[512];
+		while (!closed) {
+			int length;
+			try {
+				length = dataIn.readUnsignedShort();
+			}
+			catch (EOFException e) {
+				break;
+			}
+			if (length > in.length)
+				in = new byte[length];
+			dataIn.readFully(in, 0, length);
+			byte [] response = handle(in, length, s);
+			if (s.isClosed())
+				break;
+			if (response == null)
+				continue;
+			dataOut.writeShort(response.length);
+			dataOut.write(response);
+			dataOut.flush();
+		}
+	}
+	catch (SocketTimeoutException e) {
+		/* The connection was idle. */
+	}
+	catch (IOException e) {
+		if (Options.check("verbose"))
+			System.err.println("NioServer: " + e);
+	}
+	finally {
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+		}
+	}
+}
+
+}
@@ -0,0 +1,31 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.util.*;
+
+/**
+ * An immutable map from names to zone nodes, used as the storage of a
+ * Zone.  A node is either an RRset or an array of RRsets, neither of
+ * which may be modified once it is in a map.  Changes return a new map,
+ * which normally shares most of its contents with the old one.
+ */
+
+interface NodeMap {
+
+/** Returns the node at a name, or null if there is none. */
+Object
+get(Name name);
+
+/** Returns a map in which name is mapped to node. */
+NodeMap
+put(Name name, Object node);
+
+/** Returns a map without name. */
+NodeMap
+remove(Name name);
+
+/** Returns an Iterator over the Map.Entry objects, in canonical order. */
+Iterator
+iterator();
+
+}
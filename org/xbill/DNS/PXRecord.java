@@ -45,8 +45,8 @@ PXRecord(Name name, int dclass, long ttl, int preference,
 void
 rrFromWire(DNSInput in) throws IOException {
 	preference = in.readU16();
-	map822 = new Name(in);
-	mapX400 = new Name(in);
+	map822 = Name.fromWire(in);
+	mapX400 = Name.fromWire(in);
 }
 
 void
@@ -0,0 +1,100 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.util.concurrent.*;
+
+/**
+ * Runs a loop body over a range of indices in batches on an Executor, and
+ * waits for all of them to finish.  Used by the DNSSEC bulk operations and
+ * by ParallelMaster.
+ */
+
+abstract class ParallelLoop {
+
+private static Executor defaultExecutor;
+
+/**
+ * Returns a shared pool of daemon threads, with one thread per processor.
+ */
+static synchronized Executor
+getDefaultExecutor() {
+	if (defaultExecutor == null) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		defaultExecutor = Executors.newFixedThreadPool(threads,
+							       new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "dnsjava worker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	return defaultExecutor;
+}
+
+/** The loop body. */
+abstract void
+run(int index);
+
+/* The first exception thrown by the loop body, or null. */
+private volatile Throwable failure;
+
+private synchronized void
+fail(Throwable t) {
+	if (failure == null)
+		failure = t;
+}
+
+/**
+ * Runs the loop body for each index from 0 to count - 1.  If the executor
+ * rejects a batch, it is run on the calling thread.  If the loop body
+ * throws an exception, the batches that have not started are skipped, and
+ * the first exception is thrown again once the others have finished.
+ * @throws InterruptedException The thread was interrupted while waiting
+ * for the batches to finish.
+ */
+void
+execute(Executor executor, int count, int batchSize)
+	throws InterruptedException
+{
+	int batches = (count + batchSize - 1) / batchSize;
+	final CountDownLatch done = new CountDownLatch(batches);
+	for (int i = 0; i < batches; i++) {
+		final int first = i * batchSize;
+		final int last = Math.min(first + batchSize, count);
+		Runnable batch = new Runnable() {
+			public void run() {
+				try {
+					for (int j = first; j < last; j++) {
+						if (failure != null)
+							break;
+						ParallelLoop.this.run(j);
+					}
+				}
+				catch (Throwable t) {
+					fail(t);
+				}
+				finally {
+					done.countDown();
+				}
+			}
+		};
+		try {
+			executor.execute(batch);
+		}
+		catch (RejectedExecutionException e) {
+			batch.run();
+		}
+	}
+	done.await();
+
+	Throwable t = failure;
+	if (t instanceof RuntimeException)
+		throw (RuntimeException) t;
+	else if (t instanceof Error)
+		throw (Error) t;
+	else if (t != null)
+		throw new IllegalStateException(t.toString());
+}
+
+}
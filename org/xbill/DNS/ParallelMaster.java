@@ -0,0 +1,418 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A DNS master file parser which parses parts of the file in parallel.
+ * The file is split into chunks at lines which start with an owner name,
+ * outside of parentheses and quoted strings, and a quick scan of the file
+ * predicts the $ORIGIN and $TTL in effect at the start of each chunk.
+ * The chunks are then parsed on an Executor.  When they are done, the
+ * prediction for each chunk is checked against the state in which the
+ * previous chunk actually ended, including its last record, and a chunk
+ * whose records could be different is parsed again with the real state.
+ * The records, generators and errors are therefore exactly those that
+ * {@link Master} returns for the same file, in the same order.
+ * <p>
+ * Files without a $TTL directive, which rely on the TTLs of the SOA or of
+ * previous records, are parsed correctly but mostly sequentially.
+ * @see Master
+ * @see Zone#Zone(Name, String, boolean, Executor)
+ */
+
+public class ParallelMaster {
+
+/* Inputs no larger than this are parsed as one chunk. */
+private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+/* The number of chunks per processor, which evens out the load. */
+private static final int CHUNKS_PER_THREAD = 4;
+
+private static final int BLOCK_SIZE = 65536;
+
+/* The states of the scan for chunk boundaries. */
+private static final int NORMAL = 0;
+private static final int COMMENT = 1;
+private static final int QUOTED = 2;
+
+/* A part of the input, and the results of parsing it. */
+private static class Chunk {
+	int start;
+	int end;
+	int line;
+
+	/* The state predicted for the start of the chunk. */
+	Name origin;
+	long ttl;
+
+	/* Set when the chunk has been parsed. */
+	List records;
+	List generators;
+	Name endOrigin;
+	long endTTL;
+	Record last;
+	Exception exception;
+}
+
+private ByteBuffer input;
+private File file;
+private Name origin;
+private long defaultTTL;
+private Executor executor;
+private boolean noExpandGenerate;
+
+private List records;
+private List generators;
+
+/* The size of chunks, or 0 to choose it from the size of the input. */
+int chunkSize;
+
+/**
+ * Initializes the parser and maps the specified master file into memory.
+ * @param filename The master file.
+ * @param origin The initial origin to append to relative names.
+ * @param ttl The initial default TTL.
+ * @param executor The Executor that parses the chunks.  If null, a shared
+ * pool with one thread per processor is used.
+ * @throws IOException The master file could not be opened.
+ */
+public
+ParallelMaster(String filename, Name origin, long ttl, Executor executor)
+	throws IOException
+{
+	this(map(new File(filename)), origin, ttl, executor);
+	file = new File(filename);
+}
+
+/**
+ * Initializes the parser to read from a buffer, such as a MappedByteBuffer
+ * containing a master file.  The remaining contents of the buffer are
+ * parsed.
+ * @param in The buffer containing a master file.
+ * @param origin The initial origin to append to relative names.
+ * @param ttl The initial default TTL.
+ * @param executor The Executor that parses the chunks.  If null, a shared
+ * pool with one thread per processor is used.
+ */
+public
+ParallelMaster(ByteBuffer in, Name origin, long ttl, Executor executor) {
+	if (origin != null && !origin.isAbsolute()) {
+		throw new RelativeNameException(origin);
+	}
+	input = in.slice();
+	in.position(in.limit());
+	this.origin = origin;
+	defaultTTL = ttl;
+	this.executor = (executor != null) ? executor :
+					     ParallelLoop.getDefaultExecutor();
+}
+
+private static ByteBuffer
+map(File f) throws IOException {
+	FileInputStream in = new FileInputStream(f);
+	try {
+		FileChannel channel = in.getChannel();
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE)
+			throw new IOException(f + ": file too large to map");
+		return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+	}
+	finally {
+		in.close();
+	}
+}
+
+/**
+ * Specifies whether $GENERATE statements should be expanded.  Whether
+ * expanded or not, the specifications for generated records are available
+ * by calling {@link #generators}.  This must be called before the file is
+ * parsed to have an effect.
+ */
+public void
+expandGenerate(boolean wantExpand) {
+	noExpandGenerate = !wantExpand;
+}
+
+/**
+ * Returns an iterator over the generators specified in the master file; that
+ * is, the parsed contents of $GENERATE statements.  The file must have been
+ * parsed by {@link #records}.
+ * @see Generator
+ */
+public Iterator
+generators() {
+	if (generators != null)
+		return Collections.unmodifiableList(generators).iterator();
+	else
+		return Collections.EMPTY_LIST.iterator();
+}
+
+/**
+ * Parses the master file, if it has not been parsed already, and returns
+ * its records.
+ * @return The records, in the order of the file.
+ * @throws IOException The master file could not be read, or was syntactically
+ * invalid.
+ */
+public List
+records() throws IOException {
+	if (records == null)
+		parse();
+	return Collections.unmodifiableList(records);
+}
+
+private static boolean
+startsRecord(int c) {
+	switch (c) {
+	case ' ': case '\t': case '\n': case ';': case '(': case ')':
+	case '"': case '$': case '\\':
+		return false;
+	default:
+		return true;
+	}
+}
+
+private static Chunk
+newChunk(int start, int line, Name origin, long ttl) {
+	Chunk chunk = new Chunk();
+	chunk.start = start;
+	chunk.line = line;
+	chunk.origin = origin;
+	chunk.ttl = ttl;
+	return chunk;
+}
+
+private ByteBuffer
+slice(int start, int end) {
+	ByteBuffer b = input.duplicate();
+	b.limit(end);
+	b.position(start);
+	return b.slice();
+}
+
+/*
+ * Splits the input into chunks.  This follows the rules of the Tokenizer
+ * for line ends, escapes, comments, quoted strings and parentheses, so a
+ * chunk only starts where the Tokenizer would be at the start of a line
+ * with no open parentheses; and it parses $ORIGIN and $TTL directives, to
+ * predict their values at the start of each chunk.  If the scan finds
+ * something the Tokenizer would reject, the rest of the input is one
+ * chunk, so that the error is found when parsing it.
+ */
+private Chunk []
+split() {
+	int size = input.limit();
+	int target = chunkSize;
+	if (target <= 0) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		target = Math.max(MIN_CHUNK_SIZE,
+				  size / (threads * CHUNKS_PER_THREAD));
+	}
+	Chunk chunk = newChunk(0, 1, origin, defaultTTL);
+	if (size <= target) {
+		chunk.end = size;
+		return new Chunk [] {chunk};
+	}
+	List chunks = new ArrayList();
+	chunks.add(chunk);
+
+	Name o = origin;
+	long ttl = defaultTTL;
+	int next = target;
+	int line = 1;
+	int depth = 0;
+	int state = NORMAL;
+	boolean escaped = false, skipLF = false, lineStart = true;
+	int directive = -1;
+
+	ByteBuffer in = input.duplicate();
+	byte [] block = new byte[Math.min(BLOCK_SIZE, size)];
+	scan:
+	for (int base = 0; base < size; base += block.length) {
+		int n = Math.min(block.length, size - base);
+		in.get(block, 0, n);
+		for (int i = 0; i < n; i++) {
+			int pos = base + i;
+			int c = block[i] & 0xFF;
+			if (skipLF) {
+				skipLF = false;
+				if (c == '\n')
+					continue;
+			}
+			if (c == '\r') {
+				c = '\n';
+				skipLF = true;
+			}
+			if (lineStart) {
+				lineStart = false;
+				if (c == '$')
+					directive = pos;
+				else if (pos >= next && startsRecord(c)) {
+					chunk.end = pos;
+					chunk = newChunk(pos, line, o, ttl);
+					chunks.add(chunk);
+					next = pos + target;
+				}
+			}
+			if (c == '\n')
+				line++;
+			if (escaped) {
+				escaped = false;
+				continue;
+			}
+			if (state == COMMENT) {
+				if (c != '\n')
+					continue;
+				state = NORMAL;
+			} else if (state == QUOTED) {
+				if (c == '"')
+					state = NORMAL;
+				else if (c == '\\')
+					escaped = true;
+				else if (c == '\n')
+					break scan;
+				continue;
+			}
+			if (c == '\\')
+				escaped = true;
+			else if (c == '"')
+				state = QUOTED;
+			else if (c == ';')
+				state = COMMENT;
+			else if (c == '(')
+				depth++;
+			else if (c == ')') {
+				if (depth == 0)
+					break scan;
+				depth--;
+			} else if (c == '\n' && depth == 0) {
+				lineStart = true;
+				if (directive < 0)
+					continue;
+				Tokenizer st = new Tokenizer(slice(directive, pos));
+				directive = -1;
+				try {
+					String s = st.getString();
+					if (s.equalsIgnoreCase("$ORIGIN"))
+						o = st.getName(Name.root);
+					else if (s.equalsIgnoreCase("$TTL"))
+						ttl = st.getTTL();
+				}
+				catch (IOException e) {
+					/* The error is reported by the parse. */
+				}
+			}
+		}
+	}
+	chunk.end = size;
+	return (Chunk []) chunks.toArray(new Chunk[chunks.size()]);
+}
+
+/* Parses a chunk, starting with the given state. */
+private void
+parse(Chunk chunk, Name origin, long ttl, Record last) {
+	Master master = new Master(slice(chunk.start, chunk.end), file,
+				   chunk.line, origin, ttl, last);
+	master.expandGenerate(!noExpandGenerate);
+	List list = new ArrayList();
+	chunk.exception = null;
+	try {
+		Record record;
+		while ((record = master.nextRecord()) != null)
+			list.add(record);
+	}
+	catch (IOException e) {
+		chunk.exception = e;
+	}
+	catch (RuntimeException e) {
+		chunk.exception = e;
+	}
+	List gens = new ArrayList();
+	for (Iterator it = master.generators(); it.hasNext(); )
+		gens.add(it.next());
+	chunk.generators = gens;
+	chunk.endOrigin = master.getOrigin();
+	chunk.endTTL = master.getDefaultTTL();
+	chunk.last = master.getLast();
+	chunk.records = list;
+}
+
+private static boolean
+sameName(Name a, Name b) {
+	if (a == null || b == null)
+		return (a == b);
+	return a.identical(b);
+}
+
+/*
+ * Does parsing a chunk with its predicted state give the same results as
+ * parsing it with this state?  The chunk starts with an owner name, so the
+ * previous record only matters to records without a TTL when there is no
+ * default TTL, or if the first owner is the previous one in another case,
+ * as the previous owner is then used instead.
+ */
+private static boolean
+valid(Chunk chunk, Name origin, long ttl, Record last) {
+	if (chunk.ttl != ttl || !sameName(chunk.origin, origin))
+		return false;
+	if (last == null)
+		return true;
+	if (ttl < 0)
+		return false;
+	if (chunk.records.size() == 0)
+		return true;
+	Name owner = ((Record) chunk.records.get(0)).getName();
+	return (!owner.equals(last.getName()) ||
+		owner.identical(last.getName()));
+}
+
+private void
+parse() throws IOException {
+	final Chunk [] chunks = split();
+	if (chunks.length > 1) {
+		try {
+			new ParallelLoop() {
+				void run(int i) {
+					parse(chunks[i], chunks[i].origin,
+					      chunks[i].ttl, null);
+				}
+			}.execute(executor, chunks.length, 1);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while " +
+							 "parsing");
+		}
+	}
+
+	List all = new ArrayList();
+	List gens = new ArrayList();
+	Name o = origin;
+	long ttl = defaultTTL;
+	Record last = null;
+	for (int i = 0; i < chunks.length; i++) {
+		Chunk chunk = chunks[i];
+		if (chunk.records == null || !valid(chunk, o, ttl, last))
+			parse(chunk, o, ttl, last);
+		all.addAll(chunk.records);
+		gens.addAll(chunk.generators);
+		if (chunk.exception instanceof IOException)
+			throw (IOException) chunk.exception;
+		else if (chunk.exception != null)
+			throw (RuntimeException) chunk.exception;
+		o = chunk.endOrigin;
+		ttl = chunk.endTTL;
+		if (chunk.last != null)
+			last = chunk.last;
+		chunks[i] = null;
+	}
+	records = all;
+	generators = gens;
+}
+
+}
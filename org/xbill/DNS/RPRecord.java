@@ -41,8 +41,8 @@ RPRecord(Name name, int dclass, long ttl, Name mailbox, Name textDomain) {
 
 void
 rrFromWire(DNSInput in) throws IOException {
-	mailbox = new Name(in);
-	textDomain = new Name(in);
+	mailbox = Name.fromWire(in);
+	textDomain = Name.fromWire(in);
 }
 
 void
@@ -22,6 +22,22 @@ protected Name name;
 protected int type, dclass;
 protected long ttl;
 
+/*
+ * The rdata in uncompressed and canonical wire format, computed when they
+ * are first needed.  The rdata of a record does not change once it is
+ * built, except through package-private setters, which call rdataChanged();
+ * the owner name, class and TTL may (in clones, or through setTTL), but
+ * they are not part of these.
+ */
+private transient volatile byte [] wireRdata;
+private transient volatile byte [] canonicalRdata;
+
+/* Whether the rdata contains names which may be compressed. */
+private static final byte NAMES_UNKNOWN = 0;
+private static final byte NAMES_NONE = 1;
+private static final byte NAMES_COMPRESSED = 2;
+private transient byte rdataNames;
+
 private static final DecimalFormat byteFormat = new DecimalFormat();
 
 static {
@@ -94,6 +110,17 @@ throws IOException
 	return rec;
 }
 
+/*
+ * Creates a new record from uncompressed rdata at the current position of
+ * the input.
+ */
+static Record
+fromRdata(Name name, int type, int dclass, long ttl, int length, DNSInput in)
+throws IOException
+{
+	return newRecord(name, type, dclass, ttl, length, in);
+}
+
 /**
  * Creates a new record, with the given parameters.
  * @param name The owner name of the record.
@@ -180,7 +207,7 @@ fromWire(DNSInput in, int section, boolean isUpdate) throws IOException {
 	Name name;
 	Record rec;
 
-	name = new Name(in);
+	name = Name.fromWire(in);
 	type = in.readU16();
 	dclass = in.readU16();
 
@@ -217,11 +244,46 @@ toWire(DNSOutput out, int section, Compression c) {
 	if (section == Section.QUESTION)
 		return;
 	out.writeU32(ttl);
+	byte [] rdata = wireRdata;
+	if (rdata != null && (c == null || rdataNames == NAMES_NONE)) {
+		out.writeU16(rdata.length);
+		out.writeByteArray(rdata);
+		return;
+	}
 	int lengthPosition = out.current();
 	out.writeU16(0); /* until we know better */
+	int written = (c == null) ? 0 : c.written;
 	rrToWire(out, c, false);
 	int rrlength = out.current() - lengthPosition - 2;
 	out.writeU16At(rrlength, lengthPosition);
+	if (c != null && rdataNames == NAMES_UNKNOWN)
+		rdataNames = (c.written == written) ? NAMES_NONE
+						    : NAMES_COMPRESSED;
+	if (rdata == null && (c == null || rdataNames == NAMES_NONE)) {
+		/* What was written is the uncompressed rdata. */
+		rdata = new byte[rrlength];
+		System.arraycopy(out.array(), lengthPosition + 2, rdata, 0,
+				 rrlength);
+		wireRdata = rdata;
+	}
+}
+
+/*
+ * Returns a lower bound on the number of bytes toWire(out, section, c)
+ * would write for this record, without writing it.  The owner name may
+ * be compressed to a pointer, and the rdata is counted only when it is
+ * known not to be compressible.
+ */
+int
+minimumLength(int section, Compression c) {
+	int length = Math.min(2, name.length());
+	if (section == Section.QUESTION)
+		return length + 4;
+	length += 10;
+	byte [] rdata = wireRdata;
+	if (rdata != null && (c == null || rdataNames == NAMES_NONE))
+		length += rdata.length;
+	return length;
 }
 
 /**
@@ -244,11 +306,9 @@ toWireCanonical(DNSOutput out, boolean noTTL) {
 	} else {
 		out.writeU32(ttl);
 	}
-	int lengthPosition = out.current();
-	out.writeU16(0); /* until we know better */
-	rrToWire(out, null, true);
-	int rrlength = out.current() - lengthPosition - 2;
-	out.writeU16At(rrlength, lengthPosition);
+	byte [] rdata = rdataCanonical();
+	out.writeU16(rdata.length);
+	out.writeByteArray(rdata);
 }
 
 /*
@@ -277,9 +337,34 @@ toWireCanonical() {
  */
 public byte []
 rdataToWireCanonical() {
-	DNSOutput out = new DNSOutput();
-	rrToWire(out, null, true);
-	return out.toByteArray();
+	return rdataCanonical().clone();
+}
+
+/* Discards the memoized wire formats after the rdata has been changed. */
+void
+rdataChanged() {
+	wireRdata = null;
+	canonicalRdata = null;
+}
+
+/*
+ * Returns the rdata in canonical wire format, which is computed once.
+ * The array must not be modified.
+ */
+byte []
+rdataCanonical() {
+	byte [] rdata = canonicalRdata;
+	if (rdata == null) {
+		DNSOutput out = new DNSOutput();
+		rrToWire(out, null, true);
+		rdata = out.toByteArray();
+		/* Share the uncompressed form if it is the same. */
+		byte [] wire = wireRdata;
+		if (wire != null && Arrays.equals(wire, rdata))
+			rdata = wire;
+		canonicalRdata = rdata;
+	}
+	return rdata;
 }
 
 /**
@@ -454,8 +539,8 @@ throws IOException
 	DClass.check(dclass);
 	TTL.check(ttl);
 
-	Tokenizer.Token t = st.get();
-	if (t.type == Tokenizer.IDENTIFIER && t.value.equals("\\#")) {
+	Tokenizer.Token t = st.get(false, false, false);
+	if (t.type == Tokenizer.IDENTIFIER && st.currentEquals("\\#")) {
 		int length = st.getUInt16();
 		byte [] data = st.getHex();
 		if (data == null) {
@@ -573,8 +658,8 @@ equals(Object arg) {
 	Record r = (Record) arg;
 	if (type != r.type || dclass != r.dclass || !name.equals(r.name))
 		return false;
-	byte [] array1 = rdataToWireCanonical();
-	byte [] array2 = r.rdataToWireCanonical();
+	byte [] array1 = rdataCanonical();
+	byte [] array2 = r.rdataCanonical();
 	return Arrays.equals(array1, array2);
 }
 
@@ -657,8 +742,8 @@ compareTo(Object o) {
 	n = type - arg.type;
 	if (n != 0)
 		return (n);
-	byte [] rdata1 = rdataToWireCanonical();
-	byte [] rdata2 = arg.rdataToWireCanonical();
+	byte [] rdata1 = rdataCanonical();
+	byte [] rdata2 = arg.rdataCanonical();
 	for (int i = 0; i < rdata1.length && i < rdata2.length; i++) {
 		n = (rdata1[i] & 0xFF) - (rdata2[i] & 0xFF);
 		if (n != 0)
@@ -0,0 +1,28 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.net.Socket;
+
+/**
+ * The interface implemented by the code that answers queries received by
+ * a NioServer.  Requests are handled concurrently by several threads, so
+ * implementations must be thread safe.
+ * @see NioServer
+ */
+
+public interface RequestHandler {
+
+/**
+ * Generates the response to a request.
+ * @param in A buffer containing the request in wire format.  The buffer
+ * may be reused once this method returns.
+ * @param length The length of the request.
+ * @param s The connection the request was received on if it was received
+ * over TCP, or null if it was received over UDP.  A handler may write
+ * directly to the connection (to send a zone transfer, for example), in
+ * which case it should return null.
+ * @return The response in wire format, or null if nothing should be sent.
+ */
+byte [] handleRequest(byte [] in, int length, Socket s);
+
+}
@@ -57,7 +57,7 @@ rrFromWire(DNSInput in) throws IOException {
 	expire = new Date(1000 * in.readU32());
 	timeSigned = new Date(1000 * in.readU32());
 	footprint = in.readU16();
-	signer = new Name(in);
+	signer = Name.fromWire(in);
 	signature = in.readByteArray();
 }
 
@@ -189,6 +189,7 @@ getSignature() {
 void
 setSignature(byte [] signature) {
 	this.signature = signature;
+	rdataChanged();
 }
 
 void
@@ -52,8 +52,8 @@ SOARecord(Name name, int dclass, long ttl, Name host, Name admin,
 
 void
 rrFromWire(DNSInput in) throws IOException {
-	host = new Name(in);
-	admin = new Name(in);
+	host = Name.fromWire(in);
+	admin = Name.fromWire(in);
 	serial = in.readU32();
 	refresh = in.readU32();
 	retry = in.readU32();
@@ -52,7 +52,7 @@ rrFromWire(DNSInput in) throws IOException {
 	priority = in.readU16();
 	weight = in.readU16();
 	port = in.readU16();
-	target = new Name(in);
+	target = Name.fromWire(in);
 }
 
 void
@@ -177,7 +177,7 @@ getTimeout() {
 	return timeoutValue;
 }
 
-private Message
+static Message
 parseMessage(byte [] b) throws WireParseException {
 	try {
 		return (new Message(b));
@@ -191,7 +191,7 @@ parseMessage(byte [] b) throws WireParseException {
 	}
 }
 
-private void
+static void
 verifyTSIG(Message query, Message response, byte [] b, TSIG tsig) {
 	if (tsig == null)
 		return;
@@ -301,6 +301,10 @@ send(Message query) throws IOException {
  * to receive a callback on success or exception.  Multiple asynchronous
  * lookups can be performed in parallel.  Since the callback may be invoked
  * before the function returns, external synchronization is necessary.
+ * <p>
+ * Queries are multiplexed over a single shared I/O thread, which also
+ * invokes the callbacks; listeners should therefore not block.  Zone
+ * transfers are still performed in a separate thread.
  * @param query The query to send
  * @param listener The object containing the callbacks.
  * @return An identifier, which is also a parameter in the callback
@@ -312,11 +316,30 @@ sendAsync(final Message query, final ResolverListener listener) {
 		id = new Integer(uniqueID++);
 	}
 	Record question = query.getQuestion();
+	if (query.getHeader().getOpcode() != Opcode.QUERY ||
+	    question == null || question.getType() != Type.AXFR)
+	{
+		try {
+			Message q = (Message) query.clone();
+			applyEDNS(q);
+			if (tsig != null)
+				tsig.apply(q, null);
+			byte [] out = q.toWire(Message.MAXLENGTH);
+			long endTime = System.currentTimeMillis() +
+				       timeoutValue;
+			NioClient.sendAsync(q, out, localAddress, address,
+					    useTCP, maxUDPSize(q),
+					    ignoreTruncation, tsig, endTime,
+					    id, listener);
+		}
+		catch (IOException e) {
+			listener.handleException(id, e);
+		}
+		return id;
+	}
+
 	String qname;
-	if (question != null)
-		qname = question.getName().toString();
-	else
-		qname = "(none)";
+	qname = question.getName().toString();
 	String name = this.getClass() + ": " + qname;
 	Thread thread = new ResolveThread(this, query, id, listener);
 	thread.setName(name);
@@ -35,7 +35,7 @@ SingleNameBase(Name name, int type, int dclass, long ttl, Name singleName,
 
 void
 rrFromWire(DNSInput in) throws IOException {
-	singleName = new Name(in);
+	singleName = Name.fromWire(in);
 }
 
 void
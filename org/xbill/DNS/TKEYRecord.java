@@ -77,7 +77,7 @@ TKEYRecord(Name name, int dclass, long ttl, Name alg,
 
 void
 rrFromWire(DNSInput in) throws IOException {
-	alg = new Name(in);
+	alg = Name.fromWire(in);
 	timeInception = new Date(1000 * in.readU32());
 	timeExpire = new Date(1000 * in.readU32());
 	mode = in.readU16();
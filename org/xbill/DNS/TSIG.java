@@ -272,6 +272,55 @@ fromString(String str) {
  */
 public TSIGRecord
 generate(Message m, byte [] b, int error, TSIGRecord old) {
+	return generate(hmac, m.getHeader().getID(), b, b.length, error, old);
+}
+
+private static int
+fudge() {
+	int fudge = Options.intValue("tsigfudge");
+	if (fudge < 0 || fudge > 0x7FFF)
+		fudge = FUDGE;
+	return fudge;
+}
+
+/* Digests the MAC of a previous TSIG record, with its length. */
+private static void
+digestSignature(Mac hmac, TSIGRecord old) {
+	DNSOutput out = new DNSOutput();
+	out.writeU16(old.getSignature().length);
+	hmac.update(out.toByteArray());
+	hmac.update(old.getSignature());
+}
+
+/*
+ * Finishes the signature of a message after the first in a multiple
+ * message response, of which the previous MAC and the messages since have
+ * been digested, by digesting the timers only.
+ */
+private TSIGRecord
+generateStream(Mac hmac, int id) {
+	Date timeSigned = new Date();
+	int fudge = fudge();
+
+	DNSOutput out = new DNSOutput();
+	long time = timeSigned.getTime() / 1000;
+	int timeHigh = (int) (time >> 32);
+	long timeLow = (time & 0xFFFFFFFFL);
+	out.writeU16(timeHigh);
+	out.writeU32(timeLow);
+	out.writeU16(fudge);
+
+	hmac.update(out.toByteArray());
+
+	byte [] signature = hmac.doFinal();
+	return new TSIGRecord(name, DClass.ANY, 0, alg, timeSigned, fudge,
+			      signature, id, Rcode.NOERROR, null);
+}
+
+private TSIGRecord
+generate(Mac hmac, int id, byte [] b, int length, int error,
+	 TSIGRecord old)
+{
 	Date timeSigned;
 	if (error != Rcode.BADTIME)
 		timeSigned = new Date();
@@ -284,22 +333,14 @@ generate(Message m, byte [] b, int error, TSIGRecord old) {
 		hmac.reset();
 	}
 
-	fudge = Options.intValue("tsigfudge");
-	if (fudge < 0 || fudge > 0x7FFF)
-		fudge = FUDGE;
+	fudge = fudge();
 
-	if (old != null) {
-		DNSOutput out = new DNSOutput();
-		out.writeU16(old.getSignature().length);
-		if (signing) {
-			hmac.update(out.toByteArray());
-			hmac.update(old.getSignature());
-		}
-	}
+	if (old != null && signing)
+		digestSignature(hmac, old);
 
 	/* Digest the message */
 	if (signing)
-		hmac.update(b);
+		hmac.update(b, 0, length);
 
 	DNSOutput out = new DNSOutput();
 	name.toWireCanonical(out);
@@ -337,7 +378,7 @@ generate(Message m, byte [] b, int error, TSIGRecord old) {
 	}
 
 	return (new TSIGRecord(name, DClass.ANY, 0, alg, timeSigned, fudge,
-			       signature, m.getHeader().getID(), error, other));
+			       signature, id, error, other));
 }
 
 /**
@@ -375,38 +416,13 @@ applyStream(Message m, TSIGRecord old, boolean first) {
 		apply(m, old);
 		return;
 	}
-	Date timeSigned = new Date();
-	int fudge;
 	hmac.reset();
-
-	fudge = Options.intValue("tsigfudge");
-	if (fudge < 0 || fudge > 0x7FFF)
-		fudge = FUDGE;
-
-	DNSOutput out = new DNSOutput();
-	out.writeU16(old.getSignature().length);
-	hmac.update(out.toByteArray());
-	hmac.update(old.getSignature());
+	digestSignature(hmac, old);
 
 	/* Digest the message */
 	hmac.update(m.toWire());
 
-	out = new DNSOutput();
-	long time = timeSigned.getTime() / 1000;
-	int timeHigh = (int) (time >> 32);
-	long timeLow = (time & 0xFFFFFFFFL);
-	out.writeU16(timeHigh);
-	out.writeU32(timeLow);
-	out.writeU16(fudge);
-
-	hmac.update(out.toByteArray());
-
-	byte [] signature = hmac.doFinal();
-	byte [] other = null;
-
-	Record r = new TSIGRecord(name, DClass.ANY, 0, alg, timeSigned, fudge,
-				  signature, m.getHeader().getID(),
-				  Rcode.NOERROR, other);
+	Record r = generateStream(hmac, m.getHeader().getID());
 	m.addRecord(r, Section.ADDITIONAL);
 	m.tsigState = Message.TSIG_SIGNED;
 }
@@ -537,7 +553,7 @@ recordLength() {
 	return (name.length() + 10 +
 		alg.length() +
 		8 +	// time signed, fudge
-		18 +	// 2 byte MAC length, 16 byte MAC
+		2 + hmac.getMacLength() +	// MAC length, MAC
 		4 +	// original id, error
 		8);	// 2 byte error length, 6 byte max error field.
 }
@@ -658,4 +674,82 @@ public static class StreamVerifier {
 	}
 }
 
+public static class StreamGenerator {
+	/**
+	 * A helper class for signing multiple message responses.  Unlike
+	 * {@link TSIG#applyStream}, which signs every Message it is given,
+	 * it signs messages that have already been rendered, and only some
+	 * of them.
+	 */
+
+	private TSIG key;
+	private Mac signer;
+	private int nmessages;
+	private int lastsigned;
+	private TSIGRecord lastTSIG;
+
+	/**
+	 * Creates an object to sign a multiple message response.  It uses its
+	 * own copy of the key's HMAC if possible, so that the key can be used
+	 * for other messages while the response is being sent.
+	 * @param tsig The TSIG key.
+	 * @param old The TSIG from the request.
+	 */
+	public
+	StreamGenerator(TSIG tsig, TSIGRecord old) {
+		key = tsig;
+		try {
+			signer = (Mac) tsig.hmac.clone();
+		}
+		catch (CloneNotSupportedException e) {
+			signer = tsig.hmac;
+		}
+		lastTSIG = old;
+	}
+
+	private void
+	startDigest(TSIGRecord tsig) {
+		signer.reset();
+		digestSignature(signer, tsig);
+		lastsigned = nmessages;
+		lastTSIG = tsig;
+	}
+
+	/**
+	 * Digests a message that is part of a multiple message response, and
+	 * returns a TSIG record for it if it is to be signed.  The first
+	 * message is always signed, and so is every 99th message after the
+	 * last one that was signed, which keeps within the limit of 100 that
+	 * verifiers allow; other messages are only signed if requested, and
+	 * are otherwise covered by the next signature.  The last message of a
+	 * response must be signed.
+	 * @param b An array containing the rendered message, without a TSIG
+	 * record.
+	 * @param length The length of the message in the array.
+	 * @param sign Whether the message must be signed.
+	 * @return The TSIG record to be added to the message, or null if it is
+	 * not signed.
+	 * @see StreamVerifier
+	 */
+	public TSIGRecord
+	generate(byte [] b, int length, boolean sign) {
+		nmessages++;
+		int id = ((b[0] & 0xFF) << 8) | (b[1] & 0xFF);
+		if (nmessages == 1) {
+			TSIGRecord tsig = key.generate(signer, id, b, length,
+						       Rcode.NOERROR, lastTSIG);
+			startDigest(tsig);
+			return tsig;
+		}
+
+		signer.update(b, 0, length);
+		if (!sign && nmessages - lastsigned < 99)
+			return null;
+
+		TSIGRecord tsig = key.generateStream(signer, id);
+		startDigest(tsig);
+		return tsig;
+	}
+}
+
 }
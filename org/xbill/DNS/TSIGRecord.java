@@ -67,7 +67,7 @@ TSIGRecord(Name name, int dclass, long ttl, Name alg, Date timeSigned,
 
 void
 rrFromWire(DNSInput in) throws IOException {
-	alg = new Name(in);
+	alg = Name.fromWire(in);
 
 	long timeHigh = in.readU16();
 	long timeLow = in.readU32();
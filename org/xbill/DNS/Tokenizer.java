@@ -19,11 +19,18 @@ package org.xbill.DNS;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
 
 import org.xbill.DNS.utils.*;
 
 /**
  * Tokenizer is used to parse DNS records and zones from text format,
+ * <p>
+ * The input is read in large blocks and scanned as bytes, and the text of
+ * each token is kept in a reusable buffer.  Numbers, TTLs, names and IPv4
+ * addresses are parsed directly from that buffer, so Strings are only
+ * created for tokens that are returned as Strings, and short ones, such
+ * as types and classes, are shared.
  *
  * @author Brian Wellington
  * @author Bob Halley
@@ -52,15 +59,37 @@ public static final int QUOTED_STRING	= 4;
 /** A comment; only returned when wantComment is set */
 public static final int COMMENT		= 5;
 
-private PushbackInputStream is;
+private static final int BUFFER_SIZE = 65536;
+
+/* The number of bytes kept at the start of the buffer for ungetChar(). */
+private static final int PUSHBACK = 2;
+
+/* Tokens up to this long are looked up in the string cache. */
+private static final int CACHED_STRING_LENGTH = 16;
+
+private InputStream is;
+private ByteBuffer source;
+private byte [] buf;
+private int pos;
+private int limit;
+
 private boolean ungottenToken;
 private int multiline;
 private boolean quoting;
 private String delimiters;
 private Token current;
-private StringBuffer sb;
 private boolean wantClose;
 
+/* The text of the current token. */
+private char [] chars;
+private int length;
+
+/* Recently created strings and names, indexed by the hash of their text. */
+private String [] strings;
+private char [][] nameChars;
+private Name [] names;
+private Name [] nameOrigins;
+
 private String filename;
 private int line;
 
@@ -78,14 +107,21 @@ public static class Token {
 	}
 
 	private Token
-	set(int type, StringBuffer value) {
+	set(int type) {
 		if (type < 0)
 			throw new IllegalArgumentException();
 		this.type = type;
-		this.value = value == null ? null : value.toString();
+		this.value = null;
 		return this;
 	}
 
+	/* Does this token have text, which may not be in value yet? */
+	private boolean
+	hasText() {
+		return (type == IDENTIFIER || type == QUOTED_STRING ||
+			type == COMMENT);
+	}
+
 	/**
 	 * Converts the token to a string containing a representation useful
 	 * for debugging.
@@ -144,17 +180,30 @@ static class TokenizerException extends TextParseException {
  */
 public
 Tokenizer(InputStream is) {
-	if (!(is instanceof BufferedInputStream))
-		is = new BufferedInputStream(is);
-	this.is = new PushbackInputStream(is, 2);
-	ungottenToken = false;
-	multiline = 0;
-	quoting = false;
-	delimiters = delim;
-	current = new Token();
-	sb = new StringBuffer();
-	filename = "<none>";
-	line = 1;
+	this.is = is;
+	buf = new byte[BUFFER_SIZE];
+	init();
+}
+
+/**
+ * Creates a Tokenizer from the remaining bytes of a buffer, such as a
+ * MappedByteBuffer containing a file.  The position of the buffer is
+ * advanced as it is read.
+ * @param input The ByteBuffer to tokenize.
+ */
+public
+Tokenizer(ByteBuffer input) {
+	if (input.hasArray()) {
+		buf = input.array();
+		pos = input.arrayOffset() + input.position();
+		limit = input.arrayOffset() + input.limit();
+		input.position(input.limit());
+	} else {
+		source = input;
+		buf = new byte[Math.min(BUFFER_SIZE,
+					input.remaining() + PUSHBACK)];
+	}
+	init();
 }
 
 /**
@@ -163,7 +212,7 @@ Tokenizer(InputStream is) {
  */
 public
 Tokenizer(String s) {
-	this(new ByteArrayInputStream(s.getBytes()));
+	this(ByteBuffer.wrap(s.getBytes()));
 }
 
 /**
@@ -177,13 +226,50 @@ Tokenizer(File f) throws FileNotFoundException {
 	filename = f.getName();
 }
 
+private void
+init() {
+	ungottenToken = false;
+	multiline = 0;
+	quoting = false;
+	delimiters = delim;
+	current = new Token();
+	chars = new char[64];
+	filename = "<none>";
+	line = 1;
+}
+
+/*
+ * Reads the next block of input into the buffer, keeping the last bytes
+ * read so that they can be pushed back.  Returns false at the end of the
+ * input.
+ */
+private boolean
+fill() throws IOException {
+	if (is == null && source == null)
+		return false;
+	int keep = Math.min(limit, PUSHBACK);
+	System.arraycopy(buf, limit - keep, buf, 0, keep);
+	pos = limit = keep;
+	int n;
+	if (source != null) {
+		n = Math.min(source.remaining(), buf.length - keep);
+		source.get(buf, keep, n);
+	} else
+		n = is.read(buf, keep, buf.length - keep);
+	if (n <= 0)
+		return false;
+	limit += n;
+	return true;
+}
+
 private int
 getChar() throws IOException {
-	int c = is.read();
+	if (pos == limit && !fill())
+		return -1;
+	int c = buf[pos++] & 0xFF;
 	if (c == '\r') {
-		int next = is.read();
-		if (next != '\n')
-			is.unread(next);
+		if ((pos < limit || fill()) && buf[pos] == '\n')
+			pos++;
 		c = '\n';
 	}
 	if (c == '\n')
@@ -195,7 +281,7 @@ private void
 ungetChar(int c) throws IOException {
 	if (c == -1)
 		return;
-	is.unread(c);
+	pos--;
 	if (c == '\n')
 		line--;
 }
@@ -215,6 +301,16 @@ skipWhitespace() throws IOException {
 	}
 }
 
+private void
+append(int c) {
+	if (length == chars.length) {
+		char [] newchars = new char[length * 2];
+		System.arraycopy(chars, 0, newchars, 0, length);
+		chars = newchars;
+	}
+	chars[length++] = (char) c;
+}
+
 private void
 checkUnbalancedParens() throws TextParseException {
 	if (multiline > 0)
@@ -232,6 +328,26 @@ checkUnbalancedParens() throws TextParseException {
  */
 public Token
 get(boolean wantWhitespace, boolean wantComment) throws IOException {
+	return get(wantWhitespace, wantComment, true);
+}
+
+/*
+ * Gets the next token, without making a String of its text unless
+ * wantValue is set.  The text stays available to the methods below until
+ * the next token is read.
+ */
+Token
+get(boolean wantWhitespace, boolean wantComment, boolean wantValue)
+throws IOException
+{
+	Token token = nextToken(wantWhitespace, wantComment);
+	if (wantValue && token.value == null && token.hasText())
+		token.value = currentString();
+	return token;
+}
+
+private Token
+nextToken(boolean wantWhitespace, boolean wantComment) throws IOException {
 	int type;
 	int c;
 
@@ -251,9 +367,9 @@ get(boolean wantWhitespace, boolean wantComment) throws IOException {
 	}
 	int skipped = skipWhitespace();
 	if (skipped > 0 && wantWhitespace)
-		return current.set(WHITESPACE, null);
+		return current.set(WHITESPACE);
 	type = IDENTIFIER;
-	sb.setLength(0);
+	length = 0;
 	while (true) {
 		c = getChar();
 		if (c == -1 || delimiters.indexOf(c) != -1) {
@@ -261,12 +377,12 @@ get(boolean wantWhitespace, boolean wantComment) throws IOException {
 				if (quoting)
 					throw exception("EOF in " +
 							"quoted string");
-				else if (sb.length() == 0)
-					return current.set(EOF, null);
+				else if (length == 0)
+					return current.set(EOF);
 				else
-					return current.set(type, sb);
+					return current.set(type);
 			}
-			if (sb.length() == 0 && type != QUOTED_STRING) {
+			if (length == 0 && type != QUOTED_STRING) {
 				if (c == '(') {
 					multiline++;
 					skipWhitespace();
@@ -291,28 +407,28 @@ get(boolean wantWhitespace, boolean wantComment) throws IOException {
 					}
 					continue;
 				} else if (c == '\n') {
-					return current.set(EOL, null);
+					return current.set(EOL);
 				} else if (c == ';') {
 					while (true) {
 						c = getChar();
 						if (c == '\n' || c == -1)
 							break;
-						sb.append((char)c);
+						append(c);
 					}
 					if (wantComment) {
 						ungetChar(c);
-						return current.set(COMMENT, sb);
+						return current.set(COMMENT);
 					} else if (c == -1 &&
 						   type != QUOTED_STRING)
 					{
 						checkUnbalancedParens();
-						return current.set(EOF, null);
+						return current.set(EOF);
 					} else if (multiline > 0) {
 						skipWhitespace();
-						sb.setLength(0);
+						length = 0;
 						continue;
 					} else
-						return current.set(EOL, null);
+						return current.set(EOL);
 				} else
 					throw new IllegalStateException();
 			} else
@@ -322,17 +438,58 @@ get(boolean wantWhitespace, boolean wantComment) throws IOException {
 			c = getChar();
 			if (c == -1)
 				throw exception("unterminated escape sequence");
-			sb.append('\\');
+			append('\\');
 		} else if (quoting && c == '\n') {
 			throw exception("newline in quoted string");
 		}
-		sb.append((char)c);
+		append(c);
 	}
-	if (sb.length() == 0 && type != QUOTED_STRING) {
+	if (length == 0 && type != QUOTED_STRING) {
 		checkUnbalancedParens();
-		return current.set(EOF, null);
+		return current.set(EOF);
 	}
-	return current.set(type, sb);
+	return current.set(type);
+}
+
+/* Returns the text of the current token as a String. */
+String
+currentString() {
+	if (length > CACHED_STRING_LENGTH)
+		return new String(chars, 0, length);
+	if (strings == null)
+		strings = new String[256];
+	int slot = hash() & (strings.length - 1);
+	String s = strings[slot];
+	if (s == null || !currentEquals(s)) {
+		s = new String(chars, 0, length);
+		strings[slot] = s;
+	}
+	return s;
+}
+
+/* Does the text of the current token start with a character? */
+boolean
+currentStartsWith(char c) {
+	return (length > 0 && chars[0] == c);
+}
+
+/* Is the text of the current token equal to a string? */
+boolean
+currentEquals(String s) {
+	if (s.length() != length)
+		return false;
+	for (int i = 0; i < length; i++)
+		if (s.charAt(i) != chars[i])
+			return false;
+	return true;
+}
+
+private int
+hash() {
+	int h = 0;
+	for (int i = 0; i < length; i++)
+		h = 31 * h + chars[i];
+	return h ^ (h >>> 16);
 }
 
 /**
@@ -376,6 +533,14 @@ getString() throws IOException {
 	return next.value;
 }
 
+/* Gets the next token, which must be an identifier, without its value. */
+private void
+nextIdentifier(String expected) throws IOException {
+	Token next = get(false, false, false);
+	if (next.type != IDENTIFIER)
+		throw exception("expected " + expected);
+}
+
 private String
 _getIdentifier(String expected) throws IOException {
 	Token next = get();
@@ -404,14 +569,25 @@ getIdentifier() throws IOException {
  */
 public long
 getLong() throws IOException {
-	String next = _getIdentifier("an integer");
-	if (!Character.isDigit(next.charAt(0)))
-		throw exception("expected an integer");
-	try {
-		return Long.parseLong(next);
-	} catch (NumberFormatException e) {
-		throw exception("expected an integer");
+	nextIdentifier("an integer");
+	if (length > 18) {
+		String next = currentString();
+		if (!Character.isDigit(next.charAt(0)))
+			throw exception("expected an integer");
+		try {
+			return Long.parseLong(next);
+		} catch (NumberFormatException e) {
+			throw exception("expected an integer");
+		}
 	}
+	long value = 0;
+	for (int i = 0; i < length; i++) {
+		char c = chars[i];
+		if (c < '0' || c > '9')
+			throw exception("expected an integer");
+		value = value * 10 + (c - '0');
+	}
+	return value;
 }
 
 /**
@@ -510,16 +686,50 @@ getTTLLike() throws IOException {
  */
 public Name
 getName(Name origin) throws IOException {
-	String next = _getIdentifier("a name");
+	nextIdentifier("a name");
+	Name name = currentName(origin);
+	if (!name.isAbsolute())
+		throw new RelativeNameException(name);
+	return name;
+}
+
+/*
+ * Converts the text of the current token to a name, which may be
+ * relative.  Names are parsed from the token buffer, and a recently
+ * parsed Name with the same text and origin is reused.
+ */
+Name
+currentName(Name origin) throws TextParseException {
+	if (names == null) {
+		names = new Name[64];
+		nameOrigins = new Name[64];
+		nameChars = new char[64][];
+	}
+	int slot = hash() & (names.length - 1);
+	char [] text = nameChars[slot];
+	if (names[slot] != null && nameOrigins[slot] == origin &&
+	    text[0] == length)
+	{
+		int i = 0;
+		while (i < length && text[i + 1] == chars[i])
+			i++;
+		if (i == length)
+			return names[slot];
+	}
+	Name name;
 	try {
-		Name name = Name.fromString(next, origin);
-		if (!name.isAbsolute())
-			throw new RelativeNameException(name);
-		return name;
+		name = Name.fromChars(chars, 0, length, origin);
 	}
 	catch (TextParseException e) {
 		throw exception(e.getMessage());
 	}
+	if (text == null || text.length <= length)
+		text = nameChars[slot] = new char[Math.max(length + 1, 32)];
+	text[0] = (char) length;
+	System.arraycopy(chars, 0, text, 1, length);
+	names[slot] = name;
+	nameOrigins[slot] = origin;
+	return name;
 }
 
 /**
@@ -534,10 +744,14 @@ getName(Name origin) throws IOException {
  */
 public byte []
 getAddressBytes(int family) throws IOException {
-	String next = _getIdentifier("an address");
-	byte [] bytes = Address.toByteArray(next, family);
+	nextIdentifier("an address");
+	byte [] bytes;
+	if (family == Address.IPv4)
+		bytes = Address.parseV4(chars, 0, length);
+	else
+		bytes = Address.toByteArray(currentString(), family);
 	if (bytes == null)
-		throw exception("Invalid address: " + next);
+		throw exception("Invalid address: " + currentString());
 	return bytes;
 }
 
@@ -700,6 +914,17 @@ getBase32String(base32 b32) throws IOException {
 	return array;
 }
 
+/*
+ * Sets the file name and line number reported in exceptions, for a
+ * Tokenizer reading part of a file.
+ */
+void
+setLocation(String filename, int line) {
+	if (filename != null)
+		this.filename = filename;
+	this.line = line;
+}
+
 /**
  * Creates an exception which includes the current state in the error message
  * @param s The error message to include.
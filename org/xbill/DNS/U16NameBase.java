@@ -38,7 +38,7 @@ U16NameBase(Name name, int type, int dclass, long ttl, int u16Field,
 void
 rrFromWire(DNSInput in) throws IOException {
 	u16Field = in.readU16();
-	nameField = new Name(in);
+	nameField = Name.fromWire(in);
 }
 
 void
@@ -47,8 +47,12 @@ UDPClient(long endTime) throws IOException {
 	super(DatagramChannel.open(), endTime);
 }
 
-private void
-bind_random(InetSocketAddress addr) throws IOException
+/*
+ * Binds the channel to a random ephemeral port, returning false if that
+ * wasn't possible, in which case the caller should let the system choose.
+ */
+static boolean
+bindRandom(DatagramChannel channel, InetSocketAddress addr) throws IOException
 {
 	if (prng_initializing) {
 		try {
@@ -57,10 +61,9 @@ bind_random(InetSocketAddress addr) throws IOException
 		catch (InterruptedException e) {
 		}
 		if (prng_initializing)
-			return;
+			return false;
 	}
 
-	DatagramChannel channel = (DatagramChannel) key.channel();
 	InetSocketAddress temp;
 
 	for (int i = 0; i < 1024; i++) {
@@ -73,12 +76,20 @@ bind_random(InetSocketAddress addr) throws IOException
 			else
 				temp = new InetSocketAddress(port);
 			channel.socket().bind(temp);
-			bound = true;
-			return;
+			return true;
 		}
 		catch (SocketException e) {
 		}
 	}
+	return false;
+}
+
+private void
+bind_random(InetSocketAddress addr) throws IOException
+{
+	DatagramChannel channel = (DatagramChannel) key.channel();
+	if (bindRandom(channel, addr))
+		bound = true;
 }
 
 void
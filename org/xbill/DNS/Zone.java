@@ -3,11 +3,30 @@
 package org.xbill.DNS;
 
 import java.io.*;
+import java.net.*;
+import java.nio.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A DNS Zone.  This encapsulates all data related to a Zone, and provides
  * convenient lookup methods.
+ * <p>
+ * The contents of a zone are immutable versions, and each change creates
+ * a new version which shares most of its data with the previous one.
+ * Lookups and iterators use the version that was current when they
+ * started and do not lock, so they are not blocked by updates and never
+ * see partial changes.  RRsets returned by a zone must therefore not be
+ * modified; use {@link #addRecord}, {@link #removeRecord} or
+ * {@link #applyChanges} instead.
+ * <p>
+ * A zone may be created in compact mode, in which its names and records
+ * are stored in packed arrays rather than as objects, and Records and
+ * RRsets are created when they are looked up.  This uses a fraction of
+ * the memory, at the cost of slower lookups.
+ * <p>
+ * A zone can be written as a snapshot, a binary form of its names and
+ * records, from which a compact zone is loaded without parsing anything.
  *
  * @author Brian Wellington
  */
@@ -22,26 +41,53 @@ public static final int PRIMARY = 1;
 /** A secondary zone */
 public static final int SECONDARY = 2;
 
-private Map data;
+/* The start of a snapshot, and its format version. */
+private static final int SNAPSHOT_MAGIC = 0x444E535A;
+private static final int SNAPSHOT_VERSION = 1;
+
+/* Snapshot flags. */
+private static final int SNAPSHOT_WILD = 1;
+
 private Name origin;
-private Object originNode;
 private int dclass = DClass.IN;
-private RRset NS;
-private SOARecord SOA;
-private boolean hasWild;
+private volatile Version version;
+
+/*
+ * A version of the zone's contents.  Nodes are RRsets, or arrays of RRsets
+ * if there is more than one at a name.
+ */
+private static final class Version implements Serializable {
+	private static final long serialVersionUID = 6417231398430282813L;
+
+	final NodeMap data;
+	final Object originNode;
+	final RRset NS;
+	final SOARecord SOA;
+	final boolean hasWild;
+
+	Version(NodeMap data, Object originNode, RRset NS, SOARecord SOA,
+		boolean hasWild)
+	{
+		this.data = data;
+		this.originNode = originNode;
+		this.NS = NS;
+		this.SOA = SOA;
+		this.hasWild = hasWild;
+	}
+}
 
 class ZoneIterator implements Iterator {
+	private Version version;
 	private Iterator zentries;
 	private RRset [] current;
 	private int count;
 	private boolean wantLastSOA;
 
 	ZoneIterator(boolean axfr) {
-		synchronized (Zone.this) {
-			zentries = data.entrySet().iterator();
-		}
+		version = Zone.this.version;
+		zentries = version.data.iterator();
 		wantLastSOA = axfr;
-		RRset [] sets = allRRsets(originNode);
+		RRset [] sets = allRRsets(version.originNode);
 		current = new RRset[sets.length];
 		for (int i = 0, j = 2; i < sets.length; i++) {
 			int type = sets[i].getType();
@@ -66,7 +112,7 @@ class ZoneIterator implements Iterator {
 		}
 		if (current == null) {
 			wantLastSOA = false;
-			return oneRRset(originNode, Type.SOA);
+			return oneRRset(version.originNode, Type.SOA);
 		}
 		Object set = current[count++];
 		if (count == current.length) {
@@ -94,7 +140,7 @@ class ZoneIterator implements Iterator {
 
 private void
 validate() throws IOException {
-	originNode = exactName(origin);
+	Object originNode = version.originNode;
 	if (originNode == null)
 		throw new IOException(origin + ": no data specified");
 
@@ -102,11 +148,8 @@ validate() throws IOException {
 	if (rrset == null || rrset.size() != 1)
 		throw new IOException(origin +
 				      ": exactly 1 SOA must be specified");
-	Iterator it = rrset.rrs();
-	SOA = (SOARecord) it.next();
 
-	NS = oneRRset(originNode, Type.NS);
-	if (NS == null)
+	if (oneRRset(originNode, Type.NS) == null)
 		throw new IOException(origin + ": no NS set specified");
 }
 
@@ -124,6 +167,28 @@ maybeAddRecord(Record record) throws IOException {
 		addRecord(record);
 }
 
+private void
+init(Name zone, boolean compact) {
+	if (zone == null)
+		throw new IllegalArgumentException("no zone name specified");
+	origin = zone;
+	NodeMap data;
+	if (compact)
+		data = new CompactZoneMap(zone);
+	else
+		data = ZoneTree.EMPTY;
+	version = new Version(data, null, null, null, false);
+}
+
+private void
+finishLoading() throws IOException {
+	if (version.data instanceof CompactZoneMap) {
+		CompactZoneMap data = (CompactZoneMap) version.data;
+		publish(data.compact(), false, false);
+	}
+	validate();
+}
+
 /**
  * Creates a Zone from the records in the specified master file.
  * @param zone The name of the zone.
@@ -132,17 +197,47 @@ maybeAddRecord(Record record) throws IOException {
  */
 public
 Zone(Name zone, String file) throws IOException {
-	data = new TreeMap();
+	this(zone, file, false);
+}
 
-	if (zone == null)
-		throw new IllegalArgumentException("no zone name specified");
+/**
+ * Creates a Zone from the records in the specified master file.
+ * @param zone The name of the zone.
+ * @param file The master file to read from.
+ * @param compact Whether the zone is stored in compact mode.
+ * @see Master
+ */
+public
+Zone(Name zone, String file, boolean compact) throws IOException {
+	init(zone, compact);
 	Master m = new Master(file, zone);
 	Record record;
 
-	origin = zone;
 	while ((record = m.nextRecord()) != null)
 		maybeAddRecord(record);
-	validate();
+	finishLoading();
+}
+
+/**
+ * Creates a Zone from the records in the specified master file, which is
+ * parsed in parallel.
+ * @param zone The name of the zone.
+ * @param file The master file to read from.
+ * @param compact Whether the zone is stored in compact mode.
+ * @param executor The Executor that parses the file.  If null, a shared
+ * pool with one thread per processor is used.
+ * @see ParallelMaster
+ */
+public
+Zone(Name zone, String file, boolean compact, Executor executor)
+	throws IOException
+{
+	init(zone, compact);
+	ParallelMaster m = new ParallelMaster(file, zone, -1, executor);
+	Iterator it = m.records().iterator();
+	while (it.hasNext())
+		maybeAddRecord((Record) it.next());
+	finishLoading();
 }
 
 /**
@@ -153,21 +248,107 @@ Zone(Name zone, String file) throws IOException {
  */
 public
 Zone(Name zone, Record [] records) throws IOException {
-	data = new TreeMap();
+	this(zone, records, false);
+}
 
-	if (zone == null)
-		throw new IllegalArgumentException("no zone name specified");
-	origin = zone;
+/**
+ * Creates a Zone from an array of records.
+ * @param zone The name of the zone.
+ * @param records The records to add to the zone.
+ * @param compact Whether the zone is stored in compact mode.
+ * @see Master
+ */
+public
+Zone(Name zone, Record [] records, boolean compact) throws IOException {
+	init(zone, compact);
 	for (int i = 0; i < records.length; i++)
 		maybeAddRecord(records[i]);
+	finishLoading();
+}
+
+/*
+ * Creates a copy of a zone's current version.  The copy shares the zone's
+ * data, and changes to either are not seen by the other, so changes can be
+ * prepared in the copy before they are applied to the zone at once.
+ */
+Zone(Zone zone) {
+	origin = zone.origin;
+	dclass = zone.dclass;
+	version = zone.version;
+}
+
+/**
+ * Creates a compact Zone from a snapshot written by {@link #writeSnapshot}.
+ * The buffer is normally a MappedByteBuffer of a snapshot file.  Only the
+ * names are copied out of it; records are parsed from it when they are
+ * looked up, so it must not be modified while the zone is in use.
+ * @param snapshot The buffer containing the snapshot, from its position.
+ * @throws IOException The snapshot is invalid, or has an unsupported
+ * format version.
+ */
+public
+Zone(ByteBuffer snapshot) throws IOException {
+	ByteBuffer in = snapshot.slice();
+	try {
+		if (in.getInt() != SNAPSHOT_MAGIC)
+			throw new IOException("not a zone snapshot");
+		int format = in.getInt();
+		if (format != SNAPSHOT_VERSION)
+			throw new IOException("unsupported zone snapshot " +
+					      "version " + format);
+		int flags = in.getInt();
+		int length = in.getInt();
+		if (length < 1 || length > 255)
+			throw new IOException("corrupt zone snapshot");
+		byte [] name = new byte[length];
+		in.get(name);
+		in.position((in.position() + 3) & ~3);
+		init(new Name(new DNSInput(name)), true);
+		dclass = in.getInt();
+		NodeMap data = CompactZoneMap.read(origin, in);
+		publish(data, true, (flags & SNAPSHOT_WILD) != 0);
+	}
+	catch (BufferUnderflowException e) {
+		throw new IOException("truncated zone snapshot");
+	}
 	validate();
 }
 
+/**
+ * Writes a snapshot of the zone, which can be loaded by
+ * {@link #Zone(ByteBuffer)}.  The snapshot contains the names in canonical
+ * order, each stored as the labels it adds to its closest ancestor, and
+ * the records in wire format.  Its format is versioned, and a snapshot
+ * written by another release may not be loadable.
+ * @param os The stream to write to, which is flushed but not closed.
+ */
+public void
+writeSnapshot(OutputStream os) throws IOException {
+	Version version = this.version;
+	CompactZoneMap data;
+	if (version.data instanceof CompactZoneMap)
+		data = ((CompactZoneMap) version.data).compact();
+	else
+		data = CompactZoneMap.copyOf(origin, version.data);
+	byte [] name = origin.toWire();
+
+	DataOutputStream out;
+	out = new DataOutputStream(new BufferedOutputStream(os));
+	out.writeInt(SNAPSHOT_MAGIC);
+	out.writeInt(SNAPSHOT_VERSION);
+	out.writeInt(version.hasWild ? SNAPSHOT_WILD : 0);
+	out.writeInt(name.length);
+	out.write(name);
+	while (out.size() % 4 != 0)
+		out.writeByte(0);
+	out.writeInt(dclass);
+	data.write(out);
+	out.flush();
+}
+
 private void
 fromXFR(ZoneTransferIn xfrin) throws IOException, ZoneTransferException {
-	data = new TreeMap();
-
-	origin = xfrin.getName();
+	init(xfrin.getName(), false);
 	List records = xfrin.run();
 	for (Iterator it = records.iterator(); it.hasNext(); ) {
 		Record record = (Record) it.next();
@@ -190,7 +371,8 @@ Zone(ZoneTransferIn xfrin) throws IOException, ZoneTransferException {
 }
 
 /**
- * Creates a Zone by performing a zone transfer to the specified host.
+ * Creates a Zone by performing a zone transfer to the specified host.  The
+ * zone can be kept up to date with {@link #refresh}.
  * @see ZoneTransferIn
  */
 public
@@ -202,6 +384,307 @@ throws IOException, ZoneTransferException
 	fromXFR(xfrin);
 }
 
+/*
+ * Applies a zone transfer to a copy of the zone's data as the records
+ * arrive.  An AXFR starts from an empty copy, and each difference in an
+ * IXFR must start at the serial the previous one ended at and delete only
+ * records that are there.  Nothing is visible until the copy is committed.
+ */
+class TransferHandler implements ZoneTransferIn.ZoneTransferHandler {
+	private Version base;
+	private NodeMap data;
+	private boolean axfr;
+	private boolean deleting;
+	private boolean wild;
+	private long serial;
+
+	/* The differences applied, if they are being recorded. */
+	private List deltas;
+	private ZoneTransferIn.Delta delta;
+
+	TransferHandler(boolean record) {
+		base = version;
+		data = base.data;
+		serial = (base.SOA != null) ? base.SOA.getSerial() : -1;
+		if (record)
+			deltas = new ArrayList();
+	}
+
+	public void
+	startAXFR() {
+		axfr = true;
+		delta = null;
+		if (base.data instanceof CompactZoneMap)
+			data = new CompactZoneMap(origin);
+		else
+			data = ZoneTree.EMPTY;
+	}
+
+	public void
+	startIXFR() {
+	}
+
+	public void
+	startIXFRDeletes(Record soa) throws ZoneTransferException {
+		long start = ((SOARecord) soa).getSerial();
+		if (start != serial)
+			throw new ZoneTransferException("IXFR starts at serial " +
+							start + ", zone is at " +
+							serial);
+		deleting = true;
+		if (deltas != null) {
+			delta = new ZoneTransferIn.Delta();
+			delta.start = start;
+			deltas.add(delta);
+		}
+		delete(soa);
+	}
+
+	public void
+	startIXFRAdds(Record soa) throws ZoneTransferException {
+		deleting = false;
+		serial = ((SOARecord) soa).getSerial();
+		if (delta != null)
+			delta.end = serial;
+		add(soa);
+	}
+
+	public void
+	handleRecord(Record r) throws ZoneTransferException {
+		if (deleting)
+			delete(r);
+		else
+			add(r);
+	}
+
+	private void
+	delete(Record r) throws ZoneTransferException {
+		RRset rrset = oneRRset(data.get(r.getName()), r.getRRsetType());
+		boolean found = false;
+		if (rrset != null) {
+			Iterator it = (r instanceof RRSIGRecord) ? rrset.sigs() :
+								     rrset.rrs(false);
+			while (!found && it.hasNext())
+				found = it.next().equals(r);
+		}
+		if (!found)
+			throw new ZoneTransferException("IXFR deletes " + r +
+							", which is not in " +
+							"the zone");
+		data = removeRecord(data, r);
+		if (delta != null)
+			delta.deletes.add(r);
+	}
+
+	private void
+	add(Record r) throws ZoneTransferException {
+		Name name = r.getName();
+		if (r.getType() == Type.SOA && !name.equals(origin))
+			throw new ZoneTransferException("SOA owner " + name +
+							" does not match " +
+							"zone origin " + origin);
+		if (!name.subdomain(origin))
+			return;
+		data = addRecord(data, r);
+		wild |= name.isWild();
+		if (delta != null)
+			delta.adds.add(r);
+	}
+
+	/*
+	 * Makes the transferred data current, unless the zone was changed in
+	 * some other way during the transfer.  A full transfer whose serial is
+	 * not newer than the zone's is ignored, as a server which does not
+	 * support IXFR sends one even if the zone is up to date.  Returns
+	 * whether anything changed.
+	 */
+	boolean
+	commit() throws ZoneTransferException {
+		if (data == base.data)
+			return false;
+		if (axfr && data instanceof CompactZoneMap)
+			data = ((CompactZoneMap) data).compact();
+		Object originNode = data.get(origin);
+		RRset soa = oneRRset(originNode, Type.SOA);
+		if (soa == null || soa.size() != 1 ||
+		    oneRRset(originNode, Type.NS) == null)
+			throw new ZoneTransferException(origin + ": transfer " +
+							"leaves no SOA or NS");
+		long newSerial = ((SOARecord) soa.first()).getSerial();
+		if (axfr && base.SOA != null &&
+		    Serial.compare(newSerial, base.SOA.getSerial()) <= 0)
+			return false;
+		synchronized (Zone.this) {
+			if (version != base)
+				throw new ZoneTransferException(origin + ": zone " +
+								"changed during " +
+								"transfer");
+			publish(data, true, wild);
+			if (axfr && deltas != null && base.SOA != null)
+				deltas.add(delta(base, version));
+		}
+		return true;
+	}
+
+	/*
+	 * Returns the differences that were applied, one for each difference
+	 * in an IXFR, or one for the whole of an AXFR.
+	 */
+	List
+	getDeltas() {
+		return deltas;
+	}
+}
+
+/**
+ * Brings a secondary zone up to date with a primary server.  An IXFR from
+ * the zone's serial is requested, and the differences it contains are
+ * applied to the zone.  The whole zone is transferred instead if the server
+ * does not support IXFR or its differences do not apply to the zone.
+ * Either way, lookups see the zone as it was before the transfer until it
+ * is complete, and then as it is afterwards.
+ * @param address The primary server.
+ * @param key The TSIG key used to sign the transfer, or null.
+ * @return Whether the zone changed.
+ * @throws IOException The transfer failed.
+ * @throws ZoneTransferException The transfer failed, or left the zone
+ * without an SOA or NS records.
+ * @see ZoneTransferIn
+ */
+public boolean
+refresh(SocketAddress address, TSIG key)
+throws IOException, ZoneTransferException
+{
+	return refresh(address, key, null);
+}
+
+/**
+ * Brings a secondary zone up to date with a primary server, as
+ * {@link #refresh(SocketAddress, TSIG)} does, and records the changes in
+ * a journal.  The differences in an IXFR are recorded as they are; for
+ * an AXFR, the differences between the old and new contents of the zone
+ * are.
+ * @param address The primary server.
+ * @param key The TSIG key used to sign the transfer, or null.
+ * @param journal The journal of the zone's changes, or null.
+ * @return Whether the zone changed.
+ * @throws IOException The transfer failed, or the journal could not be
+ * written.
+ * @throws ZoneTransferException The transfer failed, or left the zone
+ * without an SOA or NS records.
+ * @see ZoneJournal
+ */
+public boolean
+refresh(SocketAddress address, TSIG key, ZoneJournal journal)
+throws IOException, ZoneTransferException
+{
+	ZoneTransferIn xfrin = ZoneTransferIn.newIXFR(origin,
+						      getSOA().getSerial(),
+						      true, address, key);
+	xfrin.setDClass(dclass);
+	try {
+		return transfer(xfrin, journal);
+	}
+	catch (ZoneTransferException e) {
+		if (!xfrin.isIXFR())
+			throw e;
+	}
+	xfrin = ZoneTransferIn.newAXFR(origin, address, key);
+	xfrin.setDClass(dclass);
+	return transfer(xfrin, journal);
+}
+
+private boolean
+transfer(ZoneTransferIn xfrin, ZoneJournal journal)
+throws IOException, ZoneTransferException
+{
+	TransferHandler handler = new TransferHandler(journal != null);
+	xfrin.run(handler);
+	if (!handler.commit())
+		return false;
+	if (journal != null) {
+		List deltas = handler.getDeltas();
+		for (int i = 0; i < deltas.size(); i++)
+			journal.append((ZoneTransferIn.Delta) deltas.get(i));
+	}
+	return true;
+}
+
+/* Returns the records of an RRset, including its signatures. */
+private static List
+records(RRset rrset) {
+	List list = new ArrayList(rrset.size());
+	for (Iterator it = rrset.rrs(false); it.hasNext(); )
+		list.add(it.next());
+	for (Iterator it = rrset.sigs(); it.hasNext(); )
+		list.add(it.next());
+	return list;
+}
+
+/*
+ * Adds the records in one version of the zone's data that are not in
+ * another, other than the SOA, to a list.  Records whose TTL differs are
+ * included, as the TTL of their RRset changed.
+ */
+private static void
+missing(NodeMap data, NodeMap other, List list) {
+	for (Iterator it = data.iterator(); it.hasNext(); ) {
+		Map.Entry entry = (Map.Entry) it.next();
+		Object node = entry.getValue();
+		Object otherNode = other.get((Name) entry.getKey());
+		if (node == otherNode)
+			continue;
+		RRset [] sets = allRRsets(node);
+		for (int i = 0; i < sets.length; i++) {
+			int type = sets[i].getType();
+			if (type == Type.SOA)
+				continue;
+			RRset set = oneRRset(otherNode, type);
+			List have;
+			if (set != null && set.getTTL() == sets[i].getTTL())
+				have = records(set);
+			else
+				have = Collections.EMPTY_LIST;
+			for (Iterator rit = records(sets[i]).iterator();
+			     rit.hasNext(); )
+			{
+				Object r = rit.next();
+				if (!have.contains(r))
+					list.add(r);
+			}
+		}
+	}
+}
+
+/* Returns the differences between two versions of the zone. */
+private static ZoneTransferIn.Delta
+delta(Version from, Version to) {
+	ZoneTransferIn.Delta delta = new ZoneTransferIn.Delta();
+	delta.start = from.SOA.getSerial();
+	delta.end = to.SOA.getSerial();
+	delta.deletes.add(from.SOA);
+	delta.adds.add(to.SOA);
+	missing(from.data, to.data, delta.deletes);
+	missing(to.data, from.data, delta.adds);
+	return delta;
+}
+
+/**
+ * Returns the differences between an older version of this zone and this
+ * one, in the form in which an IXFR sends them: the first record deleted
+ * is the old SOA, and the first one added is the new SOA.
+ * @param older The older version of the zone.
+ * @return The differences.
+ * @see ZoneJournal
+ */
+public ZoneTransferIn.Delta
+differences(Zone older) {
+	if (!older.origin.equals(origin))
+		throw new IllegalArgumentException("zones have different " +
+						   "origins");
+	return delta(older.version, version);
+}
+
 /** Returns the Zone's origin */
 public Name
 getOrigin() {
@@ -211,13 +694,13 @@ getOrigin() {
 /** Returns the Zone origin's NS records */
 public RRset
 getNS() {
-	return NS;
+	return version.NS;
 }
 
 /** Returns the Zone's SOA record */
 public SOARecord
 getSOA() {
-	return SOA;
+	return version.SOA;
 }
 
 /** Returns the Zone's class */
@@ -226,34 +709,23 @@ getDClass() {
 	return dclass;
 }
 
-private synchronized Object
-exactName(Name name) {
-	return data.get(name);
-}
-
-private synchronized RRset []
+private static RRset []
 allRRsets(Object types) {
-	if (types instanceof List) {
-		List typelist = (List) types;
-		return (RRset []) typelist.toArray(new RRset[typelist.size()]);
-	} else {
-		RRset set = (RRset) types;
-		return new RRset [] {set};
-	}
+	if (types instanceof RRset [])
+		return (RRset []) types;
+	return new RRset [] {(RRset) types};
 }
 
-private synchronized RRset
+private static RRset
 oneRRset(Object types, int type) {
 	if (type == Type.ANY)
 		throw new IllegalArgumentException("oneRRset(ANY)");
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			RRset set = (RRset) list.get(i);
-			if (set.getType() == type)
-				return set;
-		}
-	} else {
+	if (types instanceof RRset []) {
+		RRset [] sets = (RRset []) types;
+		for (int i = 0; i < sets.length; i++)
+			if (sets[i].getType() == type)
+				return sets[i];
+	} else if (types != null) {
 		RRset set = (RRset) types;
 		if (set.getType() == type)
 			return set;
@@ -261,74 +733,105 @@ oneRRset(Object types, int type) {
 	return null;
 }
 
-private synchronized RRset
-findRRset(Name name, int type) {
-	Object types = exactName(name);
-	if (types == null)
-		return null;
-	return oneRRset(types, type);
-}
+/*
+ * The following methods return a copy of data with a change applied.
+ */
 
-private synchronized void
-addRRset(Name name, RRset rrset) {
-	if (!hasWild && name.isWild())
-		hasWild = true;
+private static NodeMap
+addRRset(NodeMap data, Name name, RRset rrset) {
 	Object types = data.get(name);
-	if (types == null) {
-		data.put(name, rrset);
-		return;
-	}
+	if (types == null)
+		return data.put(name, rrset);
 	int rtype = rrset.getType();
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			RRset set = (RRset) list.get(i);
-			if (set.getType() == rtype) {
-				list.set(i, rrset);
-				return;
-			}
-		}
-		list.add(rrset);
-	} else {
-		RRset set = (RRset) types;
-		if (set.getType() == rtype)
-			data.put(name, rrset);
-		else {
-			LinkedList list = new LinkedList();
-			list.add(set);
-			list.add(rrset);
-			data.put(name, list);
+	RRset [] sets = allRRsets(types);
+	for (int i = 0; i < sets.length; i++) {
+		if (sets[i].getType() == rtype) {
+			if (sets.length == 1)
+				return data.put(name, rrset);
+			RRset [] newsets = (RRset []) sets.clone();
+			newsets[i] = rrset;
+			return data.put(name, newsets);
 		}
 	}
+	RRset [] newsets = new RRset[sets.length + 1];
+	System.arraycopy(sets, 0, newsets, 0, sets.length);
+	newsets[sets.length] = rrset;
+	return data.put(name, newsets);
 }
 
-private synchronized void
-removeRRset(Name name, int type) {
+private static NodeMap
+removeRRset(NodeMap data, Name name, int type) {
 	Object types = data.get(name);
-	if (types == null) {
-		return;
-	}
-	if (types instanceof List) {
-		List list = (List) types;
-		for (int i = 0; i < list.size(); i++) {
-			RRset set = (RRset) list.get(i);
-			if (set.getType() == type) {
-				list.remove(i);
-				if (list.size() == 0)
-					data.remove(name);
-				return;
-			}
-		}
-	} else {
-		RRset set = (RRset) types;
-		if (set.getType() != type)
-			return;
-		data.remove(name);
+	if (types == null)
+		return data;
+	RRset [] sets = allRRsets(types);
+	for (int i = 0; i < sets.length; i++) {
+		if (sets[i].getType() != type)
+			continue;
+		if (sets.length == 1)
+			return data.remove(name);
+		if (sets.length == 2)
+			return data.put(name, sets[1 - i]);
+		RRset [] newsets = new RRset[sets.length - 1];
+		System.arraycopy(sets, 0, newsets, 0, i);
+		System.arraycopy(sets, i + 1, newsets, i, newsets.length - i);
+		return data.put(name, newsets);
+	}
+	return data;
+}
+
+private static NodeMap
+addRecord(NodeMap data, Record r) {
+	Name name = r.getName();
+	RRset rrset = oneRRset(data.get(name), r.getRRsetType());
+	if (rrset == null)
+		rrset = new RRset(r);
+	else {
+		rrset = new RRset(rrset);
+		rrset.addRR(r);
 	}
+	return addRRset(data, name, rrset);
+}
+
+private static NodeMap
+removeRecord(NodeMap data, Record r) {
+	Name name = r.getName();
+	int rtype = r.getRRsetType();
+	RRset rrset = oneRRset(data.get(name), rtype);
+	if (rrset == null)
+		return data;
+	if (rrset.size() == 1 && rrset.first().equals(r))
+		return removeRRset(data, name, rtype);
+	rrset = new RRset(rrset);
+	rrset.deleteRR(r);
+	return addRRset(data, name, rrset);
 }
 
-private synchronized SetResponse
+/*
+ * Makes a new version of the zone current.  The SOA and NS records are
+ * only looked up again if the origin changed.
+ */
+private void
+publish(NodeMap data, boolean originChanged, boolean wild) {
+	Version old = version;
+	Object originNode = old.originNode;
+	RRset NS = old.NS;
+	SOARecord SOA = old.SOA;
+	if (originChanged) {
+		originNode = data.get(origin);
+		RRset rrset = oneRRset(originNode, Type.SOA);
+		if (rrset != null)
+			SOA = (SOARecord) rrset.first();
+		rrset = oneRRset(originNode, Type.NS);
+		if (rrset != null)
+			NS = rrset;
+	}
+	version = new Version(data, originNode, NS, SOA, old.hasWild || wild);
+}
+
+private SetResponse
 lookup(Name name, int type) {
+	Version version = this.version;
 	int labels;
 	int olabels;
 	int tlabels;
@@ -354,7 +857,7 @@ lookup(Name name, int type) {
 		else
 			tname = new Name(name, labels - tlabels);
 
-		types = exactName(tname);
+		types = version.data.get(tname);
 		if (types == null)
 			continue;
 
@@ -402,11 +905,11 @@ lookup(Name name, int type) {
 			return SetResponse.ofType(SetResponse.NXRRSET);
 	}
 
-	if (hasWild) {
+	if (version.hasWild) {
 		for (int i = 0; i < labels - olabels; i++) {
 			tname = name.wild(i + 1);
 
-			types = exactName(tname);
+			types = version.data.get(tname);
 			if (types == null)
 				continue;
 
@@ -443,10 +946,7 @@ findRecords(Name name, int type) {
  */ 
 public RRset
 findExactMatch(Name name, int type) {
-	Object types = exactName(name);
-	if (types == null)
-		return null;
-	return oneRRset(types, type);
+	return oneRRset(version.data.get(name), type);
 }
 
 /**
@@ -454,10 +954,11 @@ findExactMatch(Name name, int type) {
  * @param rrset The RRset to be added
  * @see RRset
  */
-public void
+public synchronized void
 addRRset(RRset rrset) {
 	Name name = rrset.getName();
-	addRRset(name, rrset);
+	publish(addRRset(version.data, name, rrset), name.equals(origin),
+		name.isWild());
 }
 
 /**
@@ -465,19 +966,11 @@ addRRset(RRset rrset) {
  * @param r The record to be added
  * @see Record
  */
-public void
+public synchronized void
 addRecord(Record r) {
 	Name name = r.getName();
-	int rtype = r.getRRsetType();
-	synchronized (this) {
-		RRset rrset = findRRset(name, rtype);
-		if (rrset == null) {
-			rrset = new RRset(r);
-			addRRset(name, rrset);
-		} else {
-			rrset.addRR(r);
-		}
-	}
+	publish(addRecord(version.data, r), name.equals(origin),
+		name.isWild());
 }
 
 /**
@@ -485,19 +978,36 @@ addRecord(Record r) {
  * @param r The record to be removed
  * @see Record
  */
-public void
+public synchronized void
 removeRecord(Record r) {
-	Name name = r.getName();
-	int rtype = r.getRRsetType();
-	synchronized (this) {
-		RRset rrset = findRRset(name, rtype);
-		if (rrset == null)
-			return;
-		if (rrset.size() == 1 && rrset.first().equals(r))
-			removeRRset(name, rtype);
-		else
-			rrset.deleteRR(r);
+	publish(removeRecord(version.data, r), r.getName().equals(origin),
+		false);
+}
+
+/**
+ * Removes and adds a number of records as one change, so that lookups see
+ * either none or all of it.  The records are removed first.
+ * @param removed The Records to be removed (may be null)
+ * @param added The Records to be added (may be null)
+ * @see Record
+ */
+public synchronized void
+applyChanges(List removed, List added) {
+	NodeMap data = version.data;
+	boolean originChanged = false;
+	boolean wild = false;
+	for (int i = 0; removed != null && i < removed.size(); i++) {
+		Record r = (Record) removed.get(i);
+		data = removeRecord(data, r);
+		originChanged |= r.getName().equals(origin);
+	}
+	for (int i = 0; added != null && i < added.size(); i++) {
+		Record r = (Record) added.get(i);
+		data = addRecord(data, r);
+		originChanged |= r.getName().equals(origin);
+		wild |= r.getName().isWild();
 	}
+	publish(data, originChanged, wild);
 }
 
 /**
@@ -535,11 +1045,12 @@ nodeToString(StringBuffer sb, Object node) {
 /**
  * Returns the contents of the Zone in master file format.
  */
-public synchronized String
+public String
 toMasterFile() {
-	Iterator zentries = data.entrySet().iterator();
+	Version version = this.version;
+	Iterator zentries = version.data.iterator();
 	StringBuffer sb = new StringBuffer();
-	nodeToString(sb, originNode);
+	nodeToString(sb, version.originNode);
 	while (zentries.hasNext()) {
 		Map.Entry entry = (Map.Entry) zentries.next();
 		if (!origin.equals(entry.getKey()))
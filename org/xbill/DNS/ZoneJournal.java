@@ -0,0 +1,294 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A journal of the differences between successive versions of a zone,
+ * kept in a file, from which IXFR requests can be answered without
+ * sending the whole zone.  Each entry is one delta, from one serial to the
+ * next.  The entries must follow on from each other: a delta which does
+ * not start at the serial the previous one ended at discards the older
+ * entries.
+ * <p>
+ * An entry is written in one piece at the end of the file; if the file
+ * ends with an incomplete entry, as it may after a crash, the entry is
+ * removed when the journal is opened.  The journal may be given a maximum
+ * size, in which case the oldest entries are removed when it grows past
+ * it.
+ * @see ZoneTransferIn.Delta
+ * @see ZoneTransferOut#sendIXFR
+ * @see Zone#differences
+ */
+
+public class ZoneJournal {
+
+/* The start of a journal file ("DNSJ"), and its format version. */
+private static final int MAGIC = 0x444E534A;
+private static final int VERSION = 1;
+private static final int HEADER_LENGTH = 8;
+
+/* The location and serials of an entry. */
+private static class Entry {
+	long offset;
+	int length;
+	long start;
+	long end;
+}
+
+private File file;
+private long maxSize;
+private List entries;
+private long size;
+
+/**
+ * Opens a journal, creating the file if it does not exist.
+ * @param file The journal file.
+ * @throws IOException The file could not be read or created, or is not a
+ * journal.
+ */
+public
+ZoneJournal(File file) throws IOException {
+	this.file = file;
+	entries = new ArrayList();
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	try {
+		long length = raf.length();
+		if (length == 0) {
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			size = HEADER_LENGTH;
+			return;
+		}
+		if (length < HEADER_LENGTH || raf.readInt() != MAGIC ||
+		    raf.readInt() != VERSION)
+			throw new IOException(file + ": not a journal");
+		long offset = HEADER_LENGTH;
+		while (offset + 12 <= length) {
+			raf.seek(offset);
+			Entry entry = new Entry();
+			entry.offset = offset;
+			entry.length = raf.readInt();
+			if (entry.length < 8 ||
+			    offset + 4 + entry.length > length)
+				break;
+			entry.start = raf.readInt() & 0xFFFFFFFFL;
+			entry.end = raf.readInt() & 0xFFFFFFFFL;
+			entries.add(entry);
+			offset += 4 + entry.length;
+		}
+		if (offset != length)
+			raf.setLength(offset);
+		size = offset;
+	}
+	finally {
+		raf.close();
+	}
+}
+
+/**
+ * Sets the maximum size of the journal file.  When an entry makes it
+ * larger, the oldest entries are removed, leaving the journal at no more
+ * than half of this size.  The default is 0, which means no maximum.
+ * @param maxSize The maximum size in bytes, or 0.
+ */
+public synchronized void
+setMaxSize(long maxSize) {
+	this.maxSize = maxSize;
+}
+
+/**
+ * Returns the serial the newest entry ends at, or -1 if the journal is
+ * empty.
+ */
+public synchronized long
+getLastSerial() {
+	if (entries.size() == 0)
+		return -1;
+	return ((Entry) entries.get(entries.size() - 1)).end;
+}
+
+private static void
+writeRecords(DNSOutput out, List records) {
+	out.writeU32(records.size());
+	for (Iterator it = records.iterator(); it.hasNext(); )
+		((Record) it.next()).toWire(out, Section.ANSWER, null);
+}
+
+/**
+ * Adds a delta to the end of the journal.  If it does not start at the
+ * serial the newest entry ends at, the older entries are removed first.
+ * @param delta The delta, whose first record deleted is the old SOA and
+ * whose first record added is the new SOA.
+ * @throws IOException The journal could not be written.
+ */
+public synchronized void
+append(ZoneTransferIn.Delta delta) throws IOException {
+	DNSOutput out = new DNSOutput();
+	out.writeU32(0);
+	out.writeU32(delta.start);
+	out.writeU32(delta.end);
+	writeRecords(out, delta.deletes);
+	writeRecords(out, delta.adds);
+	int length = out.current() - 4;
+	out.writeU16At(length >>> 16, 0);
+	out.writeU16At(length & 0xFFFF, 2);
+
+	if (entries.size() > 0 && getLastSerial() != delta.start)
+		truncate();
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	try {
+		raf.seek(size);
+		raf.write(out.toByteArray());
+	}
+	finally {
+		raf.close();
+	}
+	Entry entry = new Entry();
+	entry.offset = size;
+	entry.length = length;
+	entry.start = delta.start;
+	entry.end = delta.end;
+	entries.add(entry);
+	size += out.current();
+	if (maxSize > 0 && size > maxSize)
+		trim(maxSize / 2);
+}
+
+/* Removes all entries. */
+private void
+truncate() throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	try {
+		raf.setLength(HEADER_LENGTH);
+	}
+	finally {
+		raf.close();
+	}
+	entries.clear();
+	size = HEADER_LENGTH;
+}
+
+/*
+ * Removes the oldest entries, keeping as many of the newest as fit in the
+ * given size.  The newest entry is always kept.  The remaining entries are
+ * copied to a new file, which replaces the journal.
+ */
+private void
+trim(long target) throws IOException {
+	int first = entries.size() - 1;
+	long total = HEADER_LENGTH + 4 + ((Entry) entries.get(first)).length;
+	while (first > 0) {
+		Entry entry = (Entry) entries.get(first - 1);
+		if (total + 4 + entry.length > target)
+			break;
+		total += 4 + entry.length;
+		first--;
+	}
+	if (first == 0)
+		return;
+
+	File tmp = new File(file.getPath() + ".tmp");
+	long start = ((Entry) entries.get(first)).offset;
+	RandomAccessFile in = new RandomAccessFile(file, "r");
+	try {
+		OutputStream fs = new FileOutputStream(tmp);
+		DataOutputStream out;
+		out = new DataOutputStream(new BufferedOutputStream(fs));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			byte [] b = new byte[8192];
+			in.seek(start);
+			for (long left = size - start; left > 0; ) {
+				int n = (int) Math.min(b.length, left);
+				n = in.read(b, 0, n);
+				if (n < 0)
+					throw new EOFException();
+				out.write(b, 0, n);
+				left -= n;
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+	catch (IOException e) {
+		tmp.delete();
+		throw e;
+	}
+	finally {
+		in.close();
+	}
+	if (!tmp.renameTo(file)) {
+		tmp.delete();
+		throw new IOException("cannot rename " + tmp);
+	}
+
+	entries = new ArrayList(entries.subList(first, entries.size()));
+	for (Iterator it = entries.iterator(); it.hasNext(); ) {
+		Entry entry = (Entry) it.next();
+		entry.offset -= start - HEADER_LENGTH;
+	}
+	size -= start - HEADER_LENGTH;
+}
+
+private static List
+readRecords(DNSInput in) throws IOException {
+	long count = in.readU32();
+	List records = new ArrayList();
+	for (long i = 0; i < count; i++)
+		records.add(Record.fromWire(in, Section.ANSWER));
+	return records;
+}
+
+/**
+ * Returns the deltas from one version of the zone to another.
+ * @param from The serial of the older version.
+ * @param to The serial of the newer version, which is normally the
+ * current serial of the zone.
+ * @return The deltas, in order, or null if the journal does not have the
+ * entries to go from one version to the other.  The list is empty if the
+ * serials are the same.
+ * @throws IOException The journal could not be read.
+ */
+public synchronized List
+getDeltas(long from, long to) throws IOException {
+	List deltas = new ArrayList();
+	if (from == to)
+		return deltas;
+	int first;
+	for (first = 0; first < entries.size(); first++)
+		if (((Entry) entries.get(first)).start == from)
+			break;
+	int last;
+	for (last = first; last < entries.size(); last++)
+		if (((Entry) entries.get(last)).end == to)
+			break;
+	if (last == entries.size())
+		return null;
+
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+	try {
+		for (int i = first; i <= last; i++) {
+			Entry entry = (Entry) entries.get(i);
+			byte [] b = new byte[entry.length];
+			raf.seek(entry.offset + 4);
+			raf.readFully(b);
+			DNSInput in = new DNSInput(b);
+			ZoneTransferIn.Delta delta = new ZoneTransferIn.Delta();
+			delta.start = in.readU32();
+			delta.end = in.readU32();
+			delta.deletes = readRecords(in);
+			delta.adds = readRecords(in);
+			deltas.add(delta);
+		}
+	}
+	finally {
+		raf.close();
+	}
+	return deltas;
+}
+
+}
@@ -0,0 +1,508 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Signs the RRsets of a zone in parallel, optionally maintaining its NSEC
+ * or NSEC3 chain.  The RRsets are split into batches which are canonicalized,
+ * digested and signed on an Executor.
+ * <p>
+ * Signing is incremental: an existing signature made by one of the
+ * signer's keys is kept as long as it does not expire within the refresh
+ * interval and still covers the current contents of the RRset.  A
+ * ZoneSigner remembers the data covered by each signature it has made or
+ * checked, so re-signing a zone in which few RRsets have changed only
+ * signs those RRsets.
+ * <p>
+ * If the keys include both key signing keys (with the SEP flag set) and
+ * zone signing keys, the key signing keys sign only the apex DNSKEY
+ * RRset.  Otherwise, every key signs every RRset.
+ * @see DNSSEC#sign(RRset, DNSKEYRecord, PrivateKey, Date, Date)
+ */
+
+public class ZoneSigner {
+
+private static final int BATCH_SIZE = 16;
+private static final long DEFAULT_LIFETIME = 30L * 86400 * 1000;
+private static final long DEFAULT_REFRESH = 7L * 86400 * 1000;
+private static final long DEFAULT_SKEW = 3600 * 1000;
+
+/* The work to be done for one RRset. */
+private static class Task {
+	RRset rrset;
+	DNSKEYRecord [] keys;
+	PrivateKey [] privateKeys;
+	List added = new ArrayList();
+	List removed = new ArrayList();
+	DNSSEC.DNSSECException exception;
+
+	Task(RRset rrset, DNSKEYRecord [] keys, PrivateKey [] privateKeys) {
+		this.rrset = rrset;
+		this.keys = keys;
+		this.privateKeys = privateKeys;
+	}
+}
+
+private DNSKEYRecord [] kskKeys;
+private PrivateKey [] kskPrivateKeys;
+private DNSKEYRecord [] zskKeys;
+private PrivateKey [] zskPrivateKeys;
+private Executor executor;
+private Date inception;
+private Date expiration;
+private long refresh = DEFAULT_REFRESH;
+private boolean nsec;
+private NSEC3Hasher nsec3;
+private int nsec3Flags;
+
+/*
+ * Maps each signature made or checked by this signer to a digest of the
+ * data it covers.
+ */
+private Map signed = new ConcurrentHashMap();
+
+/**
+ * Creates a new ZoneSigner.
+ * @param keys The DNSKEY records of the signing keys.
+ * @param privateKeys The corresponding private keys.
+ * @param executor The Executor that computes the signatures.  If null, a
+ * shared pool with one thread per processor is used.
+ * @throws DNSSEC.DNSSECException A key's algorithm is not supported, or
+ * does not match its private key.
+ */
+public
+ZoneSigner(DNSKEYRecord [] keys, PrivateKey [] privateKeys,
+	   Executor executor) throws DNSSEC.DNSSECException
+{
+	if (keys.length == 0 || keys.length != privateKeys.length)
+		throw new IllegalArgumentException("keys and private keys " +
+						   "must match");
+	this.executor = (executor != null) ? executor :
+					     ParallelLoop.getDefaultExecutor();
+
+	List ksk = new ArrayList(), kskPriv = new ArrayList();
+	List zsk = new ArrayList(), zskPriv = new ArrayList();
+	for (int i = 0; i < keys.length; i++) {
+		DNSSEC.checkAlgorithm(privateKeys[i], keys[i].getAlgorithm());
+		if ((keys[i].getFlags() & DNSKEYRecord.Flags.SEP_KEY) != 0) {
+			ksk.add(keys[i]);
+			kskPriv.add(privateKeys[i]);
+		} else {
+			zsk.add(keys[i]);
+			zskPriv.add(privateKeys[i]);
+		}
+	}
+	if (ksk.size() == 0 || zsk.size() == 0) {
+		zskKeys = kskKeys = keys;
+		zskPrivateKeys = kskPrivateKeys = privateKeys;
+	} else {
+		kskKeys = (DNSKEYRecord []) ksk.toArray(new DNSKEYRecord[0]);
+		kskPrivateKeys = (PrivateKey []) kskPriv.toArray(new PrivateKey[0]);
+		zskKeys = (DNSKEYRecord []) zsk.toArray(new DNSKEYRecord[0]);
+		zskPrivateKeys = (PrivateKey []) zskPriv.toArray(new PrivateKey[0]);
+	}
+}
+
+/**
+ * Sets the inception time of new signatures.  By default, this is an
+ * hour before signing starts.
+ */
+public void
+setInception(Date inception) {
+	this.inception = inception;
+}
+
+/**
+ * Sets the expiration time of new signatures.  By default, this is 30
+ * days after signing starts.
+ */
+public void
+setExpiration(Date expiration) {
+	this.expiration = expiration;
+}
+
+/**
+ * Sets the refresh interval.  Existing signatures which expire within
+ * this interval are replaced.  The default is 7 days.
+ * @param secs The interval in seconds.
+ */
+public void
+setRefresh(long secs) {
+	if (secs < 0)
+		throw new IllegalArgumentException("invalid refresh interval");
+	refresh = secs * 1000;
+}
+
+/**
+ * Sets whether the zone's NSEC chain is generated when signing a Zone.
+ * The default is false.  Enabling NSEC disables NSEC3.
+ */
+public void
+setNSEC(boolean nsec) {
+	this.nsec = nsec;
+	if (nsec)
+		this.nsec3 = null;
+}
+
+/**
+ * Sets the parameters of the zone's NSEC3 chain, which is then generated
+ * when signing a Zone.  An NSEC3PARAM record is added at the apex if
+ * there is none with these parameters.  Enabling NSEC3 disables NSEC.
+ * @param hasher The hasher for the chain's parameters, or null to disable
+ * NSEC3 generation.
+ * @param flags The NSEC3 flags, such as
+ * {@link NSEC3Record.Flags#OPT_OUT}.
+ */
+public void
+setNSEC3(NSEC3Hasher hasher, int flags) {
+	this.nsec3 = hasher;
+	this.nsec3Flags = flags;
+	if (hasher != null)
+		this.nsec = false;
+}
+
+/**
+ * Signs each of the RRsets, returning the new signatures.  Existing
+ * signatures are not checked, so every RRset is signed by every
+ * applicable key.
+ * @param rrsets The RRsets to sign.
+ * @return A list containing the RRSIGRecords, in the same order as the
+ * RRsets.
+ * @throws DNSSEC.DNSSECException An RRset could not be signed.
+ * @throws InterruptedException The thread was interrupted while waiting
+ * for the signatures.
+ */
+public List
+sign(List rrsets) throws DNSSEC.DNSSECException, InterruptedException {
+	Task [] tasks = new Task[rrsets.size()];
+	for (int i = 0; i < tasks.length; i++)
+		tasks[i] = new Task((RRset) rrsets.get(i), zskKeys,
+				    zskPrivateKeys);
+	run(tasks, false);
+	List sigs = new ArrayList();
+	for (int i = 0; i < tasks.length; i++)
+		sigs.addAll(tasks[i].added);
+	return sigs;
+}
+
+/**
+ * Signs a zone in place, replacing signatures that are missing, stale or
+ * about to expire.  If NSEC or NSEC3 generation is enabled, the chain is
+ * updated first.  The new chain and signatures are applied to the zone as
+ * one change, so lookups never see an unsigned or partly replaced chain.
+ * @param zone The zone to sign.
+ * @return The number of signatures that were generated.
+ * @throws DNSSEC.DNSSECException An RRset could not be signed.
+ * @throws InterruptedException The thread was interrupted while waiting
+ * for the signatures.
+ */
+public int
+sign(Zone zone) throws DNSSEC.DNSSECException, InterruptedException {
+	/*
+	 * The chain is updated in a copy of the zone, which is then signed;
+	 * the changes to both are applied to the zone at the end.
+	 */
+	List removed = new ArrayList();
+	List added = new ArrayList();
+	Zone work = zone;
+	if (nsec || nsec3 != null) {
+		work = new Zone(zone);
+		if (nsec)
+			updateNSEC(work, removed, added);
+		else
+			updateNSEC3(work, removed, added);
+	}
+	int chainAdded = added.size();
+
+	Name origin = zone.getOrigin();
+	List tasks = new ArrayList();
+	Iterator it = authoritativeNodes(work).iterator();
+	while (it.hasNext()) {
+		RRset [] sets = (RRset []) it.next();
+		Name name = sets[0].getName();
+		boolean delegation = isDelegation(name, sets, origin);
+		for (int i = 0; i < sets.length; i++) {
+			int type = sets[i].getType();
+			if (delegation && type != Type.DS && type != Type.NSEC)
+				continue;
+			if (type == Type.DNSKEY && name.equals(origin))
+				tasks.add(new Task(sets[i], kskKeys,
+						   kskPrivateKeys));
+			else
+				tasks.add(new Task(sets[i], zskKeys,
+						   zskPrivateKeys));
+		}
+	}
+
+	Task [] array = (Task []) tasks.toArray(new Task[tasks.size()]);
+	run(array, true);
+
+	for (int i = 0; i < array.length; i++) {
+		removed.addAll(array[i].removed);
+		added.addAll(array[i].added);
+	}
+	zone.applyChanges(removed, added);
+	return added.size() - chainAdded;
+}
+
+static boolean
+isDelegation(Name name, RRset [] sets, Name origin) {
+	if (name.equals(origin))
+		return false;
+	for (int i = 0; i < sets.length; i++)
+		if (sets[i].getType() == Type.NS)
+			return true;
+	return false;
+}
+
+/*
+ * Returns the RRsets of each name in the zone, in canonical order, with
+ * names below delegations (glue) omitted.
+ */
+static List
+authoritativeNodes(Zone zone) {
+	Name origin = zone.getOrigin();
+	List nodes = new ArrayList();
+	List current = new ArrayList();
+	Name cut = null;
+	Iterator it = zone.iterator();
+	while (it.hasNext()) {
+		RRset rrset = (RRset) it.next();
+		if (current.size() > 0 &&
+		    !((RRset) current.get(0)).getName().equals(rrset.getName()))
+		{
+			nodes.add(current.toArray(new RRset[current.size()]));
+			current.clear();
+		}
+		current.add(rrset);
+	}
+	if (current.size() > 0)
+		nodes.add(current.toArray(new RRset[current.size()]));
+
+	/* Zone.iterator() returns the origin first and the rest in order. */
+	List result = new ArrayList(nodes.size());
+	for (int i = 0; i < nodes.size(); i++) {
+		RRset [] sets = (RRset []) nodes.get(i);
+		Name name = sets[0].getName();
+		if (cut != null && name.subdomain(cut) && !name.equals(cut))
+			continue;
+		cut = isDelegation(name, sets, origin) ? name : null;
+		result.add(sets);
+	}
+	return result;
+}
+
+private void
+updateNSEC(Zone zone, List removed, List added) {
+	long ttl = zone.getSOA().getMinimum();
+	List nodes = authoritativeNodes(zone);
+	List chain = new ArrayList(nodes.size());
+	for (int i = 0; i < nodes.size(); i++) {
+		RRset [] sets = (RRset []) nodes.get(i);
+		Name name = sets[0].getName();
+		Name next = ((RRset []) nodes.get((i + 1) % nodes.size()))[0].getName();
+
+		/*
+		 * The NSEC record is always signed, so RRSIG is always in its
+		 * bitmap, even at an insecure delegation (RFC 4035 2.3).
+		 */
+		List types = new ArrayList();
+		for (int j = 0; j < sets.length; j++) {
+			int type = sets[j].getType();
+			if (type == Type.NSEC)
+				continue;
+			types.add(new Integer(type));
+		}
+		types.add(new Integer(Type.NSEC));
+		types.add(new Integer(Type.RRSIG));
+		int [] array = new int[types.size()];
+		for (int j = 0; j < array.length; j++)
+			array[j] = ((Integer) types.get(j)).intValue();
+
+		chain.add(new NSECRecord(name, zone.getDClass(), ttl, next,
+					 array));
+	}
+	replaceChain(zone, chain, Type.NSEC, removed, added);
+}
+
+private void
+updateNSEC3(Zone zone, List removed, List added)
+	throws InterruptedException
+{
+	Name origin = zone.getOrigin();
+	NSEC3PARAMRecord param;
+	param = new NSEC3PARAMRecord(origin, zone.getDClass(), 0,
+				     nsec3.getHashAlgorithm(), 0,
+				     nsec3.getIterations(), nsec3.getSalt());
+	RRset params = zone.findExactMatch(origin, Type.NSEC3PARAM);
+	boolean found = false;
+	Iterator it = (params != null) ? params.rrs(false) :
+					 Collections.EMPTY_LIST.iterator();
+	while (it.hasNext())
+		if (param.equals(it.next()))
+			found = true;
+	if (!found) {
+		zone.addRecord(param);
+		added.add(param);
+	}
+
+	long ttl = zone.getSOA().getMinimum();
+	replaceChain(zone, nsec3.chain(zone, nsec3Flags, ttl, executor),
+		     Type.NSEC3, removed, added);
+}
+
+/*
+ * Replaces the NSEC or NSEC3 records of a zone with a new chain, keeping
+ * those that have not changed (and so their signatures).  The changes are
+ * applied to the zone as one change, and added to the lists.
+ */
+private static void
+replaceChain(Zone zone, List chain, int type, List removed, List added) {
+	List chainRemoved = new ArrayList();
+	List chainAdded = new ArrayList();
+	Set owners = new HashSet();
+	for (int i = 0; i < chain.size(); i++) {
+		Record record = (Record) chain.get(i);
+		Name name = record.getName();
+		owners.add(name);
+		RRset existing = zone.findExactMatch(name, type);
+		if (existing != null) {
+			if (existing.size() == 1 &&
+			    existing.first().equals(record) &&
+			    existing.getTTL() == record.getTTL())
+				continue;
+			addAll(chainRemoved, existing);
+		}
+		chainAdded.add(record);
+	}
+
+	/* Remove records from names that are no longer in the chain. */
+	Iterator it = zone.iterator();
+	while (it.hasNext()) {
+		RRset rrset = (RRset) it.next();
+		if (rrset.getType() == type &&
+		    !owners.contains(rrset.getName()))
+			addAll(chainRemoved, rrset);
+	}
+
+	zone.applyChanges(chainRemoved, chainAdded);
+	removed.addAll(chainRemoved);
+	added.addAll(chainAdded);
+}
+
+private static void
+addAll(List records, RRset rrset) {
+	Iterator it = rrset.rrs(false);
+	while (it.hasNext())
+		records.add(it.next());
+}
+
+private void
+run(final Task [] tasks, final boolean incremental)
+	throws DNSSEC.DNSSECException, InterruptedException
+{
+	long now = System.currentTimeMillis();
+	final Date start = (inception != null) ? inception :
+					new Date(now - DEFAULT_SKEW);
+	final Date end = (expiration != null) ? expiration :
+					new Date(now + DEFAULT_LIFETIME);
+	final Date horizon = new Date(now + refresh);
+
+	new ParallelLoop() {
+		void run(int i) {
+			signOne(tasks[i], incremental, start, end, horizon);
+		}
+	}.execute(executor, tasks.length, BATCH_SIZE);
+
+	for (int i = 0; i < tasks.length; i++)
+		if (tasks[i].exception != null)
+			throw tasks[i].exception;
+}
+
+private static boolean
+signedBy(RRSIGRecord rrsig, DNSKEYRecord key) {
+	return (rrsig.getAlgorithm() == key.getAlgorithm() &&
+		rrsig.getFootprint() == key.getFootprint() &&
+		rrsig.getSigner().equals(key.getName()));
+}
+
+private static byte []
+hash(RRSIGRecord rrsig, RRset rrset) {
+	byte [] data = DNSSEC.digestRRset(rrsig, rrset);
+	try {
+		return DNSSEC.getDigest("sha-256").digest(data);
+	}
+	catch (NoSuchAlgorithmException e) {
+		throw new IllegalStateException("no message digest support");
+	}
+}
+
+/*
+ * Returns true if an existing signature can be kept: it must not expire
+ * before the horizon, and must cover the current data.
+ */
+private boolean
+isCurrent(RRSIGRecord rrsig, RRset rrset, DNSKEYRecord key, Date horizon) {
+	if (rrsig.getExpire().before(horizon) ||
+	    rrsig.getTTL() != rrset.getTTL())
+		return false;
+	byte [] hash = hash(rrsig, rrset);
+	byte [] known = (byte []) signed.get(rrsig);
+	if (known != null)
+		return Arrays.equals(known, hash);
+	try {
+		DNSSEC.verify(rrset, rrsig, key);
+	}
+	catch (DNSSEC.DNSSECException e) {
+		return false;
+	}
+	signed.put(rrsig, hash);
+	return true;
+}
+
+private void
+signOne(Task task, boolean incremental, Date start, Date end, Date horizon)
+{
+	RRset rrset = task.rrset;
+	try {
+		for (int i = 0; i < task.keys.length; i++) {
+			DNSKEYRecord key = task.keys[i];
+			boolean current = false;
+			Iterator it = rrset.sigs();
+			while (incremental && it.hasNext()) {
+				Record r = (Record) it.next();
+				if (!(r instanceof RRSIGRecord))
+					continue;
+				RRSIGRecord old = (RRSIGRecord) r;
+				if (!signedBy(old, key))
+					continue;
+				if (!current &&
+				    isCurrent(old, rrset, key, horizon))
+					current = true;
+				else {
+					task.removed.add(old);
+					signed.remove(old);
+				}
+			}
+			if (current)
+				continue;
+			RRSIGRecord rrsig = DNSSEC.sign(rrset, key,
+							task.privateKeys[i],
+							start, end);
+			task.added.add(rrsig);
+			if (incremental)
+				signed.put(rrsig, hash(rrsig, rrset));
+		}
+	}
+	catch (DNSSEC.DNSSECException e) {
+		task.exception = e;
+	}
+	catch (RuntimeException e) {
+		task.exception = new DNSSEC.DNSSECException(e.toString());
+	}
+}
+
+}
@@ -0,0 +1,214 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Sends the response to a zone transfer request (AXFR or IXFR) over a TCP
+ * connection.  Records are packed into as few messages as possible: each
+ * message holds as many RRsets as fit in 64K, with names compressed across
+ * the whole message, and is written straight to the channel as it fills.
+ * An RRset is only split between messages if it does not fit in one by
+ * itself.
+ * <p>
+ * If the request was signed, the response is signed with
+ * {@link TSIG.StreamGenerator}, which signs the first and last messages
+ * and every 99th message, and covers the others with the next signature.
+ * @see ZoneTransferIn
+ * @see ZoneJournal
+ */
+
+public class ZoneTransferOut {
+
+private static final int MAX_MESSAGE = 65535;
+
+private Header header;
+private Record question;
+private TSIG.StreamGenerator signer;
+private WritableByteChannel channel;
+private int maxLength;
+
+private DNSOutput out;
+private Compression c;
+private ByteBuffer buffer;
+private int count;
+private int messages;
+
+/**
+ * Creates an object to send the response to a zone transfer request.
+ * @param query The request.
+ * @param key The TSIG key used to sign the response, or null if the request
+ * was not signed.
+ * @param channel The connection the request was received on.
+ */
+public
+ZoneTransferOut(Message query, TSIG key, WritableByteChannel channel) {
+	header = new Header(query.getHeader().getID());
+	header.setFlag(Flags.QR);
+	header.setFlag(Flags.AA);
+	question = query.getQuestion();
+	this.channel = channel;
+	maxLength = MAX_MESSAGE;
+	if (key != null) {
+		signer = new TSIG.StreamGenerator(key, query.getTSIG());
+		maxLength -= key.recordLength();
+	}
+	out = new DNSOutput(MAX_MESSAGE);
+	c = new Compression();
+	buffer = ByteBuffer.allocateDirect(MAX_MESSAGE + 2);
+	start();
+}
+
+/* Starts a message.  Only the first one repeats the question. */
+private void
+start() {
+	out.reset();
+	c.reset();
+	header.toWire(out);
+	if (messages == 0 && question != null) {
+		question.toWire(out, Section.QUESTION, c);
+		out.writeU16At(1, 4);
+	}
+	count = 0;
+}
+
+/* Finishes the current message, signs it if needed, and writes it. */
+private void
+flush(boolean last) throws IOException {
+	out.writeU16At(count, 6);
+	if (signer != null) {
+		TSIGRecord tsig = signer.generate(out.array(), out.current(),
+						  last);
+		if (tsig != null) {
+			tsig.toWire(out, Section.ADDITIONAL, null);
+			out.writeU16At(1, 10);
+		}
+	}
+	buffer.clear();
+	buffer.putShort((short) out.current());
+	buffer.put(out.array(), 0, out.current());
+	buffer.flip();
+	while (buffer.hasRemaining())
+		channel.write(buffer);
+	messages++;
+	start();
+}
+
+/*
+ * Adds records to the current message, starting a new one when it is full.
+ * The records are moved to a new message together if they do not fit, and
+ * are only split if they do not fit in an empty message either.
+ */
+private void
+add(Record [] records) throws IOException {
+	int start = out.current();
+	int startCount = count;
+	for (int i = 0; i < records.length; i++) {
+		int pos = out.current();
+		records[i].toWire(out, Section.ANSWER, c);
+		if (out.current() <= maxLength) {
+			count++;
+			continue;
+		}
+		if (startCount > 0) {
+			/* Move all of the records to a new message. */
+			out.jump(start);
+			c.discard(start);
+			count = startCount;
+			flush(false);
+			i = -1;
+		} else {
+			out.jump(pos);
+			c.discard(pos);
+			if (count == 0)
+				throw new IOException("record too long: " +
+						      records[i]);
+			flush(false);
+			i--;
+		}
+		start = out.current();
+		startCount = 0;
+	}
+}
+
+/**
+ * Adds an RRset, including its signatures, to the response.
+ * @param rrset The RRset.
+ * @throws IOException The response could not be written.
+ */
+public void
+add(RRset rrset) throws IOException {
+	List list = new ArrayList(rrset.size());
+	for (Iterator it = rrset.rrs(false); it.hasNext(); )
+		list.add(it.next());
+	for (Iterator it = rrset.sigs(); it.hasNext(); )
+		list.add(it.next());
+	add((Record []) list.toArray(new Record[list.size()]));
+}
+
+/**
+ * Adds a record to the response.
+ * @param r The record.
+ * @throws IOException The response could not be written.
+ */
+public void
+add(Record r) throws IOException {
+	add(new Record [] {r});
+}
+
+/**
+ * Writes the last message of the response.
+ * @throws IOException The response could not be written.
+ */
+public void
+finish() throws IOException {
+	flush(true);
+}
+
+/**
+ * Sends a complete zone as the response, as for an AXFR.  This is also
+ * a valid response to an IXFR request.
+ * @param zone The zone.
+ * @throws IOException The response could not be written.
+ */
+public void
+sendAXFR(Zone zone) throws IOException {
+	for (Iterator it = zone.AXFR(); it.hasNext(); )
+		add((RRset) it.next());
+	finish();
+}
+
+/**
+ * Sends the differences between two versions of a zone as the response to
+ * an IXFR request.  The first record of each delta's deletes is the SOA
+ * of the version it starts from, and the first of its adds the SOA of the
+ * version it ends at.  If there are no deltas, the response is just the
+ * SOA, which tells the client that it is up to date.
+ * @param soa The SOA record of the current version of the zone.
+ * @param deltas The deltas from the client's version to the current one.
+ * @throws IOException The response could not be written.
+ * @see ZoneTransferIn.Delta
+ */
+public void
+sendIXFR(SOARecord soa, List deltas) throws IOException {
+	add(soa);
+	if (deltas.size() > 0) {
+		for (Iterator it = deltas.iterator(); it.hasNext(); ) {
+			ZoneTransferIn.Delta delta;
+			delta = (ZoneTransferIn.Delta) it.next();
+			for (Iterator rit = delta.deletes.iterator();
+			     rit.hasNext(); )
+				add((Record) rit.next());
+			for (Iterator rit = delta.adds.iterator();
+			     rit.hasNext(); )
+				add((Record) rit.next());
+		}
+		add(soa);
+	}
+	finish();
+}
+
+}
@@ -0,0 +1,222 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An immutable AVL tree mapping names to zone nodes, in canonical order.
+ * Changes copy only the path from the root to the changed name, so a new
+ * version of a zone shares all other nodes with the old one, and readers
+ * of the old version are not disturbed.
+ */
+
+final class ZoneTree implements NodeMap, Serializable {
+
+private static final long serialVersionUID = -5217604376282104725L;
+
+static final ZoneTree EMPTY = new ZoneTree(null);
+
+private static final class Node implements Map.Entry, Serializable {
+	private static final long serialVersionUID = 2957436126316270283L;
+
+	final Name name;
+	final Object value;
+	final Node left;
+	final Node right;
+	final int height;
+	final int size;
+
+	Node(Name name, Object value, Node left, Node right) {
+		this.name = name;
+		this.value = value;
+		this.left = left;
+		this.right = right;
+		this.height = Math.max(height(left), height(right)) + 1;
+		this.size = size(left) + size(right) + 1;
+	}
+
+	public Object
+	getKey() {
+		return name;
+	}
+
+	public Object
+	getValue() {
+		return value;
+	}
+
+	public Object
+	setValue(Object value) {
+		throw new UnsupportedOperationException();
+	}
+}
+
+private static class EntryIterator implements Iterator {
+	private Node [] stack;
+	private int depth;
+
+	EntryIterator(Node root) {
+		stack = new Node[height(root)];
+		pushLeft(root);
+	}
+
+	private void
+	pushLeft(Node node) {
+		for (; node != null; node = node.left)
+			stack[depth++] = node;
+	}
+
+	public boolean
+	hasNext() {
+		return (depth > 0);
+	}
+
+	public Object
+	next() {
+		if (depth == 0)
+			throw new NoSuchElementException();
+		Node node = stack[--depth];
+		stack[depth] = null;
+		pushLeft(node.right);
+		return node;
+	}
+
+	public void
+	remove() {
+		throw new UnsupportedOperationException();
+	}
+}
+
+private final Node root;
+
+private
+ZoneTree(Node root) {
+	this.root = root;
+}
+
+private static int
+height(Node node) {
+	return (node == null) ? 0 : node.height;
+}
+
+private static int
+size(Node node) {
+	return (node == null) ? 0 : node.size;
+}
+
+/* Builds a node, rotating if the heights of its subtrees differ by 2. */
+private static Node
+balance(Name name, Object value, Node left, Node right) {
+	int hl = height(left);
+	int hr = height(right);
+	if (hl > hr + 1) {
+		if (height(left.left) >= height(left.right))
+			return new Node(left.name, left.value, left.left,
+					new Node(name, value, left.right, right));
+		Node pivot = left.right;
+		return new Node(pivot.name, pivot.value,
+				new Node(left.name, left.value, left.left,
+					 pivot.left),
+				new Node(name, value, pivot.right, right));
+	} else if (hr > hl + 1) {
+		if (height(right.right) >= height(right.left))
+			return new Node(right.name, right.value,
+					new Node(name, value, left, right.left),
+					right.right);
+		Node pivot = right.left;
+		return new Node(pivot.name, pivot.value,
+				new Node(name, value, left, pivot.left),
+				new Node(right.name, right.value, pivot.right,
+					 right.right));
+	}
+	return new Node(name, value, left, right);
+}
+
+private static Node
+insert(Node node, Name name, Object value) {
+	if (node == null)
+		return new Node(name, value, null, null);
+	int cmp = name.compareTo(node.name);
+	if (cmp == 0)
+		return new Node(node.name, value, node.left, node.right);
+	else if (cmp < 0)
+		return balance(node.name, node.value,
+			       insert(node.left, name, value), node.right);
+	else
+		return balance(node.name, node.value, node.left,
+			       insert(node.right, name, value));
+}
+
+private static Node
+removeFirst(Node node) {
+	if (node.left == null)
+		return node.right;
+	return balance(node.name, node.value, removeFirst(node.left),
+		       node.right);
+}
+
+private static Node
+delete(Node node, Name name) {
+	if (node == null)
+		return null;
+	int cmp = name.compareTo(node.name);
+	if (cmp < 0) {
+		Node left = delete(node.left, name);
+		if (left == node.left)
+			return node;
+		return balance(node.name, node.value, left, node.right);
+	} else if (cmp > 0) {
+		Node right = delete(node.right, name);
+		if (right == node.right)
+			return node;
+		return balance(node.name, node.value, node.left, right);
+	}
+	if (node.left == null)
+		return node.right;
+	if (node.right == null)
+		return node.left;
+	Node first = node.right;
+	while (first.left != null)
+		first = first.left;
+	return balance(first.name, first.value, node.left,
+		       removeFirst(node.right));
+}
+
+/** Returns the number of names in the tree. */
+int
+size() {
+	return size(root);
+}
+
+public Object
+get(Name name) {
+	Node node = root;
+	while (node != null) {
+		int cmp = name.compareTo(node.name);
+		if (cmp == 0)
+			return node.value;
+		node = (cmp < 0) ? node.left : node.right;
+	}
+	return null;
+}
+
+public NodeMap
+put(Name name, Object value) {
+	return new ZoneTree(insert(root, name, value));
+}
+
+public NodeMap
+remove(Name name) {
+	Node node = delete(root, name);
+	if (node == root)
+		return this;
+	return new ZoneTree(node);
+}
+
+public Iterator
+iterator() {
+	return new EntryIterator(root);
+}
+
+}
@@ -0,0 +1,136 @@
+// SPDX-License-Identifier: BSD-2-Clause
+
+package org.xbill.DNS.tests;
+
+import java.net.*;
+import java.util.*;
+import org.xbill.DNS.*;
+
+/**
+ * Measures the lookup throughput of a Cache shared by several threads,
+ * comparing the default (synchronized) Cache with a concurrent one.
+ */
+
+public class cachebench {
+
+private static void
+usage() {
+	System.out.println("usage: cachebench [-t threads] [-n names] " +
+			   "[-s seconds] [-w writes-per-1000]");
+	System.exit(1);
+}
+
+private static Name []
+makeNames(int count) throws TextParseException {
+	Name [] names = new Name[count];
+	for (int i = 0; i < count; i++)
+		names[i] = Name.fromString("host" + i + ".example.com.");
+	return names;
+}
+
+private static Record
+makeRecord(Name name, int i) throws UnknownHostException {
+	byte [] addr = new byte[] {10, (byte)(i >>> 16), (byte)(i >>> 8),
+				   (byte) i};
+	return new ARecord(name, DClass.IN, 3600,
+			   InetAddress.getByAddress(addr));
+}
+
+private static class Worker extends Thread {
+	private Cache cache;
+	private Name [] names;
+	private int writes;
+	private Random random;
+	private volatile boolean done;
+	long count;
+
+	Worker(Cache cache, Name [] names, int writes, int id) {
+		this.cache = cache;
+		this.names = names;
+		this.writes = writes;
+		this.random = new Random(id);
+	}
+
+	private void
+	operation(int i) throws UnknownHostException {
+		int j = random.nextInt(names.length);
+		if (i < writes)
+			cache.addRRset(new RRset(makeRecord(names[j], j)),
+				       Credibility.AUTH_ANSWER);
+		else
+			cache.lookupRecords(names[j], Type.A,
+					    Credibility.NORMAL);
+	}
+
+	public void
+	run() {
+		try {
+			while (!done) {
+				for (int i = 0; i < 1000; i++)
+					operation(i);
+				count += 1000;
+			}
+		}
+		catch (UnknownHostException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+}
+
+private static long
+run(Cache cache, Name [] names, int nthreads, int writes, int seconds)
+throws Exception
+{
+	for (int i = 0; i < names.length; i++)
+		cache.addRecord(makeRecord(names[i], i), Credibility.AUTH_ANSWER,
+				null);
+
+	Worker [] workers = new Worker[nthreads];
+	for (int t = 0; t < nthreads; t++)
+		workers[t] = new Worker(cache, names, writes, t);
+	for (int t = 0; t < nthreads; t++)
+		workers[t].start();
+	Thread.sleep(seconds * 1000L);
+	long total = 0;
+	for (int t = 0; t < nthreads; t++) {
+		workers[t].done = true;
+		workers[t].join();
+		total += workers[t].count;
+	}
+	return total / seconds;
+}
+
+public static void
+main(String [] args) throws Exception {
+	int nthreads = Runtime.getRuntime().availableProcessors();
+	int nnames = 10000;
+	int seconds = 5;
+	int writes = 1;
+
+	for (int i = 0; i < args.length; i++) {
+		if (i + 1 == args.length)
+			usage();
+		if (args[i].equals("-t"))
+			nthreads = Integer.parseInt(args[++i]);
+		else if (args[i].equals("-n"))
+			nnames = Integer.parseInt(args[++i]);
+		else if (args[i].equals("-s"))
+			seconds = Integer.parseInt(args[++i]);
+		else if (args[i].equals("-w"))
+			writes = Integer.parseInt(args[++i]);
+		else
+			usage();
+	}
+
+	Name [] names = makeNames(nnames);
+	long sync = run(new Cache(DClass.IN, false), names, nthreads,
+			writes, seconds);
+	long conc = run(new Cache(DClass.IN, true), names, nthreads,
+			writes, seconds);
+	System.out.println("threads: " + nthreads + ", names: " + nnames +
+			   ", writes per 1000 operations: " + writes);
+	System.out.println("synchronized: " + sync + " operations/s");
+	System.out.println("concurrent:   " + conc + " operations/s");
+}
+
+}
@@ -0,0 +1,114 @@
+// SPDX-License-Identifier: BSD-2-Clause
+
+package org.xbill.DNS.tests;
+
+import java.net.*;
+import org.xbill.DNS.*;
+
+/**
+ * Measures the time taken to render realistic messages to wire format:
+ * a referral with glue, a large ANY response and a zone transfer chunk.
+ */
+
+public class wirebench {
+
+private static Name
+name(String s) throws TextParseException {
+	return Name.fromString(s);
+}
+
+private static Message
+referral() throws Exception {
+	Message m = Message.newQuery(Record.newRecord(name("www.example.com."),
+						      Type.A, DClass.IN));
+	m.getHeader().setFlag(Flags.QR);
+	for (int i = 0; i < 13; i++) {
+		Name ns = name((char)('a' + i) + ".gtld-servers.net.");
+		m.addRecord(new NSRecord(name("com."), DClass.IN, 172800, ns),
+			    Section.AUTHORITY);
+		byte [] addr = new byte[] {(byte) 192, 5, 6, (byte)(30 + i)};
+		m.addRecord(new ARecord(ns, DClass.IN, 172800,
+					InetAddress.getByAddress(addr)),
+			    Section.ADDITIONAL);
+	}
+	return m;
+}
+
+private static Message
+any() throws Exception {
+	Name owner = name("example.com.");
+	Message m = Message.newQuery(Record.newRecord(owner, Type.ANY,
+						      DClass.IN));
+	m.getHeader().setFlag(Flags.QR);
+	for (int i = 0; i < 4; i++)
+		m.addRecord(new NSRecord(owner, DClass.IN, 3600,
+					 name("ns" + i + ".example.com.")),
+			    Section.ANSWER);
+	for (int i = 0; i < 4; i++)
+		m.addRecord(new MXRecord(owner, DClass.IN, 3600, 10 * i,
+					 name("mx" + i + ".mail.example.com.")),
+			    Section.ANSWER);
+	for (int i = 0; i < 8; i++)
+		m.addRecord(new TXTRecord(owner, DClass.IN, 3600,
+					  "v=spf1 include:_spf" + i +
+					  ".example.com ~all"),
+			    Section.ANSWER);
+	for (int i = 0; i < 4; i++)
+		m.addRecord(new ARecord(name("ns" + i + ".example.com."),
+					DClass.IN, 3600,
+					InetAddress.getByAddress(
+						new byte[] {10, 0, 0,
+							    (byte) i})),
+			    Section.ADDITIONAL);
+	return m;
+}
+
+private static Message
+axfrChunk() throws Exception {
+	Name origin = name("example.com.");
+	Message m = new Message();
+	m.getHeader().setFlag(Flags.QR);
+	for (int i = 0; i < 200; i++) {
+		Name owner = name("host" + i + ".dept" + (i % 10) +
+				  ".example.com.");
+		m.addRecord(new ARecord(owner, DClass.IN, 3600,
+					InetAddress.getByAddress(
+						new byte[] {10, 1, (byte)(i >> 8),
+							    (byte) i})),
+			    Section.ANSWER);
+		m.addRecord(new CNAMERecord(name("alias" + i + "." + origin),
+					    DClass.IN, 3600, owner),
+			    Section.ANSWER);
+	}
+	return m;
+}
+
+private static void
+run(String label, Message m, int seconds) {
+	long end = System.currentTimeMillis() + seconds * 1000L;
+	long count = 0;
+	int size = 0;
+	while (System.currentTimeMillis() < end) {
+		for (int i = 0; i < 100; i++)
+			size = m.toWire(Message.MAXLENGTH).length;
+		count += 100;
+	}
+	System.out.println(label + ": " + (count / seconds) +
+			   " messages/s (" + size + " bytes)");
+}
+
+public static void
+main(String [] args) throws Exception {
+	int seconds = 3;
+	if (args.length > 0)
+		seconds = Integer.parseInt(args[0]);
+	Message [] messages = new Message[] {referral(), any(), axfrChunk()};
+	String [] labels = new String[] {"referral", "any", "axfr"};
+	/* Warm up. */
+	for (int i = 0; i < messages.length; i++)
+		run(labels[i], messages[i], 1);
+	for (int i = 0; i < messages.length; i++)
+		run(labels[i], messages[i], seconds);
+}
+
+}
@@ -0,0 +1,223 @@
+// SPDX-License-Identifier: BSD-2-Clause
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.xbill.DNS.*;
+
+import junit.framework.TestCase;
+
+public class jnamedTest extends TestCase
+{
+	private File m_dir;
+	private File m_zonefile;
+	private jnamed m_server;
+	private Name m_www;
+
+	private void write(File file, String text) throws IOException
+	{
+		FileWriter w = new FileWriter(file);
+		w.write(text);
+		w.close();
+	}
+
+	private String zone(int serial, String address)
+	{
+		return "$TTL 3600\n" +
+			"@ SOA ns hostmaster " + serial + " 3600 600 86400 300\n" +
+			"@ NS ns\n" +
+			"ns A 10.0.0.1\n" +
+			"www A " + address + "\n";
+	}
+
+	protected void setUp() throws Exception
+	{
+		m_dir = File.createTempFile("jnamed", "");
+		m_dir.delete();
+		m_dir.mkdir();
+		m_zonefile = new File(m_dir, "example.com.db");
+		write(m_zonefile, zone(1, "10.0.0.2"));
+
+		start("");
+		m_www = Name.fromString("www.example.com.");
+	}
+
+	/* Starts a server, with directives that go before the zone. */
+	private void start(String directives) throws Exception
+	{
+		DatagramSocket probe = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		int port = probe.getLocalPort();
+		probe.close();
+		File conf = new File(m_dir, "jnamed.conf");
+		write(conf, "address 127.0.0.1\n" +
+		      "port " + port + "\n" +
+		      directives +
+		      "primary example.com. " + m_zonefile + "\n");
+		m_server = new jnamed(conf.getPath());
+	}
+
+	protected void tearDown()
+	{
+		m_server.server.close();
+		File [] files = m_dir.listFiles();
+		for (int i = 0; i < files.length; i++)
+			files[i].delete();
+		m_dir.delete();
+	}
+
+	private Message query(Name name, int type, OPTRecord opt)
+	{
+		Message query = Message.newQuery(Record.newRecord(name, type, DClass.IN));
+		if (opt != null)
+			query.addRecord(opt, Section.ADDITIONAL);
+		return query;
+	}
+
+	private Message send(Message query, Socket s) throws IOException
+	{
+		byte [] in = new byte[65535];
+		byte [] wire = query.toWire();
+		System.arraycopy(wire, 0, in, 0, wire.length);
+		return new Message(m_server.handleRequest(in, wire.length, s));
+	}
+
+	private Message send(Message query) throws IOException
+	{
+		return send(query, null);
+	}
+
+	private String address(Message response)
+	{
+		Record [] answers = response.getSectionArray(Section.ANSWER);
+		assertEquals(1, answers.length);
+		return ((ARecord) answers[0]).getAddress().getHostAddress();
+	}
+
+	public void test_hit() throws IOException
+	{
+		send(query(m_www, Type.A, null));
+		assertEquals(1, m_server.answers.size());
+
+		/* A hit has the query's ID, RD flag and question name. */
+		Name upper = Name.fromString("WWW.Example.COM.");
+		Message query = query(upper, Type.A, null);
+		query.getHeader().setID(4321);
+		query.getHeader().unsetFlag(Flags.RD);
+		Message response = send(query);
+		assertEquals(1, m_server.answers.size());
+		assertEquals(4321, response.getHeader().getID());
+		assertFalse(response.getHeader().getFlag(Flags.RD));
+		assertEquals("WWW.Example.COM.", response.getQuestion().getName().toString());
+		assertEquals("10.0.0.2", address(response));
+
+		query.getHeader().setFlag(Flags.RD);
+		assertTrue(send(query).getHeader().getFlag(Flags.RD));
+	}
+
+	public void test_edns() throws IOException
+	{
+		/* Queries with and without EDNS have the same maximum length, but different responses. */
+		OPTRecord opt = new OPTRecord(512, 0, 0);
+		Message udp = send(query(m_www, Type.A, null));
+		assertNull(udp.getOPT());
+		assertNotNull(send(query(m_www, Type.A, opt)).getOPT());
+		assertNull(send(query(m_www, Type.A, null)).getOPT());
+
+		Socket s = new Socket();
+		try {
+			assertNotNull(send(query(m_www, Type.A, opt), s).getOPT());
+			assertNull(send(query(m_www, Type.A, null), s).getOPT());
+			assertNotNull(send(query(m_www, Type.A, opt), s).getOPT());
+		}
+		finally {
+			s.close();
+		}
+		assertEquals(4, m_server.answers.size());
+	}
+
+	public void test_serial() throws IOException
+	{
+		assertEquals("10.0.0.2", address(send(query(m_www, Type.A, null))));
+
+		/* A change to the zone with a new serial replaces the response. */
+		Zone zone = m_server.findBestZone(m_www);
+		Name ns = Name.fromString("ns.example.com.");
+		Name hostmaster = Name.fromString("hostmaster.example.com.");
+		List removed = new ArrayList();
+		List added = new ArrayList();
+		removed.add(zone.getSOA());
+		removed.add(zone.findExactMatch(m_www, Type.A).first());
+		added.add(new SOARecord(zone.getOrigin(), DClass.IN, 3600, ns, hostmaster,
+					2, 3600, 600, 86400, 300));
+		added.add(new ARecord(m_www, DClass.IN, 3600, InetAddress.getByName("10.0.0.3")));
+		zone.applyChanges(removed, added);
+		assertEquals("10.0.0.3", address(send(query(m_www, Type.A, null))));
+
+		/* So does a zone that replaces it. */
+		write(m_zonefile, zone(3, "10.0.0.4"));
+		m_server.addPrimaryZone("example.com.", m_zonefile.getPath());
+		assertEquals("10.0.0.4", address(send(query(m_www, Type.A, null))));
+	}
+
+	public void test_expire() throws IOException
+	{
+		Name other = Name.fromString("www.example.net.");
+		Cache cache = m_server.getCache(DClass.IN);
+		cache.addRecord(new ARecord(other, DClass.IN, 3600, InetAddress.getByName("10.1.0.1")),
+				Credibility.AUTH_ANSWER, null);
+		assertEquals("10.1.0.1", address(send(query(other, Type.A, null))));
+		assertEquals(1, m_server.answers.size());
+
+		/* A response from the cache is used until its data expires. */
+		cache.flushSet(other, Type.A);
+		cache.addRecord(new ARecord(other, DClass.IN, 3600, InetAddress.getByName("10.1.0.2")),
+				Credibility.AUTH_ANSWER, null);
+		assertEquals("10.1.0.1", address(send(query(other, Type.A, null))));
+		for (Iterator it = m_server.answers.values().iterator(); it.hasNext(); )
+			((jnamed.Answer) it.next()).expire = 0;
+		assertEquals("10.1.0.2", address(send(query(other, Type.A, null))));
+	}
+
+	public void test_journalSize() throws Exception
+	{
+		m_server.server.close();
+		start("snapshots " + m_dir + "\n" +
+		      "journals " + m_dir + "\n" +
+		      "journal-size 2000\n");
+
+		/* Each new version of the master file adds its changes to the journal. */
+		long now = System.currentTimeMillis();
+		for (int serial = 2; serial <= 30; serial++) {
+			write(m_zonefile, zone(serial, "10.0.1." + serial));
+			m_zonefile.setLastModified(now + serial * 10000L);
+			m_server.addPrimaryZone("example.com.", m_zonefile.getPath());
+		}
+		ZoneJournal journal = (ZoneJournal) m_server.journals.get(Name.fromString("example.com."));
+		assertEquals(30, journal.getLastSerial());
+		assertTrue(new File(m_dir, "example.com.jnl").length() <= 2000);
+		assertNull(journal.getDeltas(1, 30));
+		assertEquals(1, journal.getDeltas(29, 30).size());
+	}
+
+	public void test_malformed() throws IOException
+	{
+		/* An additional record that frames correctly but does not parse. */
+		Message query = query(m_www, Type.A, null);
+		query.addRecord(new ARecord(m_www, DClass.IN, 3600, InetAddress.getByName("10.0.0.9")),
+				Section.ADDITIONAL);
+		byte [] wire = query.toWire();
+		byte [] in = new byte[65535];
+		System.arraycopy(wire, 0, in, 0, wire.length - 1);
+		in[wire.length - 5] = 3;
+		byte [] reply = m_server.handleRequest(in, wire.length - 1, null);
+		assertNotNull(reply);
+		assertEquals(Rcode.FORMERR, new Message(reply).getRcode());
+	}
+}
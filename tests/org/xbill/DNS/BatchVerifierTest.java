@@ -0,0 +1,104 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.net.InetAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class BatchVerifierTest extends TestCase
+{
+	private Name m_origin;
+	private DNSKEYRecord m_key;
+	private KeyPair m_pair;
+	private Date m_inception;
+	private Date m_expiration;
+
+	protected void setUp() throws Exception
+	{
+		m_origin = Name.fromString("example.com.");
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		m_pair = generator.generateKeyPair();
+		m_key = new DNSKEYRecord(m_origin, DClass.IN, 3600, 256, DNSKEYRecord.Protocol.DNSSEC,
+					 DNSSEC.Algorithm.ECDSAP256SHA256, m_pair.getPublic());
+		m_inception = new Date(System.currentTimeMillis() - 3600 * 1000);
+		m_expiration = new Date(System.currentTimeMillis() + 3600 * 1000);
+	}
+
+	private RRset signed(Record r) throws Exception
+	{
+		RRset rrset = new RRset(r);
+		rrset.addRR(DNSSEC.sign(rrset, m_key, m_pair.getPrivate(), m_inception, m_expiration));
+		return rrset;
+	}
+
+	public void test_message() throws Exception
+	{
+		Message m = new Message();
+		for (int i = 0; i < 40; i++) {
+			Name name = Name.fromString("host" + i, m_origin);
+			ARecord a = new ARecord(name, DClass.IN, 3600,
+						InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) i}));
+			RRset rrset = signed(a);
+			if (i == 7) {
+				/* Replace the data, so that the signature no longer matches. */
+				rrset = new RRset(new ARecord(name, DClass.IN, 3600,
+							      InetAddress.getByAddress(new byte[] {10, 9, 9, 9})));
+				rrset.addRR((Record) signed(a).sigs().next());
+			}
+			for (Iterator it = rrset.rrs(false); it.hasNext(); )
+				m.addRecord((Record) it.next(), Section.ANSWER);
+			for (Iterator it = rrset.sigs(); it.hasNext(); )
+				m.addRecord((Record) it.next(), Section.ANSWER);
+		}
+		m.addRecord(new TXTRecord(m_origin, DClass.IN, 3600, "unsigned"), Section.ADDITIONAL);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			BatchVerifier verifier = new BatchVerifier(new DNSKEYRecord[] {m_key}, executor);
+			List results = verifier.verify(m);
+			assertEquals(41, results.size());
+			for (int i = 0; i < 40; i++) {
+				BatchVerifier.Result result = (BatchVerifier.Result) results.get(i);
+				assertEquals(Name.fromString("host" + i, m_origin), result.getRRset().getName());
+				if (i == 7) {
+					assertFalse(result.isVerified());
+					assertTrue(result.getException() instanceof DNSSEC.SignatureVerificationException);
+				} else {
+					assertTrue(result.isVerified());
+					assertSame(m_key, result.getKey());
+				}
+			}
+			BatchVerifier.Result unsigned = (BatchVerifier.Result) results.get(40);
+			assertFalse(unsigned.isSigned());
+			assertFalse(unsigned.isVerified());
+			assertNull(unsigned.getException());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	public void test_expired() throws Exception
+	{
+		Message m = new Message();
+		RRset rrset = signed(new TXTRecord(m_origin, DClass.IN, 3600, "text"));
+		m.addRecord(rrset.first(), Section.ANSWER);
+		m.addRecord((Record) rrset.sigs().next(), Section.ANSWER);
+
+		BatchVerifier verifier = new BatchVerifier(new DNSKEYRecord[] {m_key});
+		verifier.setDate(new Date(m_expiration.getTime() + 1000));
+		List results = verifier.verify(m);
+		BatchVerifier.Result result = (BatchVerifier.Result) results.get(0);
+		assertFalse(result.isVerified());
+		assertTrue(result.getException() instanceof DNSSEC.SignatureExpiredException);
+	}
+}
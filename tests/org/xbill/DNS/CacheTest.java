@@ -0,0 +1,93 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import junit.framework.TestCase;
+
+public class CacheTest extends TestCase
+{
+	private Name m_name;
+	private Name m_zone;
+
+	protected void setUp() throws TextParseException
+	{
+		m_name = Name.fromString("www.example.com.");
+		m_zone = Name.fromString("example.com.");
+	}
+
+	private ARecord a(Name name, int last) throws UnknownHostException
+	{
+		return new ARecord(name, DClass.IN, 3600,
+				   InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last}));
+	}
+
+	private void checkLookups(Cache cache) throws UnknownHostException, TextParseException
+	{
+		cache.addRecord(a(m_name, 1), Credibility.AUTH_ANSWER, null);
+		cache.addRecord(a(m_name, 2), Credibility.AUTH_ANSWER, null);
+		cache.addRRset(new RRset(new NSRecord(m_zone, DClass.IN, 3600,
+						      Name.fromString("ns.example.com."))),
+			       Credibility.AUTH_AUTHORITY);
+		Name ns = Name.fromString("ns.example.com.");
+		SOARecord soa = new SOARecord(m_zone, DClass.IN, 3600, ns, ns, 1, 3600, 600, 86400, 300);
+		cache.addNegative(Name.fromString("nx.example.com."), 0, soa, Credibility.AUTH_AUTHORITY);
+
+		SetResponse sr = cache.lookupRecords(m_name, Type.A, Credibility.NORMAL);
+		assertTrue(sr.isSuccessful());
+		assertEquals(2, sr.answers()[0].size());
+
+		sr = cache.lookupRecords(Name.fromString("other.example.com."), Type.A, Credibility.NORMAL);
+		assertTrue(sr.isDelegation());
+		assertEquals(m_zone, sr.getNS().getName());
+
+		sr = cache.lookupRecords(Name.fromString("nx.example.com."), Type.A, Credibility.NORMAL);
+		assertTrue(sr.isNXDOMAIN());
+
+		sr = cache.lookupRecords(m_name, Type.A, Credibility.ZONE);
+		assertTrue(sr.isUnknown());
+
+		cache.flushSet(m_name, Type.A);
+		sr = cache.lookupRecords(m_name, Type.A, Credibility.NORMAL);
+		assertTrue(sr.isDelegation());
+		assertEquals(2, cache.getSize());
+
+		cache.flushName(Name.fromString("nx.example.com."));
+		assertEquals(1, cache.getSize());
+
+		cache.flushName(m_zone);
+		sr = cache.lookupRecords(m_name, Type.A, Credibility.NORMAL);
+		assertTrue(sr.isUnknown());
+
+		cache.clearCache();
+		assertEquals(0, cache.getSize());
+	}
+
+	public void test_lookup() throws UnknownHostException, TextParseException
+	{
+		checkLookups(new Cache(DClass.IN, false));
+	}
+
+	public void test_lookup_concurrent() throws UnknownHostException, TextParseException
+	{
+		checkLookups(new Cache(DClass.IN, true));
+	}
+
+	public void test_maxEntries_concurrent() throws UnknownHostException, TextParseException
+	{
+		Cache cache = new Cache(DClass.IN, true);
+		cache.setMaxEntries(100);
+		assertEquals(100, cache.getMaxEntries());
+		for (int i = 0; i < 1000; i++) {
+			Name name = Name.fromString("host" + i + ".example.com.");
+			cache.addRecord(a(name, i), Credibility.AUTH_ANSWER, null);
+			cache.lookupRecords(m_name, Type.A, Credibility.NORMAL);
+		}
+		assertEquals(100, cache.getSize());
+
+		// the most recently added entry survives eviction
+		Name last = Name.fromString("host999.example.com.");
+		assertTrue(cache.lookupRecords(last, Type.A, Credibility.NORMAL).isSuccessful());
+	}
+}
@@ -58,4 +58,31 @@ public class CompressionTest extends TestCase
 	c.add(10, n2);
 	assertEquals(10, c.get(n2));
     }
+
+    public void test_reset() throws WireParseException, TextParseException
+    {
+	Compression c = new Compression();
+	Name n = Name.fromString("www.amazon.com.");
+	Name n2 = Name.fromString("WWW.Amazon.COM.");
+
+	DNSOutput out = new DNSOutput();
+	n.toWire(out, c);
+	n2.toWire(out, c);
+	assertEquals(16 + 2, out.current());
+	assertEquals(0, c.get(n2));
+
+	c.reset();
+	assertEquals(-1, c.get(n));
+
+	out = new DNSOutput();
+	out.writeU16(0);
+	n2.toWire(out, c);
+	n.toWire(out, c);
+	assertEquals(2 + 16 + 2, out.current());
+	assertEquals(2, c.get(n));
+
+	DNSInput in = new DNSInput(out.toByteArray());
+	in.jump(18);
+	assertEquals(n, new Name(in));
+    }
 }
@@ -307,4 +307,59 @@ public class DNSInputTest extends TestCase
 	assertEquals( 3, m_di.current() );
 	assertEquals( out[0], 2 );
     }
+
+    public void test_reset() throws WireParseException
+    {
+	m_di.setActive( 5 );
+	m_di.readU16();
+	m_di.save();
+
+	m_di.reset( m_raw );
+	assertEquals( 0, m_di.current() );
+	assertEquals( 10, m_di.remaining() );
+	try {
+	    m_di.restore();
+	    fail( "IllegalStateException not thrown" );
+	}
+	catch( IllegalStateException e ){
+	    // pass
+	}
+
+	m_di.reset( new byte[] { 9, 8, 7 } );
+	assertEquals( 3, m_di.remaining() );
+	assertEquals( 9, m_di.readU8() );
+    }
+
+    public void test_reset_region() throws WireParseException
+    {
+	m_di.reset( m_raw, 0, 4 );
+	assertEquals( 4, m_di.remaining() );
+	m_di.clearActive();
+	assertEquals( 4, m_di.remaining() );
+	m_di.jump( 3 );
+	assertEquals( 1, m_di.remaining() );
+	try {
+	    m_di.jump( 4 );
+	    fail( "IllegalArgumentException not thrown" );
+	}
+	catch( IllegalArgumentException e ){
+	    // pass
+	}
+	m_di.jump( 0 );
+	try {
+	    m_di.readByteArray( 5 );
+	    fail( "WireParseException not thrown" );
+	}
+	catch( WireParseException e ){
+	    // pass
+	}
+
+	m_di.reset( m_raw, 2, 3 );
+	assertEquals( 0, m_di.current() );
+	assertEquals( 3, m_di.remaining() );
+	assertEquals( m_raw[2], m_di.readU8() );
+
+	m_di.reset( m_raw );
+	assertEquals( 10, m_di.remaining() );
+    }
 }
@@ -63,4 +63,50 @@ public class DNSSECTest extends TestCase
 		set.addRR(rrsig);
 		DNSSEC.verify(set, rrsig, dnskey, new Date(60));
 	}
+
+	public void testPublicKeyCache() throws IOException, DNSSECException
+	{
+		String data = "256 3 13 HgcQzDrxDm641ASGyEF0MXrjDji4XDnWzjrY9VoIn5GfAvHpuqI2W8yihplAz6C/56Zxq1XbAHjLZATfhZFmaA==";
+		DNSKEYRecord k1 = (DNSKEYRecord) Record.fromString(Name.root, Type.DNSKEY, DClass.IN, 3600, data, Name.root);
+		DNSKEYRecord k2 = (DNSKEYRecord) Record.fromString(Name.root, Type.DNSKEY, DClass.IN, 3600, data, Name.root);
+		assertSame(k1.getPublicKey(), k2.getPublicKey());
+
+		try {
+			DNSSEC.setPublicKeyCacheSize(0);
+			DNSKEYRecord k3 = (DNSKEYRecord) Record.fromString(Name.root, Type.DNSKEY, DClass.IN, 3600, data, Name.root);
+			assertNotSame(k1.getPublicKey(), k3.getPublicKey());
+			assertEquals(k1.getPublicKey(), k3.getPublicKey());
+		}
+		finally {
+			DNSSEC.setPublicKeyCacheSize(1024);
+		}
+	}
+
+	public void testRepeatedVerify() throws IOException, DNSSECException
+	{
+		RRSIGRecord rrsig = (RRSIGRecord) Record.fromString(Name.root, Type.RRSIG, DClass.IN, 3600,
+			"TXT 13 0 3600 19700101000003 19700101000000 46271 . dRwMEthIeGiucMcEcDmwixM8/LZcZ+W6lMM0KDSY5rwAGrm1j7tS/VU6xs+rpD5dSRmBYosinkWD6Jk3zRmyBQ==", Name.root);
+		RRset rrset = new RRset();
+		rrset.addRR(txt);
+		rrset.addRR(rrsig);
+		for (int i = 0; i < 3; i++) {
+			DNSKEYRecord dnskey = (DNSKEYRecord) Record.fromString(Name.root, Type.DNSKEY, DClass.IN, 3600,
+				"256 3 13 HgcQzDrxDm641ASGyEF0MXrjDji4XDnWzjrY9VoIn5GfAvHpuqI2W8yihplAz6C/56Zxq1XbAHjLZATfhZFmaA==", Name.root);
+			DNSSEC.verify(rrset, rrsig, dnskey, new Date(60));
+		}
+
+		TXTRecord other = new TXTRecord(Name.root, DClass.IN, 3600, "other");
+		RRset bad = new RRset();
+		bad.addRR(other);
+		bad.addRR(rrsig);
+		DNSKEYRecord dnskey = (DNSKEYRecord) Record.fromString(Name.root, Type.DNSKEY, DClass.IN, 3600,
+			"256 3 13 HgcQzDrxDm641ASGyEF0MXrjDji4XDnWzjrY9VoIn5GfAvHpuqI2W8yihplAz6C/56Zxq1XbAHjLZATfhZFmaA==", Name.root);
+		try {
+			DNSSEC.verify(bad, rrsig, dnskey, new Date(60));
+			fail("SignatureVerificationException not thrown");
+		}
+		catch (DNSSEC.SignatureVerificationException e) {
+		}
+		DNSSEC.verify(rrset, rrsig, dnskey, new Date(60));
+	}
 }
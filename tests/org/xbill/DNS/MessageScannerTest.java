@@ -0,0 +1,202 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class MessageScannerTest extends TestCase
+{
+	private Name m_name;
+	private Message m_message;
+
+	private static class Collector implements MessageScanner.Visitor
+	{
+		List records = new ArrayList();
+		int headers;
+		int stopAfter = -1;
+
+		public boolean header(MessageScanner scanner)
+		{
+			headers++;
+			return true;
+		}
+
+		public boolean record(MessageScanner scanner) throws WireParseException
+		{
+			records.add(scanner.getRecord());
+			return records.size() != stopAfter;
+		}
+	}
+
+	protected void setUp() throws Exception
+	{
+		m_name = Name.fromString("www.example.com.");
+		Name mail = Name.fromString("mail.example.com.");
+		m_message = Message.newQuery(Record.newRecord(m_name, Type.MX, DClass.IN));
+		m_message.getHeader().setFlag(Flags.QR);
+		m_message.getHeader().setRcode(Rcode.NOERROR);
+		m_message.addRecord(new MXRecord(m_name, DClass.IN, 3600, 10, mail), Section.ANSWER);
+		m_message.addRecord(new MXRecord(m_name, DClass.IN, 3600, 20, m_name), Section.ANSWER);
+		m_message.addRecord(new ARecord(mail, DClass.IN, 300, InetAddress.getByName("10.0.0.1")),
+				    Section.ADDITIONAL);
+	}
+
+	public void test_header() throws Exception
+	{
+		final MessageScanner scanner = new MessageScanner();
+		final int [] seen = new int[1];
+		scanner.scan(m_message.toWire(), new MessageScanner.Visitor() {
+			public boolean header(MessageScanner s)
+			{
+				assertSame(scanner, s);
+				assertEquals(m_message.getHeader().getID(), s.getID());
+				assertTrue(s.getFlag(Flags.QR));
+				assertTrue(s.getFlag(Flags.RD));
+				assertFalse(s.getFlag(Flags.TC));
+				assertEquals(Opcode.QUERY, s.getOpcode());
+				assertEquals(Rcode.NOERROR, s.getRcode());
+				assertEquals(1, s.getCount(Section.QUESTION));
+				assertEquals(2, s.getCount(Section.ANSWER));
+				assertEquals(0, s.getCount(Section.AUTHORITY));
+				assertEquals(1, s.getCount(Section.ADDITIONAL));
+				return false;
+			}
+
+			public boolean record(MessageScanner s)
+			{
+				seen[0]++;
+				return true;
+			}
+		});
+		assertEquals(0, seen[0]);
+	}
+
+	public void test_records() throws Exception
+	{
+		byte [] wire = m_message.toWire();
+		Collector collector = new Collector();
+		new MessageScanner().scan(wire, collector);
+
+		assertEquals(1, collector.headers);
+		Record [] all = new Record[4];
+		all[0] = m_message.getQuestion();
+		System.arraycopy(m_message.getSectionArray(Section.ANSWER), 0, all, 1, 2);
+		all[3] = m_message.getSectionArray(Section.ADDITIONAL)[0];
+		assertEquals(Arrays.asList(all), collector.records);
+		for (int i = 0; i < all.length; i++)
+			assertEquals(all[i].getTTL(), ((Record) collector.records.get(i)).getTTL());
+	}
+
+	public void test_fields() throws Exception
+	{
+		final byte [] wire = m_message.toWire();
+		final List names = new ArrayList();
+		new MessageScanner().scan(wire, new MessageScanner.Visitor() {
+			public boolean header(MessageScanner s)
+			{
+				return true;
+			}
+
+			public boolean record(MessageScanner s) throws WireParseException
+			{
+				if (s.getSection() == Section.QUESTION) {
+					assertEquals(Header.LENGTH, s.getNameOffset());
+					assertEquals(0, s.getRdataLength());
+				}
+				if (s.getSection() == Section.ANSWER) {
+					assertEquals(m_name, s.getName());
+					assertEquals(Type.MX, s.getType());
+					assertEquals(DClass.IN, s.getDClass());
+					assertEquals(3600, s.getTTL());
+					/* The owner name is a compression pointer. */
+					assertEquals(0xC0, wire[s.getNameOffset()] & 0xC0);
+
+					/* The exchange is resolved from the rdata. */
+					byte [] rdata = s.getRdata();
+					assertEquals(s.getRdataLength(), rdata.length);
+					names.add(s.getName(s.getRdataOffset() + 2));
+				}
+				if (s.getSection() == Section.ADDITIONAL) {
+					assertEquals(4, s.getRdataLength());
+					assertEquals(10, wire[s.getRdataOffset()]);
+				}
+				return true;
+			}
+		});
+		assertEquals(2, names.size());
+		assertEquals(Name.fromString("mail.example.com."), names.get(0));
+		assertEquals(m_name, names.get(1));
+	}
+
+	public void test_offset() throws Exception
+	{
+		/* A message after a TCP length prefix, scanned where it starts. */
+		byte [] wire = m_message.toWire();
+		byte [] framed = new byte[wire.length + 2];
+		framed[0] = (byte) (wire.length >>> 8);
+		framed[1] = (byte) wire.length;
+		System.arraycopy(wire, 0, framed, 2, wire.length);
+		DNSInput in = new DNSInput(framed);
+		in.jump(2);
+
+		final List names = new ArrayList();
+		Collector collector = new Collector() {
+			public boolean record(MessageScanner s) throws WireParseException
+			{
+				if (s.getSection() == Section.QUESTION)
+					assertEquals(Header.LENGTH, s.getNameOffset());
+				if (s.getSection() == Section.ANSWER) {
+					names.add(s.getName());
+					names.add(s.getName(s.getRdataOffset() + 2));
+				}
+				return super.record(s);
+			}
+		};
+		new MessageScanner().scan(in, collector);
+		assertEquals(4, collector.records.size());
+		assertEquals(m_message.getSectionArray(Section.ANSWER)[0], collector.records.get(1));
+		assertEquals(Arrays.asList(new Name[] {m_name, Name.fromString("mail.example.com."),
+						       m_name, m_name}), names);
+	}
+
+	public void test_stop() throws Exception
+	{
+		Collector collector = new Collector();
+		collector.stopAfter = 2;
+		new MessageScanner().scan(m_message.toWire(), collector);
+		assertEquals(2, collector.records.size());
+	}
+
+	public void test_reuse() throws Exception
+	{
+		MessageScanner scanner = new MessageScanner();
+		Collector collector = new Collector();
+		for (int i = 0; i < 3; i++)
+			scanner.scan(m_message.toWire(), collector);
+		assertEquals(3, collector.headers);
+		assertEquals(12, collector.records.size());
+	}
+
+	public void test_truncated() throws Exception
+	{
+		byte [] wire = m_message.toWire();
+		byte [] partial = new byte[wire.length - 3];
+		System.arraycopy(wire, 0, partial, 0, partial.length);
+		try {
+			new MessageScanner().scan(partial, new Collector());
+			fail("WireParseException not thrown");
+		}
+		catch (WireParseException e) {
+		}
+
+		/* With TC set, the records before the damage are still reported. */
+		partial[2] |= 0x02;
+		Collector collector = new Collector();
+		new MessageScanner().scan(partial, collector);
+		assertEquals(3, collector.records.size());
+	}
+}
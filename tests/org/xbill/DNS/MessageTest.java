@@ -133,6 +133,240 @@ public class MessageTest
             assertEquals(OPTRecord.class, records[1].getClass());
         }
 
+	public void test_additionalBudget() throws IOException
+	{
+	    Name n = Name.fromConstantString("test.example.");
+	    Message m = Message.newQuery(Record.newRecord(n, Type.MX, DClass.IN));
+	    m.addRecord(new MXRecord(n, DClass.IN, 300, 10, Name.fromConstantString("big.example.")),
+			Section.ANSWER);
+	    m.addRecord(new MXRecord(n, DClass.IN, 300, 20, Name.fromConstantString("small.example.")),
+			Section.ANSWER);
+	    Name big = Name.fromConstantString("big.example.");
+	    for (int i = 0; i < 40; i++)
+		m.addRecord(new TXTRecord(big, DClass.IN, 300, "padding padding -" + i + "-"),
+			    Section.ADDITIONAL);
+	    Record small = new ARecord(Name.fromConstantString("small.example."), DClass.IN, 300,
+				       InetAddress.getByName("10.0.0.1"));
+	    m.addRecord(small, Section.ADDITIONAL);
+
+	    /* The RRset that does not fit is left out, and the one after it kept. */
+	    Message m2 = new Message(m.toWire(512));
+	    assertFalse(m2.getHeader().getFlag(Flags.TC));
+	    assertEquals(2, m2.getHeader().getCount(Section.ANSWER));
+	    Record[] additional = m2.getSectionArray(Section.ADDITIONAL);
+	    assertEquals(1, additional.length);
+	    assertEquals(small, additional[0]);
+
+	    /* With room for everything, nothing is left out. */
+	    m2 = new Message(m.toWire(4096));
+	    assertEquals(41, m2.getHeader().getCount(Section.ADDITIONAL));
+
+	    /* An answer that does not fit still truncates the message. */
+	    m2 = new Message(m.toWire(40));
+	    assertTrue(m2.getHeader().getFlag(Flags.TC));
+	    assertEquals(0, m2.getHeader().getCount(Section.ANSWER));
+	}
+
+	public void test_toWireBuffer() throws IOException
+	{
+	    Message m = Message.newQuery(Record.newRecord(Name.fromConstantString("test.example."),
+							  Type.TXT, DClass.IN));
+	    Name n = Name.fromConstantString("test.example.");
+	    for (int i = 0; i < 50; i++)
+		m.addRecord(new TXTRecord(n, DClass.IN, 86400, "example text -" + i + "-"),
+			    Section.ANSWER);
+	    byte[] expected = m.toWire(65535);
+
+	    java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocateDirect(65535);
+	    buffer.put((byte) 1);
+	    assertEquals(expected.length, m.toWire(buffer, 65535));
+	    assertEquals(expected.length + 1, buffer.position());
+	    byte[] actual = new byte[expected.length];
+	    buffer.flip();
+	    buffer.get();
+	    buffer.get(actual);
+	    assertTrue(Arrays.equals(expected, actual));
+
+	    /* A reused DNSOutput is reset before rendering. */
+	    DNSOutput out = new DNSOutput();
+	    out.writeU16(1);
+	    assertEquals(expected.length, m.toWire(out, 65535));
+	    assertTrue(Arrays.equals(expected, out.toByteArray()));
+
+	    /* A message that does not fit in the buffer is truncated. */
+	    buffer.clear();
+	    buffer.limit(512);
+	    int length = m.toWire(buffer, 65535);
+	    assertTrue(length <= 512);
+	    buffer.flip();
+	    actual = new byte[length];
+	    buffer.get(actual);
+	    Message m2 = new Message(actual);
+	    assertTrue(m2.getHeader().getFlag(Flags.TC));
+	    assertTrue(Arrays.equals(m.toWire(512), actual));
+
+	    buffer.clear();
+	    assertEquals(-1, m.toWire(buffer, 10));
+	    assertEquals(0, buffer.position());
+	}
+
+	public void test_lazy() throws IOException
+	{
+	    Name n = Name.fromConstantString("test.example.");
+	    Message m = Message.newQuery(Record.newRecord(n, Type.TXT, DClass.IN));
+	    for (int i = 0; i < 5; i++)
+		m.addRecord(new TXTRecord(n, DClass.IN, 86400, "text " + i), Section.ANSWER);
+	    m.addRecord(new NSRecord(n, DClass.IN, 86400, Name.fromConstantString("ns.example.")),
+			Section.AUTHORITY);
+	    m.addRecord(new ARecord(Name.fromConstantString("ns.example."), DClass.IN, 86400,
+				    InetAddress.getByName("10.0.0.1")), Section.ADDITIONAL);
+	    m.addRecord(new OPTRecord(1232, 0, 0, 0), Section.ADDITIONAL);
+	    TSIG key = new TSIG(TSIG.HMAC_SHA256, "example.", "12345678");
+	    m.setTSIG(key, Rcode.NOERROR, null);
+	    byte[] wire = m.toWire(65535);
+
+	    Message eager = new Message(wire);
+	    Message lazy = new Message(wire, true);
+	    assertEquals(eager.getQuestion(), lazy.getQuestion());
+	    assertEquals(eager.getHeader().toString(), lazy.getHeader().toString());
+	    assertEquals(Rcode.NOERROR, key.verify(eager, wire, null));
+	    assertEquals(Rcode.NOERROR, key.verify(lazy, wire, null));
+	    for (int i = 0; i < 4; i++)
+		assertTrue(Arrays.equals(eager.getSectionArray(i), lazy.getSectionArray(i)));
+	    assertEquals(eager.toString(), lazy.toString());
+	    assertEquals(1232, lazy.getOPT().getPayloadSize());
+
+	    lazy = new Message(wire, true);
+	    assertTrue(lazy.findRecord(new TXTRecord(n, DClass.IN, 86400, "text 3"), Section.ANSWER));
+	    lazy.removeAllRecords(Section.AUTHORITY);
+	    assertEquals(0, lazy.getSectionArray(Section.AUTHORITY).length);
+	    assertEquals(3, lazy.getSectionArray(Section.ADDITIONAL).length);
+	    assertEquals(eager.getSectionRRsets(Section.ANSWER).length,
+			 lazy.getSectionRRsets(Section.ANSWER).length);
+
+	    /* The records are located when the message is parsed. */
+	    byte[] cut = new byte[wire.length - 20];
+	    System.arraycopy(wire, 0, cut, 0, cut.length);
+	    try {
+		new Message(cut, true);
+		fail("WireParseException not thrown");
+	    }
+	    catch (WireParseException e) {
+	    }
+	}
+
+	public void test_lazyMalformed() throws IOException
+	{
+	    Name n = Name.fromConstantString("test.example.");
+	    Message m = Message.newQuery(Record.newRecord(n, Type.A, DClass.IN));
+	    m.addRecord(new TXTRecord(n, DClass.IN, 86400, "text"), Section.ANSWER);
+	    m.addRecord(new ARecord(n, DClass.IN, 86400, InetAddress.getByName("10.0.0.1")),
+			Section.ANSWER);
+	    byte[] wire = m.toWire();
+
+	    /* Give the A record 3 bytes of data, which frames correctly but does not parse. */
+	    byte[] bad = new byte[wire.length - 1];
+	    System.arraycopy(wire, 0, bad, 0, bad.length);
+	    bad[bad.length - 4] = 3;
+	    Message lazy = new Message(bad, true);
+	    for (int i = 0; i < 2; i++) {
+		try {
+		    lazy.getSectionArray(Section.ANSWER);
+		    fail("IllegalArgumentException not thrown");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	    }
+
+	    /* A truncated message keeps the records before the error, as when parsing eagerly. */
+	    bad[2] |= 0x02;
+	    Message eager = new Message(bad);
+	    lazy = new Message(bad, true);
+	    assertEquals(1, eager.getSectionArray(Section.ANSWER).length);
+	    assertTrue(Arrays.equals(eager.getSectionArray(Section.ANSWER),
+				     lazy.getSectionArray(Section.ANSWER)));
+	    assertEquals(1, lazy.getSectionArray(Section.ANSWER).length);
+	}
+
+	public void test_toWireBufferTSIG() throws IOException
+	{
+	    TSIG key = new TSIG(TSIG.HMAC_SHA256, "example.", "12345678");
+	    Message m = Message.newQuery(Record.newRecord(Name.fromConstantString("test.example."),
+							  Type.A, DClass.IN));
+	    m.setTSIG(key, Rcode.NOERROR, null);
+	    DNSOutput out = new DNSOutput();
+	    int length = m.toWire(out, 512);
+	    byte[] wire = out.toByteArray();
+	    assertEquals(length, wire.length);
+	    Message m2 = new Message(wire);
+	    assertNotNull(m2.getTSIG());
+	    assertEquals(Rcode.NOERROR, key.verify(m2, wire, null));
+	}
+
+
+	public void test_sharedNames() throws IOException
+	{
+	    Name origin = Name.fromConstantString("Example.com.");
+	    Name www = Name.fromConstantString("www.Example.com.");
+	    Message m = Message.newQuery(Record.newRecord(www, Type.A, DClass.IN));
+	    m.addRecord(new CNAMERecord(www, DClass.IN, 300, Name.fromConstantString("host.example.com.")),
+			Section.ANSWER);
+	    m.addRecord(new NSRecord(origin, DClass.IN, 300, Name.fromConstantString("ns.Example.com.")),
+			Section.AUTHORITY);
+	    m.addRecord(new ARecord(Name.fromConstantString("ns.Example.com."), DClass.IN, 300,
+				    InetAddress.getByName("10.0.0.1")), Section.ADDITIONAL);
+	    byte[] wire = m.toWire();
+
+	    Message m2 = new Message(wire);
+	    for (int i = 0; i < 4; i++)
+		assertTrue(Arrays.equals(m.getSectionArray(i), m2.getSectionArray(i)));
+	    Record question = m2.getQuestion();
+	    CNAMERecord cname = (CNAMERecord) m2.getSectionArray(Section.ANSWER)[0];
+	    NSRecord ns = (NSRecord) m2.getSectionArray(Section.AUTHORITY)[0];
+	    Record a = m2.getSectionArray(Section.ADDITIONAL)[0];
+	    assertSame(question.getName(), cname.getName());
+	    assertSame(ns.getTarget(), a.getName());
+	    assertEquals("ns.Example.com.", a.getName().toString());
+	    assertEquals("host.Example.com.", cname.getTarget().toString());
+	    assertEquals(www.hashCode(), question.getName().hashCode());
+
+	    /* Names in different messages are shared through a NameTable. */
+	    NameTable table = new NameTable(64);
+	    Message m3 = new Message(wire, table);
+	    Message m4 = new Message(wire, table);
+	    assertNotSame(m3.getQuestion(), m4.getQuestion());
+	    assertSame(m3.getQuestion().getName(), m4.getQuestion().getName());
+	    assertSame(((NSRecord) m3.getSectionArray(Section.AUTHORITY)[0]).getTarget(),
+		       ((NSRecord) m4.getSectionArray(Section.AUTHORITY)[0]).getTarget());
+	    assertNotSame(m2.getQuestion().getName(), m3.getQuestion().getName());
+
+	    /* Only identical names are interned together. */
+	    Name lower = Name.fromConstantString("www.example.com.");
+	    assertSame(lower, table.intern(lower));
+	}
+
+	public void test_reusedInput() throws IOException
+	{
+	    Name www = Name.fromConstantString("www.example.com.");
+	    Message m = Message.newQuery(Record.newRecord(www, Type.MX, DClass.IN));
+	    m.addRecord(new MXRecord(www, DClass.IN, 300, 10,
+				     Name.fromConstantString("mail.example.com.")), Section.ANSWER);
+	    Message other = Message.newQuery(Record.newRecord(Name.fromConstantString("a.b.c."),
+							     Type.A, DClass.IN));
+
+	    /* The same input, and the same array, parse different messages. */
+	    byte[] buf = new byte[512];
+	    DNSInput in = new DNSInput(buf);
+	    for (int i = 0; i < 3; i++) {
+		Message expected = (i == 1) ? other : m;
+		byte[] wire = expected.toWire();
+		System.arraycopy(wire, 0, buf, 0, wire.length);
+		in.reset(buf);
+		Message m2 = new Message(in, false);
+		for (int j = 0; j < 4; j++)
+		    assertTrue(Arrays.equals(expected.getSectionArray(j), m2.getSectionArray(j)));
+	    }
+	}
     }
 
     public static Test suite()
@@ -0,0 +1,125 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.xbill.DNS.utils.base16;
+import org.xbill.DNS.utils.base32;
+
+import junit.framework.TestCase;
+
+public class NSEC3HasherTest extends TestCase
+{
+	private static final base32 b32 = new base32(base32.Alphabet.BASE32HEX, false, false);
+
+	private Name m_origin;
+	private NSEC3Hasher m_hasher;
+
+	protected void setUp() throws Exception
+	{
+		m_origin = Name.fromString("example.");
+		/* The parameters of the examples in RFC 5155, appendix A. */
+		m_hasher = new NSEC3Hasher(NSEC3Record.Digest.SHA1, 12, base16.fromString("AABBCCDD"));
+	}
+
+	private Name name(String s) throws TextParseException
+	{
+		return Name.fromString(s, m_origin);
+	}
+
+	public void test_hash() throws Exception
+	{
+		assertEquals(name("0p9mhaveqvm6t7vbl5lop2u3t2rp3tom"), m_hasher.hashedName(m_origin, m_origin));
+		assertEquals(name("35mthgpgcu1qg68fab165klnsnk3dpvl"), m_hasher.hashedName(name("a"), m_origin));
+		assertEquals(name("2t7b4g4vsa5smi47k61mv5bv1a22bojr"), m_hasher.hashedName(name("ns1"), m_origin));
+
+		/* Cached hashes are returned again, and match the uncached ones. */
+		byte [] hash = m_hasher.hash(name("a"));
+		assertSame(hash, m_hasher.hash(name("A")));
+		m_hasher.setCacheSize(0);
+		assertNotSame(hash, m_hasher.hash(name("a")));
+		assertTrue(Arrays.equals(hash, m_hasher.hash(name("a"))));
+
+		NSEC3PARAMRecord param = new NSEC3PARAMRecord(m_origin, DClass.IN, 0, NSEC3Record.Digest.SHA1,
+							      0, 12, base16.fromString("AABBCCDD"));
+		assertTrue(Arrays.equals(hash, param.hashName(name("a"))));
+	}
+
+	public void test_unknown_algorithm()
+	{
+		try {
+			new NSEC3Hasher(2, 0, null);
+			fail("NoSuchAlgorithmException not thrown");
+		}
+		catch (java.security.NoSuchAlgorithmException e) {
+		}
+	}
+
+	private Record rr(String name, int type, String data) throws Exception
+	{
+		return ZoneFixtures.rr(m_origin, name, type, data);
+	}
+
+	public void test_chain() throws Exception
+	{
+		Record [] records = new Record [] {
+			rr("@", Type.SOA, "ns1 bugs.x.w 1 3600 300 3600000 3600"),
+			rr("@", Type.NS, "ns1"),
+			rr("@", Type.MX, "1 xx"),
+			rr("a", Type.NS, "ns1.a"),
+			rr("a", Type.DS, "58470 5 1 3079F1593EBAD6DC121E202A8B766A6A4837206C"),
+			rr("ns1.a", Type.A, "192.0.2.5"),
+			rr("ns1", Type.A, "192.0.2.1"),
+			rr("x.w", Type.MX, "1 xx"),
+			rr("xx", Type.A, "192.0.2.10"),
+		};
+		Zone zone = new Zone(m_origin, records);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		List chain;
+		try {
+			chain = m_hasher.chain(zone, 0, 3600, executor);
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		/* example, a, ns1, w (empty non-terminal), x.w, xx; not ns1.a. */
+		assertEquals(6, chain.size());
+		for (int i = 0; i < chain.size(); i++) {
+			NSEC3Record nsec3 = (NSEC3Record) chain.get(i);
+			NSEC3Record next = (NSEC3Record) chain.get((i + 1) % chain.size());
+			assertEquals(next.getName(), new Name(b32.toString(nsec3.getNext()), m_origin));
+			if (i > 0)
+				assertTrue(((NSEC3Record) chain.get(i - 1)).getName().compareTo(nsec3.getName()) < 0);
+		}
+
+		NSEC3Record empty = find(chain, m_hasher.hashedName(name("w"), m_origin));
+		assertEquals(0, empty.getTypes().length);
+		NSEC3Record apex = find(chain, m_hasher.hashedName(m_origin, m_origin));
+		assertTrue(apex.hasType(Type.SOA));
+		assertTrue(apex.hasType(Type.RRSIG));
+		NSEC3Record delegation = find(chain, m_hasher.hashedName(name("a"), m_origin));
+		assertTrue(delegation.hasType(Type.NS));
+		assertTrue(delegation.hasType(Type.DS));
+
+		/* With opt-out, the delegation is omitted once its DS is removed. */
+		zone.removeRecord(rr("a", Type.DS, "58470 5 1 3079F1593EBAD6DC121E202A8B766A6A4837206C"));
+		chain = m_hasher.chain(zone, NSEC3Record.Flags.OPT_OUT, 3600, null);
+		assertEquals(5, chain.size());
+		assertNull(find(chain, m_hasher.hashedName(name("a"), m_origin)));
+	}
+
+	private static NSEC3Record find(List chain, Name name)
+	{
+		for (int i = 0; i < chain.size(); i++) {
+			NSEC3Record nsec3 = (NSEC3Record) chain.get(i);
+			if (nsec3.getName().equals(name))
+				return nsec3;
+		}
+		return null;
+	}
+}
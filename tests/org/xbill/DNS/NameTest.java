@@ -1188,6 +1188,48 @@ public class NameTest extends TestCase
 	    assertTrue(n1.compareTo(n2) < 0);
 	    assertTrue(n2.compareTo(n1) > 0);
 	}
+
+	public void test_case() throws TextParseException
+	{
+	    Name n1 = new Name("ABC.a.");
+	    Name n2 = new Name("abd.A.");
+
+	    assertTrue(n1.compareTo(n2) < 0);
+	    assertTrue(n2.compareTo(n1) > 0);
+	    assertEquals(0, n1.compareTo(new Name("abc.A.")));
+	    assertEquals(new Name("abc.A."), n1);
+	}
+
+	public void test_unsigned() throws TextParseException
+	{
+	    // octets are compared as unsigned values (RFC 4034, section 6.1)
+	    Name n1 = new Name("z.a.");
+	    Name n2 = new Name("\\200.a.");
+
+	    assertTrue(n1.compareTo(n2) < 0);
+	    assertTrue(n2.compareTo(n1) > 0);
+	}
+
+	public void test_zero_octet() throws TextParseException
+	{
+	    Name n1 = new Name("a.b.");
+	    Name n2 = new Name("a\\000.b.");
+	    Name n3 = new Name("a\\001.b.");
+	    Name n4 = new Name("b.a.b.");
+
+	    assertTrue(n1.compareTo(n2) < 0);
+	    assertTrue(n2.compareTo(n3) < 0);
+	    assertTrue(n1.compareTo(n4) < 0);
+	    assertTrue(n4.compareTo(n2) < 0);
+	    assertTrue(n3.compareTo(n1) > 0);
+	    assertFalse(n1.equals(n2));
+
+	    // equality is the same whether or not the names have been compared
+	    Name n5 = new Name("A\\000.B.");
+	    assertEquals(n2, n5);
+	    assertEquals(0, n2.compareTo(n5));
+	    assertEquals(n2, n5);
+	}
     }
 
     public void test_canonicalize() throws TextParseException
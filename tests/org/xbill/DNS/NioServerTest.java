@@ -0,0 +1,100 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+public class NioServerTest extends TestCase
+{
+	private static class Handler implements RequestHandler
+	{
+		public byte [] handleRequest(byte [] in, int length, Socket s)
+		{
+			try {
+				Message query = new Message(in);
+				Message response = new Message(query.getHeader().getID());
+				response.getHeader().setFlag(Flags.QR);
+				response.getHeader().setRcode(Rcode.REFUSED);
+				response.addRecord(query.getQuestion(), Section.QUESTION);
+				return response.toWire();
+			}
+			catch (IOException e) {
+				return null;
+			}
+		}
+	}
+
+	private NioServer m_server;
+	private InetAddress m_addr;
+	private int m_port;
+
+	protected void setUp() throws IOException
+	{
+		m_addr = InetAddress.getByName("127.0.0.1");
+		DatagramSocket probe = new DatagramSocket(0, m_addr);
+		m_port = probe.getLocalPort();
+		probe.close();
+
+		m_server = new NioServer(new Handler());
+		m_server.setUDPThreads(2);
+		m_server.setTCPThreads(2);
+		m_server.addUDP(m_addr, m_port);
+		m_server.addTCP(m_addr, m_port);
+	}
+
+	protected void tearDown()
+	{
+		m_server.close();
+	}
+
+	private Message query(String name) throws TextParseException
+	{
+		return Message.newQuery(Record.newRecord(Name.fromString(name), Type.A, DClass.IN));
+	}
+
+	public void test_udp() throws IOException
+	{
+		SimpleResolver res = new SimpleResolver("127.0.0.1");
+		res.setPort(m_port);
+		res.setTimeout(5);
+		Message response = res.send(query("www.example.com."));
+		assertEquals(Rcode.REFUSED, response.getRcode());
+		assertEquals(Name.fromString("www.example.com."), response.getQuestion().getName());
+	}
+
+	public void test_tcp_pipelined() throws IOException
+	{
+		Socket s = new Socket(m_addr, m_port);
+		try {
+			DataOutputStream out = new DataOutputStream(s.getOutputStream());
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			Message q1 = query("one.example.com.");
+			Message q2 = query("two.example.com.");
+			byte [] w1 = q1.toWire();
+			byte [] w2 = q2.toWire();
+			out.writeShort(w1.length);
+			out.write(w1);
+			out.writeShort(w2.length);
+			out.write(w2);
+			out.flush();
+
+			Message[] queries = new Message[] {q1, q2};
+			for (int i = 0; i < queries.length; i++) {
+				byte [] data = new byte[in.readUnsignedShort()];
+				in.readFully(data);
+				Message response = new Message(data);
+				assertEquals(queries[i].getHeader().getID(), response.getHeader().getID());
+				assertEquals(queries[i].getQuestion().getName(), response.getQuestion().getName());
+			}
+		}
+		finally {
+			s.close();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class ParallelLoopTest extends TestCase
+{
+	private ExecutorService m_executor;
+
+	protected void setUp()
+	{
+		m_executor = Executors.newFixedThreadPool(4);
+	}
+
+	protected void tearDown()
+	{
+		m_executor.shutdown();
+	}
+
+	public void test_execute() throws InterruptedException
+	{
+		final AtomicInteger sum = new AtomicInteger();
+		new ParallelLoop() {
+			void run(int i) {
+				sum.addAndGet(i);
+			}
+		}.execute(m_executor, 1000, 7);
+		assertEquals(999 * 1000 / 2, sum.get());
+	}
+
+	public void test_exception() throws InterruptedException
+	{
+		ParallelLoop loop = new ParallelLoop() {
+			void run(int i) {
+				if (i == 500)
+					throw new IllegalArgumentException("bad " + i);
+			}
+		};
+		try {
+			loop.execute(m_executor, 1000, 7);
+			fail("IllegalArgumentException not thrown");
+		}
+		catch (IllegalArgumentException e) {
+			assertEquals("bad 500", e.getMessage());
+		}
+	}
+
+	public void test_exception_calling_thread() throws InterruptedException
+	{
+		/* A batch the executor rejects runs, and fails, on this thread. */
+		m_executor.shutdown();
+		ParallelLoop loop = new ParallelLoop() {
+			void run(int i) {
+				if (i == 3)
+					throw new IllegalStateException();
+			}
+		};
+		try {
+			loop.execute(m_executor, 10, 2);
+			fail("IllegalStateException not thrown");
+		}
+		catch (IllegalStateException e) {
+		}
+	}
+}
@@ -0,0 +1,152 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class ParallelMasterTest extends TestCase
+{
+	private static final String ZONE =
+		"$TTL 3600\n" +
+		"@ SOA ns hostmaster ( 1 3600 600\n" +
+		"\t; a comment with ( and \"\n" +
+		"\t86400 300 )\n" +
+		"@ NS ns\n" +
+		"ns A 10.0.0.1\n" +
+		"txt TXT \"a;b(c\" \"d\\\"e\" ; (\n" +
+		"multi TXT ( \"one\"\n" +
+		"two A 10.0.0.2 )\n" +
+		"esc TXT \"x\\\ny\"\n" +
+		"Host A 10.0.0.3\n" +
+		"host AAAA 2001:db8::3\n" +
+		"\tMX 10 mail\n" +
+		"$ORIGIN sub.example.com.\n" +
+		"a 300 A 10.0.1.1\r\n" +
+		"$TTL 60\r\n" +
+		"b A 10.0.1.2\r\n" +
+		"$GENERATE 1-3 gen$ A 10.0.2.$\n" +
+		"c A 10.0.1.3\n";
+
+	private Name m_origin;
+	private ExecutorService m_executor;
+
+	protected void setUp() throws Exception
+	{
+		m_origin = Name.fromString("example.com.");
+		m_executor = Executors.newFixedThreadPool(4);
+	}
+
+	protected void tearDown()
+	{
+		m_executor.shutdown();
+	}
+
+	private List master(String text) throws IOException
+	{
+		Master m = new Master(ByteBuffer.wrap(text.getBytes()), m_origin, -1);
+		List list = new ArrayList();
+		Record r;
+		while ((r = m.nextRecord()) != null)
+			list.add(r.toString());
+		return list;
+	}
+
+	private List parallel(String text, int chunkSize) throws IOException
+	{
+		ParallelMaster m = new ParallelMaster(ByteBuffer.wrap(text.getBytes()), m_origin, -1, m_executor);
+		m.chunkSize = chunkSize;
+		List list = new ArrayList();
+		for (Iterator it = m.records().iterator(); it.hasNext(); )
+			list.add(it.next().toString());
+		return list;
+	}
+
+	private void assertSameRecords(String text) throws IOException
+	{
+		List expected = master(text);
+		for (int size = 1; size < text.length(); size *= 2)
+			assertEquals("chunk size " + size, expected, parallel(text, size));
+	}
+
+	public void test_records() throws IOException
+	{
+		assertSameRecords(ZONE);
+		assertEquals(15, parallel(ZONE, 1).size());
+	}
+
+	public void test_previousOwner() throws IOException
+	{
+		/* The owner is taken from the previous record in another case. */
+		String text = "$TTL 60\nwww A 10.0.0.1\nWWW A 10.0.0.2\nWww A 10.0.0.3\n";
+		assertSameRecords(text);
+		assertEquals("www.example.com.\t60\tIN\tA\t10.0.0.3", parallel(text, 1).get(2));
+	}
+
+	public void test_noDefaultTTL() throws IOException
+	{
+		/* The TTL comes from the SOA minimum, and then from the previous record. */
+		assertSameRecords("@ SOA ns hostmaster 1 2 3 4 300\na A 10.0.0.1\nb A 10.0.0.2\n");
+		assertSameRecords("$ORIGIN example.com.\na 100 A 10.0.0.1\nb A 10.0.0.2\nc 200 A 10.0.0.3\nd A 10.0.0.4\n");
+	}
+
+	public void test_error() throws IOException
+	{
+		String text = ZONE + "d A 10.0.1.4\ne A 10.0.1\nf A 10.0.1.5\n";
+		String message = null;
+		try {
+			master(text);
+			fail("TextParseException not thrown");
+		}
+		catch (TextParseException e) {
+			message = e.getMessage();
+		}
+		assertTrue(message, message.startsWith("<none>:22:"));
+		for (int size = 1; size < text.length(); size *= 2) {
+			try {
+				parallel(text, size);
+				fail("TextParseException not thrown");
+			}
+			catch (TextParseException e) {
+				assertEquals(message, e.getMessage());
+			}
+		}
+	}
+
+	public void test_unbalanced() throws IOException
+	{
+		/* An unmatched parenthesis stops the split, and is reported. */
+		String text = "$TTL 60\na A 10.0.0.1\nb A 10.0.0.2 )\nc A 10.0.0.3\n";
+		try {
+			parallel(text, 1);
+			fail("TextParseException not thrown");
+		}
+		catch (TextParseException e) {
+			assertTrue(e.getMessage().indexOf("invalid close parenthesis") >= 0);
+		}
+	}
+
+	public void test_zone() throws IOException
+	{
+		File tmp = File.createTempFile("dnsjava", "tmp");
+		try {
+			FileWriter fw = new FileWriter(tmp);
+			fw.write(ZONE);
+			fw.close();
+			Zone expected = new Zone(m_origin, tmp.getPath());
+			Zone zone = new Zone(m_origin, tmp.getPath(), false, m_executor);
+			assertEquals(expected.toMasterFile(), zone.toMasterFile());
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+}
@@ -440,6 +440,58 @@ public class RecordTest extends TestCase
 	assertTrue(Arrays.equals(exp, after));
     }
 
+    public void test_rdataMemo() throws IOException,
+					TextParseException
+    {
+	Name n = Name.fromString("My.Name.");
+	Name n2 = Name.fromString("My.Second.Name.");
+	Record ns = new NSRecord(n, DClass.IN, 0xABE99, n2);
+	Record a = new ARecord(n, DClass.IN, 0xABE99,
+			       InetAddress.getByName("192.168.1.1"));
+
+	// the canonical rdata is a copy
+	byte[] canonical = ns.rdataToWireCanonical();
+	canonical[1] = 'X';
+	assertTrue(Arrays.equals(n2.toWireCanonical(), ns.rdataToWireCanonical()));
+
+	// rendered again, the compressed and uncompressed forms are unchanged
+	for (int i = 0; i < 2; i++) {
+	    DNSOutput out = new DNSOutput();
+	    Compression c = new Compression();
+	    n2.toWire(out, c);
+	    ns.toWire(out, Section.ANSWER, c);
+	    a.toWire(out, Section.ANSWER, c);
+	    // the NS rdata is a single compression pointer
+	    assertEquals(16 + 17 + 16, out.current());
+	    DNSInput in = new DNSInput(out.toByteArray());
+	    new Name(in);
+	    assertEquals(ns, Record.fromWire(in, Section.ANSWER));
+	    assertEquals(a, Record.fromWire(in, Section.ANSWER));
+	}
+    }
+
+    public void test_rdataMemo_setSignature() throws IOException,
+						     TextParseException
+    {
+	Name n = Name.fromString("My.Name.");
+	RRSIGRecord r = new RRSIGRecord(n, DClass.IN, 0, Type.A, 1, 0,
+					new Date(), new Date(), 10, n,
+					new byte[] { 1, 2, 3 });
+	r.toWire(Section.ANSWER);
+	r.rdataToWireCanonical();
+
+	// a new signature replaces the memoized rdata
+	byte[] sig = new byte[] { 4, 5, 6, 7 };
+	r.setSignature(sig);
+	byte[] rdata = r.rdataToWireCanonical();
+	assertEquals(18 + n.length() + sig.length, rdata.length);
+	byte[] tail = new byte[sig.length];
+	System.arraycopy(rdata, rdata.length - sig.length, tail, 0, sig.length);
+	assertTrue(Arrays.equals(sig, tail));
+	DNSInput in = new DNSInput(r.toWire(Section.ANSWER));
+	assertTrue(Arrays.equals(sig, ((RRSIGRecord) Record.fromWire(in, Section.ANSWER)).getSignature()));
+    }
+
     public void test_rdataToString() throws IOException,
 					    TextParseException,
 					    UnknownHostException
@@ -0,0 +1,113 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+
+import junit.framework.TestCase;
+
+public class SimpleResolverTest extends TestCase
+{
+	private static class Listener implements ResolverListener
+	{
+		Object id;
+		Message response;
+		Exception exception;
+
+		public synchronized void receiveMessage(Object id, Message m)
+		{
+			this.id = id;
+			this.response = m;
+			notifyAll();
+		}
+
+		public synchronized void handleException(Object id, Exception e)
+		{
+			this.id = id;
+			this.exception = e;
+			notifyAll();
+		}
+
+		synchronized void waitForResult() throws InterruptedException
+		{
+			long end = System.currentTimeMillis() + 10000;
+			while (response == null && exception == null && System.currentTimeMillis() < end)
+				wait(100);
+		}
+	}
+
+	private DatagramSocket m_server;
+	private SimpleResolver m_res;
+
+	protected void setUp() throws IOException
+	{
+		m_server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		m_res = new SimpleResolver("127.0.0.1");
+		m_res.setPort(m_server.getLocalPort());
+	}
+
+	protected void tearDown()
+	{
+		m_server.close();
+	}
+
+	/*
+	 * Answers one query, first sending a reply with the wrong ID, which
+	 * must be ignored.
+	 */
+	private void answerOne() throws IOException
+	{
+		byte [] buf = new byte[512];
+		DatagramPacket packet = new DatagramPacket(buf, buf.length);
+		m_server.receive(packet);
+		Message query = new Message(packet.getData());
+		Message response = new Message(query.getHeader().getID());
+		response.getHeader().setFlag(Flags.QR);
+		response.addRecord(query.getQuestion(), Section.QUESTION);
+		response.addRecord(new ARecord(query.getQuestion().getName(), DClass.IN, 3600,
+					       InetAddress.getByName("10.0.0.1")),
+				   Section.ANSWER);
+
+		Message bogus = (Message) response.clone();
+		bogus.getHeader().setID(query.getHeader().getID() ^ 1);
+		byte [] out = bogus.toWire();
+		m_server.send(new DatagramPacket(out, out.length, packet.getSocketAddress()));
+
+		out = response.toWire();
+		m_server.send(new DatagramPacket(out, out.length, packet.getSocketAddress()));
+	}
+
+	public void test_sendAsync() throws Exception
+	{
+		Message query = Message.newQuery(Record.newRecord(Name.fromString("www.example.com."),
+								  Type.A, DClass.IN));
+		int qid = query.getHeader().getID();
+		Listener listener = new Listener();
+		Object id = m_res.sendAsync(query, listener);
+		answerOne();
+		listener.waitForResult();
+
+		assertNull(listener.exception);
+		assertNotNull(listener.response);
+		assertEquals(id, listener.id);
+		assertEquals(qid, listener.response.getHeader().getID());
+		assertEquals(1, listener.response.getSectionArray(Section.ANSWER).length);
+	}
+
+	public void test_sendAsync_timeout() throws Exception
+	{
+		m_res.setTimeout(0, 200);
+		Message query = Message.newQuery(Record.newRecord(Name.fromString("www.example.com."),
+								  Type.A, DClass.IN));
+		Listener listener = new Listener();
+		Object id = m_res.sendAsync(query, listener);
+		listener.waitForResult();
+
+		assertNull(listener.response);
+		assertEquals(id, listener.id);
+		assertTrue(listener.exception instanceof SocketTimeoutException);
+	}
+}
@@ -76,4 +76,77 @@ public class TSIGTest extends TestCase
 	assertEquals(result, Rcode.NOERROR);
 	assertTrue(parsed.isSigned());
     }
+
+    public void test_TSIG_stream() throws TextParseException, IOException
+    {
+	TSIG key = new TSIG(TSIG.HMAC_SHA256, "example.", "12345678");
+
+	Name qname = Name.fromString("example.");
+	Record question = Record.newRecord(qname, Type.AXFR, DClass.IN);
+	Message query = Message.newQuery(question);
+	query.setTSIG(key, Rcode.NOERROR, null);
+	Message qparsed = new Message(query.toWire());
+
+	/*
+	 * Only the first, the last and every 99th message in between are
+	 * signed, and the verifier accepts them all.
+	 */
+	TSIG.StreamGenerator generator;
+	generator = new TSIG.StreamGenerator(key, qparsed.getTSIG());
+	TSIG.StreamVerifier verifier;
+	verifier = new TSIG.StreamVerifier(key, qparsed.getTSIG());
+	for (int i = 0; i < 250; i++) {
+		Message response = new Message(query.getHeader().getID());
+		response.getHeader().setFlag(Flags.QR);
+		Record answer = Record.fromString(qname, Type.TXT, DClass.IN,
+						  300, "foo" + i, null);
+		response.addRecord(answer, Section.ANSWER);
+		byte [] b = response.toWire();
+		TSIGRecord tsig = generator.generate(b, b.length, i == 249);
+		assertEquals(i == 0 || i == 99 || i == 198 || i == 249,
+			     tsig != null);
+		if (tsig != null) {
+			response.addRecord(tsig, Section.ADDITIONAL);
+			b = response.toWire();
+		}
+
+		Message parsed = new Message(b);
+		assertEquals(Rcode.NOERROR, verifier.verify(parsed, b));
+		assertEquals(tsig != null, parsed.isVerified());
+	}
+    }
+
+    public void test_TSIG_applyStream() throws TextParseException, IOException
+    {
+	TSIG key = new TSIG(TSIG.HMAC_SHA256, "example.", "12345678");
+
+	Name qname = Name.fromString("example.");
+	Record question = Record.newRecord(qname, Type.AXFR, DClass.IN);
+	Message query = Message.newQuery(question);
+	query.setTSIG(key, Rcode.NOERROR, null);
+	Message qparsed = new Message(query.toWire());
+
+	/*
+	 * Every message is signed, each following on from the last.  The
+	 * verifier has its own key, as it shares the key's HMAC.
+	 */
+	TSIGRecord old = qparsed.getTSIG();
+	TSIG.StreamVerifier verifier;
+	verifier = new TSIG.StreamVerifier(new TSIG(TSIG.HMAC_SHA256, "example.", "12345678"),
+					   qparsed.getTSIG());
+	for (int i = 0; i < 3; i++) {
+		Message response = new Message(query.getHeader().getID());
+		response.getHeader().setFlag(Flags.QR);
+		Record answer = Record.fromString(qname, Type.TXT, DClass.IN,
+						  300, "foo" + i, null);
+		response.addRecord(answer, Section.ANSWER);
+		key.applyStream(response, old, i == 0);
+		old = response.getTSIG();
+		byte [] b = response.toWire();
+
+		Message parsed = new Message(b);
+		assertEquals(Rcode.NOERROR, verifier.verify(parsed, b));
+		assertTrue(parsed.isVerified());
+	}
+    }
 }
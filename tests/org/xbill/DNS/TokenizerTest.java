@@ -39,6 +39,7 @@ import	java.io.ByteArrayInputStream;
 import	java.io.File;
 import	java.io.FileWriter;
 import	java.io.IOException;
+import	java.nio.ByteBuffer;
 import	junit.framework.TestCase;
 
 public class TokenizerTest extends TestCase
@@ -588,4 +589,42 @@ public class TokenizerTest extends TestCase
 	}
 	catch( TextParseException e ){}
     }
+
+    public void test_byteBuffer() throws IOException
+    {
+	// a direct buffer is read in blocks, with lines split across them
+	StringBuffer sb = new StringBuffer();
+	for (int i = 0; i < 20000; i++)
+	    sb.append("host" + i + " 10.0.0." + (i % 256) + "\r\n");
+	byte[] text = sb.toString().getBytes();
+	ByteBuffer direct = ByteBuffer.allocateDirect(text.length);
+	direct.put(text);
+	direct.flip();
+	m_t = new Tokenizer(direct);
+	for (int i = 0; i < 20000; i++) {
+	    assertEquals(Name.fromString("host" + i + "."), m_t.getName(Name.root));
+	    assertEquals(10, m_t.getAddressBytes(Address.IPv4)[0]);
+	    m_t.getEOL();
+	}
+	assertEquals(Tokenizer.EOF, m_t.get().type);
+	assertEquals(0, direct.remaining());
+
+	// a heap buffer is read in place
+	m_t = new Tokenizer(ByteBuffer.wrap("a b\r".getBytes()));
+	assertEquals("a", m_t.getString());
+	assertEquals("b", m_t.getString());
+	assertEquals(Tokenizer.EOL, m_t.get().type);
+	assertEquals(Tokenizer.EOF, m_t.get().type);
+    }
+
+    public void test_sharedNames() throws IOException
+    {
+	Name origin = Name.fromString("example.com.");
+	m_t = new Tokenizer("www mail www www.example.com.");
+	Name www = m_t.getName(origin);
+	assertEquals(Name.fromString("www.example.com."), www);
+	assertEquals(Name.fromString("mail.example.com."), m_t.getName(origin));
+	assertSame(www, m_t.getName(origin));
+	assertEquals(www, m_t.getName(origin));
+    }
 }
@@ -0,0 +1,43 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Records and zone contents shared by the zone tests. */
+class ZoneFixtures
+{
+	private ZoneFixtures() {}
+
+	/* A record in the IN class, with its name and data relative to the origin. */
+	static Record rr(Name origin, String name, int type, long ttl, String data) throws IOException
+	{
+		return Record.fromString(Name.fromString(name, origin), type, DClass.IN, ttl, data, origin);
+	}
+
+	static Record rr(Name origin, String name, int type, String data) throws IOException
+	{
+		return rr(origin, name, type, 3600, data);
+	}
+
+	static Record soa(Name origin, long serial) throws IOException
+	{
+		return rr(origin, "@", Type.SOA, "ns hostmaster " + serial + " 3600 600 86400 300");
+	}
+
+	/* The SOA and NS records of a zone, and the address of its name server. */
+	static List apex(Name origin, long serial) throws IOException
+	{
+		List records = new ArrayList();
+		records.add(soa(origin, serial));
+		records.add(rr(origin, "@", Type.NS, "ns"));
+		records.add(rr(origin, "ns", Type.A, "10.0.0.1"));
+		return records;
+	}
+
+	static Record [] array(List records)
+	{
+		return (Record []) records.toArray(new Record[records.size()]);
+	}
+}
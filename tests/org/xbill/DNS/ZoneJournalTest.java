@@ -0,0 +1,134 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ZoneJournalTest extends TestCase
+{
+	private Name m_origin;
+	private File m_file;
+
+	protected void setUp() throws Exception
+	{
+		m_origin = Name.fromString("example.com.");
+		m_file = File.createTempFile("dnsjava", "jnl");
+		m_file.delete();
+	}
+
+	protected void tearDown()
+	{
+		m_file.delete();
+	}
+
+	private Record rr(String name, int type, long ttl, String data) throws Exception
+	{
+		return ZoneFixtures.rr(m_origin, name, type, ttl, data);
+	}
+
+	/* A version of a zone, with a host record that changes with the serial. */
+	private Zone zone(int serial) throws Exception
+	{
+		List records = ZoneFixtures.apex(m_origin, serial);
+		records.add(rr("www", Type.A, 300 * serial, "10.0.0.2"));
+		records.add(rr("host" + serial, Type.A, 3600, "10.0.1." + serial));
+		return new Zone(m_origin, ZoneFixtures.array(records));
+	}
+
+	private static List strings(List records)
+	{
+		List list = new ArrayList();
+		for (int i = 0; i < records.size(); i++)
+			list.add(records.get(i).toString());
+		return list;
+	}
+
+	private static void assertSameDelta(ZoneTransferIn.Delta expected, ZoneTransferIn.Delta actual)
+	{
+		assertEquals(expected.start, actual.start);
+		assertEquals(expected.end, actual.end);
+		assertEquals(strings(expected.deletes), strings(actual.deletes));
+		assertEquals(strings(expected.adds), strings(actual.adds));
+	}
+
+	public void test_differences() throws Exception
+	{
+		ZoneTransferIn.Delta delta = zone(2).differences(zone(1));
+		assertEquals(1, delta.start);
+		assertEquals(2, delta.end);
+
+		/* The SOAs come first, and an RRset whose TTL changed is replaced. */
+		List deletes = new ArrayList();
+		deletes.add(ZoneFixtures.soa(m_origin, 1));
+		deletes.add(rr("host1", Type.A, 3600, "10.0.1.1"));
+		deletes.add(rr("www", Type.A, 300, "10.0.0.2"));
+		assertEquals(strings(deletes), strings(delta.deletes));
+		List adds = new ArrayList();
+		adds.add(ZoneFixtures.soa(m_origin, 2));
+		adds.add(rr("host2", Type.A, 3600, "10.0.1.2"));
+		adds.add(rr("www", Type.A, 600, "10.0.0.2"));
+		assertEquals(strings(adds), strings(delta.adds));
+	}
+
+	public void test_deltas() throws Exception
+	{
+		ZoneJournal journal = new ZoneJournal(m_file);
+		assertEquals(-1, journal.getLastSerial());
+		ZoneTransferIn.Delta [] deltas = new ZoneTransferIn.Delta[3];
+		for (int i = 0; i < deltas.length; i++) {
+			deltas[i] = zone(i + 2).differences(zone(i + 1));
+			journal.append(deltas[i]);
+		}
+		assertEquals(4, journal.getLastSerial());
+
+		/* The journal is read back when it is opened again. */
+		journal = new ZoneJournal(m_file);
+		assertEquals(4, journal.getLastSerial());
+		List list = journal.getDeltas(2, 4);
+		assertEquals(2, list.size());
+		assertSameDelta(deltas[1], (ZoneTransferIn.Delta) list.get(0));
+		assertSameDelta(deltas[2], (ZoneTransferIn.Delta) list.get(1));
+		assertEquals(0, journal.getDeltas(4, 4).size());
+		assertNull(journal.getDeltas(0, 4));
+		assertNull(journal.getDeltas(1, 5));
+
+		/* A delta that does not follow on replaces the entries. */
+		journal.append(zone(9).differences(zone(7)));
+		assertNull(journal.getDeltas(1, 4));
+		assertEquals(1, journal.getDeltas(7, 9).size());
+	}
+
+	public void test_incomplete() throws Exception
+	{
+		ZoneJournal journal = new ZoneJournal(m_file);
+		journal.append(zone(2).differences(zone(1)));
+		journal.append(zone(3).differences(zone(2)));
+
+		/* An entry cut short by a crash is removed. */
+		RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+		journal = new ZoneJournal(m_file);
+		assertEquals(2, journal.getLastSerial());
+		journal.append(zone(3).differences(zone(2)));
+		assertEquals(2, new ZoneJournal(m_file).getDeltas(1, 3).size());
+	}
+
+	public void test_maxSize() throws Exception
+	{
+		ZoneJournal journal = new ZoneJournal(m_file);
+		journal.setMaxSize(2000);
+		for (int i = 1; i < 20; i++)
+			journal.append(zone(i + 1).differences(zone(i)));
+		assertTrue(m_file.length() <= 2000);
+		assertNull(journal.getDeltas(1, 20));
+		List list = journal.getDeltas(18, 20);
+		assertEquals(2, list.size());
+		assertEquals(19, ((ZoneTransferIn.Delta) list.get(1)).start);
+		assertEquals(list.size(), new ZoneJournal(m_file).getDeltas(18, 20).size());
+	}
+}
@@ -0,0 +1,211 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ZoneSignerTest extends TestCase
+{
+	private Name m_origin;
+	private DNSKEYRecord m_ksk;
+	private DNSKEYRecord m_zsk;
+	private PrivateKey [] m_private;
+
+	private DNSKEYRecord key(int flags, KeyPair pair) throws Exception
+	{
+		return new DNSKEYRecord(m_origin, DClass.IN, 3600, flags, DNSKEYRecord.Protocol.DNSSEC,
+					DNSSEC.Algorithm.ECDSAP256SHA256, pair.getPublic());
+	}
+
+	protected void setUp() throws Exception
+	{
+		m_origin = Name.fromString("example.com.");
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		KeyPair ksk = generator.generateKeyPair();
+		KeyPair zsk = generator.generateKeyPair();
+		m_ksk = key(DNSKEYRecord.Flags.ZONE_KEY | DNSKEYRecord.Flags.SEP_KEY, ksk);
+		m_zsk = key(DNSKEYRecord.Flags.ZONE_KEY, zsk);
+		m_private = new PrivateKey [] {ksk.getPrivate(), zsk.getPrivate()};
+	}
+
+	private Record rr(String name, int type, String data) throws Exception
+	{
+		return ZoneFixtures.rr(m_origin, name, type, data);
+	}
+
+	private Zone zone() throws Exception
+	{
+		List records = ZoneFixtures.apex(m_origin, 1);
+		records.add(rr("www", Type.A, "10.0.0.2"));
+		records.add(rr("sub", Type.NS, "ns.sub"));
+		records.add(rr("sub", Type.DS, "12345 13 2 0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef"));
+		records.add(rr("ns.sub", Type.A, "10.0.0.3"));
+		records.add(m_ksk);
+		records.add(m_zsk);
+		return new Zone(m_origin, ZoneFixtures.array(records));
+	}
+
+	private static int countSigs(RRset rrset)
+	{
+		int count = 0;
+		for (Iterator it = rrset.sigs(); it.hasNext(); it.next())
+			count++;
+		return count;
+	}
+
+	public void test_sign() throws Exception
+	{
+		Zone zone = zone();
+		ZoneSigner signer = new ZoneSigner(new DNSKEYRecord [] {m_ksk, m_zsk}, m_private, null);
+		signer.setNSEC(true);
+		int count = signer.sign(zone);
+
+		/* SOA, NS, DNSKEY, NSEC at the apex; A, NSEC at ns and www; DS, NSEC at sub. */
+		assertEquals(10, count);
+
+		RRset dnskey = zone.findExactMatch(m_origin, Type.DNSKEY);
+		RRSIGRecord sig = (RRSIGRecord) dnskey.sigs().next();
+		assertEquals(1, countSigs(dnskey));
+		assertEquals(m_ksk.getFootprint(), sig.getFootprint());
+
+		RRset www = zone.findExactMatch(Name.fromString("www", m_origin), Type.A);
+		sig = (RRSIGRecord) www.sigs().next();
+		assertEquals(1, countSigs(www));
+		assertEquals(m_zsk.getFootprint(), sig.getFootprint());
+
+		Name sub = Name.fromString("sub", m_origin);
+		assertEquals(0, countSigs(zone.findExactMatch(sub, Type.NS)));
+		assertEquals(1, countSigs(zone.findExactMatch(sub, Type.DS)));
+		Name glue = Name.fromString("ns.sub", m_origin);
+		assertEquals(0, countSigs(zone.findExactMatch(glue, Type.A)));
+		assertNull(zone.findExactMatch(glue, Type.NSEC));
+
+		NSECRecord nsec = (NSECRecord) zone.findExactMatch(sub, Type.NSEC).first();
+		assertEquals(Name.fromString("www", m_origin), nsec.getNext());
+		assertTrue(nsec.hasType(Type.NS));
+		assertTrue(nsec.hasType(Type.DS));
+		nsec = (NSECRecord) zone.findExactMatch(Name.fromString("www", m_origin), Type.NSEC).first();
+		assertEquals(m_origin, nsec.getNext());
+
+		BatchVerifier verifier = new BatchVerifier(new DNSKEYRecord [] {m_ksk, m_zsk});
+		List results = verifier.verify(zone);
+		for (int i = 0; i < results.size(); i++) {
+			BatchVerifier.Result result = (BatchVerifier.Result) results.get(i);
+			if (result.isSigned())
+				assertTrue(result.toString(), result.isVerified());
+		}
+	}
+
+	public void test_insecure_delegation() throws Exception
+	{
+		Zone zone = zone();
+		zone.addRecord(rr("insecure", Type.NS, "ns.insecure"));
+		ZoneSigner signer = new ZoneSigner(new DNSKEYRecord [] {m_ksk, m_zsk}, m_private, null);
+		signer.setNSEC(true);
+		signer.sign(zone);
+
+		/* Only the NSEC record is signed, and its bitmap says so. */
+		Name insecure = Name.fromString("insecure", m_origin);
+		assertEquals(0, countSigs(zone.findExactMatch(insecure, Type.NS)));
+		RRset rrset = zone.findExactMatch(insecure, Type.NSEC);
+		assertEquals(1, countSigs(rrset));
+		NSECRecord nsec = (NSECRecord) rrset.first();
+		assertTrue(nsec.hasType(Type.NS));
+		assertTrue(nsec.hasType(Type.NSEC));
+		assertTrue(nsec.hasType(Type.RRSIG));
+		assertFalse(nsec.hasType(Type.DS));
+		DNSSEC.verify(rrset, (RRSIGRecord) rrset.sigs().next(), m_zsk);
+	}
+
+	public void test_incremental() throws Exception
+	{
+		Zone zone = zone();
+		ZoneSigner signer = new ZoneSigner(new DNSKEYRecord [] {m_ksk, m_zsk}, m_private, null);
+		signer.setNSEC(true);
+		signer.sign(zone);
+		assertEquals(0, signer.sign(zone));
+
+		Name www = Name.fromString("www", m_origin);
+		zone.addRecord(rr("www", Type.A, "10.0.0.4"));
+		assertEquals(1, signer.sign(zone));
+		RRset rrset = zone.findExactMatch(www, Type.A);
+		assertEquals(1, countSigs(rrset));
+		DNSSEC.verify(rrset, (RRSIGRecord) rrset.sigs().next(), m_zsk);
+
+		/* A new name changes the NSEC records of it and its predecessor. */
+		zone.addRecord(rr("mail", Type.A, "10.0.0.5"));
+		assertEquals(3, signer.sign(zone));
+
+		/* A fresh signer checks the existing signatures instead of replacing them. */
+		ZoneSigner other = new ZoneSigner(new DNSKEYRecord [] {m_ksk, m_zsk}, m_private, null);
+		other.setNSEC(true);
+		assertEquals(0, other.sign(zone));
+
+		/* Signatures that expire within the refresh interval are replaced. */
+		other.setRefresh(365L * 86400);
+		assertEquals(12, other.sign(zone));
+	}
+
+	public void test_atomic() throws Exception
+	{
+		final Zone zone = zone();
+		final Name [] names = new Name[200];
+		for (int i = 0; i < names.length; i++)
+			names[i] = Name.fromString("host" + i, m_origin);
+		for (int i = 0; i < names.length; i += 2)
+			zone.addRecord(rr("host" + i, Type.A, "10.0.1.1"));
+
+		/* A reader never sees an NSEC record without its signature. */
+		final boolean [] done = new boolean[1];
+		final String [] failure = new String[1];
+		Thread reader = new Thread() {
+			public void run() {
+				while (!done[0] && failure[0] == null) {
+					for (int i = 0; i < names.length; i++) {
+						RRset rrset = zone.findExactMatch(names[i], Type.NSEC);
+						if (rrset != null && countSigs(rrset) == 0)
+							failure[0] = "unsigned NSEC at " + names[i];
+					}
+				}
+			}
+		};
+		reader.start();
+		ZoneSigner signer = new ZoneSigner(new DNSKEYRecord [] {m_ksk, m_zsk}, m_private, null);
+		signer.setNSEC(true);
+		signer.sign(zone);
+		for (int i = 1; i < names.length; i += 2)
+			zone.addRecord(rr("host" + i, Type.A, "10.0.1.1"));
+		signer.sign(zone);
+		done[0] = true;
+		reader.join();
+		assertNull(failure[0]);
+	}
+
+	public void test_nsec3() throws Exception
+	{
+		Zone zone = zone();
+		ZoneSigner signer = new ZoneSigner(new DNSKEYRecord [] {m_ksk, m_zsk}, m_private, null);
+		NSEC3Hasher hasher = new NSEC3Hasher(NSEC3Record.Digest.SHA1, 5, new byte [] {1, 2});
+		signer.setNSEC3(hasher, 0);
+		signer.sign(zone);
+
+		assertNotNull(zone.findExactMatch(m_origin, Type.NSEC3PARAM));
+		assertNull(zone.findExactMatch(m_origin, Type.NSEC));
+		Name www = Name.fromString("www", m_origin);
+		RRset nsec3 = zone.findExactMatch(hasher.hashedName(www, m_origin), Type.NSEC3);
+		assertNotNull(nsec3);
+		assertEquals(1, countSigs(nsec3));
+		assertTrue(((NSEC3Record) nsec3.first()).hasType(Type.A));
+		assertTrue(hasher.hashedName(www, m_origin).subdomain(m_origin));
+
+		/* Re-signing leaves the chain and its signatures alone. */
+		assertEquals(0, signer.sign(zone));
+	}
+}
@@ -0,0 +1,427 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ZoneTest extends TestCase
+{
+	private Name m_origin;
+
+	protected void setUp() throws TextParseException
+	{
+		m_origin = Name.fromString("example.com.");
+	}
+
+	private Record rr(String name, int type, String data) throws Exception
+	{
+		return ZoneFixtures.rr(m_origin, name, type, data);
+	}
+
+	private Record [] records(int hosts) throws Exception
+	{
+		List records = ZoneFixtures.apex(m_origin, 1);
+		records.add(rr("@", Type.MX, "10 Mail"));
+		records.add(rr("Mail", Type.A, "10.0.0.2"));
+		records.add(rr("Mail", Type.AAAA, "2001:db8::2"));
+		records.add(rr("www", Type.CNAME, "mail"));
+		records.add(rr("*.wild", Type.TXT, "wildcard"));
+		records.add(rr("sub", Type.NS, "ns.sub"));
+		records.add(rr("ns.sub", Type.A, "10.0.0.3"));
+		for (int i = 0; i < hosts; i++)
+			records.add(rr("host" + i + ".dept" + (i % 7), Type.A,
+				       "10.1." + (i / 256) + "." + (i % 256)));
+		return ZoneFixtures.array(records);
+	}
+
+	private static List contents(Zone zone)
+	{
+		List list = new ArrayList();
+		for (Iterator it = zone.AXFR(); it.hasNext(); ) {
+			RRset rrset = (RRset) it.next();
+			for (Iterator rit = rrset.rrs(false); rit.hasNext(); )
+				list.add(rit.next().toString());
+		}
+		return list;
+	}
+
+	private void assertSameLookups(Zone expected, Zone actual, String name, int type) throws Exception
+	{
+		Name n = Name.fromString(name, m_origin);
+		assertEquals(expected.findRecords(n, type).toString(),
+			     actual.findRecords(n, type).toString());
+	}
+
+	public void test_compact_equivalent() throws Exception
+	{
+		Record [] records = records(3000);
+		Zone zone = new Zone(m_origin, records);
+		Zone compact = new Zone(m_origin, records, true);
+
+		assertEquals(contents(zone), contents(compact));
+		assertEquals(zone.getSOA(), compact.getSOA());
+		assertEquals(zone.toMasterFile(), compact.toMasterFile());
+
+		String [] names = {"@", "MAIL", "www", "foo.wild", "x.ns.sub", "host17.dept3", "nonexistent", "dept5"};
+		int [] types = {Type.A, Type.AAAA, Type.MX, Type.TXT, Type.NS};
+		for (int i = 0; i < names.length; i++)
+			for (int j = 0; j < types.length; j++)
+				assertSameLookups(zone, compact, names[i], types[j]);
+
+		/* Owner names keep their case. */
+		RRset mail = compact.findExactMatch(Name.fromString("mail", m_origin), Type.A);
+		assertEquals("Mail", mail.getName().getLabelString(0));
+	}
+
+	public void test_compact_changes() throws Exception
+	{
+		Zone compact = new Zone(m_origin, records(10), true);
+		Name mail = Name.fromString("mail", m_origin);
+
+		/* Changing a returned RRset does not change the zone. */
+		RRset rrset = compact.findExactMatch(mail, Type.A);
+		rrset.addRR(rr("mail", Type.A, "10.9.9.9"));
+		assertEquals(1, compact.findExactMatch(mail, Type.A).size());
+
+		compact.addRecord(rr("mail", Type.A, "10.0.0.9"));
+		assertEquals(2, compact.findExactMatch(mail, Type.A).size());
+		compact.removeRecord(rr("mail", Type.A, "10.0.0.2"));
+		assertEquals(1, compact.findExactMatch(mail, Type.A).size());
+		compact.removeRecord(rr("mail", Type.A, "10.0.0.9"));
+		assertNull(compact.findExactMatch(mail, Type.A));
+		assertNotNull(compact.findExactMatch(mail, Type.AAAA));
+
+		/* Changes to the origin are visible through the zone's iterator. */
+		compact.addRecord(rr("@", Type.TXT, "apex"));
+		boolean found = false;
+		for (Iterator it = compact.iterator(); it.hasNext(); )
+			if (((RRset) it.next()).getType() == Type.TXT)
+				found = true;
+		assertTrue(found);
+
+		/* Enough changes to be merged into the packed storage. */
+		Zone zone = new Zone(m_origin, records(10));
+		for (int i = 0; i < 3000; i++) {
+			Record r = rr("new" + i, Type.A, "10.2." + (i / 256) + "." + (i % 256));
+			zone.addRecord(r);
+			compact.addRecord(r);
+		}
+		for (int i = 0; i < 3000; i += 2) {
+			Record r = rr("new" + i, Type.A, "10.2." + (i / 256) + "." + (i % 256));
+			zone.removeRecord(r);
+			compact.removeRecord(r);
+		}
+		zone.addRecord(rr("@", Type.TXT, "apex"));
+		zone.removeRecord(rr("mail", Type.A, "10.0.0.2"));
+		assertEquals(contents(zone), contents(compact));
+		assertSameLookups(zone, compact, "new1", Type.A);
+		assertSameLookups(zone, compact, "new2", Type.A);
+	}
+
+	private static ByteBuffer snapshot(Zone zone) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		zone.writeSnapshot(out);
+		byte [] b = out.toByteArray();
+		/* A direct buffer, like a mapped file. */
+		ByteBuffer buffer = ByteBuffer.allocateDirect(b.length);
+		buffer.put(b);
+		buffer.flip();
+		return buffer;
+	}
+
+	public void test_snapshot() throws Exception
+	{
+		Zone zone = new Zone(m_origin, records(3000));
+		Zone loaded = new Zone(snapshot(zone));
+		assertEquals(m_origin, loaded.getOrigin());
+		assertEquals(DClass.IN, loaded.getDClass());
+		assertEquals(zone.getSOA(), loaded.getSOA());
+		assertEquals(contents(zone), contents(loaded));
+		assertSameLookups(zone, loaded, "foo.wild", Type.TXT);
+		assertSameLookups(zone, loaded, "host17.dept3", Type.A);
+		assertSameLookups(zone, loaded, "x.ns.sub", Type.A);
+		assertSameLookups(zone, loaded, "nonexistent", Type.A);
+
+		/* A compact zone with changes, and changes to a loaded zone. */
+		Zone compact = new Zone(m_origin, records(10), true);
+		compact.addRecord(rr("new", Type.A, "10.2.0.1"));
+		compact.removeRecord(rr("mail", Type.A, "10.0.0.2"));
+		loaded = new Zone(snapshot(compact));
+		assertEquals(contents(compact), contents(loaded));
+		loaded.addRecord(rr("new", Type.A, "10.2.0.2"));
+		compact.addRecord(rr("new", Type.A, "10.2.0.2"));
+		assertEquals(contents(compact), contents(loaded));
+		assertEquals(contents(compact), contents(new Zone(snapshot(loaded))));
+	}
+
+	public void test_snapshot_invalid() throws Exception
+	{
+		ByteBuffer snapshot = snapshot(new Zone(m_origin, records(10)));
+		byte [] b = new byte[snapshot.remaining()];
+		snapshot.get(b);
+
+		byte [][] bad = new byte[3][];
+		bad[0] = (byte []) b.clone();
+		bad[0][0] = 0;
+		bad[1] = (byte []) b.clone();
+		bad[1][7] = 99;
+		bad[2] = new byte[b.length - 10];
+		System.arraycopy(b, 0, bad[2], 0, bad[2].length);
+		for (int i = 0; i < bad.length; i++) {
+			try {
+				new Zone(ByteBuffer.wrap(bad[i]));
+				fail("IOException not thrown");
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+
+	public void test_snapshot_table() throws Exception
+	{
+		ByteBuffer snapshot = snapshot(new Zone(m_origin, records(10)));
+		byte [] b = new byte[snapshot.remaining()];
+		snapshot.get(b);
+
+		/* Find the hash table, after the header, the origin, the class and the sizes. */
+		ByteBuffer in = ByteBuffer.wrap(b);
+		int start = (16 + m_origin.toWire().length + 3) / 4 * 4 + 4;
+		int count = in.getInt(start);
+		int tableSize = in.getInt(start + 4);
+		int table = start + 16 + 12 * count;
+		int [] slots = new int[tableSize];
+		for (int i = 0; i < tableSize; i++)
+			slots[i] = in.getInt(table + 4 * i);
+
+		int [][] bad = new int[3][];
+		/* No empty slot, so a lookup that misses would never end. */
+		bad[0] = new int[tableSize];
+		for (int i = 0; i < tableSize; i++)
+			bad[0][i] = 1;
+		/* A node in two slots. */
+		bad[1] = (int []) slots.clone();
+		int first = -1;
+		for (int i = 0; i < tableSize; i++) {
+			if (slots[i] == 0)
+				continue;
+			if (first < 0)
+				first = i;
+			else {
+				bad[1][i] = slots[first];
+				break;
+			}
+		}
+		/* Nodes that a lookup of their hash does not reach. */
+		bad[2] = new int[tableSize];
+		for (int i = 0; i < tableSize; i++)
+			bad[2][(i + 1) % tableSize] = slots[i];
+
+		for (int i = 0; i < bad.length; i++) {
+			ByteBuffer copy = ByteBuffer.wrap((byte []) b.clone());
+			for (int j = 0; j < tableSize; j++)
+				copy.putInt(table + 4 * j, bad[i][j]);
+			try {
+				new Zone(copy);
+				fail("IOException not thrown");
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+
+	public void test_versions() throws Exception
+	{
+		Zone zone = new Zone(m_origin, records(10));
+		Name mail = Name.fromString("mail", m_origin);
+
+		/* An iterator sees the zone as it was when it was created. */
+		Iterator it = zone.AXFR();
+		zone.addRecord(rr("mail", Type.A, "10.0.0.9"));
+		zone.removeRecord(rr("ns", Type.A, "10.0.0.1"));
+		int count = 0;
+		while (it.hasNext()) {
+			RRset rrset = (RRset) it.next();
+			if (rrset.getName().equals(mail) && rrset.getType() == Type.A)
+				assertEquals(1, rrset.size());
+			count++;
+		}
+		assertEquals(21, count);
+		assertEquals(2, zone.findExactMatch(mail, Type.A).size());
+
+		/* A replaced SOA is visible after a change to the origin. */
+		List removed = new ArrayList();
+		List added = new ArrayList();
+		removed.add(zone.getSOA());
+		added.add(soa(2));
+		added.add(rr("*.new", Type.TXT, "wildcard"));
+		zone.applyChanges(removed, added);
+		assertEquals(2, zone.getSOA().getSerial());
+		assertEquals(1, zone.findExactMatch(m_origin, Type.SOA).size());
+		assertTrue(zone.findRecords(Name.fromString("x.new", m_origin), Type.TXT).isSuccessful());
+	}
+
+	private Record soa(long serial) throws Exception
+	{
+		return ZoneFixtures.soa(m_origin, serial);
+	}
+
+	public void test_ixfr() throws Exception
+	{
+		boolean [] modes = { false, true };
+		for (int i = 0; i < modes.length; i++) {
+			Zone zone = new Zone(m_origin, records(10), modes[i]);
+			Name mail = Name.fromString("mail", m_origin);
+			Zone.TransferHandler handler = zone.new TransferHandler(true);
+			handler.startIXFR();
+			handler.startIXFRDeletes(soa(1));
+			handler.handleRecord(rr("mail", Type.AAAA, "2001:db8::2"));
+			handler.startIXFRAdds(soa(2));
+			handler.handleRecord(rr("mail", Type.A, "10.0.0.9"));
+			handler.startIXFRDeletes(soa(2));
+			handler.startIXFRAdds(soa(3));
+			handler.handleRecord(rr("new", Type.A, "10.0.0.10"));
+
+			/* Nothing is visible until the transfer is committed. */
+			assertEquals(1, zone.getSOA().getSerial());
+			assertEquals(1, zone.findExactMatch(mail, Type.A).size());
+			assertTrue(handler.commit());
+			assertEquals(3, zone.getSOA().getSerial());
+			assertEquals(1, zone.findExactMatch(m_origin, Type.SOA).size());
+			assertEquals(2, zone.findExactMatch(mail, Type.A).size());
+			assertNull(zone.findExactMatch(mail, Type.AAAA));
+			assertNotNull(zone.findExactMatch(Name.fromString("new", m_origin), Type.A));
+
+			/* The differences are recorded for a journal. */
+			List deltas = handler.getDeltas();
+			assertEquals(2, deltas.size());
+			ZoneTransferIn.Delta delta = (ZoneTransferIn.Delta) deltas.get(0);
+			assertEquals(1, delta.start);
+			assertEquals(2, delta.end);
+			assertEquals(2, delta.deletes.size());
+			assertEquals(2, delta.adds.size());
+
+			/* An up to date zone is unchanged. */
+			assertFalse(zone.new TransferHandler(false).commit());
+		}
+	}
+
+	public void test_ixfr_mismatch() throws Exception
+	{
+		Zone zone = new Zone(m_origin, records(10));
+		Zone.TransferHandler handler = zone.new TransferHandler(false);
+		try {
+			handler.startIXFRDeletes(soa(5));
+			fail("ZoneTransferException not thrown");
+		}
+		catch (ZoneTransferException e) {
+		}
+
+		handler = zone.new TransferHandler(false);
+		handler.startIXFRDeletes(soa(1));
+		try {
+			handler.handleRecord(rr("mail", Type.A, "10.0.0.99"));
+			fail("ZoneTransferException not thrown");
+		}
+		catch (ZoneTransferException e) {
+		}
+
+		/* A zone changed during a transfer is not overwritten. */
+		handler = zone.new TransferHandler(false);
+		handler.startIXFRDeletes(soa(1));
+		handler.startIXFRAdds(soa(2));
+		zone.addRecord(rr("other", Type.A, "10.0.0.11"));
+		try {
+			handler.commit();
+			fail("ZoneTransferException not thrown");
+		}
+		catch (ZoneTransferException e) {
+		}
+		assertEquals(1, zone.getSOA().getSerial());
+	}
+
+	public void test_axfr() throws Exception
+	{
+		Zone zone = new Zone(m_origin, records(10), true);
+		Zone.TransferHandler handler = zone.new TransferHandler(false);
+		handler.startAXFR();
+		Record [] records = records(3);
+		records[0] = soa(2);
+		for (int i = 0; i < records.length; i++)
+			handler.handleRecord(records[i]);
+		handler.handleRecord(records[0]);
+		assertEquals(contents(new Zone(m_origin, records(10))), contents(zone));
+		assertTrue(handler.commit());
+		assertNull(handler.getDeltas());
+		List current = contents(zone);
+		assertEquals(contents(new Zone(m_origin, records)), current);
+
+		/* A transfer of the same serial is ignored. */
+		handler = zone.new TransferHandler(false);
+		handler.startAXFR();
+		records = records(0);
+		records[0] = soa(2);
+		for (int i = 0; i < records.length; i++)
+			handler.handleRecord(records[i]);
+		assertFalse(handler.commit());
+		assertEquals(current, contents(zone));
+
+		/* A transfer without an NS set is rejected. */
+		handler = zone.new TransferHandler(false);
+		handler.startAXFR();
+		handler.handleRecord(soa(4));
+		try {
+			handler.commit();
+			fail("ZoneTransferException not thrown");
+		}
+		catch (ZoneTransferException e) {
+		}
+		assertEquals(2, zone.getSOA().getSerial());
+	}
+
+	public void test_concurrent_lookups() throws Exception
+	{
+		final Zone zone = new Zone(m_origin, records(100));
+		final Name name = Name.fromString("new", m_origin);
+		final Name www = Name.fromString("www", m_origin);
+		final Throwable [] failure = new Throwable[1];
+		Thread [] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 20000; j++) {
+							SetResponse sr = zone.findRecords(name, Type.A);
+							if (sr.isSuccessful())
+								assertEquals(2, sr.answers()[0].size());
+							else
+								assertTrue(sr.isNXDOMAIN());
+							assertTrue(zone.findRecords(www, Type.A).isCNAME());
+						}
+					}
+					catch (Throwable t) {
+						failure[0] = t;
+					}
+				}
+			};
+			readers[i].start();
+		}
+		List records = new ArrayList();
+		records.add(rr("new", Type.A, "10.3.0.1"));
+		records.add(rr("new", Type.A, "10.3.0.2"));
+		for (int i = 0; i < 2000; i++) {
+			zone.applyChanges(null, records);
+			zone.applyChanges(records, null);
+		}
+		for (int i = 0; i < readers.length; i++)
+			readers[i].join();
+		if (failure[0] != null)
+			fail(failure[0].toString());
+	}
+}
@@ -0,0 +1,151 @@
+// SPDX-License-Identifier: BSD-2-Clause
+package org.xbill.DNS;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ZoneTransferOutTest extends TestCase
+{
+	private Name m_origin;
+	private TSIG m_key;
+
+	protected void setUp() throws Exception
+	{
+		m_origin = Name.fromString("example.com.");
+		m_key = new TSIG(TSIG.HMAC_SHA256, "example.", "12345678");
+	}
+
+	private Record rr(String name, int type, String data) throws Exception
+	{
+		return ZoneFixtures.rr(m_origin, name, type, data);
+	}
+
+	private Zone zone(int serial, int hosts) throws Exception
+	{
+		List records = ZoneFixtures.apex(m_origin, serial);
+		for (int i = 0; i < 200; i++)
+			records.add(rr("big", Type.TXT, "\"" + i + "\" \"" + new String(new char[250]).replace('\0', 'x') + "\""));
+		for (int i = 0; i < hosts; i++)
+			records.add(rr("host" + i, Type.A, "10.1." + (i / 256) + "." + (i % 256)));
+		return new Zone(m_origin, ZoneFixtures.array(records));
+	}
+
+	private Message query(int type, long serial) throws Exception
+	{
+		Message query = Message.newQuery(Record.newRecord(m_origin, type, DClass.IN));
+		if (type == Type.IXFR)
+			query.addRecord(ZoneFixtures.soa(m_origin, serial), Section.AUTHORITY);
+		return query;
+	}
+
+	/* Splits the TCP stream into messages. */
+	private List messages(ByteArrayOutputStream out) throws Exception
+	{
+		ByteBuffer b = ByteBuffer.wrap(out.toByteArray());
+		List list = new ArrayList();
+		while (b.hasRemaining()) {
+			byte [] m = new byte[b.getShort() & 0xFFFF];
+			b.get(m);
+			list.add(m);
+		}
+		return list;
+	}
+
+	private List answers(List messages) throws Exception
+	{
+		List list = new ArrayList();
+		for (Iterator it = messages.iterator(); it.hasNext(); ) {
+			Record [] answers = new Message((byte []) it.next()).getSectionArray(Section.ANSWER);
+			for (int i = 0; i < answers.length; i++)
+				list.add(answers[i].toString());
+		}
+		return list;
+	}
+
+	public void test_axfr() throws Exception
+	{
+		Zone zone = zone(1, 5000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Message query = query(Type.AXFR, 0);
+		new ZoneTransferOut(query, null, Channels.newChannel(out)).sendAXFR(zone);
+		List messages = messages(out);
+
+		/* The records are packed into a few messages, with the question only in the first. */
+		assertTrue(messages.size() > 1 && messages.size() < 5);
+		List expected = new ArrayList();
+		for (Iterator it = zone.AXFR(); it.hasNext(); ) {
+			RRset rrset = (RRset) it.next();
+			for (Iterator rit = rrset.rrs(false); rit.hasNext(); )
+				expected.add(rit.next().toString());
+		}
+		assertEquals(expected, answers(messages));
+		for (int i = 0; i < messages.size(); i++) {
+			byte [] b = (byte []) messages.get(i);
+			assertTrue(b.length <= 65535);
+			Message m = new Message(b);
+			assertEquals(query.getHeader().getID(), m.getHeader().getID());
+			assertTrue(m.getHeader().getFlag(Flags.AA));
+			assertEquals(i == 0 ? 1 : 0, m.getHeader().getCount(Section.QUESTION));
+		}
+
+		/* The TXT RRset is not split between messages. */
+		Name big = Name.fromString("big", m_origin);
+		int count = 0;
+		for (Iterator it = messages.iterator(); it.hasNext(); ) {
+			Message m = new Message((byte []) it.next());
+			if (m.findRRset(big, Type.TXT, Section.ANSWER))
+				count++;
+		}
+		assertEquals(1, count);
+	}
+
+	public void test_ixfr() throws Exception
+	{
+		Zone older = zone(1, 10);
+		Zone zone = zone(2, 12);
+		List deltas = new ArrayList();
+		deltas.add(zone.differences(older));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ZoneTransferOut(query(Type.IXFR, 1), null, Channels.newChannel(out)).sendIXFR(zone.getSOA(), deltas);
+		List answers = answers(messages(out));
+		assertEquals(6, answers.size());
+		assertEquals(zone.getSOA().toString(), answers.get(0));
+		assertEquals(older.getSOA().toString(), answers.get(1));
+		assertEquals(zone.getSOA().toString(), answers.get(2));
+		assertEquals(rr("host10", Type.A, "10.1.0.10").toString(), answers.get(3));
+		assertEquals(rr("host11", Type.A, "10.1.0.11").toString(), answers.get(4));
+		assertEquals(zone.getSOA().toString(), answers.get(5));
+
+		/* A client which is up to date gets just the SOA. */
+		out = new ByteArrayOutputStream();
+		new ZoneTransferOut(query(Type.IXFR, 2), null, Channels.newChannel(out)).sendIXFR(zone.getSOA(), new ArrayList());
+		assertEquals(1, answers(messages(out)).size());
+	}
+
+	public void test_tsig() throws Exception
+	{
+		Zone zone = zone(1, 5000);
+		Message query = query(Type.AXFR, 0);
+		query.setTSIG(m_key, Rcode.NOERROR, null);
+		Message qparsed = new Message(query.toWire());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ZoneTransferOut(qparsed, m_key, Channels.newChannel(out)).sendAXFR(zone);
+
+		List messages = messages(out);
+		TSIG.StreamVerifier verifier = new TSIG.StreamVerifier(m_key, qparsed.getTSIG());
+		for (int i = 0; i < messages.size(); i++) {
+			byte [] b = (byte []) messages.get(i);
+			assertTrue(b.length <= 65535);
+			Message m = new Message(b);
+			assertEquals(Rcode.NOERROR, verifier.verify(m, b));
+			if (i == 0 || i == messages.size() - 1)
+				assertTrue(m.isVerified());
+		}
+	}
+}